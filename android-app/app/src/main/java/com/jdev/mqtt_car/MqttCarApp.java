@@ -0,0 +1,21 @@
+package com.jdev.mqtt_car;
+
+import android.app.Application;
+
+import com.jdev.mqtt_car.data.source.ConfigRepository;
+import com.jdev.mqtt_car.data.startup.StartupPipeline;
+
+/**
+ * Application entry point. Starts loading the configuration in the background as early
+ * as possible so the first screen never has to read preferences on the main thread, and
+ * for a remembered user connects to the broker while the login screen is still deciding.
+ */
+public class MqttCarApp extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ConfigRepository.getInstance(this).preload();
+        StartupPipeline.getInstance(this).start();
+    }
+}
@@ -0,0 +1,218 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.BatteryForecast;
+
+import java.util.Locale;
+
+/**
+ * Incremental battery drain estimator for one car.
+ * <p>
+ * The battery is modelled as b = b0 - rDrive * tDrive - rIdle * tIdle, where tDrive and tIdle
+ * are the hours the car has spent driving and idle (taken from current_action). The three
+ * parameters are fitted by exponentially weighted least squares: each sample only updates
+ * a few decayed sums, so an update is O(1), and the integer battery steps average out over
+ * the forgetting horizon. A weak ridge prior keeps the fit solvable before both regimes have
+ * been seen and carries the rates over when the fit has to restart (long gap, recharge).
+ * <p>
+ * The whole state is a handful of numbers, so it is persisted and restored across reconnects.
+ */
+public class BatteryEstimator {
+
+    public static final int DEFAULT_THRESHOLD = 20;
+
+    private static final double RATE_TAU_SEC = 20 * 60;       // forgetting horizon of the fit
+    private static final double SHARE_TAU_SEC = 5 * 60;       // horizon for the driving share
+    private static final double MIN_OBSERVED_HOURS = 2 / 60.0; // regime time needed before a rate is trusted
+    private static final double PRIOR_WEIGHT = 0.01;          // ridge strength towards the previous rates, in hours²
+    private static final double MIN_RATE_PER_HOUR = 0.01;     // below this the battery is effectively flat
+    private static final long MAX_GAP_MS = 2 * 60 * 1000;     // longer gaps (app closed, car offline) restart the fit
+    private static final int RECHARGE_JUMP = 3;               // battery rising this much means it was charged
+
+    private static final String STATE_VERSION = "v2";
+    private static final int STATE_FIELDS = 20;
+
+    private final String deviceId;
+
+    // Regime clocks in hours since the fit (re)started
+    private double tDrive;
+    private double tIdle;
+
+    // Decayed normal equations for x = [1, -tDrive, -tIdle], y = battery
+    private double s00, s01, s02, s11, s12, s22;
+    private double sy0, sy1, sy2;
+
+    // Rates carried over a restart, percent per hour
+    private double priorDrive;
+    private double priorIdle;
+
+    private double observedDrive;
+    private double observedIdle;
+    private double drivingShare;
+
+    private long lastMs = -1;
+    private int lastBattery;
+    private boolean lastDriving;
+
+    public BatteryEstimator(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Add one telemetry sample. O(1), no allocation.
+     *
+     * @param timestampMs wall clock time of the sample
+     */
+    public synchronized void addSample(long timestampMs, int battery, boolean driving) {
+        if (lastMs >= 0) {
+            long dtMs = timestampMs - lastMs;
+            if (dtMs <= 0) {
+                return;
+            }
+            if (dtMs > MAX_GAP_MS || battery - lastBattery >= RECHARGE_JUMP) {
+                restartFit();
+            } else {
+                double hours = dtMs / 3_600_000.0;
+                if (lastDriving) {
+                    tDrive += hours;
+                    observedDrive = Math.min(observedDrive + hours, RATE_TAU_SEC / 3600);
+                } else {
+                    tIdle += hours;
+                    observedIdle = Math.min(observedIdle + hours, RATE_TAU_SEC / 3600);
+                }
+
+                double decay = Math.exp(-dtMs / 1000.0 / RATE_TAU_SEC);
+                s00 *= decay; s01 *= decay; s02 *= decay;
+                s11 *= decay; s12 *= decay; s22 *= decay;
+                sy0 *= decay; sy1 *= decay; sy2 *= decay;
+
+                double shareDecay = Math.exp(-dtMs / 1000.0 / SHARE_TAU_SEC);
+                drivingShare = drivingShare * shareDecay + (lastDriving ? 1 - shareDecay : 0);
+            }
+        }
+
+        double x1 = -tDrive;
+        double x2 = -tIdle;
+        s00 += 1;  s01 += x1;      s02 += x2;
+        s11 += x1 * x1; s12 += x1 * x2; s22 += x2 * x2;
+        sy0 += battery; sy1 += x1 * battery; sy2 += x2 * battery;
+
+        lastMs = timestampMs;
+        lastBattery = battery;
+        lastDriving = driving;
+    }
+
+    public synchronized BatteryForecast forecast(int thresholdPercent) {
+        if (lastMs < 0) {
+            return BatteryForecast.unknown(deviceId);
+        }
+        double[] rates = solveRates();
+        double driveRate = observedDrive >= MIN_OBSERVED_HOURS ? rates[0] : Double.NaN;
+        double idleRate = observedIdle >= MIN_OBSERVED_HOURS ? rates[1] : Double.NaN;
+
+        // An unobserved regime borrows the other one's rate rather than assuming zero drain
+        if (Double.isNaN(driveRate)) driveRate = idleRate;
+        if (Double.isNaN(idleRate)) idleRate = driveRate;
+        if (Double.isNaN(driveRate)) {
+            return BatteryForecast.unknown(deviceId);
+        }
+
+        double share = drivingShare;
+        double ratePerHour = share * driveRate + (1 - share) * idleRate;
+
+        long runtime = BatteryForecast.UNKNOWN;
+        long toThreshold = BatteryForecast.UNKNOWN;
+        if (ratePerHour > MIN_RATE_PER_HOUR) {
+            runtime = (long) (lastBattery / ratePerHour * 60);
+            toThreshold = (long) (Math.max(0, lastBattery - thresholdPercent) / ratePerHour * 60);
+        }
+
+        return new BatteryForecast(deviceId, lastBattery,
+                (float) driveRate, (float) idleRate, (float) share,
+                runtime, toThreshold, thresholdPercent);
+    }
+
+    /**
+     * Solve the ridge-regularised 3x3 normal equations, returns {rDrive, rIdle} in percent per hour.
+     */
+    private double[] solveRates() {
+        double a00 = s00, a01 = s01, a02 = s02;
+        double a11 = s11 + PRIOR_WEIGHT, a12 = s12;
+        double a22 = s22 + PRIOR_WEIGHT;
+        double b0 = sy0, b1 = sy1 + PRIOR_WEIGHT * priorDrive, b2 = sy2 + PRIOR_WEIGHT * priorIdle;
+
+        // Cramer's rule on the symmetric system
+        double c00 = a11 * a22 - a12 * a12;
+        double c01 = a02 * a12 - a01 * a22;
+        double c02 = a01 * a12 - a02 * a11;
+        double det = a00 * c00 + a01 * c01 + a02 * c02;
+        if (Math.abs(det) < 1e-12) {
+            return new double[]{priorDrive, priorIdle};
+        }
+        double rDrive = (a00 * (b1 * a22 - a12 * b2) - b0 * (a01 * a22 - a12 * a02) + a02 * (a01 * b2 - b1 * a02)) / det;
+        double rIdle = (a00 * (a11 * b2 - b1 * a12) - a01 * (a01 * b2 - b1 * a02) + b0 * (a01 * a12 - a11 * a02)) / det;
+        return new double[]{Math.max(0, rDrive), Math.max(0, rIdle)};
+    }
+
+    /**
+     * Drop the fitted sums but keep what we learned about the rates as the prior.
+     */
+    private void restartFit() {
+        double[] rates = solveRates();
+        priorDrive = rates[0];
+        priorIdle = rates[1];
+        tDrive = 0;
+        tIdle = 0;
+        s00 = s01 = s02 = s11 = s12 = s22 = 0;
+        sy0 = sy1 = sy2 = 0;
+    }
+
+    // ========================================
+    // Persistence
+    // ========================================
+
+    public synchronized String saveState() {
+        return String.format(Locale.US,
+                "%s;%d;%d;%d;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g;%.9g",
+                STATE_VERSION, lastMs, lastBattery, lastDriving ? 1 : 0,
+                tDrive, tIdle, s00, s01, s02, s11, s12, s22, sy0, sy1, sy2,
+                priorDrive, priorIdle, observedDrive, observedIdle, drivingShare);
+    }
+
+    /**
+     * Restore a saved estimator, or start fresh if the state is missing or unreadable.
+     */
+    public static BatteryEstimator restore(String deviceId, String state) {
+        BatteryEstimator e = new BatteryEstimator(deviceId);
+        if (state == null) {
+            return e;
+        }
+        String[] p = state.split(";");
+        if (p.length != STATE_FIELDS || !STATE_VERSION.equals(p[0])) {
+            return e;
+        }
+        try {
+            e.lastMs = Long.parseLong(p[1]);
+            e.lastBattery = Integer.parseInt(p[2]);
+            e.lastDriving = "1".equals(p[3]);
+            e.tDrive = Double.parseDouble(p[4]);
+            e.tIdle = Double.parseDouble(p[5]);
+            e.s00 = Double.parseDouble(p[6]);
+            e.s01 = Double.parseDouble(p[7]);
+            e.s02 = Double.parseDouble(p[8]);
+            e.s11 = Double.parseDouble(p[9]);
+            e.s12 = Double.parseDouble(p[10]);
+            e.s22 = Double.parseDouble(p[11]);
+            e.sy0 = Double.parseDouble(p[12]);
+            e.sy1 = Double.parseDouble(p[13]);
+            e.sy2 = Double.parseDouble(p[14]);
+            e.priorDrive = Double.parseDouble(p[15]);
+            e.priorIdle = Double.parseDouble(p[16]);
+            e.observedDrive = Double.parseDouble(p[17]);
+            e.observedIdle = Double.parseDouble(p[18]);
+            e.drivingShare = Double.parseDouble(p[19]);
+        } catch (NumberFormatException ex) {
+            return new BatteryEstimator(deviceId);
+        }
+        return e;
+    }
+}
@@ -0,0 +1,110 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.BatteryForecast;
+import com.jdev.mqtt_car.model.TelemetrySample;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one BatteryEstimator per car and answers fleet questions like
+ * "which car dies first". Estimator state is restored from the store the first
+ * time a car is seen and saved periodically, so forecasts survive reconnects.
+ */
+public class BatteryForecaster {
+
+    private static final long SAVE_INTERVAL_MS = 30_000;
+
+    public interface StateStore {
+        String load(String deviceId);
+
+        void save(String deviceId, String state);
+    }
+
+    private final StateStore store;
+    private final int thresholdPercent;
+
+    private final Map<String, BatteryEstimator> estimators = new ConcurrentHashMap<>();
+    private final Map<String, BatteryForecast> latest = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastSavedMs = new ConcurrentHashMap<>();
+
+    public BatteryForecaster(StateStore store, int thresholdPercent) {
+        this.store = store;
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    /**
+     * Feed one telemetry sample on the receive path and get the updated forecast.
+     */
+    public BatteryForecast onTelemetry(String deviceId, TelemetrySample data) {
+        BatteryEstimator estimator = addSample(deviceId, data);
+        BatteryForecast forecast = estimator.forecast(thresholdPercent);
+        latest.put(deviceId, forecast);
+        return forecast;
+    }
+
+    /**
+     * Feed a sample without building a forecast, for receive paths that only
+     * refresh the forecast at UI rate (see {@link #refresh(String)}).
+     */
+    public BatteryEstimator addSample(String deviceId, TelemetrySample data) {
+        BatteryEstimator estimator = estimators.get(deviceId);
+        if (estimator == null) {
+            // Only a new car pays for the capturing lambda
+            estimator = estimators.computeIfAbsent(deviceId,
+                    id -> BatteryEstimator.restore(id, store.load(id)));
+        }
+
+        estimator.addSample(data.getTimestamp(), data.getBattery(), data.isDriving());
+
+        Long saved = lastSavedMs.get(deviceId);
+        if (saved == null || data.getTimestamp() - saved >= SAVE_INTERVAL_MS) {
+            store.save(deviceId, estimator.saveState());
+            lastSavedMs.put(deviceId, data.getTimestamp());
+        }
+        return estimator;
+    }
+
+    /**
+     * Rebuild the forecast from the samples fed so far
+     */
+    public BatteryForecast refresh(String deviceId) {
+        BatteryEstimator estimator = estimators.get(deviceId);
+        if (estimator == null) {
+            return BatteryForecast.unknown(deviceId);
+        }
+        BatteryForecast forecast = estimator.forecast(thresholdPercent);
+        latest.put(deviceId, forecast);
+        return forecast;
+    }
+
+    public BatteryForecast getForecast(String deviceId) {
+        BatteryForecast forecast = latest.get(deviceId);
+        return forecast != null ? forecast : BatteryForecast.unknown(deviceId);
+    }
+
+    /**
+     * The car expected to reach the threshold first, or null if no forecast is known yet.
+     */
+    public BatteryForecast firstToDie() {
+        BatteryForecast first = null;
+        for (BatteryForecast forecast : latest.values()) {
+            if (forecast.getMinutesToThreshold() == BatteryForecast.UNKNOWN) {
+                continue;
+            }
+            if (first == null || forecast.getMinutesToThreshold() < first.getMinutesToThreshold()) {
+                first = forecast;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Save every estimator now, e.g. on disconnect.
+     */
+    public void persistAll() {
+        for (Map.Entry<String, BatteryEstimator> entry : estimators.entrySet()) {
+            store.save(entry.getKey(), entry.getValue().saveState());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.jdev.mqtt_car.data.analytics;
+
+/**
+ * One-sided CUSUM change detector on standardised values.
+ * Accumulates how far the signal sits beyond the slack k (in standard deviations)
+ * and fires once the sum passes the threshold h.
+ */
+public class Cusum {
+
+    private final double k;
+    private final double h;
+    private final boolean detectDrop;
+
+    private double sum;
+
+    /**
+     * @param detectDrop true to detect a fall below the mean, false for a rise above it
+     */
+    public Cusum(double k, double h, boolean detectDrop) {
+        this.k = k;
+        this.h = h;
+        this.detectDrop = detectDrop;
+    }
+
+    /**
+     * @return true while the accumulated deviation is above the threshold
+     */
+    public boolean update(double value, double mean, double stdDev) {
+        double z = (value - mean) / stdDev;
+        if (detectDrop) {
+            z = -z;
+        }
+        sum = Math.max(0, sum + z - k);
+        return sum > h;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public void reset() {
+        sum = 0;
+    }
+}
@@ -0,0 +1,65 @@
+package com.jdev.mqtt_car.data.analytics;
+
+/**
+ * Exponentially weighted linear trend of a signal over time (units per second).
+ * Keeps five decayed sums of a weighted least-squares line fit, so each update is O(1).
+ */
+public class EwmaSlope {
+
+    private static final double REBASE_AFTER_SEC = 3600;
+
+    private final double tauSec;
+
+    private double origin = Double.NaN;
+    private double lastT;
+    private double s0, st, sy, stt, sty;
+
+    public EwmaSlope(double tauSec) {
+        this.tauSec = tauSec;
+    }
+
+    public void add(double timeSec, double value) {
+        if (Double.isNaN(origin)) {
+            origin = timeSec;
+            lastT = 0;
+        }
+        double t = timeSec - origin;
+        double decay = Math.exp(-Math.max(0, t - lastT) / tauSec);
+        s0 *= decay; st *= decay; sy *= decay; stt *= decay; sty *= decay;
+
+        s0 += 1;
+        st += t;
+        sy += value;
+        stt += t * t;
+        sty += t * value;
+        lastT = t;
+
+        if (t > REBASE_AFTER_SEC) {
+            rebase(t);
+        }
+    }
+
+    /**
+     * Move the time origin to keep the sums small over long sessions.
+     */
+    private void rebase(double shift) {
+        stt = stt - 2 * shift * st + shift * shift * s0;
+        sty = sty - shift * sy;
+        st = st - shift * s0;
+        origin += shift;
+        lastT -= shift;
+    }
+
+    public double getSlope() {
+        double denom = s0 * stt - st * st;
+        if (s0 < 2 || Math.abs(denom) < 1e-9) {
+            return 0;
+        }
+        return (s0 * sty - st * sy) / denom;
+    }
+
+    public void reset() {
+        origin = Double.NaN;
+        s0 = st = sy = stt = sty = 0;
+    }
+}
@@ -0,0 +1,235 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.DeviceLiveness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-device liveness from the telemetry cadence.
+ * <p>
+ * Each car's inter-arrival times are learned with a rolling Welford estimate; a car is
+ * DEGRADED after missing one expected interval and STALE after missing STALE_MISSES,
+ * which at the default 500ms cadence means about one second instead of the broker's
+ * keep-alive timeout.
+ * <p>
+ * All cars share one hashed timer wheel driven by a single thread. A telemetry frame only
+ * updates the car's last-seen time; the wheel entry is left where it is and re-checked
+ * lazily when its slot comes round, so arrivals never touch the timer structure.
+ */
+public class LivenessTracker {
+
+    public static final long TICK_MS = 100;
+    public static final long DEFAULT_INTERVAL_MS = 500;   // firmware TELEMETRY_INTERVAL
+
+    static final int WHEEL_SLOTS = 64;
+    static final int DEGRADED_MISSES = 1;
+    static final int STALE_MISSES = 2;
+    static final int WARMUP_SAMPLES = 5;
+    static final int INTERVAL_WINDOW = 120;
+    static final double JITTER_SIGMAS = 3;
+    static final double MIN_SLACK = 0.1;     // fraction of the mean allowed even for a perfectly regular sender
+
+    public interface Listener {
+        void onLivenessChanged(String deviceId, DeviceLiveness liveness);
+    }
+
+    private static class Entry {
+        final String deviceId;
+        final Welford interval = new Welford(INTERVAL_WINDOW);
+        long nominalMs = DEFAULT_INTERVAL_MS;   // assumed cadence until enough gaps are learned
+        long lastSeenMs = -1;
+        long deadlineMs;
+        boolean scheduled;
+        DeviceLiveness liveness = DeviceLiveness.UNKNOWN;
+
+        Entry(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private final List<Entry>[] wheel = (List<Entry>[]) new List<?>[WHEEL_SLOTS];
+    private long lastTickMs = -1;
+
+    private ScheduledExecutorService ticker;
+
+    public LivenessTracker(Listener listener) {
+        this.listener = listener;
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "liveness-wheel"));
+        ticker.scheduleAtFixedRate(() -> tick(System.currentTimeMillis()),
+                TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+        for (List<Entry> slot : wheel) {
+            slot.clear();
+        }
+        entries.clear();
+        lastTickMs = -1;
+    }
+
+    /**
+     * Record a telemetry arrival. O(1), only touches the timer wheel the first time a car
+     * is seen or after it went stale.
+     */
+    public void onTelemetry(String deviceId, long nowMs) {
+        Entry entry = entries.computeIfAbsent(deviceId, Entry::new);
+        boolean changed;
+        synchronized (this) {
+            if (entry.lastSeenMs >= 0 && entry.liveness != DeviceLiveness.STALE) {
+                // Gaps while stale are outages, not the cadence
+                entry.interval.add(nowMs - entry.lastSeenMs);
+            }
+            entry.lastSeenMs = nowMs;
+            changed = entry.liveness != DeviceLiveness.LIVE;
+            entry.liveness = DeviceLiveness.LIVE;
+            if (!entry.scheduled) {
+                schedule(entry, nowMs + DEGRADED_MISSES * expectedInterval(entry));
+            }
+        }
+        if (changed) {
+            listener.onLivenessChanged(deviceId, DeviceLiveness.LIVE);
+        }
+    }
+
+    /**
+     * Forget every car's learned cadence, e.g. on a new connection whose timing may differ.
+     */
+    public synchronized void resetCadences() {
+        for (Entry entry : entries.values()) {
+            entry.interval.reset();
+        }
+    }
+
+    /**
+     * Forget the learned cadence and assume nominalMs until the new one is learned.
+     */
+    public void resetCadence(String deviceId, long nominalMs) {
+        Entry entry = entries.computeIfAbsent(deviceId, Entry::new);
+        synchronized (this) {
+            entry.interval.reset();
+            entry.nominalMs = nominalMs;
+        }
+    }
+
+    public DeviceLiveness getLiveness(String deviceId) {
+        Entry entry = entries.get(deviceId);
+        return entry == null ? DeviceLiveness.UNKNOWN : entry.liveness;
+    }
+
+    /**
+     * Expected gap between frames: learned mean plus jitter allowance.
+     */
+    public synchronized long getExpectedIntervalMs(String deviceId) {
+        Entry entry = entries.get(deviceId);
+        return entry == null ? Math.round(DEFAULT_INTERVAL_MS * (1 + MIN_SLACK)) : expectedInterval(entry);
+    }
+
+    private long expectedInterval(Entry entry) {
+        double mean = entry.interval.getCount() < WARMUP_SAMPLES
+                ? entry.nominalMs : entry.interval.getMean();
+        double slack = Math.max(JITTER_SIGMAS * entry.interval.getStdDev(), MIN_SLACK * mean);
+        return Math.max(TICK_MS, Math.round(mean + slack));
+    }
+
+    // ========================================
+    // Timer wheel
+    // ========================================
+
+    private void schedule(Entry entry, long deadlineMs) {
+        entry.deadlineMs = deadlineMs;
+        entry.scheduled = true;
+        // Round up so the slot is only visited once the deadline has passed
+        wheel[slotOf(deadlineMs + TICK_MS - 1)].add(entry);
+    }
+
+    private static int slotOf(long timeMs) {
+        return (int) ((timeMs / TICK_MS) % WHEEL_SLOTS);
+    }
+
+    /**
+     * Advance the wheel to nowMs. Package-private so tests can drive it with a fake clock.
+     */
+    void tick(long nowMs) {
+        List<Entry> changed = null;
+        synchronized (this) {
+            // Sweep by slot, not by time: the executor fires a little early or late, and
+            // stepping from the last tick time could jump over a slot
+            long to = nowMs / TICK_MS;
+            long from = lastTickMs < 0 ? to : lastTickMs / TICK_MS + 1;
+            // Never sweep more than one full turn, every slot is visited by then
+            from = Math.max(from, to - (WHEEL_SLOTS - 1));
+            for (long tick = from; tick <= to; tick++) {
+                changed = expireSlot(wheel[(int) (tick % WHEEL_SLOTS)], nowMs, changed);
+            }
+            lastTickMs = nowMs;
+        }
+        if (changed != null) {
+            for (Entry entry : changed) {
+                listener.onLivenessChanged(entry.deviceId, entry.liveness);
+            }
+        }
+    }
+
+    private List<Entry> expireSlot(List<Entry> slot, long nowMs, List<Entry> changed) {
+        for (int i = slot.size() - 1; i >= 0; i--) {
+            Entry entry = slot.get(i);
+            if (entry.deadlineMs > nowMs) {
+                continue; // belongs to a later turn of the wheel
+            }
+            // Remove by swapping with the last element, order inside a slot does not matter
+            slot.set(i, slot.get(slot.size() - 1));
+            slot.remove(slot.size() - 1);
+            entry.scheduled = false;
+
+            long expected = expectedInterval(entry);
+            long elapsed = nowMs - entry.lastSeenMs;
+            long missed = elapsed / expected;
+
+            DeviceLiveness next;
+            if (missed >= STALE_MISSES) {
+                next = DeviceLiveness.STALE;
+            } else if (missed >= DEGRADED_MISSES) {
+                next = DeviceLiveness.DEGRADED;
+            } else {
+                next = DeviceLiveness.LIVE;
+            }
+
+            if (next != entry.liveness) {
+                entry.liveness = next;
+                if (changed == null) {
+                    changed = new ArrayList<>();
+                }
+                changed.add(entry);
+            }
+
+            if (next != DeviceLiveness.STALE) {
+                // Check again at the next miss boundary; a fresh frame simply makes that check a no-op
+                schedule(entry, entry.lastSeenMs + (missed + 1) * expected);
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,102 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.BatteryForecast;
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.DeviceLiveness;
+import com.jdev.mqtt_car.model.TelemetryAlert;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides what is worth a notification while nobody is looking at the app: a low battery
+ * and a car that went offline. Each alert fires once per episode and is cleared when the
+ * episode ends, so a car parked at 15% does not notify on every frame.
+ * <ul>
+ *   <li>battery: at the threshold, or forecast to reach it within LOW_FORECAST_MINUTES;
+ *   re-armed once the battery is REARM_MARGIN above the threshold again</li>
+ *   <li>offline: the car's last will ("offline" status) or telemetry gone stale; cleared by
+ *   the next frame</li>
+ * </ul>
+ */
+public class MonitoringAlertPolicy {
+
+    static final long LOW_FORECAST_MINUTES = 10;
+    static final int REARM_MARGIN = 5;
+
+    public interface Listener {
+        void onAlert(TelemetryAlert alert);
+
+        void onAlertCleared(String deviceId, TelemetryAlert.Type type);
+    }
+
+    private final int thresholdPercent;
+    private final Listener listener;
+    private final Map<String, EnumSet<TelemetryAlert.Type>> active = new HashMap<>();
+
+    public MonitoringAlertPolicy(int thresholdPercent, Listener listener) {
+        this.thresholdPercent = thresholdPercent;
+        this.listener = listener;
+    }
+
+    /**
+     * Every telemetry frame; forecast may be null or unknown
+     */
+    public void onBattery(String deviceId, int battery, BatteryForecast forecast, long nowMs) {
+        if (battery <= 0) {
+            return; // not reported
+        }
+        boolean low = battery <= thresholdPercent
+                || (forecast != null && forecast.isKnown()
+                && forecast.getMinutesToThreshold() <= LOW_FORECAST_MINUTES);
+        if (low) {
+            String message = battery <= thresholdPercent
+                    ? deviceId + " battery at " + battery + "%"
+                    : deviceId + " battery at " + battery + "%, about "
+                    + forecast.getMinutesToThreshold() + " min to " + thresholdPercent + "%";
+            raise(deviceId, TelemetryAlert.Type.BATTERY_LOW, message, battery, nowMs);
+        } else if (battery >= thresholdPercent + REARM_MARGIN) {
+            clear(deviceId, TelemetryAlert.Type.BATTERY_LOW);
+        }
+    }
+
+    public void onLiveness(String deviceId, DeviceLiveness liveness, long nowMs) {
+        if (liveness == DeviceLiveness.STALE) {
+            raise(deviceId, TelemetryAlert.Type.DEVICE_OFFLINE,
+                    deviceId + " stopped sending telemetry", 0, nowMs);
+        } else if (liveness == DeviceLiveness.LIVE) {
+            clear(deviceId, TelemetryAlert.Type.DEVICE_OFFLINE);
+        }
+    }
+
+    public void onReportedStatus(String deviceId, CarStatus status, long nowMs) {
+        if (CarStatus.STATUS_OFFLINE.equals(status.getStatus())) {
+            raise(deviceId, TelemetryAlert.Type.DEVICE_OFFLINE, deviceId + " went offline", 0, nowMs);
+        }
+    }
+
+    public synchronized boolean isActive(String deviceId, TelemetryAlert.Type type) {
+        EnumSet<TelemetryAlert.Type> types = active.get(deviceId);
+        return types != null && types.contains(type);
+    }
+
+    private void raise(String deviceId, TelemetryAlert.Type type, String message, double value, long nowMs) {
+        synchronized (this) {
+            if (!active.computeIfAbsent(deviceId, id -> EnumSet.noneOf(TelemetryAlert.Type.class)).add(type)) {
+                return;
+            }
+        }
+        listener.onAlert(new TelemetryAlert(deviceId, type, message, value, nowMs));
+    }
+
+    private void clear(String deviceId, TelemetryAlert.Type type) {
+        synchronized (this) {
+            EnumSet<TelemetryAlert.Type> types = active.get(deviceId);
+            if (types == null || !types.remove(type)) {
+                return;
+            }
+        }
+        listener.onAlertCleared(deviceId, type);
+    }
+}
@@ -0,0 +1,231 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.TelemetryAlert;
+import com.jdev.mqtt_car.model.TelemetrySample;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming anomaly detection on telemetry, one constant-size state per car.
+ * <ul>
+ *   <li>free_heap: EWMA trend, alerts when the heap keeps shrinking (leak)</li>
+ *   <li>wifi_rssi: CUSUM on a rolling Welford baseline, alerts on a sustained collapse</li>
+ *   <li>temperature: z-score against a rolling Welford baseline, alerts on spikes</li>
+ *   <li>inter-arrival time: alerts when no frame arrived for far longer than the usual
+ *   cadence, from {@link #checkGaps(long)} while the car is silent or at the latest from
+ *   the frame that ends the gap</li>
+ * </ul>
+ * Each alert type fires once per episode and at most once per cooldown.
+ */
+public class TelemetryAnomalyDetector {
+
+    public interface AlertListener {
+        void onAlert(TelemetryAlert alert);
+    }
+
+    static final int WARMUP_SAMPLES = 20;
+    static final int BASELINE_WINDOW = 600;            // ~5 minutes at the default 500ms cadence
+    static final long COOLDOWN_MS = 60_000;
+
+    static final double HEAP_SLOPE_TAU_SEC = 60;
+    static final double HEAP_LEAK_BYTES_PER_SEC = 20;
+    static final long HEAP_WARMUP_MS = 60_000;
+    static final long HEAP_SUSTAIN_MS = 20_000;
+
+    static final double RSSI_MIN_STD = 1.5;
+    static final double RSSI_CUSUM_K = 0.5;
+    static final double RSSI_CUSUM_H = 8;
+    static final double RSSI_MIN_DROP_DB = 10;
+
+    static final double TEMP_MIN_STD = 0.5;
+    static final double TEMP_SPIKE_Z = 4;
+    static final double TEMP_MIN_DELTA = 3;
+
+    static final double GAP_FACTOR = 3;
+    static final long GAP_MIN_MS = 1500;
+
+    private static final TelemetryAlert.Type[] TYPES = TelemetryAlert.Type.values();
+
+    private final AlertListener listener;
+    private final Map<String, DeviceState> devices = new ConcurrentHashMap<>();
+
+    public TelemetryAnomalyDetector(AlertListener listener) {
+        this.listener = listener;
+    }
+
+    private static class DeviceState {
+        final Welford rssi = new Welford(BASELINE_WINDOW);
+        final Welford temperature = new Welford(BASELINE_WINDOW);
+        final Welford interval = new Welford(BASELINE_WINDOW);
+        final Cusum rssiDrop = new Cusum(RSSI_CUSUM_K, RSSI_CUSUM_H, true);
+        final EwmaSlope heapTrend = new EwmaSlope(HEAP_SLOPE_TAU_SEC);
+
+        final boolean[] active = new boolean[TYPES.length];
+        final long[] lastAlertMs = new long[TYPES.length];
+
+        long firstMs = -1;
+        long lastMs = -1;
+        long nominalMs;               // announced cadence while the interval is re-learned, 0 if none
+        long heapFallingSinceMs = -1;
+        int samples;
+    }
+
+    /**
+     * Run all detectors on one sample. Called on the telemetry path, O(1) per sample.
+     */
+    public void onTelemetry(String deviceId, TelemetrySample data) {
+        DeviceState state = devices.computeIfAbsent(deviceId, id -> new DeviceState());
+        synchronized (state) {
+            long now = data.getTimestamp();
+            if (state.firstMs < 0) {
+                state.firstMs = now;
+            }
+
+            checkGap(deviceId, state, now);
+            checkHeap(deviceId, state, now, data.getFreeHeap());
+            checkRssi(deviceId, state, now, data.getWifiRssi());
+            checkTemperature(deviceId, state, now, data.getTemperature());
+
+            state.lastMs = now;
+            state.samples++;
+        }
+    }
+
+    /**
+     * Raise the gap alert for every car that is silent for longer than its cadence allows,
+     * without waiting for its next frame. Call it from a timer on the clock telemetry is
+     * timestamped with.
+     */
+    public void checkGaps(long nowMs) {
+        for (Map.Entry<String, DeviceState> entry : devices.entrySet()) {
+            DeviceState state = entry.getValue();
+            synchronized (state) {
+                if (state.lastMs >= 0 && isGap(state, nowMs - state.lastMs)) {
+                    raiseGap(entry.getKey(), state, nowMs, nowMs - state.lastMs);
+                }
+            }
+        }
+    }
+
+    public void reset(String deviceId) {
+        devices.remove(deviceId);
+    }
+
+    /**
+     * Forget the learned cadence and expect a frame every nominalMs until the new one is
+     * learned, e.g. after the telemetry rate was renegotiated. The other baselines are kept.
+     */
+    public void resetCadence(String deviceId, long nominalMs) {
+        DeviceState state = devices.computeIfAbsent(deviceId, id -> new DeviceState());
+        synchronized (state) {
+            state.interval.reset();
+            state.nominalMs = nominalMs;
+        }
+    }
+
+    // ========================================
+    // Detectors
+    // ========================================
+
+    private void checkGap(String deviceId, DeviceState state, long now) {
+        if (state.lastMs < 0) {
+            return;
+        }
+        long gap = now - state.lastMs;
+        if (isGap(state, gap)) {
+            // A no-op if checkGaps() already reported this gap; it ends with this frame
+            raiseGap(deviceId, state, now, gap);
+            state.active[TelemetryAlert.Type.TELEMETRY_GAP.ordinal()] = false;
+            return; // a gap must not stretch the learned cadence
+        }
+        state.interval.add(gap);
+    }
+
+    private static boolean isGap(DeviceState state, long gap) {
+        double cadence = expectedInterval(state);
+        return cadence > 0 && gap > Math.max(GAP_MIN_MS, GAP_FACTOR * cadence);
+    }
+
+    /**
+     * Learned cadence, the announced one while learning, 0 if neither is known yet
+     */
+    private static double expectedInterval(DeviceState state) {
+        return state.interval.getCount() >= WARMUP_SAMPLES ? state.interval.getMean() : state.nominalMs;
+    }
+
+    private void raiseGap(String deviceId, DeviceState state, long now, long gap) {
+        raise(deviceId, state, TelemetryAlert.Type.TELEMETRY_GAP, now, gap, "No telemetry for " + gap
+                + " ms (expected every " + Math.round(expectedInterval(state)) + " ms)");
+    }
+
+    private void checkHeap(String deviceId, DeviceState state, long now, int freeHeap) {
+        if (freeHeap <= 0) {
+            return;
+        }
+        state.heapTrend.add(now / 1000.0, freeHeap);
+        if (now - state.firstMs < HEAP_WARMUP_MS) {
+            return;
+        }
+        double slope = state.heapTrend.getSlope();
+        if (slope < -HEAP_LEAK_BYTES_PER_SEC) {
+            if (state.heapFallingSinceMs < 0) {
+                state.heapFallingSinceMs = now;
+            }
+            if (now - state.heapFallingSinceMs >= HEAP_SUSTAIN_MS) {
+                raise(deviceId, state, TelemetryAlert.Type.HEAP_LEAK_TREND, now, slope,
+                        "Free heap falling " + Math.round(-slope) + " B/s (now " + (freeHeap / 1024) + " KB)");
+            }
+        } else {
+            state.heapFallingSinceMs = -1;
+            state.active[TelemetryAlert.Type.HEAP_LEAK_TREND.ordinal()] = false;
+        }
+    }
+
+    private void checkRssi(String deviceId, DeviceState state, long now, int rssi) {
+        if (rssi == 0) {
+            return; // 0 means the ESP32 had no RSSI reading
+        }
+        if (state.rssi.getCount() >= WARMUP_SAMPLES) {
+            double mean = state.rssi.getMean();
+            double std = Math.max(RSSI_MIN_STD, state.rssi.getStdDev());
+            boolean shifted = state.rssiDrop.update(rssi, mean, std);
+            if (shifted && mean - rssi >= RSSI_MIN_DROP_DB) {
+                raise(deviceId, state, TelemetryAlert.Type.RSSI_COLLAPSE, now, rssi,
+                        "Signal collapsed to " + rssi + " dBm (normal " + Math.round(mean) + " dBm)");
+            } else if (state.rssiDrop.getSum() == 0) {
+                state.active[TelemetryAlert.Type.RSSI_COLLAPSE.ordinal()] = false;
+            }
+        }
+        state.rssi.add(rssi);
+    }
+
+    private void checkTemperature(String deviceId, DeviceState state, long now, int temperature) {
+        if (state.temperature.getCount() >= WARMUP_SAMPLES) {
+            double mean = state.temperature.getMean();
+            double std = Math.max(TEMP_MIN_STD, state.temperature.getStdDev());
+            double z = (temperature - mean) / std;
+            if (z > TEMP_SPIKE_Z && temperature - mean >= TEMP_MIN_DELTA) {
+                raise(deviceId, state, TelemetryAlert.Type.TEMPERATURE_SPIKE, now, temperature,
+                        "Temperature spiked to " + temperature + "°C (normal " + Math.round(mean) + "°C)");
+                return; // keep spikes out of the baseline
+            }
+            state.active[TelemetryAlert.Type.TEMPERATURE_SPIKE.ordinal()] = false;
+        }
+        state.temperature.add(temperature);
+    }
+
+    private void raise(String deviceId, DeviceState state, TelemetryAlert.Type type,
+                       long now, double value, String message) {
+        int i = type.ordinal();
+        if (state.active[i]) {
+            return; // already reported this episode
+        }
+        state.active[i] = true;
+        if (state.lastAlertMs[i] != 0 && now - state.lastAlertMs[i] < COOLDOWN_MS) {
+            return;
+        }
+        state.lastAlertMs[i] = now;
+        listener.onAlert(new TelemetryAlert(deviceId, type, message, value, now));
+    }
+}
@@ -0,0 +1,53 @@
+package com.jdev.mqtt_car.data.analytics;
+
+/**
+ * Running mean/variance (Welford's algorithm) in constant memory.
+ * The effective sample count is capped so old history fades out and the
+ * statistics follow slow drifts, like a rolling window without storing it.
+ */
+public class Welford {
+
+    private final double maxCount;
+
+    private double count;
+    private double mean;
+    private double m2;
+
+    public Welford(int maxCount) {
+        this.maxCount = maxCount;
+    }
+
+    public void add(double value) {
+        if (count >= maxCount) {
+            // Keep the weight of the history fixed from here on
+            m2 = m2 * (maxCount - 1) / maxCount;
+            count = maxCount - 1;
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    public double getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : 0;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    public void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.jdev.mqtt_car.data.capture;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Layout of a raw MQTT traffic capture (.mqcap), shared by {@link SessionRecorder} and
+ * {@link CaptureReader}:
+ * <pre>
+ *   int magic "MQCP", byte version, long wall clock ms at the start of the capture
+ *   record*: byte type, then
+ *     TOPIC      varint id, UTF topic                       (before the first frame using it)
+ *     SYNC       varint ns since the start                  (every INDEX_INTERVAL_NANOS)
+ *     FRAME      byte flags, varint topic id, varint ns since the previous record,
+ *                varint message id, varint length, payload
+ *     DELIVERED  varint ns since the previous record, varint message id
+ *   trailer, written on close:
+ *     INDEX      varint topic count, each varint id + UTF topic,
+ *                varint entry count, each varint ns + varint offset of a SYNC record (deltas)
+ *     long offset of the INDEX record, int magic
+ * </pre>
+ * Times are relative to the capture start and delta encoded, so a frame header is a few
+ * bytes. The index is sparse: one entry per SYNC record, which carries the absolute time
+ * the deltas after it start from. A capture that was never closed has no trailer and is
+ * read front to back instead.
+ */
+public final class CaptureFormat {
+
+    static final int MAGIC = 0x4D514350;   // "MQCP"
+    static final int VERSION = 1;
+
+    static final byte TYPE_TOPIC = 0;
+    static final byte TYPE_SYNC = 1;
+    static final byte TYPE_FRAME = 2;
+    static final byte TYPE_DELIVERED = 3;
+    static final byte TYPE_INDEX = 4;
+
+    static final long INDEX_INTERVAL_NANOS = 1_000_000_000L;
+    static final int FOOTER_SIZE = 12;
+    static final String EXTENSION = ".mqcap";
+
+    public static final int DIRECTION_IN = 0;
+    public static final int DIRECTION_OUT = 1;
+
+    private CaptureFormat() {
+    }
+
+    /**
+     * bits 0-1 direction, 2-3 QoS, 4-5 outbound lane (0 for inbound)
+     */
+    static int flags(int direction, int qos, int lane) {
+        return (direction & 0x3) | (qos & 0x3) << 2 | (lane & 0x3) << 4;
+    }
+
+    static int direction(int flags) {
+        return flags & 0x3;
+    }
+
+    static int qos(int flags) {
+        return (flags >> 2) & 0x3;
+    }
+
+    static int lane(int flags) {
+        return (flags >> 4) & 0x3;
+    }
+
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
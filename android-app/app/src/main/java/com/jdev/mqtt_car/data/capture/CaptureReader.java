@@ -0,0 +1,378 @@
+package com.jdev.mqtt_car.data.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Reads a {@link CaptureFormat} file written by {@link SessionRecorder}. Plain Java, so the
+ * same class works on the phone and in a desktop tool: see {@link #main(String[])}.
+ * <p>
+ * With the index trailer, reading a time range seeks to the last SYNC record before it and
+ * decodes at most INDEX_INTERVAL_NANOS of frames it does not need. A capture that was
+ * never closed (app killed) is indexed by one pass over the file on open, up to the last
+ * complete record.
+ */
+public final class CaptureReader implements Closeable {
+
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * One recorded event: an inbound or outbound frame, or a delivery confirmation
+     */
+    public static final class Frame {
+        private final boolean delivery;
+        private final int flags;
+        private final String topic;
+        private final long timeNanos;
+        private final int messageId;
+        private final byte[] payload;
+
+        Frame(boolean delivery, int flags, String topic, long timeNanos, int messageId, byte[] payload) {
+            this.delivery = delivery;
+            this.flags = flags;
+            this.topic = topic;
+            this.timeNanos = timeNanos;
+            this.messageId = messageId;
+            this.payload = payload;
+        }
+
+        public boolean isDelivery() {
+            return delivery;
+        }
+
+        public boolean isInbound() {
+            return !delivery && CaptureFormat.direction(flags) == CaptureFormat.DIRECTION_IN;
+        }
+
+        public boolean isOutbound() {
+            return !delivery && CaptureFormat.direction(flags) == CaptureFormat.DIRECTION_OUT;
+        }
+
+        public int getQos() {
+            return CaptureFormat.qos(flags);
+        }
+
+        /**
+         * Outbound lane ordinal, 0 for inbound frames
+         */
+        public int getLane() {
+            return CaptureFormat.lane(flags);
+        }
+
+        /**
+         * Null for a delivery confirmation
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Since the start of the capture
+         */
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+
+        public int getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * Null for a delivery confirmation
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String toString() {
+            String time = String.format(Locale.US, "%10.3f", timeNanos / 1e6);
+            if (delivery) {
+                return time + " DELIVERED id=" + messageId;
+            }
+            return time + (isInbound() ? " IN  " : " OUT ") + "q" + getQos()
+                    + (isOutbound() ? " lane" + getLane() : "") + " " + topic
+                    + (messageId != 0 ? " id=" + messageId : "") + " " + new String(payload);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final long startEpochMs;
+    private final boolean indexed;
+    private final Map<Integer, String> topics = new HashMap<>();
+    private long[] indexNanos = new long[0];
+    private long[] indexOffsets = new long[0];
+
+    private CaptureReader(RandomAccessFile file) throws IOException {
+        this.file = file;
+        if (file.length() < HEADER_SIZE || file.readInt() != CaptureFormat.MAGIC) {
+            throw new IOException("Not a capture file");
+        }
+        int version = file.readUnsignedByte();
+        if (version != CaptureFormat.VERSION) {
+            throw new IOException("Unsupported capture version " + version);
+        }
+        startEpochMs = file.readLong();
+        indexed = readTrailer();
+        if (!indexed) {
+            scan();
+        }
+    }
+
+    public static CaptureReader open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new CaptureReader(raf);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wall clock time the capture started at, frame times are relative to it
+     */
+    public long getStartEpochMs() {
+        return startEpochMs;
+    }
+
+    /**
+     * False if the capture was not closed and had to be scanned
+     */
+    public boolean hasIndex() {
+        return indexed;
+    }
+
+    public int getIndexSize() {
+        return indexNanos.length;
+    }
+
+    /**
+     * All frames from fromNanos to toNanos (inclusive, since the capture start) that match filter
+     */
+    public List<Frame> read(long fromNanos, long toNanos, Predicate<Frame> filter) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        forEach(fromNanos, toNanos, filter, frames::add);
+        return frames;
+    }
+
+    public void forEach(long fromNanos, long toNanos, Predicate<Frame> filter, Consumer<Frame> action)
+            throws IOException {
+        int entry = Arrays.binarySearch(indexNanos, fromNanos);
+        if (entry < 0) {
+            entry = -entry - 2;   // last SYNC before fromNanos, -1 if there is none
+        }
+        long offset = entry >= 0 ? indexOffsets[entry] : HEADER_SIZE;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(file.getChannel().position(offset)), BUFFER_SIZE));
+        long t = 0;
+        try {
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case CaptureFormat.TYPE_TOPIC:
+                        topics.put((int) CaptureFormat.readVarint(in), in.readUTF());
+                        break;
+                    case CaptureFormat.TYPE_SYNC:
+                        t = CaptureFormat.readVarint(in);
+                        break;
+                    case CaptureFormat.TYPE_FRAME: {
+                        int flags = in.readUnsignedByte();
+                        String topic = topics.get((int) CaptureFormat.readVarint(in));
+                        t += CaptureFormat.readVarint(in);
+                        int messageId = (int) CaptureFormat.readVarint(in);
+                        byte[] payload = new byte[(int) CaptureFormat.readVarint(in)];
+                        in.readFully(payload);
+                        if (t > toNanos) {
+                            return;
+                        }
+                        if (t >= fromNanos) {
+                            Frame frame = new Frame(false, flags, topic, t, messageId, payload);
+                            if (filter == null || filter.test(frame)) {
+                                action.accept(frame);
+                            }
+                        }
+                        break;
+                    }
+                    case CaptureFormat.TYPE_DELIVERED: {
+                        t += CaptureFormat.readVarint(in);
+                        int messageId = (int) CaptureFormat.readVarint(in);
+                        if (t > toNanos) {
+                            return;
+                        }
+                        if (t >= fromNanos) {
+                            Frame frame = new Frame(true, 0, null, t, messageId, null);
+                            if (filter == null || filter.test(frame)) {
+                                action.accept(frame);
+                            }
+                        }
+                        break;
+                    }
+                    case CaptureFormat.TYPE_INDEX:
+                        return;
+                    default:
+                        throw new IOException("Corrupt capture: record type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // Unclosed capture, the last record may be cut off
+        }
+    }
+
+    private boolean readTrailer() throws IOException {
+        long length = file.length();
+        if (length < HEADER_SIZE + CaptureFormat.FOOTER_SIZE) {
+            return false;
+        }
+        file.seek(length - CaptureFormat.FOOTER_SIZE);
+        long indexOffset = file.readLong();
+        if (file.readInt() != CaptureFormat.MAGIC || indexOffset < HEADER_SIZE
+                || indexOffset >= length - CaptureFormat.FOOTER_SIZE) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(file.getChannel().position(indexOffset)), BUFFER_SIZE));
+        if (in.readByte() != CaptureFormat.TYPE_INDEX) {
+            return false;
+        }
+        int topicCount = (int) CaptureFormat.readVarint(in);
+        for (int i = 0; i < topicCount; i++) {
+            topics.put((int) CaptureFormat.readVarint(in), in.readUTF());
+        }
+        int entries = (int) CaptureFormat.readVarint(in);
+        indexNanos = new long[entries];
+        indexOffsets = new long[entries];
+        long nanos = 0;
+        long offset = 0;
+        for (int i = 0; i < entries; i++) {
+            nanos += CaptureFormat.readVarint(in);
+            offset += CaptureFormat.readVarint(in);
+            indexNanos[i] = nanos;
+            indexOffsets[i] = offset;
+        }
+        return true;
+    }
+
+    /**
+     * No trailer: rebuild topics and index from the records themselves
+     */
+    private void scan() throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        CountingInput counting = new CountingInput(file, HEADER_SIZE);
+        DataInputStream in = new DataInputStream(counting);
+        try {
+            while (true) {
+                long recordOffset = counting.position;
+                byte type = in.readByte();
+                switch (type) {
+                    case CaptureFormat.TYPE_TOPIC:
+                        topics.put((int) CaptureFormat.readVarint(in), in.readUTF());
+                        break;
+                    case CaptureFormat.TYPE_SYNC:
+                        entries.add(new long[]{CaptureFormat.readVarint(in), recordOffset});
+                        break;
+                    case CaptureFormat.TYPE_FRAME:
+                        in.readUnsignedByte();
+                        CaptureFormat.readVarint(in);
+                        CaptureFormat.readVarint(in);
+                        CaptureFormat.readVarint(in);
+                        in.skipBytes((int) CaptureFormat.readVarint(in));
+                        break;
+                    case CaptureFormat.TYPE_DELIVERED:
+                        CaptureFormat.readVarint(in);
+                        CaptureFormat.readVarint(in);
+                        break;
+                    default:
+                        throw new EOFException(); // garbage after a cut off record
+                }
+            }
+        } catch (EOFException e) {
+            // End of what was written
+        }
+        indexNanos = new long[entries.size()];
+        indexOffsets = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            indexNanos[i] = entries.get(i)[0];
+            indexOffsets[i] = entries.get(i)[1];
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Buffered sequential input that knows its file position
+     */
+    private static final class CountingInput extends java.io.InputStream {
+        private final BufferedInputStream in;
+        long position;
+
+        CountingInput(RandomAccessFile file, long start) throws IOException {
+            in = new BufferedInputStream(Channels.newInputStream(file.getChannel().position(start)), BUFFER_SIZE);
+            position = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Desktop use: {@code java CaptureReader <file.mqcap> [from s] [to s] [topic contains]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: CaptureReader <file.mqcap> [from s] [to s] [topic contains]");
+            return;
+        }
+        long from = args.length > 1 ? (long) (Double.parseDouble(args[1]) * 1e9) : 0;
+        long to = args.length > 2 ? (long) (Double.parseDouble(args[2]) * 1e9) : Long.MAX_VALUE;
+        String topic = args.length > 3 ? args[3] : null;
+        try (CaptureReader reader = open(new File(args[0]))) {
+            System.out.println("# started " + new java.util.Date(reader.getStartEpochMs())
+                    + (reader.hasIndex() ? "" : " (not closed, scanned)") + ", times in ms");
+            reader.forEach(from, to,
+                    frame -> topic == null || (frame.getTopic() != null && frame.getTopic().contains(topic)),
+                    System.out::println);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.jdev.mqtt_car.data.capture;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer, single-consumer queue of capture events, after
+ * Vyukov's bounded queue. Slots are allocated up front and reused: a producer claims a
+ * slot with one CAS on the tail, fills it and publishes it through the slot's sequence
+ * number; the writer thread reads slots in order and hands them back the same way.
+ * A full ring rejects the event instead of waiting, so a slow disk never stalls the MQTT
+ * threads.
+ */
+final class CaptureRing {
+
+    static final class Slot {
+        byte type;
+        int flags;
+        String topic;
+        long nanos;
+        int messageId;
+        byte[] payload;
+    }
+
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;   // consumer only
+
+    CaptureRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        slots = new Slot[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * Any thread. False if the ring is full.
+     */
+    boolean offer(byte type, int flags, String topic, long nanos, int messageId, byte[] payload) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;    // the writer has not freed this slot yet
+            } else {
+                pos = tail.get(); // another producer took it
+            }
+        }
+        Slot slot = slots[index];
+        slot.type = type;
+        slot.flags = flags;
+        slot.topic = topic;
+        slot.nanos = nanos;
+        slot.messageId = messageId;
+        slot.payload = payload;
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Consumer only: the next published slot, or null. Must be followed by {@link #release()}.
+     */
+    Slot peek() {
+        int index = (int) (head & mask);
+        return sequences.get(index) == head + 1 ? slots[index] : null;
+    }
+
+    /**
+     * Consumer only: give the slot from {@link #peek()} back to the producers
+     */
+    void release() {
+        int index = (int) (head & mask);
+        Slot slot = slots[index];
+        slot.topic = null;
+        slot.payload = null;
+        sequences.lazySet(index, head + slots.length);
+        head++;
+    }
+}
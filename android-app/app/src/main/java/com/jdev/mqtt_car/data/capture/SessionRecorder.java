@@ -0,0 +1,317 @@
+package com.jdev.mqtt_car.data.capture;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Records every raw MQTT frame of a session, in and out, into a {@link CaptureFormat}
+ * file, so a report like "the car lagged" can be replayed and measured afterwards.
+ * <p>
+ * The MQTT threads only stamp the time and put a reference to the payload into a
+ * {@link CaptureRing}: no lock, no copy, no I/O. A writer thread drains the ring, encodes
+ * and buffers the records and flushes about once a second. If the writer falls behind by
+ * RING_CAPACITY events, new events are counted as dropped rather than waited for.
+ * Every event offered before {@link #close()} is either written or counted as dropped.
+ * Payload arrays must not be modified after they were recorded.
+ */
+public class SessionRecorder implements Closeable {
+
+    private static final String TAG = "SessionRecorder";
+
+    static final int RING_CAPACITY = 4096;
+    static final long IDLE_PARK_NANOS = 2_000_000;
+    static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CAPTURE_PREFIX = "capture-";
+
+    private final File file;
+    private final LongSupplier clockNanos;
+    private final long startNanos;
+    private final CaptureRing ring = new CaptureRing(RING_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    // Producers between their closed check and the ring, the writer waits them out
+    private final AtomicInteger offering = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // Writer thread only
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final Map<String, Integer> topics = new LinkedHashMap<>();
+    private long[] indexNanos = new long[64];
+    private long[] indexOffsets = new long[64];
+    private int indexSize;
+    private long lastNanos;
+    private long nextSyncNanos;
+
+    private SessionRecorder(File file, LongSupplier clockNanos) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.file = file;
+        this.clockNanos = clockNanos;
+        this.startNanos = clockNanos.getAsLong();
+        counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        out = new DataOutputStream(counter);
+        out.writeInt(CaptureFormat.MAGIC);
+        out.writeByte(CaptureFormat.VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        writer = new Thread(this::runWriter, "capture-writer");
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * Start recording into file, replacing it
+     */
+    public static SessionRecorder create(File file) throws IOException {
+        return new SessionRecorder(file, System::nanoTime);
+    }
+
+    static SessionRecorder create(File file, LongSupplier clockNanos) throws IOException {
+        return new SessionRecorder(file, clockNanos);
+    }
+
+    /**
+     * Start recording into a new capture in dir, named after the car and the start time
+     */
+    public static SessionRecorder createSession(File dir, String deviceId) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        return create(new File(dir, CAPTURE_PREFIX + deviceId + "-" + stamp + CaptureFormat.EXTENSION));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // ========================================
+    // Producers, any thread
+    // ========================================
+
+    public void inbound(String topic, int qos, byte[] payload) {
+        offer(CaptureFormat.TYPE_FRAME, CaptureFormat.flags(CaptureFormat.DIRECTION_IN, qos, 0), topic, 0, payload);
+    }
+
+    /**
+     * @param lane      outbound lane ordinal, see OutboundScheduler.Lane
+     * @param messageId the client's message id, 0 if none was assigned (QoS 0)
+     */
+    public void outbound(String topic, int qos, int lane, int messageId, byte[] payload) {
+        offer(CaptureFormat.TYPE_FRAME, CaptureFormat.flags(CaptureFormat.DIRECTION_OUT, qos, lane),
+                topic, messageId, payload);
+    }
+
+    /**
+     * The client reported an outbound message as delivered
+     */
+    public void delivered(int messageId) {
+        offer(CaptureFormat.TYPE_DELIVERED, 0, null, messageId, null);
+    }
+
+    private void offer(byte type, int flags, String topic, int messageId, byte[] payload) {
+        offering.incrementAndGet();
+        try {
+            if (closed || !ring.offer(type, flags, topic, clockNanos.getAsLong(), messageId, payload)) {
+                dropped.incrementAndGet();
+            }
+        } finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    /**
+     * Events lost because the writer fell behind, failed, or the capture was closed
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stop recording: everything offered so far is written, then the index trailer
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing " + file, e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // ========================================
+    // Writer thread
+    // ========================================
+
+    private void runWriter() {
+        long lastFlush = clockNanos.getAsLong();
+        try {
+            while (true) {
+                // Read before draining: after close() nothing new is accepted once the
+                // producers that passed their closed check are out, so one more drain that
+                // comes up empty means everything was written
+                boolean finishing = closed && offering.get() == 0;
+                int written = drain();
+                if (written > 0) {
+                    continue;
+                }
+                if (finishing) {
+                    break;
+                }
+                long now = clockNanos.getAsLong();
+                if (now - lastFlush >= FLUSH_INTERVAL_NANOS) {
+                    out.flush();
+                    lastFlush = now;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writeTrailer();
+            out.close();
+        } catch (IOException e) {
+            failure = e;
+            closed = true;
+            Log.e(TAG, "Capture write failed, recording stopped: " + file, e);
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // already failing
+            }
+        }
+    }
+
+    private int drain() throws IOException {
+        int written = 0;
+        CaptureRing.Slot slot;
+        while ((slot = ring.peek()) != null) {
+            write(slot);
+            ring.release();
+            written++;
+        }
+        return written;
+    }
+
+    private void write(CaptureRing.Slot slot) throws IOException {
+        // Producers race to the ring, so stamps can be slightly out of order; clamp to keep deltas positive
+        long t = Math.max(lastNanos, slot.nanos - startNanos);
+        if (t >= nextSyncNanos) {
+            writeSync(t);
+        }
+        long messageId = slot.messageId & 0xFFFFFFFFL;
+        if (slot.type == CaptureFormat.TYPE_FRAME) {
+            int topicId = topicId(slot.topic);
+            out.writeByte(CaptureFormat.TYPE_FRAME);
+            out.writeByte(slot.flags);
+            CaptureFormat.writeVarint(out, topicId);
+            CaptureFormat.writeVarint(out, t - lastNanos);
+            CaptureFormat.writeVarint(out, messageId);
+            CaptureFormat.writeVarint(out, slot.payload.length);
+            out.write(slot.payload);
+        } else {
+            out.writeByte(CaptureFormat.TYPE_DELIVERED);
+            CaptureFormat.writeVarint(out, t - lastNanos);
+            CaptureFormat.writeVarint(out, messageId);
+        }
+        lastNanos = t;
+    }
+
+    private void writeSync(long t) throws IOException {
+        if (indexSize == indexNanos.length) {
+            indexNanos = Arrays.copyOf(indexNanos, indexSize * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+        }
+        indexNanos[indexSize] = t;
+        indexOffsets[indexSize] = counter.count;
+        indexSize++;
+        out.writeByte(CaptureFormat.TYPE_SYNC);
+        CaptureFormat.writeVarint(out, t);
+        lastNanos = t;
+        nextSyncNanos = (t / CaptureFormat.INDEX_INTERVAL_NANOS + 1) * CaptureFormat.INDEX_INTERVAL_NANOS;
+    }
+
+    private int topicId(String topic) throws IOException {
+        Integer id = topics.get(topic);
+        if (id != null) {
+            return id;
+        }
+        int next = topics.size();
+        topics.put(topic, next);
+        out.writeByte(CaptureFormat.TYPE_TOPIC);
+        CaptureFormat.writeVarint(out, next);
+        out.writeUTF(topic);
+        return next;
+    }
+
+    private void writeTrailer() throws IOException {
+        long indexOffset = counter.count;
+        out.writeByte(CaptureFormat.TYPE_INDEX);
+        CaptureFormat.writeVarint(out, topics.size());
+        for (Map.Entry<String, Integer> topic : topics.entrySet()) {
+            CaptureFormat.writeVarint(out, topic.getValue());
+            out.writeUTF(topic.getKey());
+        }
+        CaptureFormat.writeVarint(out, indexSize);
+        long previousNanos = 0;
+        long previousOffset = 0;
+        for (int i = 0; i < indexSize; i++) {
+            CaptureFormat.writeVarint(out, indexNanos[i] - previousNanos);
+            CaptureFormat.writeVarint(out, indexOffsets[i] - previousOffset);
+            previousNanos = indexNanos[i];
+            previousOffset = indexOffsets[i];
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(CaptureFormat.MAGIC);
+    }
+
+    /**
+     * Knows the file offset of the next byte, for the index
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
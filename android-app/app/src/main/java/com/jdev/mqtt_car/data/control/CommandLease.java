@@ -0,0 +1,167 @@
+package com.jdev.mqtt_car.data.control;
+
+import com.jdev.mqtt_car.model.LeaseHealth;
+
+/**
+ * Lease for a held movement command on one car.
+ * The car only keeps executing a movement while the lease is renewed, so a lost
+ * "stop" costs at most LEASE_MS instead of the firmware's 10 second timeout.
+ * Renewals are tiny QoS 0 frames sent at a low fixed rate and acked by the car,
+ * which lets us track how healthy the control link is.
+ * <p>
+ * Time is passed in by the caller so the renewal policy can be driven with a fake clock.
+ */
+public class CommandLease {
+
+    public static final long LEASE_MS = 1000;
+    public static final long RENEW_INTERVAL_MS = 200;
+
+    private static final int PENDING_SLOTS = 16;
+    private static final float RATIO_ALPHA = 0.1f;
+    private static final float DEGRADED_RATIO = 0.8f;
+
+    public interface RenewalSink {
+        void sendRenewal(String leaseId, int seq);
+    }
+
+    public interface HealthListener {
+        void onLeaseHealthChanged(LeaseHealth health);
+    }
+
+    private final RenewalSink sink;
+    private final HealthListener healthListener;
+
+    private String leaseId;
+    private long acquiredAtMs;
+    private long lastRenewalMs;
+    private long lastAckMs;
+    private int seq;
+
+    // Ring of renewals waiting for an ack (seq -> send time)
+    private final int[] pendingSeq = new int[PENDING_SLOTS];
+    private final long[] pendingSentMs = new long[PENDING_SLOTS];
+
+    private int renewalsSent;
+    private int renewalsAcked;
+    private float deliveryRatio = 1f;
+    private long rttMs;
+    private LeaseHealth.State lastState = LeaseHealth.State.IDLE;
+
+    public CommandLease(RenewalSink sink, HealthListener healthListener) {
+        this.sink = sink;
+        this.healthListener = healthListener;
+    }
+
+    /**
+     * Start leasing a movement command. The command itself carries lease_ms,
+     * so the first renewal is only due after RENEW_INTERVAL_MS.
+     */
+    public synchronized void acquire(String leaseId, long nowMs) {
+        this.leaseId = leaseId;
+        this.acquiredAtMs = nowMs;
+        this.lastRenewalMs = nowMs;
+        this.lastAckMs = nowMs;
+        this.seq = 0;
+        clearPending();
+        publishIfChanged(nowMs);
+    }
+
+    /**
+     * Stop renewing. The firmware drops the lease on "stop", or lets it expire if the stop is lost.
+     */
+    public synchronized void release(long nowMs) {
+        leaseId = null;
+        clearPending();
+        publishIfChanged(nowMs);
+    }
+
+    public synchronized boolean isHeld() {
+        return leaseId != null;
+    }
+
+    /**
+     * Called periodically by the owner's scheduler. Sends a renewal when one is due.
+     */
+    public synchronized void onTick(long nowMs) {
+        if (leaseId == null) {
+            return;
+        }
+
+        // Renewals that were never acked within a lease period count as lost
+        for (int i = 0; i < PENDING_SLOTS; i++) {
+            if (pendingSeq[i] != 0 && nowMs - pendingSentMs[i] > LEASE_MS) {
+                pendingSeq[i] = 0;
+                deliveryRatio = deliveryRatio * (1 - RATIO_ALPHA);
+            }
+        }
+
+        if (nowMs - lastRenewalMs >= RENEW_INTERVAL_MS) {
+            seq++;
+            int slot = seq % PENDING_SLOTS;
+            if (pendingSeq[slot] != 0) {
+                // Overwriting an unacked renewal, treat it as lost
+                deliveryRatio = deliveryRatio * (1 - RATIO_ALPHA);
+            }
+            pendingSeq[slot] = seq;
+            pendingSentMs[slot] = nowMs;
+            lastRenewalMs = nowMs;
+            renewalsSent++;
+            sink.sendRenewal(leaseId, seq);
+        }
+
+        publishIfChanged(nowMs);
+    }
+
+    /**
+     * Ack for a renewal arrived on the /response topic.
+     */
+    public synchronized void onAck(String ackLeaseId, int ackSeq, long nowMs) {
+        if (leaseId == null || !leaseId.equals(ackLeaseId)) {
+            return; // ack for an older lease
+        }
+        int slot = ackSeq % PENDING_SLOTS;
+        if (pendingSeq[slot] != ackSeq) {
+            return; // duplicate or already counted as lost
+        }
+        pendingSeq[slot] = 0;
+        long rtt = nowMs - pendingSentMs[slot];
+        rttMs = rttMs == 0 ? rtt : (rttMs * 7 + rtt) / 8;
+        lastAckMs = nowMs;
+        renewalsAcked++;
+        deliveryRatio = deliveryRatio * (1 - RATIO_ALPHA) + RATIO_ALPHA;
+        publishIfChanged(nowMs);
+    }
+
+    public synchronized LeaseHealth getHealth(long nowMs) {
+        return new LeaseHealth(stateAt(nowMs), renewalsSent, renewalsAcked, deliveryRatio, rttMs);
+    }
+
+    private LeaseHealth.State stateAt(long nowMs) {
+        if (leaseId == null) {
+            return LeaseHealth.State.IDLE;
+        }
+        if (nowMs - Math.max(lastAckMs, acquiredAtMs) > LEASE_MS) {
+            return LeaseHealth.State.LOST;
+        }
+        if (deliveryRatio < DEGRADED_RATIO) {
+            return LeaseHealth.State.DEGRADED;
+        }
+        return LeaseHealth.State.HEALTHY;
+    }
+
+    private void publishIfChanged(long nowMs) {
+        LeaseHealth.State state = stateAt(nowMs);
+        if (state != lastState) {
+            lastState = state;
+            if (healthListener != null) {
+                healthListener.onLeaseHealthChanged(getHealth(nowMs));
+            }
+        }
+    }
+
+    private void clearPending() {
+        for (int i = 0; i < PENDING_SLOTS; i++) {
+            pendingSeq[i] = 0;
+        }
+    }
+}
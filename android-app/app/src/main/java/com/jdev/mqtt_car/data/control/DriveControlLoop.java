@@ -0,0 +1,150 @@
+package com.jdev.mqtt_car.data.control;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-rate control loop for joystick driving.
+ * The UI only writes the latest (throttle, steering) target; a dedicated scheduled
+ * thread samples it at the loop rate (LOOP_RATE_HZ unless the car's profile caps it)
+ * and sends a setpoint frame when the value moved beyond the deadband. While the car
+ * is moving the last setpoint is repeated as a heartbeat so the firmware can fail
+ * safe (stop) if frames stop arriving.
+ */
+public class DriveControlLoop {
+    private static final String TAG = "DriveControlLoop";
+
+    public static final int LOOP_RATE_HZ = 25;
+    public static final int DEADBAND = 5;            // percent, ignore jitter below this
+    public static final long HEARTBEAT_MS = 200;     // must stay well below the firmware failsafe timeout
+
+    private static final long HEARTBEAT_NANOS = TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MS);
+
+    public interface SetpointSink {
+        void sendDrive(int throttle, int steering);
+    }
+
+    private final SetpointSink sink;
+    private final int rateHz;
+    private final long periodMs;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> loopFuture;
+
+    // Written by the UI thread, read by the loop thread
+    private volatile int targetThrottle = 0;
+    private volatile int targetSteering = 0;
+
+    // Only touched by the loop thread
+    private int sentThrottle = 0;
+    private int sentSteering = 0;
+    private long lastSentNanos = 0;
+
+    public DriveControlLoop(SetpointSink sink) {
+        this(sink, LOOP_RATE_HZ);
+    }
+
+    /**
+     * @param rateHz loop rate, i.e. the most drive frames per second this car gets
+     */
+    public DriveControlLoop(SetpointSink sink, int rateHz) {
+        this.sink = sink;
+        this.rateHz = rateHz;
+        this.periodMs = 1000L / rateHz;
+    }
+
+    /**
+     * Update the target from the joystick. Values are clamped to -100..100.
+     */
+    public void setTarget(int throttle, int steering) {
+        targetThrottle = clamp(throttle);
+        targetSteering = clamp(steering);
+    }
+
+    public synchronized boolean isRunning() {
+        return loopFuture != null;
+    }
+
+    public synchronized void start() {
+        if (loopFuture != null) {
+            return;
+        }
+        targetThrottle = 0;
+        targetSteering = 0;
+        sentThrottle = 0;
+        sentSteering = 0;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "drive-control-loop");
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+        loopFuture = executor.scheduleAtFixedRate(
+                () -> tick(System.nanoTime()), 0, periodMs, TimeUnit.MILLISECONDS);
+        Log.d(TAG, "Control loop started at " + rateHz + " Hz");
+    }
+
+    /**
+     * Stop the loop and send a final zero setpoint so the car halts immediately
+     * instead of waiting for the firmware failsafe.
+     */
+    public synchronized void stop() {
+        if (loopFuture == null) {
+            return;
+        }
+        loopFuture.cancel(false);
+        loopFuture = null;
+        executor.execute(() -> halt(System.nanoTime()));
+        executor.shutdown();
+        executor = null;
+        Log.d(TAG, "Control loop stopped");
+    }
+
+    /**
+     * One loop iteration. Package-private so the send policy can be driven with a fake clock.
+     */
+    void tick(long nowNanos) {
+        int throttle = targetThrottle;
+        int steering = targetSteering;
+
+        boolean returnedToCenter = throttle == 0 && steering == 0
+                && (sentThrottle != 0 || sentSteering != 0);
+        boolean changed = Math.abs(throttle - sentThrottle) > DEADBAND
+                || Math.abs(steering - sentSteering) > DEADBAND;
+
+        if (changed || returnedToCenter) {
+            send(throttle, steering, nowNanos);
+        } else if ((sentThrottle != 0 || sentSteering != 0)
+                && nowNanos - lastSentNanos >= HEARTBEAT_NANOS) {
+            // Heartbeat: repeat the last setpoint so the car keeps moving
+            send(sentThrottle, sentSteering, nowNanos);
+        }
+    }
+
+    /**
+     * The last iteration, run by stop() on the loop thread after the final tick. Package-private
+     * like tick().
+     */
+    void halt(long nowNanos) {
+        targetThrottle = 0;
+        targetSteering = 0;
+        send(0, 0, nowNanos);
+    }
+
+    private void send(int throttle, int steering, long nowNanos) {
+        sentThrottle = throttle;
+        sentSteering = steering;
+        lastSentNanos = nowNanos;
+        try {
+            sink.sendDrive(throttle, steering);
+        } catch (Exception e) {
+            Log.e(TAG, "Send setpoint error", e);
+        }
+    }
+
+    private static int clamp(int value) {
+        return Math.max(-100, Math.min(100, value));
+    }
+}
@@ -0,0 +1,326 @@
+package com.jdev.mqtt_car.data.control;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.LongSupplier;
+
+/**
+ * Orders outbound publishes so a stop never waits behind other traffic.
+ * <p>
+ * Every publish goes into one of three lanes:
+ * <ul>
+ *   <li>SAFETY: stop commands and zero setpoints. Strict priority: sent before anything
+ *   else, and queued CONTROL messages are dropped because they would move the car again</li>
+ *   <li>CONTROL: movement commands, drive frames and lease renewals</li>
+ *   <li>BULK: configuration such as rate requests, diagnostics</li>
+ * </ul>
+ * CONTROL and BULK share SHARED_IN_FLIGHT slots with smooth weighted round robin, so bulk
+ * traffic keeps moving without slowing driving down. Each lane also has its own in-flight
+ * limit (published but not yet completed by the client). SAFETY's slots are its own, and
+ * the client's in-flight window is sized for all of them, so it is never full of bulk
+ * messages when a stop comes.
+ * A message with a key replaces a queued message with the same key, e.g. only the newest
+ * drive frame waits.
+ * <p>
+ * Thread safe: submit from any thread, complete from the client's callback thread. Only one
+ * thread publishes at a time, in priority order; the clock is injected for tests.
+ */
+public class OutboundScheduler {
+
+    public enum Lane {
+        SAFETY, CONTROL, BULK
+    }
+
+    // Indexed by Lane.ordinal()
+    static final int[] IN_FLIGHT_LIMIT = {2, 4, 2};
+    static final int[] QUEUE_LIMIT = {16, 32, 64};
+    static final int[] WEIGHT = {0, 3, 1};              // SAFETY is strict priority, not weighted
+    static final int SHARED_IN_FLIGHT = 4;              // CONTROL and BULK together
+
+    /**
+     * Most messages in flight at once, to configure the client's in-flight window with
+     */
+    public static final int MAX_IN_FLIGHT = 2 + SHARED_IN_FLIGHT;   // SAFETY's own slots + shared
+
+    static final double DELAY_ALPHA = 0.1;
+
+    public interface Transport {
+        /**
+         * Publish without blocking and call {@link #onComplete} once it was delivered or failed
+         */
+        void publish(Message message);
+    }
+
+    public static final class Message {
+        private final Lane lane;
+        private final String topic;
+        private final byte[] payload;
+        private final int qos;
+        private final String key;
+        private final String failureMessage;
+        private long enqueuedNanos;
+        private int generation;
+        private boolean completed;
+
+        /**
+         * @param key            messages with the same key supersede each other while queued, may be null
+         * @param failureMessage shown to the user if the publish fails, null to fail silently
+         */
+        public Message(Lane lane, String topic, byte[] payload, int qos, String key, String failureMessage) {
+            this.lane = lane;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.key = key;
+            this.failureMessage = failureMessage;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public int getQos() {
+            return qos;
+        }
+
+        public String getFailureMessage() {
+            return failureMessage;
+        }
+    }
+
+    /**
+     * Snapshot of one lane
+     */
+    public static final class LaneStats {
+        private final Lane lane;
+        private final long sent;
+        private final long dropped;
+        private final int queued;
+        private final int inFlight;
+        private final double meanQueueDelayMs;
+        private final double maxQueueDelayMs;
+
+        LaneStats(Lane lane, long sent, long dropped, int queued, int inFlight,
+                  double meanQueueDelayMs, double maxQueueDelayMs) {
+            this.lane = lane;
+            this.sent = sent;
+            this.dropped = dropped;
+            this.queued = queued;
+            this.inFlight = inFlight;
+            this.meanQueueDelayMs = meanQueueDelayMs;
+            this.maxQueueDelayMs = maxQueueDelayMs;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * Superseded by a newer message with the same key, flushed by a stop, or over the queue limit
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Time from submit to publish, moving average
+         */
+        public double getMeanQueueDelayMs() {
+            return meanQueueDelayMs;
+        }
+
+        public double getMaxQueueDelayMs() {
+            return maxQueueDelayMs;
+        }
+
+        @Override
+        public String toString() {
+            return lane + ": sent=" + sent + " dropped=" + dropped + " queued=" + queued
+                    + " inFlight=" + inFlight + " delay=" + String.format("%.1f", meanQueueDelayMs)
+                    + "/" + String.format("%.1f", maxQueueDelayMs) + " ms";
+        }
+    }
+
+    private static final int LANES = Lane.values().length;
+
+    private final Transport transport;
+    private final LongSupplier clockNanos;
+
+    // Guarded by this
+    private final ArrayDeque<Message>[] queues;
+    private final int[] inFlight = new int[LANES];
+    private final int[] credit = new int[LANES];
+    private final long[] sent = new long[LANES];
+    private final long[] dropped = new long[LANES];
+    private final double[] meanDelayMs = new double[LANES];
+    private final double[] maxDelayMs = new double[LANES];
+    private int generation;
+    private boolean publishing;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OutboundScheduler(Transport transport, LongSupplier clockNanos) {
+        this.transport = transport;
+        this.clockNanos = clockNanos;
+        queues = new ArrayDeque[LANES];
+        for (int i = 0; i < LANES; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    public void submit(Message message) {
+        synchronized (this) {
+            int lane = message.lane.ordinal();
+            if (message.lane == Lane.SAFETY) {
+                // Movement still waiting would undo the stop
+                dropped[Lane.CONTROL.ordinal()] += queues[Lane.CONTROL.ordinal()].size();
+                queues[Lane.CONTROL.ordinal()].clear();
+            }
+            ArrayDeque<Message> queue = queues[lane];
+            if (message.key != null) {
+                for (Iterator<Message> it = queue.iterator(); it.hasNext(); ) {
+                    if (message.key.equals(it.next().key)) {
+                        it.remove();
+                        dropped[lane]++;
+                        break;
+                    }
+                }
+            }
+            if (queue.size() >= QUEUE_LIMIT[lane]) {
+                queue.pollFirst();
+                dropped[lane]++;
+            }
+            message.enqueuedNanos = clockNanos.getAsLong();
+            message.generation = generation;
+            queue.addLast(message);
+        }
+        drain();
+    }
+
+    /**
+     * The transport finished with a message, successfully or not. Calls for messages from
+     * before the last {@link #reset()}, or repeated calls, are ignored.
+     */
+    public void onComplete(Message message) {
+        synchronized (this) {
+            if (message.completed || message.generation != generation) {
+                return;
+            }
+            message.completed = true;
+            inFlight[message.lane.ordinal()]--;
+        }
+        drain();
+    }
+
+    /**
+     * Connection gone: queued messages are dropped, in-flight ones will never complete
+     */
+    public synchronized void reset() {
+        generation++;
+        for (int i = 0; i < LANES; i++) {
+            dropped[i] += queues[i].size();
+            queues[i].clear();
+            inFlight[i] = 0;
+            credit[i] = 0;
+        }
+    }
+
+    public synchronized LaneStats getStats(Lane lane) {
+        int i = lane.ordinal();
+        return new LaneStats(lane, sent[i], dropped[i], queues[i].size(), inFlight[i],
+                meanDelayMs[i], maxDelayMs[i]);
+    }
+
+    /**
+     * Publish until nothing is eligible. Whoever finds nobody publishing becomes the
+     * publisher; everybody else just queues, so publishes leave in priority order.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (publishing) {
+                return;
+            }
+            publishing = true;
+        }
+        while (true) {
+            Message next;
+            synchronized (this) {
+                next = pickNext();
+                if (next == null) {
+                    publishing = false;
+                    return;
+                }
+            }
+            try {
+                transport.publish(next);
+            } catch (RuntimeException e) {
+                onComplete(next);
+            }
+        }
+    }
+
+    private Message pickNext() {
+        int lane = Lane.SAFETY.ordinal();
+        if (!isEligible(lane)) {
+            lane = pickWeighted();
+            if (lane < 0) {
+                return null;
+            }
+        }
+        Message message = queues[lane].pollFirst();
+        inFlight[lane]++;
+        sent[lane]++;
+        double delayMs = (clockNanos.getAsLong() - message.enqueuedNanos) / 1e6;
+        meanDelayMs[lane] = sent[lane] == 1 ? delayMs : meanDelayMs[lane] + DELAY_ALPHA * (delayMs - meanDelayMs[lane]);
+        maxDelayMs[lane] = Math.max(maxDelayMs[lane], delayMs);
+        return message;
+    }
+
+    /**
+     * Smooth weighted round robin over the eligible weighted lanes, -1 if none
+     */
+    private int pickWeighted() {
+        if (inFlight[Lane.CONTROL.ordinal()] + inFlight[Lane.BULK.ordinal()] >= SHARED_IN_FLIGHT) {
+            return -1;
+        }
+        int total = 0;
+        int best = -1;
+        for (int i = 0; i < LANES; i++) {
+            if (WEIGHT[i] == 0 || !isEligible(i)) {
+                continue;
+            }
+            credit[i] += WEIGHT[i];
+            total += WEIGHT[i];
+            if (best < 0 || credit[i] > credit[best]) {
+                best = i;
+            }
+        }
+        if (best >= 0) {
+            credit[best] -= total;
+        }
+        return best;
+    }
+
+    private boolean isEligible(int lane) {
+        return !queues[lane].isEmpty() && inFlight[lane] < IN_FLIGHT_LIMIT[lane];
+    }
+}
@@ -0,0 +1,234 @@
+package com.jdev.mqtt_car.data.control;
+
+import com.jdev.mqtt_car.model.TelemetrySample;
+
+/**
+ * Negotiates the car's telemetry interval.
+ * <p>
+ * The wanted interval comes from what the user is doing (background, watching, driving),
+ * then backs off one step on a weak link, two on a bad one, and one more while frames
+ * queue up on the way in. A request is a command frame; whether the car applied it is
+ * read from the device timestamps of the following frames, which unlike receive times
+ * are not smeared by network jitter. A car that never confirms (older firmware) gets
+ * MAX_RESENDS more tries and is then left alone.
+ * <p>
+ * Speeding up for the user goes out at once, everything else at most every
+ * MIN_REQUEST_GAP_MS so a wobbling RSSI cannot flap the rate. Time is passed in by the
+ * caller, like {@link CommandLease}.
+ */
+public class TelemetryRateController {
+
+    public static final int DEFAULT_INTERVAL_MS = 500;     // firmware TELEMETRY_INTERVAL
+
+    // Allowed intervals, fastest first; everything is rounded onto these
+    static final int[] LADDER_MS = {100, 200, 500, 1000, 2000, 5000};
+    static final int DRIVING_INTERVAL_MS = 100;
+    static final int FOREGROUND_INTERVAL_MS = 500;
+    static final int BACKGROUND_INTERVAL_MS = 5000;
+
+    static final int WEAK_RSSI = -75;
+    static final int BAD_RSSI = -85;
+    static final float RSSI_ALPHA = 0.2f;
+
+    static final long MIN_QUEUE_DELAY_MS = 250;
+    static final float QUEUE_ALPHA = 0.2f;
+
+    static final long MIN_REQUEST_GAP_MS = 2000;
+    static final int CONFIRM_FRAMES = 3;
+    static final double CONFIRM_TOLERANCE = 0.3;
+    static final int MAX_RESENDS = 3;
+
+    public interface RateSink {
+        void requestInterval(int intervalMs);
+    }
+
+    public interface IntervalListener {
+        /**
+         * Longest gap to expect between frames from now on, e.g. to re-learn liveness cadence
+         */
+        void onExpectedIntervalChanged(int intervalMs);
+    }
+
+    private final RateSink sink;
+    private final IntervalListener listener;
+
+    private boolean foreground = true;
+    private boolean driving;
+
+    // Link quality from the frames themselves
+    private float rssi = Float.NaN;
+    private long minLagMs = Long.MAX_VALUE;
+    private float queueDelayMs;
+
+    // Negotiation
+    private int requestedMs = -1;          // -1: nothing sent on this connection yet
+    private int confirmedMs = -1;          // -1: the car's interval is not known
+    private long lastRequestMs = Long.MIN_VALUE / 2;
+    private int resends;
+    private boolean unsupported;
+    private int matchingFrames;
+    private long lastDeviceMillis = -1;
+
+    public TelemetryRateController(RateSink sink, IntervalListener listener) {
+        this.sink = sink;
+        this.listener = listener;
+    }
+
+    /**
+     * New connection: the car's interval is unknown again, the wanted one is sent at once
+     */
+    public synchronized void onConnected(long nowMs) {
+        requestedMs = -1;
+        confirmedMs = -1;
+        resends = 0;
+        unsupported = false;
+        matchingFrames = 0;
+        lastDeviceMillis = -1;
+        minLagMs = Long.MAX_VALUE;
+        queueDelayMs = 0;
+        evaluate(nowMs, true);
+    }
+
+    public synchronized void setForeground(boolean foreground, long nowMs) {
+        if (this.foreground != foreground) {
+            this.foreground = foreground;
+            evaluate(nowMs, foreground);
+        }
+    }
+
+    public synchronized void setDriving(boolean driving, long nowMs) {
+        if (this.driving != driving) {
+            this.driving = driving;
+            evaluate(nowMs, driving);
+        }
+    }
+
+    /**
+     * Every telemetry frame, before it is handed on. Uses the device timestamp to confirm
+     * the rate and its offset from the receive time to detect inbound queueing.
+     */
+    public synchronized void onTelemetry(TelemetrySample sample) {
+        long nowMs = sample.getTimestamp();
+        long deviceMillis = sample.getDeviceMillis();
+
+        int frameRssi = sample.getWifiRssi();
+        if (frameRssi != 0) {
+            rssi = Float.isNaN(rssi) ? frameRssi : rssi + RSSI_ALPHA * (frameRssi - rssi);
+        }
+
+        if (deviceMillis > 0) {
+            // Lag = receive time - device time = clock offset + queueing; the smallest lag
+            // seen is the offset, anything above it waited somewhere
+            long lag = nowMs - deviceMillis;
+            if (lastDeviceMillis < 0 || deviceMillis <= lastDeviceMillis) {
+                minLagMs = lag;   // first frame or the car rebooted
+                queueDelayMs = 0;
+                matchingFrames = 0;
+            } else {
+                minLagMs = Math.min(minLagMs, lag);
+                queueDelayMs += QUEUE_ALPHA * ((lag - minLagMs) - queueDelayMs);
+                checkConfirmation((int) (deviceMillis - lastDeviceMillis));
+            }
+            lastDeviceMillis = deviceMillis;
+        }
+        evaluate(nowMs, false);
+    }
+
+    private void checkConfirmation(int gapMs) {
+        if (requestedMs < 0 || requestedMs == confirmedMs) {
+            return;
+        }
+        if (Math.abs(gapMs - requestedMs) <= requestedMs * CONFIRM_TOLERANCE) {
+            if (++matchingFrames >= CONFIRM_FRAMES) {
+                confirmedMs = requestedMs;
+                resends = 0;
+                listener.onExpectedIntervalChanged(confirmedMs);
+            }
+        } else {
+            matchingFrames = 0;
+        }
+    }
+
+    private void evaluate(long nowMs, boolean urgent) {
+        if (unsupported) {
+            return;
+        }
+        int target = targetIntervalMs();
+
+        if (target != requestedMs) {
+            if (urgent || requestedMs < 0 || nowMs - lastRequestMs >= MIN_REQUEST_GAP_MS) {
+                send(target, nowMs);
+            }
+            return;
+        }
+        // Same target still unconfirmed: the request or the car ignored it, try again
+        if (requestedMs != confirmedMs && nowMs - lastRequestMs >= confirmTimeoutMs()) {
+            if (resends >= MAX_RESENDS) {
+                unsupported = true;
+                return;
+            }
+            resends++;
+            send(target, nowMs);
+        }
+    }
+
+    private void send(int intervalMs, long nowMs) {
+        // Until confirmed, frames may come at either rate; a car we know nothing about may
+        // still be on the slowest one from an earlier session
+        int previousExpected = confirmedMs < 0 ? LADDER_MS[LADDER_MS.length - 1] : Math.max(confirmedMs, requestedMs);
+        requestedMs = intervalMs;
+        lastRequestMs = nowMs;
+        matchingFrames = 0;
+        sink.requestInterval(intervalMs);
+        listener.onExpectedIntervalChanged(Math.max(previousExpected, intervalMs));
+    }
+
+    private long confirmTimeoutMs() {
+        // Enough time for the request to arrive and CONFIRM_FRAMES to come back at the old rate or the new one
+        return MIN_REQUEST_GAP_MS + (long) (CONFIRM_FRAMES + 1) * Math.max(requestedMs, confirmedMs);
+    }
+
+    int targetIntervalMs() {
+        int base = !foreground ? BACKGROUND_INTERVAL_MS : driving ? DRIVING_INTERVAL_MS : FOREGROUND_INTERVAL_MS;
+        int step = indexOf(base);
+        if (!Float.isNaN(rssi)) {
+            if (rssi < BAD_RSSI) {
+                step += 2;
+            } else if (rssi < WEAK_RSSI) {
+                step += 1;
+            }
+        }
+        // More than a frame interval of backlog: we are not keeping up
+        if (queueDelayMs > Math.max(MIN_QUEUE_DELAY_MS, Math.max(confirmedMs, requestedMs))) {
+            step += 1;
+        }
+        return LADDER_MS[Math.min(step, LADDER_MS.length - 1)];
+    }
+
+    private static int indexOf(int intervalMs) {
+        for (int i = 0; i < LADDER_MS.length; i++) {
+            if (LADDER_MS[i] >= intervalMs) {
+                return i;
+            }
+        }
+        return LADDER_MS.length - 1;
+    }
+
+    public synchronized int getRequestedIntervalMs() {
+        return requestedMs;
+    }
+
+    /**
+     * Interval the car is known to be publishing at, from the device timestamps, -1 if unknown
+     */
+    public synchronized int getConfirmedIntervalMs() {
+        return confirmedMs;
+    }
+
+    /**
+     * True once the car ignored every request, e.g. firmware without rate support
+     */
+    public synchronized boolean isUnsupported() {
+        return unsupported;
+    }
+}
@@ -0,0 +1,99 @@
+package com.jdev.mqtt_car.data.export;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Layout of the compact columnar export (.mqtc), shared by {@link ColumnarWriter} and
+ * {@link ColumnarReader}. The whole file is one GZIP stream containing:
+ * <pre>
+ *   int magic "MQTC", byte version, varint column count, UTF column names
+ *   chunk*:
+ *     varint rows (0 ends the file)
+ *     varint dictionary entries, each varint id + UTF value
+ *     per column: varint byte length, zigzag varint deltas
+ * </pre>
+ * Every column is delta encoded against the previous row of the same chunk. String columns
+ * hold dictionary ids, and a dictionary entry is only written in the chunk where its string
+ * first appears, so the chunks have to be read in order from the start.
+ */
+public final class ColumnarFormat {
+
+    static final int MAGIC = 0x4D515443;   // "MQTC"
+    static final int VERSION = 1;
+
+    public static final int CHUNK_ROWS = 16 * 1024;
+
+    public static final int COL_EVENT = 0;
+    public static final int COL_TIMESTAMP = 1;
+    public static final int COL_DEVICE = 2;
+    public static final int COL_BATTERY = 3;
+    public static final int COL_DISTANCE_FRONT = 4;
+    public static final int COL_TEMPERATURE = 5;
+    public static final int COL_ACTION = 6;
+    public static final int COL_WIFI_RSSI = 7;
+    public static final int COL_FREE_HEAP = 8;
+    public static final int COL_FIRMWARE = 9;
+
+    public static final String[] COLUMNS = {
+            "event", "timestamp", "device_id", "battery", "distance_front",
+            "temperature", "action", "wifi_rssi", "free_heap", "firmware"
+    };
+
+    private ColumnarFormat() {
+    }
+
+    /**
+     * GZIP stream at the fastest deflate level; the varint columns are already compact, a
+     * higher level costs several times the CPU for a few percent of size.
+     */
+    static GZIPOutputStream fastGzip(OutputStream target, int bufferSize) throws IOException {
+        return new GZIPOutputStream(target, bufferSize) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+    }
+
+    // ========================================
+    // Varints
+    // ========================================
+
+    static int writeZigZag(byte[] buf, int pos, long value) {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long decodeZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -0,0 +1,120 @@
+package com.jdev.mqtt_car.data.export;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static com.jdev.mqtt_car.data.export.ColumnarFormat.*;
+
+/**
+ * Reads a {@link ColumnarFormat} file back one chunk at a time, for offline tools and tests.
+ */
+public class ColumnarReader implements Closeable {
+
+    private final DataInputStream in;
+    private final String[] columnNames;
+    private final List<String> dictionary = new ArrayList<>();
+    private long[][] columns;
+    private int rows;
+    private byte[] encoded = new byte[0];
+
+    public ColumnarReader(InputStream source) throws IOException {
+        in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(source, 64 * 1024), 64 * 1024));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a columnar telemetry export");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported export version " + version);
+        }
+        columnNames = new String[(int) readVarint(in)];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = in.readUTF();
+        }
+        columns = new long[columnNames.length][0];
+    }
+
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Load the next chunk, returns false at the end of the file
+     */
+    public boolean nextChunk() throws IOException {
+        try {
+            rows = (int) readVarint(in);
+        } catch (EOFException e) {
+            return false;
+        }
+        if (rows == 0) {
+            return false;
+        }
+        int strings = (int) readVarint(in);
+        for (int i = 0; i < strings; i++) {
+            int id = (int) readVarint(in);
+            String value = in.readUTF();
+            while (dictionary.size() <= id) {
+                dictionary.add("");
+            }
+            dictionary.set(id, value);
+        }
+        for (int c = 0; c < columns.length; c++) {
+            int length = (int) readVarint(in);
+            if (encoded.length < length) {
+                encoded = new byte[length];
+            }
+            in.readFully(encoded, 0, length);
+            if (columns[c].length < rows) {
+                columns[c] = new long[rows];
+            }
+            decodeColumn(encoded, length, columns[c], rows);
+        }
+        return true;
+    }
+
+    private static void decodeColumn(byte[] data, int length, long[] into, int rows) throws IOException {
+        int pos = 0;
+        long previous = 0;
+        for (int r = 0; r < rows; r++) {
+            long raw = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= length) {
+                    throw new IOException("Truncated column");
+                }
+                int b = data[pos++];
+                raw |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+                shift += 7;
+            }
+            previous += decodeZigZag(raw);
+            into[r] = previous;
+        }
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public long get(int column, int row) {
+        return columns[column][row];
+    }
+
+    public String string(int id) {
+        return id >= 0 && id < dictionary.size() ? dictionary.get(id) : "";
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.jdev.mqtt_car.data.export;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jdev.mqtt_car.data.export.ColumnarFormat.*;
+
+/**
+ * Writes rows into the {@link ColumnarFormat} in fixed-size chunks, so memory stays at
+ * one chunk of columns plus its encoding buffer no matter how long the session is.
+ */
+public class ColumnarWriter implements Closeable {
+
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final DataOutputStream out;
+    private final long[][] columns = new long[COLUMNS.length][CHUNK_ROWS];
+    private final byte[] encoded = new byte[CHUNK_ROWS * MAX_VARINT_BYTES];
+    private final List<Integer> pendingIds = new ArrayList<>();
+    private final List<String> pendingValues = new ArrayList<>();
+    private int rows;
+
+    public ColumnarWriter(OutputStream target) throws IOException {
+        out = new DataOutputStream(fastGzip(new BufferedOutputStream(target, 64 * 1024), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeVarint(out, COLUMNS.length);
+        for (String name : COLUMNS) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * Register a dictionary string before the first row that references it
+     */
+    public void addString(int id, String value) {
+        pendingIds.add(id);
+        pendingValues.add(value);
+    }
+
+    public void addRow(TelemetryJournal.Entry entry) throws IOException {
+        columns[COL_EVENT][rows] = entry.type;
+        columns[COL_TIMESTAMP][rows] = entry.timestamp;
+        columns[COL_DEVICE][rows] = entry.device;
+        columns[COL_BATTERY][rows] = entry.battery;
+        columns[COL_DISTANCE_FRONT][rows] = entry.distanceFront;
+        columns[COL_TEMPERATURE][rows] = entry.temperature;
+        columns[COL_ACTION][rows] = entry.action;
+        columns[COL_WIFI_RSSI][rows] = entry.wifiRssi;
+        columns[COL_FREE_HEAP][rows] = entry.freeHeap;
+        columns[COL_FIRMWARE][rows] = entry.firmware;
+        if (++rows == CHUNK_ROWS) {
+            flushChunk();
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        if (rows == 0) {
+            return; // strings nobody references yet wait for the next chunk
+        }
+        writeVarint(out, rows);
+        writeVarint(out, pendingIds.size());
+        for (int i = 0; i < pendingIds.size(); i++) {
+            writeVarint(out, pendingIds.get(i));
+            out.writeUTF(pendingValues.get(i));
+        }
+        pendingIds.clear();
+        pendingValues.clear();
+
+        for (long[] column : columns) {
+            int length = 0;
+            long previous = 0;
+            for (int r = 0; r < rows; r++) {
+                length = writeZigZag(encoded, length, column[r] - previous);
+                previous = column[r];
+            }
+            writeVarint(out, length);
+            out.write(encoded, 0, length);
+        }
+        rows = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushChunk();
+            writeVarint(out, 0);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.jdev.mqtt_car.data.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+/**
+ * Streams a {@link TelemetryJournal} into a file for offline analysis, either gzipped CSV
+ * or the compact {@link ColumnarFormat}. Entries are read and written one at a time, so
+ * memory use does not depend on the session length.
+ */
+public class TelemetryExporter {
+
+    public enum Format {
+        CSV(".csv.gz"),
+        COLUMNAR(".mqtc");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Called on the export executor
+     */
+    public interface Listener {
+        void onProgress(int percent);
+
+        void onComplete(File output, long rows);
+
+        void onError(Exception e);
+    }
+
+    private static final String[] EVENT_NAMES = {"dict", "telemetry", "status", "command"};
+
+    private final Executor executor;
+
+    public TelemetryExporter(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Export in the background. A failed export deletes its partial output.
+     */
+    public void export(File journal, File output, Format format, Listener listener) {
+        executor.execute(() -> {
+            try {
+                long rows = exportNow(journal, output, format, listener);
+                listener.onComplete(output, rows);
+            } catch (IOException | RuntimeException e) {
+                //noinspection ResultOfMethodCallIgnored
+                output.delete();
+                listener.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Export on the calling thread, returns the number of rows written
+     */
+    public long exportNow(File journal, File output, Format format, Listener listener) throws IOException {
+        long total = Math.max(1, journal.length());
+        try (TelemetryJournal.Reader reader = new TelemetryJournal.Reader(journal);
+             OutputStream target = new FileOutputStream(output)) {
+            return format == Format.CSV
+                    ? writeCsv(reader, target, total, listener)
+                    : writeColumnar(reader, target, total, listener);
+        }
+    }
+
+    private long writeColumnar(TelemetryJournal.Reader reader, OutputStream target,
+                               long total, Listener listener) throws IOException {
+        long rows = 0;
+        int lastPercent = -1;
+        try (ColumnarWriter writer = new ColumnarWriter(target)) {
+            TelemetryJournal.Entry entry;
+            while ((entry = reader.next()) != null) {
+                int added = reader.takeNewDictionaryEntries();
+                for (int id = reader.dictionarySize() - added; id < reader.dictionarySize(); id++) {
+                    writer.addString(id, reader.string(id));
+                }
+                writer.addRow(entry);
+                if ((++rows & 0xFFFF) == 0) {
+                    lastPercent = reportProgress(reader, total, lastPercent, listener);
+                }
+            }
+        }
+        reportProgress(reader, total, lastPercent, listener);
+        return rows;
+    }
+
+    private long writeCsv(TelemetryJournal.Reader reader, OutputStream target,
+                          long total, Listener listener) throws IOException {
+        long rows = 0;
+        int lastPercent = -1;
+        StringBuilder line = new StringBuilder(128);
+        try (Writer writer = new OutputStreamWriter(ColumnarFormat.fastGzip(
+                new BufferedOutputStream(target, 64 * 1024), 64 * 1024), StandardCharsets.UTF_8)) {
+            writer.write("event,timestamp,device_id,battery,distance_front,temperature,"
+                    + "action,wifi_rssi,free_heap,firmware\n");
+            TelemetryJournal.Entry entry;
+            while ((entry = reader.next()) != null) {
+                line.setLength(0);
+                line.append(EVENT_NAMES[entry.type]).append(',')
+                        .append(entry.timestamp).append(',');
+                appendField(line, reader.string(entry.device)).append(',');
+                if (entry.type == TelemetryJournal.TYPE_TELEMETRY) {
+                    line.append(entry.battery).append(',')
+                            .append(entry.distanceFront).append(',')
+                            .append(entry.temperature).append(',');
+                    appendField(line, reader.string(entry.action)).append(',')
+                            .append(entry.wifiRssi).append(',')
+                            .append(entry.freeHeap).append(',');
+                } else {
+                    appendField(line.append(",,,"), reader.string(entry.action)).append(",,,");
+                }
+                if (entry.type == TelemetryJournal.TYPE_STATUS) {
+                    appendField(line, reader.string(entry.firmware));
+                }
+                line.append('\n');
+                writer.append(line);
+
+                if ((++rows & 0xFFFF) == 0) {
+                    lastPercent = reportProgress(reader, total, lastPercent, listener);
+                }
+            }
+        }
+        reportProgress(reader, total, lastPercent, listener);
+        return rows;
+    }
+
+    /**
+     * Strings come from the car, quote them as RFC 4180 requires when they hold a delimiter
+     */
+    private static StringBuilder appendField(StringBuilder line, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return line.append(value);
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        return line.append('"');
+    }
+
+    private static int reportProgress(TelemetryJournal.Reader reader, long total,
+                                      int lastPercent, Listener listener) {
+        int percent = (int) Math.min(100, reader.bytesRead() * 100 / total);
+        if (percent != lastPercent) {
+            listener.onProgress(percent);
+        }
+        return percent;
+    }
+}
@@ -0,0 +1,311 @@
+package com.jdev.mqtt_car.data.export;
+
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.TelemetrySample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Append-only binary log of one drive session: telemetry frames, status changes and
+ * commands sent from this phone. It is the input of {@link TelemetryExporter}.
+ * <p>
+ * Strings (device ids, actions, status values) are written once as dictionary records and
+ * referenced by id afterwards, so a telemetry frame is a fixed 37 bytes. Writes go through a
+ * buffer and only reach the file when it fills up or on {@link #flush()}.
+ */
+public class TelemetryJournal implements Closeable {
+
+    static final int MAGIC = 0x4D51544A;   // "MQTJ"
+    static final int VERSION = 1;
+
+    public static final byte TYPE_DICT = 0;
+    public static final byte TYPE_TELEMETRY = 1;
+    public static final byte TYPE_STATUS = 2;
+    public static final byte TYPE_COMMAND = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String SESSION_PREFIX = "session-";
+    private static final String SESSION_SUFFIX = ".bin";
+
+    private final File file;
+    private final DataOutputStream out;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private long entries;
+
+    private TelemetryJournal(File file, DataOutputStream out) {
+        this.file = file;
+        this.out = out;
+    }
+
+    /**
+     * Start a new journal, replacing any file at that path
+     */
+    public static TelemetryJournal create(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        return new TelemetryJournal(file, out);
+    }
+
+    /**
+     * Start a new session journal in dir, named after the car and the start time
+     */
+    public static TelemetryJournal createSession(File dir, String deviceId) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        return create(new File(dir, SESSION_PREFIX + deviceId + "-" + stamp + SESSION_SUFFIX));
+    }
+
+    /**
+     * Most recently written session journal in dir, null if there is none
+     */
+    public static File latestSession(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SESSION_PREFIX) && name.endsWith(SESSION_SUFFIX));
+        File latest = null;
+        if (files != null) {
+            for (File file : files) {
+                if (latest == null || file.lastModified() > latest.lastModified()) {
+                    latest = file;
+                }
+            }
+        }
+        return latest;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized long getEntryCount() {
+        return entries;
+    }
+
+    public synchronized void appendTelemetry(String deviceId, TelemetrySample sample) throws IOException {
+        int device = idOf(deviceId);
+        int action = idOf(sample.getCurrentAction());
+        out.writeByte(TYPE_TELEMETRY);
+        out.writeLong(sample.getTimestamp());
+        out.writeInt(device);
+        out.writeInt(sample.getBattery());
+        out.writeInt(sample.getDistanceFront());
+        out.writeInt(sample.getTemperature());
+        out.writeInt(action);
+        out.writeInt(sample.getWifiRssi());
+        out.writeInt(sample.getFreeHeap());
+        entries++;
+    }
+
+    public synchronized void appendStatus(long timestamp, String deviceId, CarStatus status) throws IOException {
+        int device = idOf(deviceId);
+        int value = idOf(status.getStatus());
+        int firmware = idOf(status.getFirmware());
+        out.writeByte(TYPE_STATUS);
+        out.writeLong(timestamp);
+        out.writeInt(device);
+        out.writeInt(value);
+        out.writeInt(firmware);
+        entries++;
+    }
+
+    public synchronized void appendCommand(long timestamp, String deviceId, String action) throws IOException {
+        int device = idOf(deviceId);
+        int value = idOf(action);
+        out.writeByte(TYPE_COMMAND);
+        out.writeLong(timestamp);
+        out.writeInt(device);
+        out.writeInt(value);
+        entries++;
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private int idOf(String value) throws IOException {
+        String key = value != null ? value : "";
+        Integer id = dictionary.get(key);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(key, id);
+            out.writeByte(TYPE_DICT);
+            out.writeInt(id);
+            out.writeUTF(key);
+        }
+        return id;
+    }
+
+    // ========================================
+    // Reading
+    // ========================================
+
+    /**
+     * One journal entry, reused by the {@link Reader} for every record it returns
+     */
+    public static class Entry {
+        public byte type;
+        public long timestamp;
+        public int device;
+        public int battery;
+        public int distanceFront;
+        public int temperature;
+        public int action;          // dictionary id, also the status value for TYPE_STATUS
+        public int wifiRssi;
+        public int freeHeap;
+        public int firmware;        // dictionary id, TYPE_STATUS only
+
+        void clear() {
+            timestamp = 0;
+            device = battery = distanceFront = temperature = action = wifiRssi = freeHeap = firmware = 0;
+        }
+    }
+
+    /**
+     * Streams entries back in order. Dictionary records are resolved internally, only the
+     * dictionary itself grows with the session, one String per distinct value.
+     */
+    public static class Reader implements Closeable {
+        private final CountingInputStream counter;
+        private final DataInputStream in;
+        private final List<String> dictionary = new ArrayList<>();
+        private final Entry entry = new Entry();
+        private int newDictionaryEntries;
+
+        public Reader(File file) throws IOException {
+            counter = new CountingInputStream(new FileInputStream(file));
+            in = new DataInputStream(new BufferedInputStream(counter, BUFFER_SIZE));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException("Not a telemetry journal: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("Unsupported journal version " + version);
+            }
+        }
+
+        /**
+         * Next telemetry/status/command entry, or null at the end. A truncated last
+         * record (app killed mid-write) is treated as the end.
+         */
+        public Entry next() throws IOException {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == TYPE_DICT) {
+                        int id = in.readInt();
+                        String value = in.readUTF();
+                        while (dictionary.size() <= id) {
+                            dictionary.add("");
+                        }
+                        dictionary.set(id, value);
+                        newDictionaryEntries++;
+                        continue;
+                    }
+                    entry.clear();
+                    entry.type = type;
+                    entry.timestamp = in.readLong();
+                    entry.device = in.readInt();
+                    switch (type) {
+                        case TYPE_TELEMETRY:
+                            entry.battery = in.readInt();
+                            entry.distanceFront = in.readInt();
+                            entry.temperature = in.readInt();
+                            entry.action = in.readInt();
+                            entry.wifiRssi = in.readInt();
+                            entry.freeHeap = in.readInt();
+                            break;
+                        case TYPE_STATUS:
+                            entry.action = in.readInt();
+                            entry.firmware = in.readInt();
+                            break;
+                        case TYPE_COMMAND:
+                            entry.action = in.readInt();
+                            break;
+                        default:
+                            throw new IOException("Corrupt journal, unknown record type " + type);
+                    }
+                    return entry;
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        public String string(int id) {
+            return id >= 0 && id < dictionary.size() ? dictionary.get(id) : "";
+        }
+
+        public int dictionarySize() {
+            return dictionary.size();
+        }
+
+        /**
+         * Number of dictionary entries read since the last call
+         */
+        int takeNewDictionaryEntries() {
+            int n = newDictionaryEntries;
+            newDictionaryEntries = 0;
+            return n;
+        }
+
+        /**
+         * Bytes consumed from the file so far, for progress reporting
+         */
+        public long bytesRead() {
+            return counter.count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class CountingInputStream extends java.io.FilterInputStream {
+        long count;
+
+        CountingInputStream(java.io.InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jdev.mqtt_car.data.macro;
+
+import androidx.annotation.NonNull;
+
+import com.jdev.mqtt_car.model.CarCommand;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A compiled drive sequence: the discrete commands to send and when, as offsets from the
+ * start of the run. Built by {@link MacroCompiler} from the text form or by
+ * {@link MacroRecorder} from a button session, and played by {@link MacroRunner}.
+ * Always ends with a stop, so a finished macro never leaves the car moving.
+ */
+public final class CommandMacro {
+
+    private final String[] actions;
+    private final long[] offsetsNanos;
+    private final long durationNanos;
+
+    CommandMacro(String[] actions, long[] offsetsNanos, long durationNanos) {
+        this.actions = actions;
+        this.offsetsNanos = offsetsNanos;
+        this.durationNanos = durationNanos;
+    }
+
+    public int size() {
+        return actions.length;
+    }
+
+    public String getAction(int step) {
+        return actions[step];
+    }
+
+    /**
+     * When the step is sent, since the start of the run
+     */
+    public long getOffsetNanos(int step) {
+        return offsetsNanos[step];
+    }
+
+    /**
+     * Until the end of the last step; the final stop may be held for a while
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * The text form, one step per line, which compiles back to the same timeline
+     */
+    public String toSource() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < actions.length; i++) {
+            long end = i + 1 < actions.length ? offsetsNanos[i + 1] : durationNanos;
+            source.append(actions[i]);
+            if (end > offsetsNanos[i]) {
+                source.append(' ').append(formatDuration(end - offsetsNanos[i]));
+            }
+            source.append('\n');
+        }
+        return source.toString();
+    }
+
+    static String formatDuration(long nanos) {
+        if (nanos % TimeUnit.SECONDS.toNanos(1) == 0) {
+            return TimeUnit.NANOSECONDS.toSeconds(nanos) + "s";
+        }
+        return BigDecimal.valueOf(nanos, 6).stripTrailingZeros().toPlainString() + "ms";
+    }
+
+    static boolean isStop(String action) {
+        return CarCommand.ACTION_STOP.equals(action);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CommandMacro{" + actions.length + " steps, " + formatDuration(durationNanos) + "}";
+    }
+}
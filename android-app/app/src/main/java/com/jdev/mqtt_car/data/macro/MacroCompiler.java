@@ -0,0 +1,241 @@
+package com.jdev.mqtt_car.data.macro;
+
+import com.jdev.mqtt_car.model.CarCommand;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles the macro text form into a {@link CommandMacro} timeline:
+ * <pre>
+ *   # square, twice
+ *   repeat 2 {
+ *     forward 2s
+ *     left 500ms
+ *   }
+ *   stop 1s; backward 0.75s
+ * </pre>
+ * A step is a command and how long it is held; movement commands need a duration, a
+ * stop may have one. "wait" holds the previous command longer. Steps are separated by
+ * whitespace, newlines or ';', and '#' starts a comment. A stop is added at the end if
+ * the macro does not end with one. Errors are reported with their line number.
+ */
+public final class MacroCompiler {
+
+    static final Set<String> ACTIONS = new HashSet<>(Arrays.asList(
+            "forward", "backward", "left", "right", CarCommand.ACTION_STOP));
+
+    // Bounds so a typo like "repeat 1000" cannot drive off for an hour
+    static final int MAX_STEPS = 1000;
+    static final long MAX_DURATION_NANOS = TimeUnit.MINUTES.toNanos(10);
+    static final long MIN_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String source;
+    private int pos;
+    private int line = 1;
+
+    private final List<String> actions = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();
+    private long time;
+
+    private MacroCompiler(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @throws IllegalArgumentException with the line number if the text is not a valid macro
+     */
+    public static CommandMacro compile(String source) {
+        return new MacroCompiler(source).compileAll();
+    }
+
+    private CommandMacro compileAll() {
+        block(false);
+        if (actions.isEmpty()) {
+            throw error("Macro is empty");
+        }
+        if (!CommandMacro.isStop(actions.get(actions.size() - 1))) {
+            add(CarCommand.ACTION_STOP);
+        }
+        String[] a = actions.toArray(new String[0]);
+        long[] o = new long[offsets.size()];
+        for (int i = 0; i < o.length; i++) {
+            o[i] = offsets.get(i);
+        }
+        return new CommandMacro(a, o, time);
+    }
+
+    /**
+     * Statements up to the end of the text, or up to the closing brace of a repeat
+     */
+    private void block(boolean nested) {
+        while (true) {
+            String word = next();
+            if (word == null) {
+                if (nested) {
+                    throw error("Missing '}'");
+                }
+                return;
+            }
+            if (word.equals("}")) {
+                if (!nested) {
+                    throw error("Unexpected '}'");
+                }
+                return;
+            }
+            statement(word.toLowerCase(Locale.US));
+        }
+    }
+
+    private void statement(String word) {
+        if (word.equals("repeat")) {
+            int times = count(next());
+            if (!"{".equals(next())) {
+                throw error("Expected '{' after repeat " + times);
+            }
+            int bodyStart = pos;
+            int bodyLine = line;
+            for (int i = 0; i < times; i++) {
+                // Each pass compiles the body again from its text, so nested repeats just work
+                pos = bodyStart;
+                line = bodyLine;
+                block(true);
+            }
+        } else if (word.equals("wait")) {
+            if (actions.isEmpty()) {
+                throw error("'wait' before the first command");
+            }
+            hold(duration(next(), word));
+        } else if (ACTIONS.contains(word)) {
+            add(word);
+            String duration = peek();
+            if (duration != null && Character.isDigit(duration.charAt(0))) {
+                next();
+                hold(duration(duration, word));
+            } else if (!CommandMacro.isStop(word)) {
+                throw error("'" + word + "' needs a duration, e.g. " + word + " 1s");
+            }
+        } else {
+            throw error("Unknown command '" + word + "'");
+        }
+    }
+
+    private void add(String action) {
+        if (actions.size() >= MAX_STEPS) {
+            throw error("More than " + MAX_STEPS + " steps");
+        }
+        actions.add(action);
+        offsets.add(time);
+    }
+
+    private void hold(long nanos) {
+        time += nanos;
+        if (time > MAX_DURATION_NANOS) {
+            throw error("Longer than " + CommandMacro.formatDuration(MAX_DURATION_NANOS));
+        }
+    }
+
+    private int count(String word) {
+        try {
+            int times = Integer.parseInt(word);
+            if (times < 1 || times > MAX_STEPS) {
+                throw error("Repeat count must be 1 to " + MAX_STEPS);
+            }
+            return times;
+        } catch (NumberFormatException e) {
+            throw error("Expected a repeat count, got " + describe(word));
+        }
+    }
+
+    private long duration(String word, String after) {
+        if (word == null) {
+            throw error("Expected a duration after '" + after + "'");
+        }
+        String number;
+        long unitNanos;
+        if (word.endsWith("ms")) {
+            number = word.substring(0, word.length() - 2);
+            unitNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        } else if (word.endsWith("s")) {
+            number = word.substring(0, word.length() - 1);
+            unitNanos = TimeUnit.SECONDS.toNanos(1);
+        } else {
+            throw error("Duration needs a unit (ms or s): " + describe(word));
+        }
+        try {
+            long nanos = new BigDecimal(number).multiply(BigDecimal.valueOf(unitNanos)).longValueExact();
+            if (nanos < MIN_STEP_NANOS) {
+                throw error("Steps shorter than " + CommandMacro.formatDuration(MIN_STEP_NANOS)
+                        + " are not supported: " + word);
+            }
+            return nanos;
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw error("Bad duration " + describe(word));
+        }
+    }
+
+    // ========================================
+    // Scanner
+    // ========================================
+
+    private String peek() {
+        int savedPos = pos;
+        int savedLine = line;
+        String word = next();
+        pos = savedPos;
+        line = savedLine;
+        return word;
+    }
+
+    /**
+     * Next word, '{' or '}', or null at the end of the text
+     */
+    private String next() {
+        while (pos < source.length()) {
+            char c = source.charAt(pos);
+            if (c == '#') {
+                while (pos < source.length() && source.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (c == '\n') {
+                line++;
+                pos++;
+            } else if (Character.isWhitespace(c) || c == ';' || c == ',') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos >= source.length()) {
+            return null;
+        }
+        char c = source.charAt(pos);
+        if (c == '{' || c == '}') {
+            pos++;
+            return String.valueOf(c);
+        }
+        int start = pos;
+        while (pos < source.length()) {
+            c = source.charAt(pos);
+            if (Character.isWhitespace(c) || c == ';' || c == ',' || c == '#' || c == '{' || c == '}') {
+                break;
+            }
+            pos++;
+        }
+        return source.substring(start, pos);
+    }
+
+    private static String describe(String word) {
+        return word == null ? "end of macro" : "'" + word + "'";
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,73 @@
+package com.jdev.mqtt_car.data.macro;
+
+import com.jdev.mqtt_car.model.CarCommand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a session of button presses into a {@link CommandMacro}, so a manoeuvre driven
+ * once by hand can be replayed with exact timing. Time starts at the first command;
+ * holds are rounded to whole milliseconds so the text form stays readable.
+ * Not thread safe, fed from the thread that sends the commands.
+ */
+public class MacroRecorder {
+
+    private static final long ROUND_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<String> actions = new ArrayList<>();
+    private final List<Long> times = new ArrayList<>();
+
+    public void onCommand(String action, long nowNanos) {
+        if (!MacroCompiler.ACTIONS.contains(action)) {
+            return;
+        }
+        int last = actions.size() - 1;
+        if (last >= 0 && nowNanos - times.get(last) < MacroCompiler.MIN_STEP_NANOS) {
+            // A blip too short to replay: the newer command takes its place
+            actions.remove(last);
+            times.remove(last--);
+        }
+        if (last >= 0 && actions.get(last).equals(action)) {
+            return;   // repeated press of the same button, the car is already doing it
+        }
+        actions.add(action);
+        times.add(nowNanos);
+    }
+
+    public boolean isEmpty() {
+        return actions.isEmpty();
+    }
+
+    /**
+     * The recorded session as a macro, ending with a stop at nowNanos if the car was
+     * still moving. Null if nothing was recorded.
+     */
+    public CommandMacro finish(long nowNanos) {
+        if (actions.isEmpty()) {
+            return null;
+        }
+        boolean endsMoving = !CommandMacro.isStop(actions.get(actions.size() - 1));
+        int size = actions.size() + (endsMoving ? 1 : 0);
+        String[] a = new String[size];
+        long[] offsets = new long[size];
+        // Holds are rounded rather than absolute times, so none drops below the shortest step
+        for (int i = 0; i < actions.size(); i++) {
+            a[i] = actions.get(i);
+            offsets[i] = i == 0 ? 0 : offsets[i - 1] + round(times.get(i) - times.get(i - 1));
+        }
+        if (endsMoving) {
+            int last = actions.size() - 1;
+            a[size - 1] = CarCommand.ACTION_STOP;
+            offsets[size - 1] = offsets[last]
+                    + round(Math.max(nowNanos - times.get(last), MacroCompiler.MIN_STEP_NANOS));
+        }
+        // The final stop is not held, replaying ends as soon as the car is stopped
+        return new CommandMacro(a, offsets, offsets[size - 1]);
+    }
+
+    private static long round(long nanos) {
+        return (nanos + ROUND_NANOS / 2) / ROUND_NANOS * ROUND_NANOS;
+    }
+}
@@ -0,0 +1,247 @@
+package com.jdev.mqtt_car.data.macro;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link CommandMacro} on its own high-priority thread with System.nanoTime
+ * deadlines. Every step is due at the run's start time plus its offset, not at "previous
+ * send + hold", so a late step (GC pause, busy CPU) does not push the rest of the
+ * sequence back and error never accumulates over a long macro. The thread parks until
+ * shortly before a deadline and spins the last SPIN_NANOS, which is far tighter than the
+ * 10-20 ms a Handler.postDelayed chain drifts by.
+ * <p>
+ * {@link #abort(String)} takes effect at once: once it returns the runner sends nothing
+ * more. It does not send a stop itself; the caller decides (a user stop sends its own, a
+ * lost link cannot send anything).
+ */
+public class MacroRunner {
+
+    static final long SPIN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Where the runner thread reads the time and waits; tests replace it with a virtual clock
+     */
+    interface Clock {
+        long nanoTime();
+
+        void parkNanos(Object blocker, long nanos);
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void parkNanos(Object blocker, long nanos) {
+            LockSupport.parkNanos(blocker, nanos);
+        }
+    };
+
+    public interface CommandSink {
+        void sendCommand(String action);
+    }
+
+    public interface Listener {
+        /**
+         * Runner thread, right after a step was sent. lateNanos is actual minus planned send time.
+         */
+        void onStep(int step, String action, long lateNanos);
+
+        /**
+         * Runner thread, after the last step and its hold
+         */
+        void onFinished(Report report);
+
+        /**
+         * Thread that called {@link #abort(String)}
+         */
+        void onAborted(Report report, String reason);
+    }
+
+    /**
+     * Planned versus actual send times of a run
+     */
+    public static final class Report {
+        private final CommandMacro macro;
+        private final long[] lateNanos;
+        private int sent;
+        // Per run, so a run aborted just before the next one starts stays aborted
+        private volatile boolean aborted;
+
+        Report(CommandMacro macro) {
+            this.macro = macro;
+            this.lateNanos = new long[macro.size()];
+        }
+
+        public int getStepsSent() {
+            return sent;
+        }
+
+        public int getStepCount() {
+            return macro.size();
+        }
+
+        /**
+         * How late step was sent, in nanoseconds
+         */
+        public long getLateNanos(int step) {
+            return lateNanos[step];
+        }
+
+        public double getMeanJitterMs() {
+            if (sent == 0) {
+                return 0;
+            }
+            long total = 0;
+            for (int i = 0; i < sent; i++) {
+                total += Math.abs(lateNanos[i]);
+            }
+            return total / 1e6 / sent;
+        }
+
+        public double getMaxJitterMs() {
+            long max = 0;
+            for (int i = 0; i < sent; i++) {
+                max = Math.max(max, Math.abs(lateNanos[i]));
+            }
+            return max / 1e6;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d/%d steps, jitter mean %.3f ms, max %.3f ms",
+                    sent, macro.size(), getMeanJitterMs(), getMaxJitterMs());
+        }
+    }
+
+    private final CommandSink sink;
+    private final Clock clock;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private Thread thread;
+    private Report report;
+    private Listener listener;
+
+    public MacroRunner(CommandSink sink) {
+        this(sink, SYSTEM_CLOCK);
+    }
+
+    MacroRunner(CommandSink sink, Clock clock) {
+        this.sink = sink;
+        this.clock = clock;
+    }
+
+    /**
+     * Start playing macro now. False if another macro is still running.
+     */
+    public boolean start(CommandMacro macro, Listener listener) {
+        synchronized (lock) {
+            if (thread != null) {
+                return false;
+            }
+            Report run = new Report(macro);
+            Thread t = new Thread(() -> play(macro, run, listener), "macro-runner");
+            t.setPriority(Thread.MAX_PRIORITY);
+            thread = t;
+            report = run;
+            this.listener = listener;
+            t.start();
+            return true;
+        }
+    }
+
+    public boolean isRunning() {
+        synchronized (lock) {
+            return thread != null;
+        }
+    }
+
+    /**
+     * Stop playing. No command is sent by the runner after this returns.
+     * False if nothing was running.
+     */
+    public boolean abort(String reason) {
+        Thread t;
+        Report run;
+        Listener l;
+        synchronized (lock) {
+            if (thread == null) {
+                return false;
+            }
+            t = thread;
+            run = report;
+            l = listener;
+            run.aborted = true;
+            clear();
+        }
+        LockSupport.unpark(t);
+        l.onAborted(run, reason);
+        return true;
+    }
+
+    private void play(CommandMacro macro, Report run, Listener l) {
+        long start = clock.nanoTime();
+        for (int step = 0; step < macro.size(); step++) {
+            long deadline = start + macro.getOffsetNanos(step);
+            if (!waitUntil(run, deadline)) {
+                return;
+            }
+            long late;
+            synchronized (lock) {
+                // Checked under the lock abort() takes, so no step slips out after an abort
+                if (run.aborted) {
+                    return;
+                }
+                late = clock.nanoTime() - deadline;
+                sink.sendCommand(macro.getAction(step));
+                run.lateNanos[step] = late;
+                run.sent = step + 1;
+            }
+            l.onStep(step, macro.getAction(step), late);
+        }
+        if (!waitUntil(run, start + macro.getDurationNanos())) {
+            return;
+        }
+        synchronized (lock) {
+            if (run.aborted) {
+                return;
+            }
+            clear();
+        }
+        l.onFinished(run);
+    }
+
+    /**
+     * Park until SPIN_NANOS before the deadline, then spin. False if aborted meanwhile.
+     */
+    private boolean waitUntil(Report run, long deadline) {
+        while (true) {
+            if (run.aborted) {
+                return false;
+            }
+            long remaining = deadline - clock.nanoTime();
+            if (remaining <= 0) {
+                return true;
+            }
+            if (remaining > SPIN_NANOS) {
+                clock.parkNanos(this, remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private void clear() {
+        thread = null;
+        report = null;
+        listener = null;
+    }
+}
@@ -0,0 +1,255 @@
+package com.jdev.mqtt_car.data.odometry;
+
+import com.jdev.mqtt_car.model.CarCommand;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.OdometryCalibration;
+import com.jdev.mqtt_car.model.TelemetrySample;
+
+/**
+ * Dead reckoning of one car's path from what it executed.
+ * <ul>
+ *   <li>The timeline is the car's own millis(): acks carry the time a command executed,
+ *   telemetry frames the time they were sent, so network delay does not stretch the path.
+ *   The motion in force is integrated between consecutive events at the calibrated speed
+ *   and turn rate: forward and backward along the heading, left and right on the spot.</li>
+ *   <li>An executed movement command switches the motion at its ack time; a renewal keeps
+ *   it going. Joystick frames are not acked, so the action a frame reports also sets the
+ *   motion. Without any of these for MAX_HOLD_MS the car has stopped on its own.</li>
+ *   <li>While driving straight, the change of distance_front between two frames is the
+ *   distance actually covered if the obstacle ahead stood still. GAIN of the difference to
+ *   the integrated distance is applied along the heading, differences beyond
+ *   MAX_CORRECTION_CM are taken for a moving obstacle and ignored.</li>
+ * </ul>
+ * The path goes into a {@link PathBuffer}, so memory stays the same however long the session.
+ * Thread safe: acks and frames come from the MQTT thread, copies are taken on the main thread.
+ */
+public class OdometryEngine {
+
+    // The firmware's COMMAND_DURATION: it stops by itself when nothing confirms the command
+    static final long MAX_HOLD_MS = 10_000;
+    static final float GAIN = 0.5f;
+    static final float MAX_CORRECTION_CM = 30;
+
+    // Ultrasonic readings outside this are noise or "no echo" (999)
+    private static final int MIN_DISTANCE_CM = 2;
+    private static final int MAX_DISTANCE_CM = 400;
+    // Device time going back further than this means the car rebooted
+    private static final long REBOOT_MS = 1_000;
+
+    private static final int STOP = 0;
+    private static final int FORWARD = 1;
+    private static final int BACKWARD = 2;
+    private static final int LEFT = 3;
+    private static final int RIGHT = 4;
+    private static final int UNKNOWN = -1;
+
+    private final PathBuffer path = new PathBuffer();
+
+    private float speedCmPerMs;
+    private float turnRadPerMs;
+
+    // Pose, cm and radians clockwise from the initial heading
+    private float x;
+    private float y;
+    private float heading;
+
+    private int motion = STOP;
+    private long timeMs = -1;       // device time integrated up to, -1 before the first event
+    private long evidenceMs;        // device time the motion was last confirmed
+
+    // Distance correction: the previous valid reading and what was integrated since
+    private int previousDistance = -1;
+    private float travelledCm;
+    private boolean turned;
+
+    // Set by every event that moved the pose or the path, cleared by takeChanged()
+    private boolean changed;
+
+    public OdometryEngine(OdometryCalibration calibration) {
+        setCalibration(calibration);
+    }
+
+    /**
+     * Applies from now on, the path so far stays as it was integrated
+     */
+    public synchronized void setCalibration(OdometryCalibration calibration) {
+        speedCmPerMs = calibration.getSpeedCmPerSec() / 1000f;
+        turnRadPerMs = (float) Math.toRadians(calibration.getTurnDegPerSec()) / 1000f;
+    }
+
+    public synchronized void onAck(CommandAck ack) {
+        if (!"executed".equals(ack.getStatus())) {
+            return;
+        }
+        long t = ack.getDeviceMillis();
+        if (ack.isRenewal()) {
+            if (advance(t)) {
+                evidenceMs = t;
+                changed = true;
+            }
+            return;
+        }
+        int commanded = motionOf(ack.getCommand());
+        if (commanded == UNKNOWN || !advance(t)) {
+            return;
+        }
+        setMotion(commanded, t);
+        path.add(x, y);
+        changed = true;
+    }
+
+    public synchronized void onTelemetry(TelemetrySample sample) {
+        long t = sample.getDeviceMillis();
+        if (t == 0 || !advance(t)) {
+            return;
+        }
+        correct(sample.getDistanceFront());
+        int reported = motionOf(sample.getCurrentAction());
+        if (reported != UNKNOWN) {
+            setMotion(reported, t);
+        }
+        path.add(x, y);
+        changed = true;
+    }
+
+    /**
+     * Start a new path from the origin, facing +y
+     */
+    public synchronized void reset() {
+        path.clear();
+        x = 0;
+        y = 0;
+        heading = 0;
+        motion = STOP;
+        timeMs = -1;
+        previousDistance = -1;
+        travelledCm = 0;
+        turned = false;
+        changed = true;
+    }
+
+    /**
+     * True once after the path or pose changed, for a renderer that polls instead of being
+     * signalled on the receive path
+     */
+    public synchronized boolean takeChanged() {
+        boolean was = changed;
+        changed = false;
+        return was;
+    }
+
+    public synchronized void copyTo(OdometrySnapshot snapshot) {
+        snapshot.count = path.copyTo(snapshot.xs, snapshot.ys);
+        snapshot.x = x;
+        snapshot.y = y;
+        snapshot.heading = heading;
+    }
+
+    /**
+     * Kept path vertices, for tests
+     */
+    synchronized int getVertexCount() {
+        return path.size();
+    }
+
+    /**
+     * Integrate the current motion up to device time t.
+     *
+     * @return false if the event is older than what was already integrated
+     */
+    private boolean advance(long t) {
+        if (timeMs < 0 || t < timeMs - REBOOT_MS) {
+            // First event, or the car rebooted and is stopped: its clock starts over
+            timeMs = t;
+            evidenceMs = t;
+            motion = STOP;
+            previousDistance = -1;
+            path.add(x, y);
+            return true;
+        }
+        if (t < timeMs) {
+            return false;
+        }
+        long end = Math.min(t, evidenceMs + MAX_HOLD_MS);
+        if (end > timeMs) {
+            integrate(end - timeMs);
+        }
+        if (end < t) {
+            motion = STOP;
+        }
+        timeMs = t;
+        return true;
+    }
+
+    private void integrate(long dtMs) {
+        switch (motion) {
+            case FORWARD:
+                move(speedCmPerMs * dtMs);
+                break;
+            case BACKWARD:
+                move(-speedCmPerMs * dtMs);
+                break;
+            case LEFT:
+                turn(-turnRadPerMs * dtMs);
+                break;
+            case RIGHT:
+                turn(turnRadPerMs * dtMs);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void move(float cm) {
+        x += cm * (float) Math.sin(heading);
+        y += cm * (float) Math.cos(heading);
+        travelledCm += cm;
+    }
+
+    private void turn(float radians) {
+        heading = (float) Math.IEEEremainder(heading + radians, 2 * Math.PI);
+        turned = true;
+    }
+
+    /**
+     * Pull the pose towards what the front distance says was covered since the last frame
+     */
+    private void correct(int distance) {
+        boolean valid = distance >= MIN_DISTANCE_CM && distance <= MAX_DISTANCE_CM;
+        if (valid && previousDistance >= 0 && !turned && travelledCm != 0) {
+            float error = (previousDistance - distance) - travelledCm;
+            if (Math.abs(error) <= MAX_CORRECTION_CM) {
+                x += GAIN * error * (float) Math.sin(heading);
+                y += GAIN * error * (float) Math.cos(heading);
+            }
+        }
+        previousDistance = valid ? distance : -1;
+        travelledCm = 0;
+        turned = false;
+    }
+
+    private void setMotion(int next, long t) {
+        motion = next;
+        evidenceMs = t;
+    }
+
+    private static int motionOf(String action) {
+        if (action == null) {
+            return UNKNOWN;
+        }
+        switch (action) {
+            case CarCommand.ACTION_STOP:
+                return STOP;
+            case "forward":
+                return FORWARD;
+            case "backward":
+                return BACKWARD;
+            case "left":
+                return LEFT;
+            case "right":
+                return RIGHT;
+            default:
+                return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.jdev.mqtt_car.data.odometry;
+
+/**
+ * Reusable copy of the estimated path and pose for drawing, filled by
+ * {@link OdometryEngine#copyTo(OdometrySnapshot)}. Coordinates are cm from where tracking
+ * started, +y is the car's initial heading and +x its right.
+ */
+public final class OdometrySnapshot {
+
+    final float[] xs = new float[PathBuffer.CAPACITY + 1];
+    final float[] ys = new float[PathBuffer.CAPACITY + 1];
+    int count;
+    float x;
+    float y;
+    float heading;
+
+    public int getCount() {
+        return count;
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+
+    /**
+     * Current position, the last path point
+     */
+    public float getPoseX() {
+        return x;
+    }
+
+    public float getPoseY() {
+        return y;
+    }
+
+    /**
+     * Radians clockwise from the initial heading
+     */
+    public float getHeading() {
+        return heading;
+    }
+}
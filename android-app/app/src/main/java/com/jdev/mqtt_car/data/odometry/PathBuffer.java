@@ -0,0 +1,172 @@
+package com.jdev.mqtt_car.data.odometry;
+
+import java.util.Arrays;
+
+/**
+ * Polyline of the estimated path in fixed arrays, simplified as the points arrive.
+ * <ul>
+ *   <li>Points are held in a small window behind the last kept vertex until one of them
+ *   strays more than epsilon from the line to the newest point: the point before it is
+ *   kept and starts the next window. This is Douglas-Peucker run incrementally, with each
+ *   window bounded to WINDOW points so a slow drift is still recorded.</li>
+ *   <li>When the vertices fill CAPACITY, the kept line is simplified again in place with an
+ *   iterative Douglas-Peucker, doubling epsilon until at most half of them are left. An
+ *   hour-long session stays in the same arrays and only loses detail, oldest and newest
+ *   alike.</li>
+ * </ul>
+ * Nothing is allocated after construction. Not thread safe, {@link OdometryEngine} guards it.
+ */
+class PathBuffer {
+
+    static final int CAPACITY = 1024;
+    static final int WINDOW = 64;
+    static final float INITIAL_EPSILON_CM = 2;
+
+    private final float[] xs = new float[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private int count;
+
+    // Points since the last kept vertex, the newest is the current end of the path
+    private final float[] windowX = new float[WINDOW];
+    private final float[] windowY = new float[WINDOW];
+    private int windowCount;
+
+    private float epsilon = INITIAL_EPSILON_CM;
+
+    // Scratch for compact()
+    private final boolean[] keep = new boolean[CAPACITY];
+    private final int[] stack = new int[2 * CAPACITY];
+
+    void add(float x, float y) {
+        if (count == 0) {
+            append(x, y);
+            return;
+        }
+        float lastX = windowCount > 0 ? windowX[windowCount - 1] : xs[count - 1];
+        float lastY = windowCount > 0 ? windowY[windowCount - 1] : ys[count - 1];
+        if (x == lastX && y == lastY) {
+            return;   // standing still
+        }
+        if (windowCount == WINDOW || strays(x, y)) {
+            // The previous point is the last one the line from the kept vertex still covers
+            append(lastX, lastY);
+            windowCount = 0;
+        }
+        windowX[windowCount] = x;
+        windowY[windowCount] = y;
+        windowCount++;
+    }
+
+    /**
+     * Copies the path including its current end, returns the number of points
+     */
+    int copyTo(float[] outX, float[] outY) {
+        System.arraycopy(xs, 0, outX, 0, count);
+        System.arraycopy(ys, 0, outY, 0, count);
+        if (windowCount == 0) {
+            return count;
+        }
+        outX[count] = windowX[windowCount - 1];
+        outY[count] = windowY[windowCount - 1];
+        return count + 1;
+    }
+
+    /**
+     * Kept vertices, not counting the current end
+     */
+    int size() {
+        return count;
+    }
+
+    float getEpsilon() {
+        return epsilon;
+    }
+
+    void clear() {
+        count = 0;
+        windowCount = 0;
+        epsilon = INITIAL_EPSILON_CM;
+    }
+
+    /**
+     * Would the line from the last kept vertex to (x, y) pass further than epsilon from a
+     * point in the window
+     */
+    private boolean strays(float x, float y) {
+        float ax = xs[count - 1];
+        float ay = ys[count - 1];
+        for (int i = 0; i < windowCount; i++) {
+            if (distanceToSegment(windowX[i], windowY[i], ax, ay, x, y) > epsilon) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void append(float x, float y) {
+        if (count == CAPACITY) {
+            do {
+                epsilon *= 2;
+                compact();
+            } while (count > CAPACITY / 2);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+    }
+
+    /**
+     * Douglas-Peucker over the kept vertices at the current epsilon, in place
+     */
+    private void compact() {
+        if (count < 3) {
+            return;
+        }
+        Arrays.fill(keep, 0, count, false);
+        keep[0] = true;
+        keep[count - 1] = true;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            float worst = 0;
+            int worstIndex = -1;
+            for (int i = first + 1; i < last; i++) {
+                float d = distanceToSegment(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+                if (d > worst) {
+                    worst = d;
+                    worstIndex = i;
+                }
+            }
+            if (worst > epsilon) {
+                keep[worstIndex] = true;
+                stack[top++] = first;
+                stack[top++] = worstIndex;
+                stack[top++] = worstIndex;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                xs[kept] = xs[i];
+                ys[kept] = ys[i];
+                kept++;
+            }
+        }
+        count = kept;
+    }
+
+    static float distanceToSegment(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        float ex = px - (ax + t * dx);
+        float ey = py - (ay + t * dy);
+        return (float) Math.sqrt(ex * ex + ey * ey);
+    }
+}
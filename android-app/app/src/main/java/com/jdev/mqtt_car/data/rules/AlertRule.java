@@ -0,0 +1,61 @@
+package com.jdev.mqtt_car.data.rules;
+
+import androidx.annotation.NonNull;
+
+/**
+ * One compiled rule: fires once its condition has held for forMs, and stays active until
+ * its clear condition (by default: the condition no longer holds) has held for clearForMs.
+ * A clear condition that is not simply the negation is the rule's hysteresis band.
+ */
+public final class AlertRule {
+
+    private final String name;
+    private final String condition;
+    final RuleNode when;
+    final long forMs;
+    final RuleNode clear;    // null: clears when the condition is false
+    final long clearForMs;
+    final long fields;
+    final int valueField;    // reported with the alert, -1 if the rule reads no number
+
+    AlertRule(String name, String condition, RuleNode when, long forMs, RuleNode clear, long clearForMs) {
+        this.name = name;
+        this.condition = condition;
+        this.when = when;
+        this.forMs = forMs;
+        this.clear = clear;
+        this.clearForMs = clearForMs;
+        this.fields = when.fields() | (clear != null ? clear.fields() : 0);
+        this.valueField = firstNumberField(when.fields());
+    }
+
+    private static int firstNumberField(long fields) {
+        for (RuleField field : RuleField.VALUES) {
+            if (!field.text && (fields & field.bit) != 0) {
+                return field.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The condition as written, e.g. "wifi_rssi < -80"
+     */
+    public String getCondition() {
+        return condition;
+    }
+
+    public long getForMs() {
+        return forMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return name + ": " + condition + (forMs > 0 ? " for " + forMs + " ms" : "");
+    }
+}
@@ -0,0 +1,289 @@
+package com.jdev.mqtt_car.data.rules;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Parses user alert rules, one per line, into an {@link AlertRuleSet}:
+ * <pre>
+ *   # name: condition [for duration] [clear condition [for duration]]
+ *   low_battery:  battery < 20 clear battery >= 25
+ *   obstacle:     distance_front < 15 and action == forward
+ *   weak_signal:  wifi_rssi < -80 for 10s
+ * </pre>
+ * Conditions compare a field (battery, distance_front, temperature, wifi_rssi, free_heap,
+ * action, status) with a constant using {@code < <= > >= == !=}, combined with and, or,
+ * not and parentheses. Text fields only take == and != and ignore case. Durations are
+ * written 500ms, 10s or 2m. Errors are reported with their line number.
+ */
+public final class AlertRuleCompiler {
+
+    static final int MAX_RULES = 64;
+
+    private final List<String> tokens = new ArrayList<>();
+    private final List<Integer> starts = new ArrayList<>();
+    private final String text;
+    private final int line;
+    private int pos;
+
+    private AlertRuleCompiler(String text, int line) {
+        this.text = text;
+        this.line = line;
+        tokenize();
+    }
+
+    /**
+     * @throws IllegalArgumentException with the line number if a rule is not valid
+     */
+    public static AlertRuleSet compile(String source) {
+        List<AlertRule> rules = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        String[] lines = source.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            String text = lines[i];
+            int comment = text.indexOf('#');
+            if (comment >= 0) {
+                text = text.substring(0, comment);
+            }
+            if (text.trim().isEmpty()) {
+                continue;
+            }
+            AlertRule rule = new AlertRuleCompiler(text, i + 1).rule();
+            if (!names.add(rule.getName())) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": Duplicate rule '" + rule.getName() + "'");
+            }
+            if (rules.size() == MAX_RULES) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": More than " + MAX_RULES + " rules");
+            }
+            rules.add(rule);
+        }
+        return rules.isEmpty() ? AlertRuleSet.EMPTY : new AlertRuleSet(rules.toArray(new AlertRule[0]));
+    }
+
+    private AlertRule rule() {
+        String name = next();
+        if (name == null || !isWord(name) || !":".equals(next())) {
+            throw error("A rule starts with its name and ':', e.g. low_battery: battery < 20");
+        }
+        int whenStart = position();
+        RuleNode when = or();
+        String condition = text.substring(whenStart, position()).trim();
+        if (condition.isEmpty()) {
+            throw error("Missing condition");
+        }
+        long forMs = 0;
+        if ("for".equals(peekLower())) {
+            next();
+            forMs = duration();
+        }
+        RuleNode clear = null;
+        long clearForMs = 0;
+        if ("clear".equals(peekLower())) {
+            next();
+            clear = or();
+            if ("for".equals(peekLower())) {
+                next();
+                clearForMs = duration();
+            }
+        }
+        if (peek() != null) {
+            throw error("Unexpected '" + peek() + "'");
+        }
+        return new AlertRule(name, condition, when, forMs, clear, clearForMs);
+    }
+
+    // ========================================
+    // Conditions
+    // ========================================
+
+    private RuleNode or() {
+        RuleNode node = and();
+        while ("or".equals(peekLower())) {
+            next();
+            node = new RuleNode.Or(node, and());
+        }
+        return node;
+    }
+
+    private RuleNode and() {
+        RuleNode node = unary();
+        while ("and".equals(peekLower())) {
+            next();
+            node = new RuleNode.And(node, unary());
+        }
+        return node;
+    }
+
+    private RuleNode unary() {
+        String token = next();
+        if (token == null) {
+            throw error("Expected a condition");
+        }
+        if (token.equalsIgnoreCase("not")) {
+            return new RuleNode.Not(unary());
+        }
+        if (token.equals("(")) {
+            RuleNode node = or();
+            if (!")".equals(next())) {
+                throw error("Missing ')'");
+            }
+            return node;
+        }
+        RuleField field = RuleField.forKey(token);
+        if (field == null) {
+            throw error("Unknown field '" + token + "'");
+        }
+        String opToken = next();
+        int op = operator(opToken);
+        String value = next();
+        if (value == null) {
+            throw error("Expected a value after " + token + " " + opToken);
+        }
+        if (field.text) {
+            if (op != RuleNode.EQ && op != RuleNode.NE) {
+                throw error(field.key + " only compares with == or !=");
+            }
+            return new RuleNode.TextEquals(field, unquote(value), op == RuleNode.NE);
+        }
+        try {
+            return new RuleNode.Compare(field, op, new BigDecimal(value).doubleValue());
+        } catch (NumberFormatException e) {
+            throw error(field.key + " is a number, got '" + value + "'");
+        }
+    }
+
+    private int operator(String token) {
+        if (token != null) {
+            switch (token) {
+                case "<":
+                    return RuleNode.LT;
+                case "<=":
+                    return RuleNode.LE;
+                case ">":
+                    return RuleNode.GT;
+                case ">=":
+                    return RuleNode.GE;
+                case "=":
+                case "==":
+                    return RuleNode.EQ;
+                case "!=":
+                    return RuleNode.NE;
+            }
+        }
+        throw error("Expected < <= > >= == or !=, got " + (token == null ? "end of line" : "'" + token + "'"));
+    }
+
+    private long duration() {
+        String token = next();
+        if (token == null) {
+            throw error("Expected a duration");
+        }
+        String t = token.toLowerCase(Locale.US);
+        long unitMs;
+        String number;
+        if (t.endsWith("ms")) {
+            unitMs = 1;
+            number = t.substring(0, t.length() - 2);
+        } else if (t.endsWith("s")) {
+            unitMs = 1000;
+            number = t.substring(0, t.length() - 1);
+        } else if (t.endsWith("m")) {
+            unitMs = 60_000;
+            number = t.substring(0, t.length() - 1);
+        } else {
+            throw error("Duration needs a unit (ms, s or m): '" + token + "'");
+        }
+        try {
+            long ms = new BigDecimal(number).multiply(BigDecimal.valueOf(unitMs)).longValue();
+            if (ms < 0) {
+                throw error("Negative duration '" + token + "'");
+            }
+            return ms;
+        } catch (NumberFormatException e) {
+            throw error("Bad duration '" + token + "'");
+        }
+    }
+
+    // ========================================
+    // Tokens
+    // ========================================
+
+    private void tokenize() {
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            if (c == '(' || c == ')' || c == ':') {
+                i++;
+            } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                i++;
+                if (i < text.length() && text.charAt(i) == '=') {
+                    i++;
+                }
+            } else if (c == '"' || c == '\'') {
+                int end = text.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw error("Unclosed quote");
+                }
+                i = end + 1;
+            } else {
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && "():<>=!\"'".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+            }
+            tokens.add(text.substring(start, i));
+            starts.add(start);
+        }
+    }
+
+    private String next() {
+        return pos < tokens.size() ? tokens.get(pos++) : null;
+    }
+
+    private String peek() {
+        return pos < tokens.size() ? tokens.get(pos) : null;
+    }
+
+    private String peekLower() {
+        String token = peek();
+        return token == null ? null : token.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Offset in the line of the next token
+     */
+    private int position() {
+        return pos < tokens.size() ? starts.get(pos) : text.length();
+    }
+
+    private static boolean isWord(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        return !token.isEmpty();
+    }
+
+    private static String unquote(String value) {
+        char c = value.charAt(0);
+        if ((c == '"' || c == '\'') && value.length() >= 2) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,207 @@
+package com.jdev.mqtt_car.data.rules;
+
+import com.jdev.mqtt_car.model.TelemetrySample;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the user's {@link AlertRuleSet} on every telemetry sample and status message,
+ * with one constant-size state per car.
+ * <p>
+ * A sample first updates the car's value table and notes which fields changed; only the
+ * rules reading one of those fields are tested again, found through the set's field
+ * index. Rules waiting out a "for" duration are kept in a bitset and only have their
+ * timer checked. Durations run on the sample timestamps, so they are checked at the
+ * car's telemetry cadence. Nothing on this path allocates unless a rule fires or clears.
+ */
+public class AlertRuleEngine {
+
+    public interface Listener {
+        /**
+         * value is the first number the rule's condition reads, NaN if it reads none
+         */
+        void onRuleFired(String deviceId, AlertRule rule, double value, long nowMs);
+
+        void onRuleCleared(String deviceId, AlertRule rule, long nowMs);
+    }
+
+    private final Listener listener;
+    private final Map<String, DeviceState> devices = new ConcurrentHashMap<>();
+    private volatile AlertRuleSet ruleSet = AlertRuleSet.EMPTY;
+
+    public AlertRuleEngine(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Replace the rules. Every car starts over: nothing is active and no duration is running.
+     */
+    public void setRules(AlertRuleSet rules) {
+        ruleSet = rules;
+    }
+
+    public AlertRuleSet getRules() {
+        return ruleSet;
+    }
+
+    private static final class DeviceState {
+        final AlertRuleSet set;
+        final double[] numbers = new double[RuleField.VALUES.length];
+        final String[] texts = new String[RuleField.VALUES.length];
+
+        final boolean[] when;
+        final boolean[] clear;
+        final boolean[] active;
+        final long[] whenSinceMs;
+        final long[] clearSinceMs;
+        final long[] waiting;       // bitset: a duration is running for these rules
+        final int[] testedIn;       // pass a rule was last tested in, so it is tested once
+        int pass;
+
+        DeviceState(AlertRuleSet set) {
+            this.set = set;
+            int n = set.rules.length;
+            Arrays.fill(numbers, Double.NaN);
+            when = new boolean[n];
+            clear = new boolean[n];
+            active = new boolean[n];
+            whenSinceMs = new long[n];
+            clearSinceMs = new long[n];
+            waiting = new long[(n + 63) / 64];
+            testedIn = new int[n];
+        }
+    }
+
+    public void onTelemetry(String deviceId, TelemetrySample sample) {
+        AlertRuleSet set = ruleSet;
+        if (set.rules.length == 0) {
+            return;
+        }
+        DeviceState state = stateFor(deviceId, set);
+        synchronized (state) {
+            long changed = number(state, RuleField.BATTERY, sample.getBattery())
+                    | number(state, RuleField.DISTANCE_FRONT, sample.getDistanceFront())
+                    | number(state, RuleField.TEMPERATURE, sample.getTemperature())
+                    | number(state, RuleField.WIFI_RSSI, sample.getWifiRssi())
+                    | number(state, RuleField.FREE_HEAP, sample.getFreeHeap())
+                    | text(state, RuleField.ACTION, sample.getCurrentAction());
+            evaluate(deviceId, state, changed, sample.getTimestamp());
+        }
+    }
+
+    public void onStatus(String deviceId, String status, long nowMs) {
+        AlertRuleSet set = ruleSet;
+        if (set.rules.length == 0) {
+            return;
+        }
+        DeviceState state = stateFor(deviceId, set);
+        synchronized (state) {
+            evaluate(deviceId, state, text(state, RuleField.STATUS, status), nowMs);
+        }
+    }
+
+    public void reset(String deviceId) {
+        devices.remove(deviceId);
+    }
+
+    private DeviceState stateFor(String deviceId, AlertRuleSet set) {
+        DeviceState state = devices.get(deviceId);
+        if (state == null || state.set != set) {
+            state = new DeviceState(set);
+            devices.put(deviceId, state);
+        }
+        return state;
+    }
+
+    private static long number(DeviceState state, RuleField field, double value) {
+        int i = field.ordinal();
+        if (state.numbers[i] == value) {
+            return 0;
+        }
+        state.numbers[i] = value;
+        return field.bit;
+    }
+
+    private static long text(DeviceState state, RuleField field, String value) {
+        int i = field.ordinal();
+        String old = state.texts[i];
+        if (old == null ? value == null : old.equals(value)) {
+            return 0;
+        }
+        state.texts[i] = value;
+        return field.bit;
+    }
+
+    // ========================================
+    // Evaluation
+    // ========================================
+
+    private void evaluate(String deviceId, DeviceState state, long changed, long nowMs) {
+        int pass = ++state.pass;
+        int[][] byField = state.set.byField;
+        while (changed != 0) {
+            int field = Long.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+            for (int r : byField[field]) {
+                if (state.testedIn[r] != pass) {
+                    state.testedIn[r] = pass;
+                    test(deviceId, state, r, nowMs);
+                }
+            }
+        }
+        // Values unchanged, but a duration may have run out since the last sample
+        long[] waiting = state.waiting;
+        for (int w = 0; w < waiting.length; w++) {
+            long bits = waiting[w];
+            while (bits != 0) {
+                int r = w * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (state.testedIn[r] != pass) {
+                    settle(deviceId, state, r, nowMs);
+                }
+            }
+        }
+    }
+
+    private void test(String deviceId, DeviceState state, int r, long nowMs) {
+        AlertRule rule = state.set.rules[r];
+        boolean when = rule.when.test(state.numbers, state.texts);
+        if (when != state.when[r]) {
+            state.when[r] = when;
+            state.whenSinceMs[r] = nowMs;
+        }
+        boolean clear = rule.clear != null ? rule.clear.test(state.numbers, state.texts) : !when;
+        if (clear != state.clear[r]) {
+            state.clear[r] = clear;
+            state.clearSinceMs[r] = nowMs;
+        }
+        settle(deviceId, state, r, nowMs);
+    }
+
+    /**
+     * Fire or clear the rule if its condition has held long enough, else note whether a
+     * duration is still running
+     */
+    private void settle(String deviceId, DeviceState state, int r, long nowMs) {
+        AlertRule rule = state.set.rules[r];
+        if (!state.active[r]) {
+            if (state.when[r] && nowMs - state.whenSinceMs[r] >= rule.forMs) {
+                state.active[r] = true;
+                double value = rule.valueField >= 0 ? state.numbers[rule.valueField] : Double.NaN;
+                listener.onRuleFired(deviceId, rule, value, nowMs);
+            }
+        } else if (state.clear[r] && nowMs - state.clearSinceMs[r] >= rule.clearForMs) {
+            state.active[r] = false;
+            listener.onRuleCleared(deviceId, rule, nowMs);
+        }
+        boolean running = state.active[r] ? state.clear[r] : state.when[r];
+        long bit = 1L << (r & 63);
+        if (running) {
+            state.waiting[r >> 6] |= bit;
+        } else {
+            state.waiting[r >> 6] &= ~bit;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.jdev.mqtt_car.data.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable compiled rules plus the index from each field to the rules reading it
+ */
+public final class AlertRuleSet {
+
+    public static final AlertRuleSet EMPTY = new AlertRuleSet(new AlertRule[0]);
+
+    final AlertRule[] rules;
+    final int[][] byField;
+
+    AlertRuleSet(AlertRule[] rules) {
+        this.rules = rules;
+        byField = new int[RuleField.VALUES.length][];
+        for (RuleField field : RuleField.VALUES) {
+            int count = 0;
+            for (AlertRule rule : rules) {
+                if ((rule.fields & field.bit) != 0) {
+                    count++;
+                }
+            }
+            int[] ids = new int[count];
+            count = 0;
+            for (int i = 0; i < rules.length; i++) {
+                if ((rules[i].fields & field.bit) != 0) {
+                    ids[count++] = i;
+                }
+            }
+            byField[field.ordinal()] = ids;
+        }
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public List<AlertRule> getRules() {
+        List<AlertRule> list = new ArrayList<>(rules.length);
+        Collections.addAll(list, rules);
+        return Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,39 @@
+package com.jdev.mqtt_car.data.rules;
+
+import java.util.Locale;
+
+/**
+ * Fields a rule can read, named as in the telemetry and status JSON. Numbers are kept
+ * as doubles and text fields as strings, each in a slot of the device's value table.
+ */
+enum RuleField {
+    BATTERY("battery", false),
+    DISTANCE_FRONT("distance_front", false),
+    TEMPERATURE("temperature", false),
+    WIFI_RSSI("wifi_rssi", false),
+    FREE_HEAP("free_heap", false),
+    ACTION("action", true),
+    STATUS("status", true);
+
+    static final RuleField[] VALUES = values();
+
+    final String key;
+    final boolean text;
+    final long bit;
+
+    RuleField(String key, boolean text) {
+        this.key = key;
+        this.text = text;
+        this.bit = 1L << ordinal();
+    }
+
+    static RuleField forKey(String key) {
+        String k = key.toLowerCase(Locale.US);
+        for (RuleField field : VALUES) {
+            if (field.key.equals(k)) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
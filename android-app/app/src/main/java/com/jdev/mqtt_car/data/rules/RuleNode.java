@@ -0,0 +1,139 @@
+package com.jdev.mqtt_car.data.rules;
+
+/**
+ * Compiled predicate tree of a rule. Nodes only read the device's value table, so
+ * testing a rule allocates nothing.
+ */
+abstract class RuleNode {
+
+    static final int LT = 0;
+    static final int LE = 1;
+    static final int GT = 2;
+    static final int GE = 3;
+    static final int EQ = 4;
+    static final int NE = 5;
+
+    abstract boolean test(double[] numbers, String[] texts);
+
+    /**
+     * Fields this subtree reads, as RuleField bits
+     */
+    abstract long fields();
+
+    static final class Compare extends RuleNode {
+        private final int field;
+        private final int op;
+        private final double value;
+
+        Compare(RuleField field, int op, double value) {
+            this.field = field.ordinal();
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(double[] numbers, String[] texts) {
+            double v = numbers[field];
+            switch (op) {
+                case LT:
+                    return v < value;
+                case LE:
+                    return v <= value;
+                case GT:
+                    return v > value;
+                case GE:
+                    return v >= value;
+                case EQ:
+                    return v == value;
+                default:
+                    return v != value && !Double.isNaN(v);   // a missing value matches nothing
+            }
+        }
+
+        @Override
+        long fields() {
+            return RuleField.VALUES[field].bit;
+        }
+    }
+
+    static final class TextEquals extends RuleNode {
+        private final int field;
+        private final String value;
+        private final boolean negate;
+
+        TextEquals(RuleField field, String value, boolean negate) {
+            this.field = field.ordinal();
+            this.value = value;
+            this.negate = negate;
+        }
+
+        @Override
+        boolean test(double[] numbers, String[] texts) {
+            String v = texts[field];
+            return v != null && v.equalsIgnoreCase(value) != negate;
+        }
+
+        @Override
+        long fields() {
+            return RuleField.VALUES[field].bit;
+        }
+    }
+
+    static final class And extends RuleNode {
+        private final RuleNode left;
+        private final RuleNode right;
+
+        And(RuleNode left, RuleNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(double[] numbers, String[] texts) {
+            return left.test(numbers, texts) && right.test(numbers, texts);
+        }
+
+        @Override
+        long fields() {
+            return left.fields() | right.fields();
+        }
+    }
+
+    static final class Or extends RuleNode {
+        private final RuleNode left;
+        private final RuleNode right;
+
+        Or(RuleNode left, RuleNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(double[] numbers, String[] texts) {
+            return left.test(numbers, texts) || right.test(numbers, texts);
+        }
+
+        @Override
+        long fields() {
+            return left.fields() | right.fields();
+        }
+    }
+
+    static final class Not extends RuleNode {
+        private final RuleNode operand;
+
+        Not(RuleNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(double[] numbers, String[] texts) {
+            return !operand.test(numbers, texts);
+        }
+
+        @Override
+        long fields() {
+            return operand.fields();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.jdev.mqtt_car.data.source;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.jdev.mqtt_car.data.analytics.BatteryForecaster;
+
+/**
+ * Persists battery estimator state per device so runtime forecasts
+ * survive reconnects and app restarts.
+ */
+public class BatteryStatePreferences implements BatteryForecaster.StateStore {
+    private static final String PREF_NAME = "battery_estimator";
+    private static final String KEY_PREFIX = "state_";
+
+    private final SharedPreferences prefs;
+
+    public BatteryStatePreferences(Context context) {
+        this(context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE));
+    }
+
+    BatteryStatePreferences(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    @Override
+    public String load(String deviceId) {
+        return prefs.getString(KEY_PREFIX + deviceId, null);
+    }
+
+    @Override
+    public void save(String deviceId, String state) {
+        prefs.edit().putString(KEY_PREFIX + deviceId, state).apply();
+    }
+}
@@ -0,0 +1,278 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.BrokerEndpoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Chooses which of a car's brokers to use and moves to another one when it degrades.
+ * <ul>
+ *   <li>{@link #race} probes every broker in parallel and picks the first healthy CONNACK,
+ *   i.e. the lowest round trip</li>
+ *   <li>while connected, every broker, active and standby, is probed each probe interval,
+ *   keeping a {@link BrokerHealth} score per broker</li>
+ *   <li>the active broker is replaced when it goes down (FAILURES_DOWN probes in a row) or
+ *   scores SWITCH_MARGIN below the best standby; a lost connection triggers a round at once</li>
+ * </ul>
+ * A stalled broker is therefore left within FAILURES_DOWN probe intervals plus one probe
+ * timeout ({@link #getFailoverBoundMs()}). With a single broker nothing is probed.
+ */
+public class BrokerFailover {
+
+    public static final long PROBE_INTERVAL_MS = 5_000;
+    public static final int PROBE_TIMEOUT_MS = 2_000;
+    static final int SWITCH_MARGIN = 30;
+
+    public interface Listener {
+        /**
+         * Failover thread: connect to the new active broker and subscribe again there
+         */
+        void onSwitch(BrokerEndpoint from, BrokerEndpoint to, String reason);
+    }
+
+    private final BrokerProbe probe;
+    private final long probeIntervalMs;
+    private final int probeTimeoutMs;
+    private final Listener listener;
+    private final ExecutorService probes = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "broker-probe");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService rounds = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "broker-failover");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Guarded by this
+    private List<BrokerEndpoint> endpoints = Collections.emptyList();
+    private final Map<BrokerEndpoint, BrokerHealth> health = new LinkedHashMap<>();
+    private BrokerEndpoint active;
+    private ScheduledFuture<?> probing;
+    private int generation;
+
+    public BrokerFailover(BrokerProbe probe, Listener listener) {
+        this(probe, PROBE_INTERVAL_MS, PROBE_TIMEOUT_MS, listener);
+    }
+
+    BrokerFailover(BrokerProbe probe, long probeIntervalMs, int probeTimeoutMs, Listener listener) {
+        this.probe = probe;
+        this.probeIntervalMs = probeIntervalMs;
+        this.probeTimeoutMs = probeTimeoutMs;
+        this.listener = listener;
+    }
+
+    /**
+     * Use these brokers from now on, the first one is active until a race or failover
+     * picks another. Keeps the active broker and known scores if it is still listed.
+     */
+    public synchronized void setEndpoints(List<BrokerEndpoint> next) {
+        if (next.equals(endpoints)) {
+            return;
+        }
+        endpoints = new ArrayList<>(next);
+        health.keySet().retainAll(endpoints);
+        for (BrokerEndpoint endpoint : endpoints) {
+            health.computeIfAbsent(endpoint, e -> new BrokerHealth());
+        }
+        if (active == null || !endpoints.contains(active)) {
+            active = endpoints.isEmpty() ? null : endpoints.get(0);
+        }
+        generation++;
+    }
+
+    public synchronized BrokerEndpoint getActive() {
+        return active;
+    }
+
+    public synchronized boolean hasStandby() {
+        return endpoints.size() > 1;
+    }
+
+    /**
+     * Score of a listed broker, null if it is not listed
+     */
+    public synchronized BrokerHealth getHealth(BrokerEndpoint endpoint) {
+        return health.get(endpoint);
+    }
+
+    /**
+     * Worst case from a broker stalling to the switch away from it
+     */
+    public long getFailoverBoundMs() {
+        return BrokerHealth.FAILURES_DOWN * probeIntervalMs + probeTimeoutMs;
+    }
+
+    /**
+     * Probe all brokers at once and make the first to accept the active one. onSelected
+     * gets it on a probe thread, or the current active broker if none answered in time.
+     */
+    public void race(Consumer<BrokerEndpoint> onSelected) {
+        List<BrokerEndpoint> candidates;
+        int raceGeneration;
+        synchronized (this) {
+            candidates = new ArrayList<>(endpoints);
+            raceGeneration = generation;
+        }
+        if (candidates.size() < 2) {
+            onSelected.accept(getActive());
+            return;
+        }
+        Object decided = new Object();
+        boolean[] done = {false};
+        CountDownLatch finished = new CountDownLatch(candidates.size());
+        for (BrokerEndpoint endpoint : candidates) {
+            probes.execute(() -> {
+                boolean ok = probeOnce(endpoint, raceGeneration);
+                finished.countDown();
+                synchronized (decided) {
+                    if (done[0] || !(ok || finished.getCount() == 0)) {
+                        return;
+                    }
+                    done[0] = true;
+                }
+                // First healthy answer wins; if nobody answered, stay on the active broker
+                if (ok) {
+                    synchronized (this) {
+                        if (generation == raceGeneration) {
+                            active = endpoint;
+                        }
+                    }
+                }
+                onSelected.accept(getActive());
+            });
+        }
+    }
+
+    /**
+     * Start probing every broker while connected
+     */
+    public synchronized void start() {
+        if (probing != null || endpoints.size() < 2) {
+            return;
+        }
+        probing = rounds.scheduleWithFixedDelay(this::probeRound, probeIntervalMs, probeIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (probing != null) {
+            probing.cancel(false);
+            probing = null;
+        }
+    }
+
+    /**
+     * The client lost the active broker: probe now instead of waiting for the next round
+     */
+    public void onActiveLost() {
+        synchronized (this) {
+            if (probing == null) {
+                return;
+            }
+        }
+        rounds.execute(this::probeRound);
+    }
+
+    /**
+     * One probe of every broker in parallel, then the failover decision. Failover thread.
+     */
+    void probeRound() {
+        List<BrokerEndpoint> targets;
+        int roundGeneration;
+        synchronized (this) {
+            targets = new ArrayList<>(endpoints);
+            roundGeneration = generation;
+        }
+        CountDownLatch finished = new CountDownLatch(targets.size());
+        for (BrokerEndpoint endpoint : targets) {
+            probes.execute(() -> {
+                probeOnce(endpoint, roundGeneration);
+                finished.countDown();
+            });
+        }
+        try {
+            // Each probe gives up after the timeout, a little slack for the threads
+            finished.await(probeTimeoutMs * 2L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        decide(roundGeneration);
+    }
+
+    private void decide(int roundGeneration) {
+        BrokerEndpoint from;
+        BrokerEndpoint to;
+        String reason;
+        synchronized (this) {
+            if (generation != roundGeneration || probing == null || active == null) {
+                return;
+            }
+            BrokerHealth current = health.get(active);
+            BrokerEndpoint best = null;
+            int bestScore = -1;
+            for (BrokerEndpoint endpoint : endpoints) {
+                int score = health.get(endpoint).getScore();
+                if (!endpoint.equals(active) && score > bestScore) {
+                    best = endpoint;
+                    bestScore = score;
+                }
+            }
+            if (best == null || health.get(best).isDown() || bestScore <= 0) {
+                return;   // nowhere better to go
+            }
+            if (current.isDown()) {
+                reason = active + " is down";
+            } else if (bestScore - current.getScore() >= SWITCH_MARGIN) {
+                reason = active + " degraded to " + current.getScore() + ", " + best + " scores " + bestScore;
+            } else {
+                return;
+            }
+            from = active;
+            to = best;
+            active = best;
+        }
+        listener.onSwitch(from, to, reason);
+    }
+
+    private boolean probeOnce(BrokerEndpoint endpoint, int probeGeneration) {
+        long rtt = -1;
+        try {
+            rtt = probe.probe(endpoint, probeTimeoutMs);
+        } catch (IOException e) {
+            // counted as a failure below
+        }
+        synchronized (this) {
+            BrokerHealth h = health.get(endpoint);
+            if (h == null || generation != probeGeneration) {
+                return rtt >= 0;
+            }
+            if (rtt >= 0) {
+                h.onSuccess(rtt);
+            } else {
+                h.onFailure();
+            }
+        }
+        return rtt >= 0;
+    }
+
+    public void shutdown() {
+        stop();
+        rounds.shutdownNow();
+        probes.shutdownNow();
+    }
+}
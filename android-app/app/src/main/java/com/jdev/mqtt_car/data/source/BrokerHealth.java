@@ -0,0 +1,74 @@
+package com.jdev.mqtt_car.data.source;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Health score of one broker from its recent probes, 0 (down) to 100. Successes and
+ * failures feed an EWMA success rate, successful round trips an EWMA RTT that costs up to
+ * RTT_PENALTY_MAX points. Two failures in a row mark the broker down whatever its history.
+ * Not thread safe, owned by {@link BrokerFailover}.
+ */
+public class BrokerHealth {
+
+    static final double ALPHA = 0.5;
+    static final int FAILURES_DOWN = 2;
+    static final double RTT_PENALTY_PER_MS = 0.1;
+    static final double RTT_PENALTY_MAX = 50;
+
+    private double successRate = 1;
+    private double rttMs = -1;
+    private int consecutiveFailures;
+    private int probes;
+
+    void onSuccess(long rttNanos) {
+        double ms = rttNanos / 1e6;
+        rttMs = rttMs < 0 ? ms : ALPHA * ms + (1 - ALPHA) * rttMs;
+        successRate = ALPHA + (1 - ALPHA) * successRate;
+        consecutiveFailures = 0;
+        probes++;
+    }
+
+    void onFailure() {
+        successRate = (1 - ALPHA) * successRate;
+        consecutiveFailures++;
+        probes++;
+    }
+
+    public boolean isProbed() {
+        return probes > 0;
+    }
+
+    public boolean isDown() {
+        return consecutiveFailures >= FAILURES_DOWN;
+    }
+
+    /**
+     * -1 until the broker was probed once
+     */
+    public int getScore() {
+        if (!isProbed()) {
+            return -1;
+        }
+        if (isDown() || rttMs < 0) {
+            return 0;
+        }
+        double penalty = Math.min(RTT_PENALTY_MAX, rttMs * RTT_PENALTY_PER_MS);
+        return (int) Math.max(0, Math.round(100 * successRate - penalty));
+    }
+
+    /**
+     * Smoothed round trip of the successful probes, -1 if none succeeded yet
+     */
+    public double getRttMs() {
+        return rttMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "score %d, rtt %.1f ms, %d failures in a row",
+                getScore(), rttMs, consecutiveFailures);
+    }
+}
@@ -0,0 +1,93 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.BrokerEndpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures a broker the way the client experiences it: a fresh TCP connection, an MQTT
+ * 3.1.1 CONNECT and the time until its CONNACK, then DISCONNECT. A broker that accepts
+ * TCP but has stalled (the usual Mosquitto failure) does not answer the CONNECT and fails
+ * the probe, which a plain ping or TCP check would miss. Blocking, run off the main thread.
+ */
+public class BrokerProbe {
+
+    private static final int CONNECT = 0x10;
+    private static final int CONNACK = 0x20;
+    private static final byte[] DISCONNECT = {(byte) 0xE0, 0x00};
+    private static final int KEEP_ALIVE_SEC = 10;
+
+    private final String clientId;
+
+    /**
+     * @param clientId must differ from the app's real client id, or the broker would drop that session
+     */
+    public BrokerProbe(String clientId) {
+        this.clientId = clientId;
+    }
+
+    /**
+     * Round trip from starting the TCP connect to the accepted CONNACK, in nanoseconds
+     *
+     * @throws IOException if the broker is unreachable, too slow or refuses the connection
+     */
+    public long probe(BrokerEndpoint endpoint, int timeoutMs) throws IOException {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()), timeoutMs);
+            int left = timeoutMs - (int) ((System.nanoTime() - start) / 1_000_000);
+            socket.setSoTimeout(Math.max(1, left));
+
+            OutputStream out = socket.getOutputStream();
+            out.write(connectPacket());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int type = in.readUnsignedByte();
+            int length = in.readUnsignedByte();
+            if (type != CONNACK || length != 2) {
+                throw new IOException(endpoint + " answered with packet type " + (type >> 4));
+            }
+            in.readUnsignedByte();   // session present
+            int returnCode = in.readUnsignedByte();
+            long rtt = System.nanoTime() - start;
+            if (returnCode != 0) {
+                throw new IOException(endpoint + " refused the connection, return code " + returnCode);
+            }
+            out.write(DISCONNECT);
+            out.flush();
+            return rtt;
+        }
+    }
+
+    private byte[] connectPacket() {
+        byte[] id = clientId.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + id.length);
+        writeString(body, "MQTT".getBytes(StandardCharsets.US_ASCII));
+        body.write(4);                       // protocol level 3.1.1
+        body.write(0x02);                    // clean session, anonymous like the app
+        body.write(KEEP_ALIVE_SEC >> 8);
+        body.write(KEEP_ALIVE_SEC & 0xFF);
+        writeString(body, id);
+
+        ByteArrayOutputStream packet = new ByteArrayOutputStream(body.size() + 2);
+        packet.write(CONNECT);
+        packet.write(body.size());           // remaining length, always below 128 here
+        byte[] bytes = body.toByteArray();
+        packet.write(bytes, 0, bytes.length);
+        return packet.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes.length >> 8);
+        out.write(bytes.length & 0xFF);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,81 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.BrokerEndpoint;
+
+/**
+ * The client for the broker in use and whether the app wants it connected.
+ * <ul>
+ *   <li>a replaced client is always closed, so one that lost its broker stops
+ *   reconnecting to it in the background</li>
+ *   <li>a switch connects the new client whenever a connection is wanted, even if the old
+ *   one was already lost and only retrying when the failover moved away from it</li>
+ * </ul>
+ * Only an explicit disconnect clears the wish; losing a broker does not.
+ */
+final class BrokerSwitch<C> {
+
+    interface Clients<C> {
+        /**
+         * A new, unconnected client for the endpoint
+         */
+        C create(BrokerEndpoint endpoint);
+
+        void connect(C client);
+
+        /**
+         * Disconnect for good, including the client's automatic reconnect
+         */
+        void close(C client);
+    }
+
+    private final Clients<C> clients;
+
+    // Guarded by this
+    private C client;
+    private BrokerEndpoint endpoint;
+    private volatile boolean wantConnected;
+
+    BrokerSwitch(Clients<C> clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Build the client for this broker, closing the one it replaces. Does not connect.
+     */
+    synchronized C use(BrokerEndpoint next) {
+        C replaced = client;
+        endpoint = next;
+        client = clients.create(next);
+        if (replaced != null) {
+            clients.close(replaced);
+        }
+        return client;
+    }
+
+    /**
+     * Move to another broker and connect there if a connection is wanted. Returns false
+     * if the client already uses it.
+     */
+    synchronized boolean switchTo(BrokerEndpoint next) {
+        if (next.equals(endpoint)) {
+            return false;
+        }
+        use(next);
+        if (wantConnected) {
+            clients.connect(client);
+        }
+        return true;
+    }
+
+    void setWantConnected(boolean wantConnected) {
+        this.wantConnected = wantConnected;
+    }
+
+    boolean isWantConnected() {
+        return wantConnected;
+    }
+
+    synchronized C getClient() {
+        return client;
+    }
+}
@@ -0,0 +1,199 @@
+package com.jdev.mqtt_car.data.source;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.jdev.mqtt_car.model.MqttConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-memory cache of the app configuration in front of {@link MqttPreferences}.
+ * <p>
+ * The configuration is loaded once on a background thread (started from the Application)
+ * and kept as an immutable {@link MqttConfig} snapshot, so reads are a field access.
+ * Edits swap in a new snapshot immediately, notify listeners, and schedule a single
+ * write of the latest snapshot: any number of edits made before that write runs are
+ * coalesced into one disk commit.
+ */
+public class ConfigRepository {
+    private static final String TAG = "ConfigRepository";
+
+    public interface Storage {
+        MqttConfig load();
+
+        void save(MqttConfig config);
+    }
+
+    public interface Listener {
+        void onConfigChanged(MqttConfig config);
+    }
+
+    public interface Edit {
+        void apply(MqttConfig.Builder builder);
+    }
+
+    private static volatile ConfigRepository instance;
+
+    private final Storage storage;
+    private final Executor io;
+    private final Executor callbacks;
+
+    private final AtomicReference<MqttConfig> current = new AtomicReference<>();
+    private final AtomicBoolean loadStarted = new AtomicBoolean();
+    private final AtomicBoolean writePending = new AtomicBoolean();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Listener> waitingForLoad = new ArrayList<>();
+
+    /**
+     * @param io        runs the load and the writes, must run tasks one at a time
+     * @param callbacks where listeners are called, the main thread on Android
+     */
+    public ConfigRepository(Storage storage, Executor io, Executor callbacks) {
+        this.storage = storage;
+        this.io = io;
+        this.callbacks = callbacks;
+    }
+
+    public static ConfigRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ConfigRepository.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    Handler main = new Handler(Looper.getMainLooper());
+                    instance = new ConfigRepository(new MqttPreferences(app),
+                            Executors.newSingleThreadExecutor(r -> new Thread(r, "config-io")),
+                            main::post);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Start loading in the background, safe to call more than once
+     */
+    public void preload() {
+        if (loadStarted.compareAndSet(false, true)) {
+            io.execute(this::load);
+        }
+    }
+
+    private void load() {
+        MqttConfig config;
+        try {
+            config = storage.load();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Config load failed, using defaults", e);
+            config = MqttConfig.defaults();
+        }
+        current.compareAndSet(null, config);
+
+        List<Listener> waiting;
+        synchronized (waitingForLoad) {
+            loaded.countDown();
+            waiting = new ArrayList<>(waitingForLoad);
+            waitingForLoad.clear();
+        }
+        MqttConfig snapshot = current.get();
+        for (Listener listener : waiting) {
+            callbacks.execute(() -> listener.onConfigChanged(snapshot));
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded.getCount() == 0;
+    }
+
+    /**
+     * Current snapshot. Only blocks if called before the background load finished,
+     * which {@link #whenLoaded(Listener)} avoids.
+     */
+    public MqttConfig get() {
+        MqttConfig config = current.get();
+        if (config != null) {
+            return config;
+        }
+        preload();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return current.get();
+    }
+
+    /**
+     * Call back with the snapshot once it is loaded: right away on the calling thread if it
+     * already is, otherwise on the callback executor.
+     */
+    public void whenLoaded(Listener listener) {
+        synchronized (waitingForLoad) {
+            if (!isLoaded()) {
+                waitingForLoad.add(listener);
+                preload();
+                return;
+            }
+        }
+        listener.onConfigChanged(current.get());
+    }
+
+    /**
+     * Apply an edit as one atomic change and schedule a coalesced write
+     */
+    public MqttConfig update(Edit edit) {
+        MqttConfig previous;
+        MqttConfig next;
+        do {
+            previous = get();
+            MqttConfig.Builder builder = previous.toBuilder();
+            edit.apply(builder);
+            next = builder.build();
+        } while (!current.compareAndSet(previous, next));
+
+        MqttConfig snapshot = next;
+        for (Listener listener : listeners) {
+            callbacks.execute(() -> listener.onConfigChanged(snapshot));
+        }
+        scheduleWrite();
+        return next;
+    }
+
+    private void scheduleWrite() {
+        if (writePending.compareAndSet(false, true)) {
+            io.execute(() -> {
+                writePending.set(false);
+                try {
+                    storage.save(current.get());
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Config write failed", e);
+                }
+            });
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
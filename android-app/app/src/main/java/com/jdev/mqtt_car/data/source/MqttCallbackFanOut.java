@@ -0,0 +1,218 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.LeaseHealth;
+import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Passes the callbacks of one {@link MqttManager} on to any number of listeners.
+ * <p>
+ * Listeners sit in a copy-on-write array: dispatch takes the current array under the lock
+ * and calls the listeners outside it, so a slow listener holds up neither the others'
+ * add/remove nor callbacks from other threads, and a listener may remove itself from inside
+ * a callback. The connection state, the last car status, the telemetry intervals and the
+ * latest telemetry frame are remembered and replayed to a listener that is added later, so
+ * a screen opened on a live connection shows the car at once instead of waiting for the
+ * next frame.
+ * <p>
+ * A pooled {@link TelemetryRecord} has exactly one owner, so every listener but the last
+ * gets its own copy from a small pool and the last one gets the original.
+ */
+public class MqttCallbackFanOut implements MqttManager.MqttCallback {
+
+    // Pooled mode keeps an immutable copy for late listeners at most this often
+    static final long REPLAY_REFRESH_MS = 1000;
+
+    private static final MqttManager.MqttCallback[] NONE = new MqttManager.MqttCallback[0];
+
+    private volatile MqttManager.MqttCallback[] listeners = NONE;
+    private final TelemetryRecordPool copies = new TelemetryRecordPool(4);
+
+    // Replay state and the listener array. A new listener is replayed to and joins the array
+    // under the lock, and every update takes its dispatch snapshot under the same lock: the
+    // listener either gets the update live or already saw it in the replay, never older after newer.
+    private final Object lock = new Object();
+    private boolean connected;
+    private CarStatus lastStatus;
+    private TelemetryData lastTelemetry;
+    private long lastTelemetryCopyMs = Long.MIN_VALUE / 2;
+    private final Map<String, Integer> intervals = new HashMap<>();
+
+    /**
+     * Replay the current state into the listener, then pass it every event from now on
+     */
+    public void add(MqttManager.MqttCallback listener) {
+        synchronized (lock) {
+            if (connected) {
+                listener.onConnected();
+            }
+            for (Map.Entry<String, Integer> interval : intervals.entrySet()) {
+                listener.onTelemetryIntervalChanged(interval.getKey(), interval.getValue());
+            }
+            if (lastStatus != null) {
+                listener.onCarStatusReceived(lastStatus);
+            }
+            if (lastTelemetry != null) {
+                listener.onTelemetryReceived(lastTelemetry);
+            }
+            if (indexOf(listener) < 0) {
+                MqttManager.MqttCallback[] next = Arrays.copyOf(listeners, listeners.length + 1);
+                next[listeners.length] = listener;
+                listeners = next;
+            }
+        }
+    }
+
+    public void remove(MqttManager.MqttCallback listener) {
+        synchronized (lock) {
+            int index = indexOf(listener);
+            if (index < 0) {
+                return;
+            }
+            MqttManager.MqttCallback[] next = new MqttManager.MqttCallback[listeners.length - 1];
+            System.arraycopy(listeners, 0, next, 0, index);
+            System.arraycopy(listeners, index + 1, next, index, next.length - index);
+            listeners = next;
+        }
+    }
+
+    public int size() {
+        return listeners.length;
+    }
+
+    /**
+     * Forget the replay state, e.g. once the connection is closed for good
+     */
+    public void reset() {
+        synchronized (lock) {
+            connected = false;
+            lastStatus = null;
+            lastTelemetry = null;
+            intervals.clear();
+        }
+    }
+
+    @Override
+    public void onConnected() {
+        MqttManager.MqttCallback[] snapshot;
+        synchronized (lock) {
+            connected = true;
+            snapshot = listeners;
+        }
+        for (MqttManager.MqttCallback listener : snapshot) {
+            listener.onConnected();
+        }
+    }
+
+    @Override
+    public void onDisconnected() {
+        MqttManager.MqttCallback[] snapshot;
+        synchronized (lock) {
+            connected = false;
+            // Status and frame from before the drop are not the current state
+            lastStatus = null;
+            lastTelemetry = null;
+            intervals.clear();      // renegotiated on the next connection
+            snapshot = listeners;
+        }
+        for (MqttManager.MqttCallback listener : snapshot) {
+            listener.onDisconnected();
+        }
+    }
+
+    @Override
+    public void onTelemetryReceived(TelemetryData telemetryData) {
+        MqttManager.MqttCallback[] snapshot;
+        synchronized (lock) {
+            lastTelemetry = telemetryData;
+            snapshot = listeners;
+        }
+        for (MqttManager.MqttCallback listener : snapshot) {
+            listener.onTelemetryReceived(telemetryData);
+        }
+    }
+
+    @Override
+    public void onTelemetryRecord(TelemetryRecord record) {
+        MqttManager.MqttCallback[] snapshot;
+        synchronized (lock) {
+            long now = record.getTimestamp();
+            if (now - lastTelemetryCopyMs >= REPLAY_REFRESH_MS) {
+                lastTelemetryCopyMs = now;
+                lastTelemetry = record.toTelemetryData();
+            }
+            snapshot = listeners;
+        }
+        if (snapshot.length == 0) {
+            record.release();
+            return;
+        }
+        int last = snapshot.length - 1;
+        for (int i = 0; i < last; i++) {
+            TelemetryRecord copy = copies.acquire();
+            copy.copyFrom(record);
+            snapshot[i].onTelemetryRecord(copy);
+        }
+        snapshot[last].onTelemetryRecord(record);
+    }
+
+    @Override
+    public void onCarStatusReceived(CarStatus carStatus) {
+        MqttManager.MqttCallback[] snapshot;
+        synchronized (lock) {
+            lastStatus = carStatus;
+            snapshot = listeners;
+        }
+        for (MqttManager.MqttCallback listener : snapshot) {
+            listener.onCarStatusReceived(carStatus);
+        }
+    }
+
+    @Override
+    public void onTelemetryIntervalChanged(String deviceId, int intervalMs) {
+        MqttManager.MqttCallback[] snapshot;
+        synchronized (lock) {
+            intervals.put(deviceId, intervalMs);
+            snapshot = listeners;
+        }
+        for (MqttManager.MqttCallback listener : snapshot) {
+            listener.onTelemetryIntervalChanged(deviceId, intervalMs);
+        }
+    }
+
+    @Override
+    public void onCommandAck(CommandAck ack) {
+        for (MqttManager.MqttCallback listener : listeners) {
+            listener.onCommandAck(ack);
+        }
+    }
+
+    @Override
+    public void onLeaseHealthChanged(String deviceId, LeaseHealth health) {
+        for (MqttManager.MqttCallback listener : listeners) {
+            listener.onLeaseHealthChanged(deviceId, health);
+        }
+    }
+
+    @Override
+    public void onError(String message) {
+        for (MqttManager.MqttCallback listener : listeners) {
+            listener.onError(message);
+        }
+    }
+
+    private int indexOf(MqttManager.MqttCallback listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,150 @@
+package com.jdev.mqtt_car.data.source;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.jdev.mqtt_car.model.MqttConfig;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The app's single MQTT connection, shared by every screen and the background collector.
+ * <p>
+ * Users {@link #attach} a callback (or just {@link #retain} the connection) and get a
+ * {@link Registration} that counts as one reference. Events reach every attached callback
+ * through a {@link MqttCallbackFanOut}, which also replays the current state to late comers.
+ * When the last reference is dropped the connection stays up for LINGER_MS, so going from
+ * one screen to another never reconnects, and is closed only if nobody came back.
+ * <p>
+ * Broker settings are followed through the {@link ConfigRepository}: an edit that changes
+ * the broker or the car reconnects the same client in place, any other edit does not touch
+ * the connection at all.
+ */
+public class MqttConnectionManager {
+
+    private static final String TAG = "MqttConnectionManager";
+
+    static final long LINGER_MS = 30_000;
+
+    private static volatile MqttConnectionManager instance;
+
+    private final MqttCallbackFanOut fanOut = new MqttCallbackFanOut();
+    private final MqttManager client;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger references = new AtomicInteger();
+    private final Runnable lingerExpired = this::onLingerExpired;
+
+    /**
+     * One reference to the connection; detach exactly once when done with it
+     */
+    public final class Registration {
+        private final MqttManager.MqttCallback listener;
+        private final AtomicBoolean detached = new AtomicBoolean();
+
+        private Registration(MqttManager.MqttCallback listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Stop receiving callbacks and drop the reference. Safe from any thread, also from
+         * inside a callback; a second call does nothing.
+         */
+        public void detach() {
+            if (!detached.compareAndSet(false, true)) {
+                return;
+            }
+            if (listener != null) {
+                fanOut.remove(listener);
+            }
+            if (references.decrementAndGet() == 0) {
+                mainHandler.postDelayed(lingerExpired, LINGER_MS);
+            }
+        }
+    }
+
+    private MqttConnectionManager(Context context) {
+        ConfigRepository config = ConfigRepository.getInstance(context);
+        client = new MqttManager(context, fanOut);
+        config.addListener(this::onConfigChanged);
+    }
+
+    public static MqttConnectionManager getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MqttConnectionManager.class) {
+                if (instance == null) {
+                    instance = new MqttConnectionManager(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * The shared client, for connecting and publishing. Stays the same object for the life
+     * of the process, also across broker changes.
+     */
+    public MqttManager getClient() {
+        return client;
+    }
+
+    /**
+     * Start receiving callbacks, beginning with a replay of the current connection state,
+     * car status and latest telemetry. Call once the listener is ready for them.
+     */
+    public Registration attach(MqttManager.MqttCallback listener) {
+        Registration registration = register(listener);
+        fanOut.add(listener);
+        return registration;
+    }
+
+    /**
+     * Keep the connection open without listening to it, e.g. while settings are edited
+     */
+    public Registration retain() {
+        return register(null);
+    }
+
+    private Registration register(MqttManager.MqttCallback listener) {
+        if (references.getAndIncrement() == 0) {
+            mainHandler.removeCallbacks(lingerExpired);
+        }
+        return new Registration(listener);
+    }
+
+    /**
+     * Close the connection now, for every user. Attached callbacks are told through
+     * onDisconnected and stay attached for a later connect().
+     */
+    public void disconnect() {
+        boolean wasConnected = client.isConnected();
+        client.disconnect();
+        if (wasConnected) {
+            // An explicit disconnect does not report connectionLost
+            fanOut.onDisconnected();
+        }
+    }
+
+    public int getReferenceCount() {
+        return references.get();
+    }
+
+    private void onLingerExpired() {
+        if (references.get() > 0) {
+            return; // somebody attached while this was queued
+        }
+        Log.d(TAG, "No users left for " + LINGER_MS + " ms, closing the connection");
+        client.disconnect();
+        fanOut.reset();
+    }
+
+    // Main thread, after every config edit
+    private void onConfigChanged(MqttConfig config) {
+        if (client.applyProfile(config.getActiveProfile())) {
+            fanOut.reset(); // status and telemetry of the old broker or car
+            Log.d(TAG, "Broker settings changed, now " + client.getProfile().getBrokerUrl());
+        }
+    }
+}
@@ -1,25 +1,112 @@
 package com.jdev.mqtt_car.data.source;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.gson.Gson;
+import com.jdev.mqtt_car.data.capture.SessionRecorder;
+import com.jdev.mqtt_car.data.control.CommandLease;
+import com.jdev.mqtt_car.data.control.OutboundScheduler;
+import com.jdev.mqtt_car.data.control.TelemetryRateController;
+import com.jdev.mqtt_car.model.BrokerEndpoint;
 import com.jdev.mqtt_car.model.CarCommand;
 import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.DeviceProfile;
+import com.jdev.mqtt_car.model.LeaseHealth;
 import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.model.TelemetryRecord;
 
 import info.mqtt.android.service.MqttAndroidClient;
 import org.eclipse.paho.client.mqttv3.*;
 import org.json.JSONObject;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MqttManager {
     private static final String TAG = "MqttManager";
     private static final String CLIENT_ID = "android-app-" + System.currentTimeMillis();
+    private static final long LEASE_TICK_MS = 50;
+
+    // Gson is thread safe and caches its reflective adapters, so one instance serves every
+    // connection and prewarmParsers() builds them before the first message
+    private static final Gson GSON = new Gson();
+    private static final byte[] SAMPLE_TELEMETRY = ("{\"device_id\":\"car-001\",\"timestamp\":1,"
+            + "\"battery\":100,\"distance_front\":50,\"temperature\":25,\"current_action\":\"stop\","
+            + "\"wifi_rssi\":-50,\"free_heap\":100000}").getBytes();
 
-    private final String deviceId;
-    private final MqttAndroidClient mqttClient;
+    private final Context context;
     private final MqttCallback listener;
-    private final Gson gson = new Gson();
+    private final AtomicInteger driveSeq = new AtomicInteger();
+    private volatile boolean connecting;
+
+    // Replaced together by applyProfile() when the broker or car changes
+    private volatile DeviceProfile profile;
+    private volatile String deviceId;
+    private volatile MqttAndroidClient mqttClient;
+
+    // Broker the client is built for, one of the profile's endpoints; the failover picks it
+    private volatile BrokerEndpoint endpoint;
+    private final BrokerFailover failover =
+            new BrokerFailover(new BrokerProbe("probe-" + CLIENT_ID.substring(12)), this::onBrokerSwitch);
+    private volatile boolean raced;
+    private final BrokerSwitch<MqttAndroidClient> brokers = new BrokerSwitch<>(new BrokerSwitch.Clients<MqttAndroidClient>() {
+        @Override
+        public MqttAndroidClient create(BrokerEndpoint endpoint) {
+            return createClient(endpoint);
+        }
+
+        @Override
+        public void connect(MqttAndroidClient client) {
+            MqttManager.this.connect();
+        }
+
+        @Override
+        public void close(MqttAndroidClient client) {
+            closeStale(client);
+        }
+    });
+
+    // Topics are built once per connection instead of per message
+    private volatile String telemetryTopic;
+    private volatile String statusTopic;
+    private volatile String responseTopic;
+    private volatile String commandTopic;
+
+    // Opt-in pooled receive mode: telemetry is decoded from the payload bytes into reused records
+    private volatile boolean pooledTelemetry;
+    private final TelemetryRecordPool recordPool = new TelemetryRecordPool();
+    private final TelemetryDecoder telemetryDecoder = new TelemetryDecoder();
+
+    // Every publish goes through a lane: stops first, then driving, then everything else
+    private final OutboundScheduler outbound = new OutboundScheduler(this::publishNow, System::nanoTime);
+    private final IMqttActionListener publishListener = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken) {
+            outbound.onComplete((OutboundScheduler.Message) asyncActionToken.getUserContext());
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+            onPublishFailed((OutboundScheduler.Message) asyncActionToken.getUserContext(), exception);
+        }
+    };
+
+    // Raw traffic capture, null unless recording
+    private volatile SessionRecorder recorder;
+
+    // Telemetry interval negotiated with the car from visibility, driving and link quality
+    private final TelemetryRateController rateController;
+
+    // One lease per car, all renewed from a single scheduled thread
+    private final Map<String, CommandLease> leases = new ConcurrentHashMap<>();
+    private ScheduledExecutorService leaseScheduler;
 
     public interface MqttCallback {
         void onConnected();
@@ -28,65 +115,245 @@ public class MqttManager {
 
         void onTelemetryReceived(TelemetryData telemetryData);
 
+        /**
+         * Pooled receive mode only. Ownership of the record passes to the callee, which must
+         * release() it (or hand it on) once done; the default copies it and releases it.
+         */
+        default void onTelemetryRecord(TelemetryRecord record) {
+            TelemetryData data = record.toTelemetryData();
+            record.release();
+            onTelemetryReceived(data);
+        }
+
         void onCarStatusReceived(CarStatus carStatus);
 
+        void onCommandAck(CommandAck ack);
+
+        void onLeaseHealthChanged(String deviceId, LeaseHealth health);
+
+        /**
+         * The telemetry rate was renegotiated; frames may be up to intervalMs apart from now on
+         */
+        default void onTelemetryIntervalChanged(String deviceId, int intervalMs) {
+        }
+
         void onError(String message);
     }
 
     public MqttManager(Context context, MqttCallback listener) {
+        this.context = context.getApplicationContext();
         this.listener = listener;
+        this.rateController = new TelemetryRateController(this::sendRateRequest,
+                intervalMs -> listener.onTelemetryIntervalChanged(deviceId, intervalMs));
 
-        // Load configuration from SharedPreferences
-        MqttPreferences prefs = new MqttPreferences(context);
-        // Dynamic configuration from SharedPreferences
-        String brokerUrl = prefs.getBrokerUrl();
-        this.deviceId = prefs.getDeviceId();
+        // Profile of the active car from the cached config snapshot, no disk read here
+        useProfile(ConfigRepository.getInstance(context).get().getActiveProfile());
+    }
+
+    private void useProfile(DeviceProfile profile) {
+        this.profile = profile;
+        this.deviceId = profile.getDeviceId();
+        this.pooledTelemetry = profile.isPooledTelemetry();
+        this.telemetryTopic = "iot-car/" + deviceId + "/telemetry";
+        this.statusTopic = "iot-car/" + deviceId + "/status";
+        this.responseTopic = "iot-car/" + deviceId + "/response";
+        this.commandTopic = "iot-car/" + deviceId + "/command";
+
+        // A new car or broker list races its brokers again on the next connect
+        failover.setEndpoints(profile.getBrokerEndpoints());
+        raced = false;
+        brokers.use(failover.getActive());
+    }
 
-        Log.d(TAG, "Connecting to: " + brokerUrl + " as device: " + deviceId);
+    private MqttAndroidClient createClient(BrokerEndpoint endpoint) {
+        this.endpoint = endpoint;
+        Log.d(TAG, "Connecting to: " + endpoint.getUrl() + " as device: " + deviceId);
 
-        this.mqttClient = new MqttAndroidClient(context, brokerUrl, CLIENT_ID);
+        MqttAndroidClient client = new MqttAndroidClient(context, endpoint.getUrl(), CLIENT_ID);
+        client.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                if (!reconnect || client != mqttClient) {
+                    return;   // the first connect is handled by connect()'s listener
+                }
+                // Paho's automatic reconnect: a clean session lost the subscriptions
+                Log.d(TAG, "Reconnected to " + serverURI);
+                subscribeToTopics();
+                listener.onConnected();
+                rateController.onConnected(System.currentTimeMillis());
+            }
 
-        mqttClient.setCallback(new org.eclipse.paho.client.mqttv3.MqttCallback() {
             @Override
             public void connectionLost(Throwable cause) {
                 Log.e(TAG, "Connection lost", cause);
+                outbound.reset();
                 listener.onDisconnected();
+                failover.onActiveLost();
             }
 
             @Override
             public void messageArrived(String topic, MqttMessage message) {
+                SessionRecorder capture = recorder;
+                if (capture != null) {
+                    capture.inbound(topic, message.getQos(), message.getPayload());
+                }
+                if (pooledTelemetry && topic.equals(telemetryTopic)) {
+                    handleTelemetryBytes(message.getPayload());
+                    return;
+                }
                 handleMessage(topic, new String(message.getPayload()));
             }
 
             @Override
             public void deliveryComplete(IMqttDeliveryToken token) {
+                SessionRecorder capture = recorder;
+                if (capture != null) {
+                    capture.delivered(token.getMessageId());
+                }
             }
         });
+        this.mqttClient = client;
+        return client;
+    }
+
+    /**
+     * Switch to the given profile. Settings that only change what is sent are picked up
+     * in place; another broker or car needs a new client, which is connected right away if
+     * a connection is wanted. Returns true if the client was replaced.
+     */
+    public synchronized boolean applyProfile(DeviceProfile next) {
+        if (profile.sameConnection(next) && next.getBrokerEndpoints().contains(endpoint)) {
+            profile = next;
+            pooledTelemetry = next.isPooledTelemetry();
+            // Edited standby brokers are probed from the next round on
+            failover.setEndpoints(next.getBrokerEndpoints());
+            return false;
+        }
+        boolean wasConnected = mqttClient.isConnected();
+        stopConnection();
+        if (wasConnected) {
+            // Closing the old client does not report connectionLost
+            listener.onDisconnected();
+        }
+        useProfile(next);
+        if (brokers.isWantConnected()) {
+            connect();
+        }
+        return true;
+    }
+
+    /**
+     * Failover thread: the active broker degraded or was lost, move the connection and its
+     * subscriptions to the broker the failover chose. A lost client is not connected any
+     * more but is still wanted, so the new one connects either way.
+     */
+    private synchronized void onBrokerSwitch(BrokerEndpoint from, BrokerEndpoint to, String reason) {
+        Log.w(TAG, "Failing over from " + from + " to " + to + ": " + reason);
+        if (to.equals(endpoint)) {
+            return;
+        }
+        boolean wasConnected = mqttClient.isConnected();
+        stopConnection();
+        if (wasConnected) {
+            listener.onDisconnected();
+        }
+        brokers.switchTo(to);
+    }
+
+    /**
+     * Broker the connection currently uses
+     */
+    public BrokerEndpoint getActiveBroker() {
+        return endpoint;
+    }
+
+    /**
+     * Build Gson's reflective adapters and run the byte decoder once, so the first real
+     * message does not pay for class loading and reflection. Safe on any thread.
+     */
+    public static void prewarmParsers() {
+        GSON.getAdapter(TelemetryData.class);
+        GSON.getAdapter(CarStatus.class);
+        GSON.getAdapter(CommandAck.class);
+        TelemetryRecordPool pool = new TelemetryRecordPool(1);
+        TelemetryRecord record = pool.acquire();
+        new TelemetryDecoder().decode(SAMPLE_TELEMETRY, 0, SAMPLE_TELEMETRY.length, 0, record);
+        record.release();
     }
 
+    /**
+     * Connect unless already connected or connecting, e.g. a connection started
+     * speculatively at app start
+     */
     public void connect() {
+        brokers.setWantConnected(true);
+        if (connecting) {
+            return;
+        }
+        if (mqttClient.isConnected()) {
+            listener.onConnected();
+            return;
+        }
+        connecting = true;
+
+        if (failover.hasStandby() && !raced) {
+            // First connect to these brokers: use whichever answers first
+            raced = true;
+            MqttAndroidClient before = mqttClient;
+            failover.race(winner -> onRaceDecided(before, winner));
+            return;
+        }
+        openConnection();
+    }
 
+    private synchronized void onRaceDecided(MqttAndroidClient before, BrokerEndpoint winner) {
+        if (mqttClient != before || !connecting) {
+            return;   // the profile changed or we disconnected meanwhile
+        }
+        if (!winner.equals(endpoint)) {
+            Log.d(TAG, "Fastest broker: " + winner);
+            brokers.use(winner);
+        }
+        openConnection();
+    }
+
+    private void openConnection() {
         try {
             MqttConnectOptions options = new MqttConnectOptions();
             // No username/password for anonymous Mosquitto
             options.setCleanSession(true);
             options.setAutomaticReconnect(true);
+            // Room for every lane's in-flight limit at once: a stop never waits for a slot
+            options.setMaxInflight(OutboundScheduler.MAX_IN_FLIGHT);
 
-            mqttClient.connect(options, null, new IMqttActionListener() {
+            MqttAndroidClient client = mqttClient;
+            client.connect(options, null, new IMqttActionListener() {
                 @Override
                 public void onSuccess(IMqttToken asyncActionToken) {
-                    Log.d(TAG, "Connected to Mosquitto");
+                    if (client != mqttClient) {
+                        closeStale(client); // the profile changed while connecting
+                        return;
+                    }
+                    connecting = false;
+                    Log.d(TAG, "Connected to Mosquitto at " + endpoint);
                     subscribeToTopics();
                     listener.onConnected();
+                    rateController.onConnected(System.currentTimeMillis());
+                    failover.start();
                 }
 
                 @Override
                 public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    if (client != mqttClient) {
+                        return;
+                    }
+                    connecting = false;
                     Log.e(TAG, "Failed to connect", exception);
                     listener.onError("Connection failed: " + exception.getMessage());
                 }
             });
         } catch (Exception e) {
+            connecting = false;
             Log.e(TAG, "Connect error", e);
             listener.onError("Connect error: " + e.getMessage());
         }
@@ -94,32 +361,60 @@ public class MqttManager {
 
     private void subscribeToTopics() {
         try {
-            String telemetryTopic = "iot-car/" + deviceId + "/telemetry";
-            String statusTopic = "iot-car/" + deviceId + "/status";
-
-            mqttClient.subscribe(telemetryTopic, 0);
+            mqttClient.subscribe(telemetryTopic, profile.getTelemetryQos());
             mqttClient.subscribe(statusTopic, 1);
+            mqttClient.subscribe(responseTopic, 0);
             Log.d(TAG, "Subscribed to: " + telemetryTopic);
             Log.d(TAG, "Subscribed to: " + statusTopic);
+            Log.d(TAG, "Subscribed to: " + responseTopic);
         } catch (Exception e) {
             Log.e(TAG, "Subscribe error", e);
         }
     }
 
+    /**
+     * Pooled path: no String, no Gson, no log line per frame. The record is handed to the
+     * listener, which now owns it.
+     */
+    private void handleTelemetryBytes(byte[] payload) {
+        TelemetryRecord record = recordPool.acquire();
+        boolean decoded;
+        try {
+            decoded = telemetryDecoder.decode(payload, 0, payload.length, System.currentTimeMillis(), record);
+        } catch (RuntimeException e) {
+            // A decoder bug must not take down Paho's callback thread or leak the record
+            decoded = false;
+        }
+        if (!decoded) {
+            record.release();
+            Log.e(TAG, "Malformed telemetry: " + new String(payload));
+            return;
+        }
+        rateController.onTelemetry(record);
+        listener.onTelemetryRecord(record);
+    }
+
     private void handleMessage(String topic, String payload) {
 
         Log.d(TAG, "Message: " + topic + " -> " + payload);
 
         try {
-            if (topic.contains("/telemetry")) {
+            if (topic.equals(telemetryTopic)) {
                 // Parse telemetry using Gson - maps JSON directly to TelemetryData
-                TelemetryData data = gson.fromJson(payload, TelemetryData.class);
-                data.initTimestamp(); // Set timestamp since it's transient
+                TelemetryData data = GSON.fromJson(payload, TelemetryData.class);
+                rateController.onTelemetry(data);
                 listener.onTelemetryReceived(data);
-            } else if (topic.contains("/status")) {
+            } else if (topic.equals(statusTopic)) {
                 // Handle status updates from ESP32
-                CarStatus carStatus = gson.fromJson(payload, CarStatus.class);
+                CarStatus carStatus = GSON.fromJson(payload, CarStatus.class);
                 listener.onCarStatusReceived(carStatus);
+            } else if (topic.equals(responseTopic)) {
+                // Command / lease renewal acknowledgment
+                CommandAck ack = GSON.fromJson(payload, CommandAck.class);
+                if (ack.isRenewal()) {
+                    leaseFor(deviceId).onAck(ack.getLeaseId(), ack.getSeq(), SystemClock.elapsedRealtime());
+                }
+                listener.onCommandAck(ack);
             }
         } catch (Exception e) {
             Log.e(TAG, "Parse error", e);
@@ -127,15 +422,31 @@ public class MqttManager {
     }
 
 
+    /**
+     * Send a discrete command. Movement commands are leased: they keep the car moving
+     * only while renewals arrive, and "stop" releases the lease.
+     */
     public void sendCommand(String action) {
         try {
-            // {"action": "forward", "command_id": "cmd-123456789"}
-            CarCommand command = new CarCommand(action, "cmd-" + System.currentTimeMillis());
-            String topic = "iot-car/" + deviceId + "/command";
-            MqttMessage message = new MqttMessage(command.toString().getBytes());
-            message.setQos(1);
-
-            mqttClient.publish(topic, message);
+            String commandId = "cmd-" + System.currentTimeMillis();
+            CommandLease lease = leaseFor(deviceId);
+            CarCommand command;
+            if (CarCommand.ACTION_STOP.equals(action)) {
+                // {"action": "stop", "command_id": "cmd-123456789"}
+                lease.release(SystemClock.elapsedRealtime());
+                command = new CarCommand(action, commandId);
+            } else {
+                // {"action": "forward", "command_id": "cmd-123456789", "lease_ms": 1000}
+                command = new CarCommand(action, commandId, CommandLease.LEASE_MS);
+                lease.acquire(commandId, SystemClock.elapsedRealtime());
+                ensureLeaseTicker();
+            }
+            // A stop overtakes everything queued; a newer movement replaces a queued one
+            boolean stop = CarCommand.ACTION_STOP.equals(action);
+            outbound.submit(new OutboundScheduler.Message(
+                    stop ? OutboundScheduler.Lane.SAFETY : OutboundScheduler.Lane.CONTROL,
+                    commandTopic, command.toString().getBytes(), profile.getCommandQos(),
+                    stop ? null : "move", "Failed to send command"));
             Log.d(TAG, "Sent command: " + command.toString());
 
         } catch (Exception e) {
@@ -144,7 +455,183 @@ public class MqttManager {
         }
     }
 
+    /**
+     * Publish an analog drive setpoint from the joystick control loop.
+     * Uses QoS 0: a lost frame is superseded by the next one or the heartbeat.
+     */
+    public void sendDrive(int throttle, int steering) {
+        if (!mqttClient.isConnected()) {
+            return;
+        }
+        CarCommand command = CarCommand.drive(throttle, steering, driveSeq.incrementAndGet());
+        // Only the newest setpoint waits; a zero one stops the car and goes first
+        boolean halt = throttle == 0 && steering == 0;
+        outbound.submit(new OutboundScheduler.Message(
+                halt ? OutboundScheduler.Lane.SAFETY : OutboundScheduler.Lane.CONTROL,
+                commandTopic, command.toString().getBytes(), 0, "drive", null));
+    }
+
+    /**
+     * Publish a lease renewal for the held command. QoS 0 because the next renewal
+     * supersedes a lost one, and the ack tells us whether it got through.
+     */
+    private void sendRenewal(String leaseId, int seq) {
+        if (!mqttClient.isConnected()) {
+            return;
+        }
+        // {"action":"renew","lease":"cmd-123456789","seq":4}
+        outbound.submit(new OutboundScheduler.Message(OutboundScheduler.Lane.CONTROL, commandTopic,
+                CarCommand.renew(leaseId, seq).toString().getBytes(), 0, "renew", null));
+    }
+
+    /**
+     * App visibility; in the background the car is asked for far fewer frames
+     */
+    public void setForeground(boolean foreground) {
+        rateController.setForeground(foreground, System.currentTimeMillis());
+    }
+
+    /**
+     * Driving raises the telemetry rate, both joystick and held button commands count
+     */
+    public void setDriving(boolean driving) {
+        rateController.setDriving(driving, System.currentTimeMillis());
+    }
+
+    /**
+     * Telemetry interval the car is confirmed to be using, -1 until known
+     */
+    public int getTelemetryIntervalMs() {
+        return rateController.getConfirmedIntervalMs();
+    }
+
+    public DeviceProfile getProfile() {
+        return profile;
+    }
+
+    public boolean isConnected() {
+        return mqttClient.isConnected();
+    }
+
+    /**
+     * A connect() is in flight, the first connection attempt has not succeeded or failed yet
+     */
+    public boolean isConnecting() {
+        return connecting;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Publish a telemetry rate request. Uses the command QoS: unlike drive frames a lost one
+     * is not superseded, it would only be retried after the confirmation timeout.
+     */
+    private void sendRateRequest(int intervalMs) {
+        if (!mqttClient.isConnected()) {
+            return;
+        }
+        // {"action":"rate","interval_ms":100}
+        outbound.submit(new OutboundScheduler.Message(OutboundScheduler.Lane.BULK, commandTopic,
+                CarCommand.rate(intervalMs).toString().getBytes(), profile.getCommandQos(), "rate", null));
+        Log.d(TAG, "Requested telemetry every " + intervalMs + " ms");
+    }
+
+    /**
+     * Called by the scheduler, one message at a time in lane priority order
+     */
+    private void publishNow(OutboundScheduler.Message message) {
+        MqttMessage mqttMessage = new MqttMessage(message.getPayload());
+        mqttMessage.setQos(message.getQos());
+        try {
+            IMqttDeliveryToken token = mqttClient.publish(message.getTopic(), mqttMessage, message, publishListener);
+            SessionRecorder capture = recorder;
+            if (capture != null) {
+                capture.outbound(message.getTopic(), message.getQos(), message.getLane().ordinal(),
+                        token != null ? token.getMessageId() : 0, message.getPayload());
+            }
+        } catch (Exception e) {
+            onPublishFailed(message, e);
+        }
+    }
+
+    private void onPublishFailed(OutboundScheduler.Message message, Throwable cause) {
+        Log.e(TAG, "Publish error on " + message.getLane() + " lane", cause);
+        outbound.onComplete(message);
+        if (message.getFailureMessage() != null) {
+            listener.onError(message.getFailureMessage());
+        }
+    }
+
+    /**
+     * Record all raw traffic into the recorder from now on, null to stop. The caller closes it.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Queueing delay and throughput of one outbound lane
+     */
+    public OutboundScheduler.LaneStats getOutboundStats(OutboundScheduler.Lane lane) {
+        return outbound.getStats(lane);
+    }
+
+    public LeaseHealth getLeaseHealth(String deviceId) {
+        CommandLease lease = leases.get(deviceId);
+        return lease == null ? LeaseHealth.idle() : lease.getHealth(SystemClock.elapsedRealtime());
+    }
+
+    private CommandLease leaseFor(String deviceId) {
+        return leases.computeIfAbsent(deviceId, id -> new CommandLease(
+                this::sendRenewal,
+                health -> listener.onLeaseHealthChanged(id, health)));
+    }
+
+    private synchronized void ensureLeaseTicker() {
+        if (leaseScheduler != null) {
+            return;
+        }
+        leaseScheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "lease-renewal"));
+        leaseScheduler.scheduleAtFixedRate(() -> {
+            long now = SystemClock.elapsedRealtime();
+            for (CommandLease lease : leases.values()) {
+                lease.onTick(now);
+            }
+        }, LEASE_TICK_MS, LEASE_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Nobody is at the controls any more: release every held command and stop renewing
+     */
+    public synchronized void stopLeaseTicker() {
+        long now = SystemClock.elapsedRealtime();
+        for (CommandLease lease : leases.values()) {
+            lease.release(now);
+        }
+        if (leaseScheduler != null) {
+            leaseScheduler.shutdownNow();
+            leaseScheduler = null;
+        }
+    }
+
+    private static void closeStale(MqttAndroidClient client) {
+        try {
+            if (client.isConnected()) {
+                client.disconnect();
+            } else {
+                // Lost or never connected: closing also ends Paho's automatic reconnect
+                client.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Disconnect error", e);
+        }
+    }
+
     public void disconnect() {
+        brokers.setWantConnected(false);
+        stopConnection();
         try {
             if (mqttClient != null && mqttClient.isConnected()) {
                 mqttClient.disconnect();
@@ -153,4 +640,11 @@ public class MqttManager {
             Log.e(TAG, "Disconnect error", e);
         }
     }
+
+    private void stopConnection() {
+        connecting = false;
+        failover.stop();
+        stopLeaseTicker();
+        outbound.reset();
+    }
 }
\ No newline at end of file
@@ -3,26 +3,49 @@ package com.jdev.mqtt_car.data.source;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.jdev.mqtt_car.model.BrokerEndpoint;
+import com.jdev.mqtt_car.model.DeviceProfile;
+import com.jdev.mqtt_car.model.MqttConfig;
+import com.jdev.mqtt_car.model.OdometryCalibration;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
- * Helper class for managing MQTT connection preferences.
- * Stores broker IP, port, and future authentication credentials.
+ * SharedPreferences storage behind {@link ConfigRepository}.
+ * Stores the per-car profiles (brokers, QoS, receive mode, rate limits), the active car
+ * and the login state. The whole configuration is read in one pass and written in one
+ * edit; nothing else should read these preferences directly.
  */
-public class MqttPreferences {
+public class MqttPreferences implements ConfigRepository.Storage {
     private static final String PREF_NAME = "mqtt_preferences";
 
-    // Keys
+    // Keys of the active car, kept so older installs load unchanged
     private static final String KEY_BROKER_IP = "broker_ip";
     private static final String KEY_BROKER_PORT = "broker_port";
     private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_POOLED_TELEMETRY = "pooled_telemetry";
+
     private static final String KEY_USERNAME = "username";
     private static final String KEY_PASSWORD = "password";
     private static final String KEY_REMEMBER = "remember_credentials";
     private static final String KEY_IS_CONFIGURED = "is_configured";
-
-    // Default values
-    private static final String DEFAULT_IP = "192.168.1.1";
-    private static final int DEFAULT_PORT = 1883;
-    private static final String DEFAULT_DEVICE_ID = "car-001";
+    private static final String KEY_BACKGROUND_MONITORING = "background_monitoring";
+    private static final String KEY_MACRO = "macro";
+    private static final String KEY_ALERT_RULES = "alert_rules";
+
+    // Per-car profiles: "profile.<device id>.<field>"
+    private static final String KEY_PROFILES = "profiles";
+    private static final String PROFILE_PREFIX = "profile.";
+    private static final String FIELD_BROKER_IP = ".broker_ip";
+    private static final String FIELD_BROKER_PORT = ".broker_port";
+    private static final String FIELD_COMMAND_QOS = ".command_qos";
+    private static final String FIELD_TELEMETRY_QOS = ".telemetry_qos";
+    private static final String FIELD_POOLED_TELEMETRY = ".pooled_telemetry";
+    private static final String FIELD_DRIVE_RATE_HZ = ".drive_rate_hz";
+    private static final String FIELD_STANDBY_BROKERS = ".standby_brokers";
+    private static final String FIELD_ODOMETRY_SPEED = ".odometry_speed_cm_s";
+    private static final String FIELD_ODOMETRY_TURN = ".odometry_turn_deg_s";
 
     private final SharedPreferences prefs;
 
@@ -31,71 +54,90 @@ public class MqttPreferences {
     }
 
     // ========================================
-    // Broker Configuration
-    // ========================================
-
-    public void saveBrokerConfig(String ip, int port, String deviceId) {
-        prefs.edit()
-                .putString(KEY_BROKER_IP, ip)
-                .putInt(KEY_BROKER_PORT, port)
-                .putString(KEY_DEVICE_ID, deviceId)
-                .putBoolean(KEY_IS_CONFIGURED, true)
-                .apply();
-    }
-
-    public String getBrokerIp() {
-        return prefs.getString(KEY_BROKER_IP, DEFAULT_IP);
-    }
-
-    public int getBrokerPort() {
-        return prefs.getInt(KEY_BROKER_PORT, DEFAULT_PORT);
-    }
-
-    public String getDeviceId() {
-        return prefs.getString(KEY_DEVICE_ID, DEFAULT_DEVICE_ID);
-    }
-
-    public String getBrokerUrl() {
-        return "tcp://" + getBrokerIp() + ":" + getBrokerPort();
-    }
-
-    // ========================================
-    // Authentication (Future Use)
+    // Load / Save
     // ========================================
 
-    public void saveCredentials(String username, String password) {
-        prefs.edit()
-                .putString(KEY_USERNAME, username)
-                .putString(KEY_PASSWORD, password)
-                .apply();
-    }
-
-    public String getUsername() {
-        return prefs.getString(KEY_USERNAME, "");
+    @Override
+    public MqttConfig load() {
+        String activeId = prefs.getString(KEY_DEVICE_ID, DeviceProfile.DEFAULT_DEVICE_ID);
+        MqttConfig.Builder builder = new MqttConfig.Builder()
+                .setActiveDeviceId(activeId)
+                .setCredentials(prefs.getString(KEY_USERNAME, ""), prefs.getString(KEY_PASSWORD, ""))
+                .setRemember(prefs.getBoolean(KEY_REMEMBER, true))
+                .setConfigured(prefs.getBoolean(KEY_IS_CONFIGURED, false))
+                .setBackgroundMonitoring(prefs.getBoolean(KEY_BACKGROUND_MONITORING, false))
+                .setMacro(prefs.getString(KEY_MACRO, ""))
+                .setAlertRules(prefs.getString(KEY_ALERT_RULES, ""));
+
+        Set<String> ids = prefs.getStringSet(KEY_PROFILES, null);
+        if (ids != null) {
+            for (String id : ids) {
+                builder.putProfile(loadProfile(id));
+            }
+        }
+        if (ids == null || !ids.contains(activeId)) {
+            // Installs from before profiles existed only have the flat keys
+            builder.putProfile(new DeviceProfile(activeId,
+                    prefs.getString(KEY_BROKER_IP, DeviceProfile.DEFAULT_BROKER_IP),
+                    prefs.getInt(KEY_BROKER_PORT, DeviceProfile.DEFAULT_BROKER_PORT),
+                    DeviceProfile.DEFAULT_COMMAND_QOS,
+                    DeviceProfile.DEFAULT_TELEMETRY_QOS,
+                    prefs.getBoolean(KEY_POOLED_TELEMETRY, false),
+                    DeviceProfile.DEFAULT_DRIVE_RATE_HZ));
+        }
+        return builder.build();
     }
 
-    public String getPassword() {
-        return prefs.getString(KEY_PASSWORD, "");
+    /**
+     * Write the whole snapshot in one commit. Called on the repository's I/O thread.
+     */
+    @Override
+    public void save(MqttConfig config) {
+        DeviceProfile active = config.getActiveProfile();
+        SharedPreferences.Editor editor = prefs.edit()
+                .putString(KEY_DEVICE_ID, config.getActiveDeviceId())
+                .putString(KEY_BROKER_IP, active.getBrokerIp())
+                .putInt(KEY_BROKER_PORT, active.getBrokerPort())
+                .putBoolean(KEY_POOLED_TELEMETRY, active.isPooledTelemetry())
+                .putString(KEY_USERNAME, config.getUsername())
+                .putString(KEY_PASSWORD, config.getPassword())
+                .putBoolean(KEY_REMEMBER, config.shouldRemember())
+                .putBoolean(KEY_IS_CONFIGURED, config.isConfigured())
+                .putBoolean(KEY_BACKGROUND_MONITORING, config.isBackgroundMonitoring())
+                .putString(KEY_MACRO, config.getMacro())
+                .putString(KEY_ALERT_RULES, config.getAlertRules());
+
+        Set<String> ids = new LinkedHashSet<>(config.getProfiles().keySet());
+        editor.putStringSet(KEY_PROFILES, ids);
+        for (DeviceProfile profile : config.getProfiles().values()) {
+            String prefix = PROFILE_PREFIX + profile.getDeviceId();
+            editor.putString(prefix + FIELD_BROKER_IP, profile.getBrokerIp())
+                    .putInt(prefix + FIELD_BROKER_PORT, profile.getBrokerPort())
+                    .putInt(prefix + FIELD_COMMAND_QOS, profile.getCommandQos())
+                    .putInt(prefix + FIELD_TELEMETRY_QOS, profile.getTelemetryQos())
+                    .putBoolean(prefix + FIELD_POOLED_TELEMETRY, profile.isPooledTelemetry())
+                    .putInt(prefix + FIELD_DRIVE_RATE_HZ, profile.getMaxDriveRateHz())
+                    .putString(prefix + FIELD_STANDBY_BROKERS, BrokerEndpoint.joinList(profile.getStandbyBrokers()))
+                    .putFloat(prefix + FIELD_ODOMETRY_SPEED, profile.getOdometryCalibration().getSpeedCmPerSec())
+                    .putFloat(prefix + FIELD_ODOMETRY_TURN, profile.getOdometryCalibration().getTurnDegPerSec());
+        }
+        editor.commit();
     }
 
-    public boolean hasCredentials() {
-        return !getUsername().isEmpty() && !getPassword().isEmpty();
-    }
-
-    // ========================================
-    // Remember & Configuration State
-    // ========================================
-
-    public void setRememberCredentials(boolean remember) {
-        prefs.edit().putBoolean(KEY_REMEMBER, remember).apply();
-    }
-
-    public boolean shouldRemember() {
-        return prefs.getBoolean(KEY_REMEMBER, true);
-    }
-
-    public boolean isConfigured() {
-        return prefs.getBoolean(KEY_IS_CONFIGURED, false);
+    private DeviceProfile loadProfile(String id) {
+        String prefix = PROFILE_PREFIX + id;
+        return new DeviceProfile(id,
+                prefs.getString(prefix + FIELD_BROKER_IP, DeviceProfile.DEFAULT_BROKER_IP),
+                prefs.getInt(prefix + FIELD_BROKER_PORT, DeviceProfile.DEFAULT_BROKER_PORT),
+                prefs.getInt(prefix + FIELD_COMMAND_QOS, DeviceProfile.DEFAULT_COMMAND_QOS),
+                prefs.getInt(prefix + FIELD_TELEMETRY_QOS, DeviceProfile.DEFAULT_TELEMETRY_QOS),
+                prefs.getBoolean(prefix + FIELD_POOLED_TELEMETRY, false),
+                prefs.getInt(prefix + FIELD_DRIVE_RATE_HZ, DeviceProfile.DEFAULT_DRIVE_RATE_HZ),
+                BrokerEndpoint.parseList(prefs.getString(prefix + FIELD_STANDBY_BROKERS, ""),
+                        DeviceProfile.DEFAULT_BROKER_PORT),
+                new OdometryCalibration(
+                        prefs.getFloat(prefix + FIELD_ODOMETRY_SPEED, OdometryCalibration.DEFAULT_SPEED_CM_PER_SEC),
+                        prefs.getFloat(prefix + FIELD_ODOMETRY_TURN, OdometryCalibration.DEFAULT_TURN_DEG_PER_SEC)));
     }
 
     // ========================================
@@ -105,11 +147,4 @@ public class MqttPreferences {
     public void clearAll() {
         prefs.edit().clear().apply();
     }
-
-    public void clearCredentials() {
-        prefs.edit()
-                .remove(KEY_USERNAME)
-                .remove(KEY_PASSWORD)
-                .apply();
-    }
 }
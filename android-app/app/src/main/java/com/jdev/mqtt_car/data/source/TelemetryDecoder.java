@@ -0,0 +1,332 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Allocation-free decoder for the flat telemetry JSON the ESP32 publishes, straight from the
+ * MQTT payload bytes into a pooled {@link TelemetryRecord}.
+ * <p>
+ * Only what sendTelemetry() produces is supported: one object of numbers and strings.
+ * Unknown keys (including nested values) are skipped. String values are looked up in a
+ * small table keyed by their bytes, so the usual device ids and actions resolve to the
+ * same String instances and no String is built per frame.
+ * <p>
+ * Not thread-safe, use one decoder per receive thread.
+ */
+public class TelemetryDecoder {
+
+    private static final byte[] KEY_DEVICE_ID = ascii("device_id");
+    private static final byte[] KEY_TIMESTAMP = ascii("timestamp");
+    private static final byte[] KEY_BATTERY = ascii("battery");
+    private static final byte[] KEY_DISTANCE_FRONT = ascii("distance_front");
+    private static final byte[] KEY_TEMPERATURE = ascii("temperature");
+    private static final byte[] KEY_CURRENT_ACTION = ascii("current_action");
+    private static final byte[] KEY_WIFI_RSSI = ascii("wifi_rssi");
+    private static final byte[] KEY_FREE_HEAP = ascii("free_heap");
+
+    // Seeded with every action the firmware reports, device ids are learned on first sight
+    private static final String[] KNOWN_STRINGS = {
+            "stop", "forward", "backward", "left", "right", "drive", "unknown"
+    };
+    private static final int STRING_TABLE_SIZE = 32;
+
+    private final byte[][] tableBytes = new byte[STRING_TABLE_SIZE][];
+    private final String[] tableValues = new String[STRING_TABLE_SIZE];
+    private int tableSize;
+    private int nextEvict = KNOWN_STRINGS.length;
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+    private boolean failed;
+
+    public TelemetryDecoder() {
+        for (String s : KNOWN_STRINGS) {
+            tableBytes[tableSize] = s.getBytes(StandardCharsets.UTF_8);
+            tableValues[tableSize] = s;
+            tableSize++;
+        }
+    }
+
+    /**
+     * Decode one payload into out. Returns false if the payload is not a JSON object in the
+     * expected shape; out is then partially filled and should just be released.
+     *
+     * @param receivedAtMs receive time to stamp on the record
+     */
+    public boolean decode(byte[] json, int offset, int length, long receivedAtMs, TelemetryRecord out) {
+        buf = json;
+        pos = offset;
+        end = offset + length;
+        failed = false;
+        out.setTimestamp(receivedAtMs);
+
+        try {
+            skipWhitespace();
+            if (!consume('{')) {
+                return false;
+            }
+            skipWhitespace();
+            if (consume('}')) {
+                return true;
+            }
+            while (!failed) {
+                skipWhitespace();
+                if (!consume('"')) {
+                    return false;
+                }
+                int keyStart = pos;
+                skipStringBody();
+                int keyEnd = pos - 1;
+                skipWhitespace();
+                if (!consume(':')) {
+                    return false;
+                }
+                skipWhitespace();
+                readField(keyStart, keyEnd - keyStart, out);
+
+                skipWhitespace();
+                if (consume(',')) {
+                    continue;
+                }
+                return consume('}') && !failed;
+            }
+            return false;
+        } finally {
+            buf = null;
+        }
+    }
+
+    private void readField(int keyStart, int keyLength, TelemetryRecord out) {
+        if (keyIs(KEY_BATTERY, keyStart, keyLength)) {
+            out.setBattery((int) readNumber());
+        } else if (keyIs(KEY_DISTANCE_FRONT, keyStart, keyLength)) {
+            out.setDistanceFront((int) readNumber());
+        } else if (keyIs(KEY_TEMPERATURE, keyStart, keyLength)) {
+            out.setTemperature((int) readNumber());
+        } else if (keyIs(KEY_WIFI_RSSI, keyStart, keyLength)) {
+            out.setWifiRssi((int) readNumber());
+        } else if (keyIs(KEY_FREE_HEAP, keyStart, keyLength)) {
+            out.setFreeHeap((int) readNumber());
+        } else if (keyIs(KEY_TIMESTAMP, keyStart, keyLength)) {
+            out.setDeviceMillis(readNumber());
+        } else if (keyIs(KEY_DEVICE_ID, keyStart, keyLength)) {
+            out.setDeviceId(readString());
+        } else if (keyIs(KEY_CURRENT_ACTION, keyStart, keyLength)) {
+            out.setCurrentAction(readString());
+        } else {
+            skipValue();
+        }
+    }
+
+    // ========================================
+    // Values
+    // ========================================
+
+    /**
+     * Integer part of a JSON number, a fraction or exponent is skipped
+     */
+    private long readNumber() {
+        boolean negative = consume('-');
+        long value = 0;
+        int digits = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos++] - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            failed = true;
+            return 0;
+        }
+        while (pos < end && isNumberChar(buf[pos])) {
+            pos++;
+        }
+        return negative ? -value : value;
+    }
+
+    private String readString() {
+        if (!consume('"')) {
+            failed = true;
+            return "";
+        }
+        int start = pos;
+        boolean escaped = skipStringBody();
+        int length = pos - 1 - start;
+        if (escaped) {
+            // Never sent by the firmware; correctness over speed here
+            return unescape(start, length);
+        }
+        return lookup(start, length);
+    }
+
+    /**
+     * Advance past the closing quote, returns true if the string contained escapes
+     */
+    private boolean skipStringBody() {
+        boolean escaped = false;
+        while (pos < end) {
+            byte b = buf[pos++];
+            if (b == '\\') {
+                escaped = true;
+                pos++;
+            } else if (b == '"') {
+                return escaped;
+            }
+        }
+        failed = true;
+        return escaped;
+    }
+
+    private void skipValue() {
+        if (pos >= end) {
+            failed = true;
+            return;
+        }
+        byte b = buf[pos];
+        if (b == '"') {
+            pos++;
+            skipStringBody();
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < end) {
+                byte c = buf[pos++];
+                if (c == '"') {
+                    skipStringBody();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            failed = true;
+        } else {
+            // number, true, false, null
+            while (pos < end && buf[pos] != ',' && buf[pos] != '}' && !isWhitespace(buf[pos])) {
+                pos++;
+            }
+        }
+    }
+
+    // ========================================
+    // String table
+    // ========================================
+
+    private String lookup(int start, int length) {
+        for (int i = 0; i < tableSize; i++) {
+            if (rangeEquals(tableBytes[i], start, length)) {
+                return tableValues[i];
+            }
+        }
+        String value = new String(buf, start, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buf, start, bytes, 0, length);
+
+        int slot;
+        if (tableSize < STRING_TABLE_SIZE) {
+            slot = tableSize++;
+        } else {
+            // Evict round robin, but never the seeded actions
+            slot = nextEvict;
+            nextEvict = nextEvict + 1 < STRING_TABLE_SIZE ? nextEvict + 1 : KNOWN_STRINGS.length;
+        }
+        tableBytes[slot] = bytes;
+        tableValues[slot] = value;
+        return value;
+    }
+
+    private String unescape(int start, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        String raw = new String(buf, start, length, StandardCharsets.UTF_8);
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= raw.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = raw.charAt(++i);
+            switch (next) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    int code = i + 4 < raw.length() ? hex4(raw, i + 1) : -1;
+                    if (code < 0) {
+                        failed = true;   // truncated or not four hex digits
+                        return "";
+                    }
+                    sb.append((char) code);
+                    i += 4;
+                    break;
+                default: sb.append(next); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    // ========================================
+    // Helpers
+    // ========================================
+
+    /**
+     * Value of the four hex digits at start, -1 if one is not a hex digit
+     */
+    private static int hex4(String s, int start) {
+        int value = 0;
+        for (int i = start; i < start + 4; i++) {
+            int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private boolean keyIs(byte[] key, int start, int length) {
+        return rangeEquals(key, start, length);
+    }
+
+    private boolean rangeEquals(byte[] expected, int start, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean consume(char c) {
+        if (pos < end && buf[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(buf[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isNumberChar(byte b) {
+        return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,63 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+/**
+ * Bounded free list of {@link TelemetryRecord}s.
+ * <p>
+ * Records are created up front; if consumers hold more than the pool size at once a new
+ * record is allocated and counted as a miss, and it joins the pool when released as long
+ * as there is room. In steady state acquire/release allocate nothing.
+ */
+public class TelemetryRecordPool implements TelemetryRecord.Recycler {
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private final TelemetryRecord[] free;
+    private int size;
+    private long misses;
+
+    public TelemetryRecordPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TelemetryRecordPool(int capacity) {
+        free = new TelemetryRecord[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = new TelemetryRecord(this);
+        }
+        size = capacity;
+    }
+
+    @Override
+    public synchronized TelemetryRecord acquire() {
+        TelemetryRecord record;
+        if (size > 0) {
+            record = free[--size];
+            free[size] = null;
+        } else {
+            misses++;
+            record = new TelemetryRecord(this);
+        }
+        record.markAcquired();
+        return record;
+    }
+
+    @Override
+    public synchronized void recycle(TelemetryRecord record) {
+        if (size < free.length) {
+            free[size++] = record;
+        }
+    }
+
+    public synchronized int available() {
+        return size;
+    }
+
+    /**
+     * Number of acquires that had to allocate because the pool was empty
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
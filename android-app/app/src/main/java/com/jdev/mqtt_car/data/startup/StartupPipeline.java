@@ -0,0 +1,184 @@
+package com.jdev.mqtt_car.data.startup;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.jdev.mqtt_car.data.source.ConfigRepository;
+import com.jdev.mqtt_car.data.source.MqttConnectionManager;
+import com.jdev.mqtt_car.data.source.MqttManager;
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.LeaseHealth;
+import com.jdev.mqtt_car.model.MqttConfig;
+import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+/**
+ * Cold start work that does not need to wait for the user. Started from the Application:
+ * <ul>
+ *   <li>parsers are prewarmed on a background thread right away</li>
+ *   <li>once the config is loaded, if the user is remembered (LoginActivity will skip
+ *   straight to main) the shared MQTT connection is started speculatively</li>
+ * </ul>
+ * MainViewModel then attaches to the already running connection in the
+ * {@link MqttConnectionManager}, which replays whatever state it missed.
+ * Time to first telemetry, measured from process start, is logged once per process.
+ */
+public class StartupPipeline {
+
+    private static final String TAG = "StartupPipeline";
+
+    private static volatile StartupPipeline instance;
+
+    private final Context context;
+    private boolean started;
+
+    private final long processStartMs = Process.getStartElapsedRealtime();
+    private volatile long connectedAtMs = -1;
+    private volatile long firstTelemetryAtMs = -1;
+
+    private StartupPipeline(Context context) {
+        this.context = context;
+    }
+
+    public static StartupPipeline getInstance(Context context) {
+        if (instance == null) {
+            synchronized (StartupPipeline.class) {
+                if (instance == null) {
+                    instance = new StartupPipeline(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Call once from Application.onCreate, on the main thread
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        Thread prewarm = new Thread(() -> {
+            long begin = SystemClock.elapsedRealtime();
+            try {
+                MqttManager.prewarmParsers();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Parser prewarm failed", e);
+            }
+            Log.d(TAG, "Parsers prewarmed in " + (SystemClock.elapsedRealtime() - begin) + " ms");
+        }, "startup-prewarm");
+        prewarm.setPriority(Thread.MIN_PRIORITY);
+        prewarm.start();
+
+        // Runs on the main thread as soon as the background load finishes
+        ConfigRepository.getInstance(context).whenLoaded(this::onConfigLoaded);
+    }
+
+    private void onConfigLoaded(MqttConfig config) {
+        if (!config.isConfigured() || !config.shouldRemember()) {
+            return; // the login screen stays, nothing to connect to yet
+        }
+        MqttConnectionManager connections = MqttConnectionManager.getInstance(context);
+        // Holds the connection open until the first frame, by then main has attached
+        new FirstTelemetryProbe().attachTo(connections);
+        connections.getClient().connect();
+        Log.d(TAG, "Speculative connect to " + connections.getClient().getProfile().getBrokerUrl());
+    }
+
+    /**
+     * Milliseconds from process start to the first telemetry frame, -1 until it arrived
+     */
+    public long getTimeToFirstTelemetryMs() {
+        long at = firstTelemetryAtMs;
+        return at < 0 ? -1 : at - processStartMs;
+    }
+
+    private void markConnected() {
+        if (connectedAtMs < 0) {
+            connectedAtMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private void markFirstTelemetry() {
+        if (firstTelemetryAtMs >= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (firstTelemetryAtMs >= 0) {
+                return;
+            }
+            firstTelemetryAtMs = SystemClock.elapsedRealtime();
+        }
+        long connected = connectedAtMs;
+        Log.i(TAG, "Startup: connected +" + (connected < 0 ? "?" : String.valueOf(connected - processStartMs))
+                + " ms, first telemetry +" + getTimeToFirstTelemetryMs() + " ms");
+    }
+
+    /**
+     * Listens only for the startup metrics and detaches itself after the first frame or a
+     * failed connect
+     */
+    private final class FirstTelemetryProbe implements MqttManager.MqttCallback {
+
+        private volatile MqttConnectionManager.Registration registration;
+        private volatile boolean done;
+
+        void attachTo(MqttConnectionManager connections) {
+            registration = connections.attach(this);
+            if (done) {
+                registration.detach(); // finished by the replay already
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (registration != null) {
+                registration.detach();
+            }
+        }
+
+        @Override
+        public void onConnected() {
+            markConnected();
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onTelemetryReceived(TelemetryData telemetryData) {
+            markFirstTelemetry();
+            finish();
+        }
+
+        @Override
+        public void onTelemetryRecord(TelemetryRecord record) {
+            record.release();
+            markFirstTelemetry();
+            finish();
+        }
+
+        @Override
+        public void onCarStatusReceived(CarStatus carStatus) {
+        }
+
+        @Override
+        public void onCommandAck(CommandAck ack) {
+        }
+
+        @Override
+        public void onLeaseHealthChanged(String deviceId, LeaseHealth health) {
+        }
+
+        @Override
+        public void onError(String message) {
+            finish();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.jdev.mqtt_car.data.state;
+
+import com.jdev.mqtt_car.model.CarState;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-writer store of one immutable {@link CarState} per car.
+ * <p>
+ * Every update is a reducer run on the writer executor, so updates coming from the MQTT,
+ * liveness and control threads are applied one at a time and in order. A new snapshot is
+ * published only if the reducer changed something. Publishing is coalesced: the change
+ * masks of all commits made before the observer thread gets to run are OR-ed together and
+ * delivered with the latest snapshot in a single handoff.
+ */
+public class CarStateStore {
+
+    public interface Reducer {
+        CarState reduce(CarState state);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the observer executor
+         *
+         * @param changes {@link CarState} change mask bits since the previous delivery
+         */
+        void onStateChanged(CarState state, int changes);
+    }
+
+    private static class Slot {
+        volatile CarState state;
+        final AtomicInteger pendingChanges = new AtomicInteger();
+
+        Slot(CarState state) {
+            this.state = state;
+        }
+    }
+
+    private final Executor writer;
+    private final Executor observer;
+    private final Listener listener;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * @param writer   must run tasks one at a time, in submission order
+     * @param observer where the listener is called, the main thread on Android
+     */
+    public CarStateStore(Executor writer, Executor observer, Listener listener) {
+        this.writer = writer;
+        this.observer = observer;
+        this.listener = listener;
+    }
+
+    /**
+     * Latest committed snapshot, safe to read from any thread
+     */
+    public CarState get(String deviceId) {
+        Slot slot = slots.get(deviceId);
+        return slot != null ? slot.state : CarState.initial(deviceId);
+    }
+
+    public void dispatch(String deviceId, Reducer reducer) {
+        writer.execute(() -> apply(deviceId, reducer));
+    }
+
+    private void apply(String deviceId, Reducer reducer) {
+        Slot slot = slots.computeIfAbsent(deviceId, id -> new Slot(CarState.initial(id)));
+        CarState previous = slot.state;
+        CarState next = reducer.reduce(previous);
+        if (next == null || next == previous) {
+            return;
+        }
+        int changes = next.diff(previous);
+        if (changes == 0) {
+            return;
+        }
+        slot.state = next;
+        // Only the commit that finds nothing pending schedules a handoff, later ones ride along
+        if (slot.pendingChanges.getAndAccumulate(changes, (a, b) -> a | b) == 0) {
+            observer.execute(() -> deliver(slot));
+        }
+    }
+
+    private void deliver(Slot slot) {
+        int changes = slot.pendingChanges.getAndSet(0);
+        if (changes != 0) {
+            listener.onStateChanged(slot.state, changes);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.jdev.mqtt_car.data.state;
+
+import com.jdev.mqtt_car.model.CarCommand;
+import com.jdev.mqtt_car.model.DashboardPrediction;
+import com.jdev.mqtt_car.model.TelemetrySample;
+
+/**
+ * Client-side prediction of one car's action and front distance between telemetry frames,
+ * so the dashboard follows the controls instead of the 500 ms telemetry cadence.
+ * <ul>
+ *   <li>A commanded action is shown at once, as pending until a frame reports it. If the
+ *   car still reports something else CONFIRM_TIMEOUT_MS later, the display rolls back to
+ *   what the car reports and the prediction is flagged divergent. Joystick driving is
+ *   confirmed by any report, the car then shows the direction it actually moves in.</li>
+ *   <li>While the shown action is forward or backward, the distance moves on from the last
+ *   frame at the closing speed learned from consecutive frames, for at most
+ *   MAX_EXTRAPOLATION_MS past the last frame: if telemetry stops, the value freezes
+ *   rather than hiding the lag.</li>
+ *   <li>Every frame replaces the prediction with the measured distance; one that was off by
+ *   more than DIVERGENCE_CM flags the prediction divergent until a frame agrees again.</li>
+ *   <li>Readings outside the sensor's range, like 999 for no echo, are neither learned
+ *   from nor anchored on: the distance carries on from the last valid one.</li>
+ * </ul>
+ * Times are wall clock millis on this phone, like {@link TelemetrySample#getTimestamp()}.
+ * Not thread safe: MainViewModel only touches it from reducers on the state writer.
+ */
+public class DashboardPredictor {
+
+    static final long CONFIRM_TIMEOUT_MS = 1_500;
+    static final long MAX_EXTRAPOLATION_MS = 1_000;
+    static final int DIVERGENCE_CM = 15;
+    static final double SPEED_ALPHA = 0.5;
+
+    // Frame pairs further apart than this say little about the current speed
+    private static final long MAX_LEARN_GAP_MS = 2_000;
+
+    // HC-SR04 range; the car reports 999 when no echo came back
+    private static final int MIN_DISTANCE_CM = 2;
+    private static final int MAX_DISTANCE_CM = 400;
+
+    private static final String FORWARD = "forward";
+    private static final String BACKWARD = "backward";
+
+    // Authoritative, from the last frame
+    private boolean hasFrame;
+    private String reportedAction = "unknown";
+
+    // From the last frame with a valid distance
+    private boolean hasDistance;
+    private int frameDistance;
+    private long frameMs;
+
+    // Last action commanded from this phone, null if none; shown while pending
+    private String commanded;
+    private boolean pending;
+    private long commandMs;
+
+    // Where the distance extrapolation starts from
+    private double anchorDistance;
+    private long anchorMs;
+
+    private double closingCmPerMs;
+    private String divergence = "";
+
+    /**
+     * The user commanded an action from this phone
+     */
+    public DashboardPrediction onCommand(String command, long nowMs) {
+        // The distance covered under the previous action is kept, the new one continues from there
+        anchorDistance = distanceAt(nowMs);
+        anchorMs = nowMs;
+        commanded = command;
+        pending = !hasFrame || !matches(command, reportedAction);
+        commandMs = nowMs;
+        return predict(nowMs);
+    }
+
+    /**
+     * An authoritative frame arrived: learn from it and reconcile the prediction with it
+     */
+    public DashboardPrediction onTelemetry(TelemetrySample sample) {
+        long now = sample.getTimestamp();
+        String reported = sample.getCurrentAction() != null ? sample.getCurrentAction() : "unknown";
+        int distance = sample.getDistanceFront();
+        boolean valid = distance >= MIN_DISTANCE_CM && distance <= MAX_DISTANCE_CM;
+        String mismatch = "";
+
+        if (hasDistance && valid) {
+            double predicted = distanceAt(now);
+            if (isExtrapolatingFrom(now) && Math.abs(predicted - distance) > DIVERGENCE_CM) {
+                mismatch = "distance predicted " + Math.round(predicted) + "cm, measured " + distance + "cm";
+            }
+            learnSpeed(reported, distance, now);
+        }
+
+        if (pending) {
+            if (matches(commanded, reported)) {
+                pending = false;
+            } else if (now - commandMs > CONFIRM_TIMEOUT_MS) {
+                mismatch = "commanded " + commanded + ", car reports " + reported;
+                commanded = reported;
+                pending = false;
+            }
+            // else the frame was probably sent before the command arrived
+        } else if (commanded != null && !matches(commanded, reported)) {
+            // The car changed on its own, e.g. stopped for an obstacle or an expired lease
+            mismatch = "car switched from " + commanded + " to " + reported;
+            commanded = reported;
+        }
+
+        hasFrame = true;
+        reportedAction = reported;
+        if (valid) {
+            hasDistance = true;
+            frameDistance = distance;
+            frameMs = now;
+            anchorDistance = distance;
+            anchorMs = now;
+        }
+        divergence = mismatch;
+        return predict(now);
+    }
+
+    /**
+     * What to show at nowMs
+     */
+    public DashboardPrediction predict(long nowMs) {
+        String action = shownAction();
+        if (action == null) {
+            return DashboardPrediction.NONE;
+        }
+        int shown = (int) Math.round(distanceAt(nowMs));
+        boolean extrapolated = hasDistance && shown != frameDistance;
+        return new DashboardPrediction(action, pending, shown, extrapolated, divergence);
+    }
+
+    /**
+     * True while the shown distance still changes with time, i.e. worth re-rendering
+     */
+    public boolean isExtrapolating(long nowMs) {
+        return hasDistance && rate() != 0 && nowMs < frameMs + MAX_EXTRAPOLATION_MS;
+    }
+
+    /**
+     * Closing speed learned from telemetry, cm per second
+     */
+    public double getClosingSpeed() {
+        return closingCmPerMs * 1000;
+    }
+
+    /**
+     * Connection lost or closed: nothing predicted survives it
+     */
+    public void reset() {
+        hasFrame = false;
+        hasDistance = false;
+        reportedAction = "unknown";
+        commanded = null;
+        pending = false;
+        closingCmPerMs = 0;
+        divergence = "";
+    }
+
+    private void learnSpeed(String reported, int distance, long now) {
+        long dt = now - frameMs;
+        if (dt <= 0 || dt > MAX_LEARN_GAP_MS || !reported.equalsIgnoreCase(reportedAction)) {
+            return;
+        }
+        double closing;
+        if (reported.equalsIgnoreCase(FORWARD)) {
+            closing = (frameDistance - distance) / (double) dt;
+        } else if (reported.equalsIgnoreCase(BACKWARD)) {
+            closing = (distance - frameDistance) / (double) dt;
+        } else {
+            return;
+        }
+        // An obstacle moving away reads as negative closing, which says nothing about our speed
+        closing = Math.max(0, closing);
+        closingCmPerMs = closingCmPerMs == 0 ? closing : SPEED_ALPHA * closing + (1 - SPEED_ALPHA) * closingCmPerMs;
+    }
+
+    /**
+     * The car's own report once it confirmed the command, so joystick driving shows the direction
+     */
+    private String shownAction() {
+        if (pending || !hasFrame) {
+            return commanded;
+        }
+        return reportedAction;
+    }
+
+    private static boolean matches(String command, String reported) {
+        return command.equalsIgnoreCase(reported) || CarCommand.ACTION_DRIVE.equalsIgnoreCase(command);
+    }
+
+    /**
+     * Signed change of the front distance per ms under the shown action
+     */
+    private double rate() {
+        String action = shownAction();
+        if (action == null || CarCommand.ACTION_STOP.equalsIgnoreCase(action)) {
+            return 0;
+        }
+        if (action.equalsIgnoreCase(FORWARD)) {
+            return -closingCmPerMs;
+        }
+        if (action.equalsIgnoreCase(BACKWARD)) {
+            return closingCmPerMs;
+        }
+        return 0;   // turning or joystick driving: no basis for a prediction
+    }
+
+    private boolean isExtrapolatingFrom(long nowMs) {
+        return rate() != 0 && nowMs > anchorMs;
+    }
+
+    private double distanceAt(long nowMs) {
+        if (!hasDistance) {
+            return 0;
+        }
+        long end = Math.min(nowMs, frameMs + MAX_EXTRAPOLATION_MS);
+        long dt = Math.max(0, end - anchorMs);
+        return Math.max(0, anchorDistance + rate() * dt);
+    }
+}
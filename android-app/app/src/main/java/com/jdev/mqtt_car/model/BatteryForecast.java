@@ -0,0 +1,110 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Battery runtime prediction for one car, produced by the BatteryEstimator.
+ * Times are in minutes; UNKNOWN means there is not enough drain history yet.
+ */
+public class BatteryForecast {
+
+    public static final long UNKNOWN = -1;
+
+    private final String deviceId;
+    private final int battery;
+    private final float drivingDrainPerHour;
+    private final float idleDrainPerHour;
+    private final float drivingShare;
+    private final long runtimeMinutes;
+    private final long minutesToThreshold;
+    private final int thresholdPercent;
+
+    public BatteryForecast(String deviceId, int battery, float drivingDrainPerHour, float idleDrainPerHour,
+                           float drivingShare, long runtimeMinutes, long minutesToThreshold, int thresholdPercent) {
+        this.deviceId = deviceId;
+        this.battery = battery;
+        this.drivingDrainPerHour = drivingDrainPerHour;
+        this.idleDrainPerHour = idleDrainPerHour;
+        this.drivingShare = drivingShare;
+        this.runtimeMinutes = runtimeMinutes;
+        this.minutesToThreshold = minutesToThreshold;
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    public static BatteryForecast unknown(String deviceId) {
+        return new BatteryForecast(deviceId, 0, 0, 0, 0, UNKNOWN, UNKNOWN, 0);
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public int getBattery() {
+        return battery;
+    }
+
+    /**
+     * Percent per hour while a movement command is running
+     */
+    public float getDrivingDrainPerHour() {
+        return drivingDrainPerHour;
+    }
+
+    /**
+     * Percent per hour while stopped
+     */
+    public float getIdleDrainPerHour() {
+        return idleDrainPerHour;
+    }
+
+    /**
+     * Recent fraction of time spent driving (0..1)
+     */
+    public float getDrivingShare() {
+        return drivingShare;
+    }
+
+    public long getRuntimeMinutes() {
+        return runtimeMinutes;
+    }
+
+    public long getMinutesToThreshold() {
+        return minutesToThreshold;
+    }
+
+    public int getThresholdPercent() {
+        return thresholdPercent;
+    }
+
+    public boolean isKnown() {
+        return runtimeMinutes != UNKNOWN;
+    }
+
+    // ========================================
+    // Display Helpers (for UI binding)
+    // ========================================
+
+    public String getRuntimeDisplay() {
+        if (!isKnown()) {
+            return "~-- left";
+        }
+        if (runtimeMinutes >= 60) {
+            return "~" + (runtimeMinutes / 60) + "h " + (runtimeMinutes % 60) + "m left";
+        }
+        return "~" + runtimeMinutes + "m left";
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "BatteryForecast{" +
+                "deviceId='" + deviceId + '\'' +
+                ", battery=" + battery +
+                ", drivingDrainPerHour=" + drivingDrainPerHour +
+                ", idleDrainPerHour=" + idleDrainPerHour +
+                ", drivingShare=" + drivingShare +
+                ", runtimeMinutes=" + runtimeMinutes +
+                ", minutesToThreshold=" + minutesToThreshold +
+                '}';
+    }
+}
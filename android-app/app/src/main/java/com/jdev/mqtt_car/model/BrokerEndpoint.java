@@ -0,0 +1,101 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One MQTT broker a car can be reached through, host and port. Immutable.
+ */
+public final class BrokerEndpoint {
+
+    private final String host;
+    private final int port;
+
+    public BrokerEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * "host" or "host:port"
+     *
+     * @throws IllegalArgumentException if the port is not a number from 1 to 65535
+     */
+    public static BrokerEndpoint parse(String text, int defaultPort) {
+        String trimmed = text.trim();
+        int colon = trimmed.lastIndexOf(':');
+        if (colon < 0) {
+            return new BrokerEndpoint(trimmed, defaultPort);
+        }
+        try {
+            int port = Integer.parseInt(trimmed.substring(colon + 1));
+            if (port < 1 || port > 65535) {
+                throw new IllegalArgumentException("Invalid port in " + trimmed);
+            }
+            return new BrokerEndpoint(trimmed.substring(0, colon), port);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in " + trimmed);
+        }
+    }
+
+    /**
+     * Comma separated endpoints, blanks skipped
+     */
+    public static List<BrokerEndpoint> parseList(String text, int defaultPort) {
+        if (text == null || text.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<BrokerEndpoint> endpoints = new ArrayList<>();
+        for (String part : text.split(",")) {
+            if (!part.trim().isEmpty()) {
+                endpoints.add(parse(part, defaultPort));
+            }
+        }
+        return endpoints;
+    }
+
+    public static String joinList(List<BrokerEndpoint> endpoints) {
+        StringBuilder text = new StringBuilder();
+        for (BrokerEndpoint endpoint : endpoints) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(endpoint);
+        }
+        return text.toString();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUrl() {
+        return "tcp://" + host + ":" + port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BrokerEndpoint)) return false;
+        BrokerEndpoint that = (BrokerEndpoint) o;
+        return port == that.port && host.equals(that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * host.hashCode() + port;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
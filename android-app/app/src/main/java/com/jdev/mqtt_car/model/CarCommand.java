@@ -5,18 +5,124 @@ import androidx.annotation.NonNull;
 
 public class CarCommand {
 
+    public static final String ACTION_STOP = "stop";
+    public static final String ACTION_DRIVE = "drive";
+    public static final String ACTION_RENEW = "renew";
+    public static final String ACTION_RATE = "rate";
+
     private final String action;
     private final String command_id;
 
+    // Movement commands held by the user are leased; 0 means no lease
+    private final long lease_ms;
+
+    // Only used by drive setpoint frames (range -100..100)
+    private final int throttle;
+    private final int steering;
+    private final int seq;
+
+    // Only used by telemetry rate requests
+    private final int interval_ms;
+
     public CarCommand(String action, String command_id) {
+        this(action, command_id, 0);
+    }
+
+    public CarCommand(String action, String command_id, long lease_ms) {
+        this.action = action;
+        this.command_id = command_id;
+        this.lease_ms = lease_ms;
+        this.throttle = 0;
+        this.steering = 0;
+        this.seq = 0;
+        this.interval_ms = 0;
+    }
+
+    private CarCommand(String action, String command_id, int throttle, int steering, int seq) {
         this.action = action;
         this.command_id = command_id;
+        this.lease_ms = 0;
+        this.throttle = throttle;
+        this.steering = steering;
+        this.seq = seq;
+        this.interval_ms = 0;
+    }
+
+    private CarCommand(String action, int intervalMs) {
+        this.action = action;
+        this.command_id = null;
+        this.lease_ms = 0;
+        this.throttle = 0;
+        this.steering = 0;
+        this.seq = 0;
+        this.interval_ms = intervalMs;
+    }
+
+    /**
+     * Analog drive setpoint sent by the joystick control loop.
+     * Kept compact because it is published many times per second.
+     */
+    public static CarCommand drive(int throttle, int steering, int seq) {
+        return new CarCommand(ACTION_DRIVE, null, throttle, steering, seq);
+    }
+
+    /**
+     * Lease renewal for a held movement command, identified by its command_id.
+     */
+    public static CarCommand renew(String leaseId, int seq) {
+        return new CarCommand(ACTION_RENEW, leaseId, 0, 0, seq);
+    }
+
+    /**
+     * Ask the car to publish telemetry every intervalMs.
+     */
+    public static CarCommand rate(int intervalMs) {
+        return new CarCommand(ACTION_RATE, intervalMs);
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getCommandId() {
+        return command_id;
+    }
+
+    public boolean isDrive() {
+        return ACTION_DRIVE.equals(action);
+    }
+
+    public boolean isStop() {
+        return ACTION_STOP.equals(action);
+    }
+
+    public int getThrottle() {
+        return throttle;
+    }
+
+    public int getSteering() {
+        return steering;
     }
 
 
     @NonNull
     @Override
     public String toString() {
+        if (isDrive()) {
+            // {"action":"drive","t":80,"s":-20,"seq":12}
+            return "{\"action\":\"drive\",\"t\":" + throttle + ",\"s\":" + steering + ",\"seq\":" + seq + "}";
+        }
+        if (ACTION_RENEW.equals(action)) {
+            // {"action":"renew","lease":"cmd-123456789","seq":4}
+            return "{\"action\":\"renew\",\"lease\":\"" + command_id + "\",\"seq\":" + seq + "}";
+        }
+        if (ACTION_RATE.equals(action)) {
+            // {"action":"rate","interval_ms":100}
+            return "{\"action\":\"rate\",\"interval_ms\":" + interval_ms + "}";
+        }
+        if (lease_ms > 0) {
+            return "{\"action\": \"" + action + "\", \"command_id\": \"" + command_id + "\", \"lease_ms\": " + lease_ms + "}";
+        }
         return "{\"action\": \"" + action + "\", \"command_id\": \"" + command_id + "\"}";
     }
 }
@@ -0,0 +1,231 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable snapshot of everything the dashboard shows for one car.
+ * <p>
+ * Snapshots are only ever replaced, never modified, so a reader always sees a consistent
+ * combination of fields. Each with* method returns the same instance when nothing changed,
+ * which lets {@link #diff(CarState)} find the changed fields by reference comparison.
+ */
+public final class CarState {
+
+    // Change mask bits, one per group of fields the UI renders separately
+    public static final int CONNECTION = 1;
+    public static final int STATUS = 1 << 1;       // reported status or liveness
+    public static final int TELEMETRY = 1 << 2;
+    public static final int ACK = 1 << 3;
+    public static final int ACTION = 1 << 4;       // action commanded from this phone
+    public static final int LEASE = 1 << 5;
+    public static final int BATTERY = 1 << 6;
+    public static final int PREDICTION = 1 << 7;   // predicted action and distance between frames
+    public static final int ALL = (1 << 8) - 1;
+
+    private final String deviceId;
+    private final MqttConnectionState connection;
+    private final CarStatus reportedStatus;        // from the retained status topic / LWT
+    private final DeviceLiveness liveness;
+    private final TelemetryData telemetry;
+    private final CommandAck lastAck;
+    private final String commandedAction;
+    private final LeaseHealth leaseHealth;
+    private final BatteryForecast batteryForecast;
+    private final DashboardPrediction prediction;
+
+    private CarState(String deviceId, MqttConnectionState connection, CarStatus reportedStatus,
+                     DeviceLiveness liveness, TelemetryData telemetry, CommandAck lastAck,
+                     String commandedAction, LeaseHealth leaseHealth, BatteryForecast batteryForecast,
+                     DashboardPrediction prediction) {
+        this.deviceId = deviceId;
+        this.connection = connection;
+        this.reportedStatus = reportedStatus;
+        this.liveness = liveness;
+        this.telemetry = telemetry;
+        this.lastAck = lastAck;
+        this.commandedAction = commandedAction;
+        this.leaseHealth = leaseHealth;
+        this.batteryForecast = batteryForecast;
+        this.prediction = prediction;
+    }
+
+    public static CarState initial(String deviceId) {
+        return new CarState(deviceId, MqttConnectionState.DISCONNECTED, null, DeviceLiveness.UNKNOWN,
+                TelemetryData.empty(), null, "Idle", LeaseHealth.idle(), BatteryForecast.unknown(deviceId),
+                DashboardPrediction.NONE);
+    }
+
+    // ========================================
+    // Reducers
+    // ========================================
+
+    public CarState withConnection(MqttConnectionState connection) {
+        if (connection == this.connection) {
+            return this;
+        }
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth, batteryForecast, prediction);
+    }
+
+    public CarState withReportedStatus(CarStatus reportedStatus) {
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth, batteryForecast, prediction);
+    }
+
+    public CarState withLiveness(DeviceLiveness liveness) {
+        if (liveness == this.liveness) {
+            return this;
+        }
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth, batteryForecast, prediction);
+    }
+
+    /**
+     * A telemetry frame and the battery forecast it produced, applied together
+     */
+    public CarState withTelemetry(TelemetryData telemetry, BatteryForecast batteryForecast) {
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth,
+                batteryForecast != null ? batteryForecast : this.batteryForecast, prediction);
+    }
+
+    public CarState withAck(CommandAck lastAck) {
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth, batteryForecast, prediction);
+    }
+
+    public CarState withCommandedAction(String commandedAction) {
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth, batteryForecast, prediction);
+    }
+
+    public CarState withLeaseHealth(LeaseHealth leaseHealth) {
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth, batteryForecast, prediction);
+    }
+
+    /**
+     * Returns this snapshot if the prediction shows the same as before, so a prediction
+     * tick that changes nothing is not published
+     */
+    public CarState withPrediction(DashboardPrediction prediction) {
+        if (prediction.equals(this.prediction)) {
+            return this;
+        }
+        return new CarState(deviceId, connection, reportedStatus, liveness, telemetry, lastAck,
+                commandedAction, leaseHealth, batteryForecast, prediction);
+    }
+
+    /**
+     * Connection lost or closed: connection, status, telemetry and the prediction made from
+     * it are reset in one step
+     * so observers never see a disconnected car with live-looking telemetry.
+     */
+    public CarState disconnected() {
+        return new CarState(deviceId, MqttConnectionState.DISCONNECTED, null, DeviceLiveness.UNKNOWN,
+                TelemetryData.empty(), lastAck, commandedAction, LeaseHealth.idle(), batteryForecast,
+                DashboardPrediction.NONE);
+    }
+
+    /**
+     * Bit mask of the field groups that differ from the previous snapshot
+     */
+    public int diff(CarState previous) {
+        if (previous == null) {
+            return ALL;
+        }
+        int mask = 0;
+        if (connection != previous.connection) mask |= CONNECTION;
+        if (reportedStatus != previous.reportedStatus || liveness != previous.liveness) mask |= STATUS;
+        if (telemetry != previous.telemetry) mask |= TELEMETRY;
+        if (lastAck != previous.lastAck) mask |= ACK;
+        if (commandedAction != previous.commandedAction) mask |= ACTION;
+        if (leaseHealth != previous.leaseHealth) mask |= LEASE;
+        if (batteryForecast != previous.batteryForecast) mask |= BATTERY;
+        if (prediction != previous.prediction) mask |= PREDICTION;
+        return mask;
+    }
+
+    // ========================================
+    // Getters
+    // ========================================
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public MqttConnectionState getConnection() {
+        return connection;
+    }
+
+    public boolean isConnected() {
+        return connection == MqttConnectionState.CONNECTED;
+    }
+
+    public DeviceLiveness getLiveness() {
+        return liveness;
+    }
+
+    /**
+     * Status to display. The LWT only flips to offline after the broker's keep-alive
+     * expires, so a car that stopped sending telemetry is shown as degraded/stale from the
+     * cadence tracker first.
+     */
+    public CarStatus getStatus() {
+        CarStatus reported = reportedStatus;
+        if (reported == null) {
+            if (liveness == DeviceLiveness.UNKNOWN) {
+                return new CarStatus();
+            }
+            reported = new CarStatus(deviceId, CarStatus.STATUS_ONLINE, "");
+        }
+        if (!reported.isOnline()) {
+            return reported;
+        }
+        switch (liveness) {
+            case DEGRADED:
+                return reported.withStatus(CarStatus.STATUS_DEGRADED);
+            case STALE:
+                return reported.withStatus(CarStatus.STATUS_STALE);
+            default:
+                return reported;
+        }
+    }
+
+    public TelemetryData getTelemetry() {
+        return telemetry;
+    }
+
+    public CommandAck getLastAck() {
+        return lastAck;
+    }
+
+    public String getCommandedAction() {
+        return commandedAction;
+    }
+
+    public LeaseHealth getLeaseHealth() {
+        return leaseHealth;
+    }
+
+    public BatteryForecast getBatteryForecast() {
+        return batteryForecast;
+    }
+
+    public DashboardPrediction getPrediction() {
+        return prediction;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CarState{" +
+                "deviceId='" + deviceId + '\'' +
+                ", connection=" + connection +
+                ", status=" + getStatus().getStatus() +
+                ", liveness=" + liveness +
+                ", commandedAction='" + commandedAction + '\'' +
+                ", lease=" + leaseHealth.getState() +
+                '}';
+    }
+}
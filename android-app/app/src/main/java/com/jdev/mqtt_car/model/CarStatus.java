@@ -4,6 +4,11 @@ import com.google.gson.annotations.SerializedName;
 
 public class CarStatus {
 
+    public static final String STATUS_ONLINE = "online";
+    public static final String STATUS_OFFLINE = "offline";
+    public static final String STATUS_DEGRADED = "degraded";  // derived from telemetry cadence
+    public static final String STATUS_STALE = "stale";        // derived from telemetry cadence
+
     private final String device_id;
     private final String status;
     private final String firmware;
@@ -16,7 +21,7 @@ public class CarStatus {
 
     public CarStatus(){
         this.device_id = "";
-        this.status = "offline";
+        this.status = STATUS_OFFLINE;
         this.firmware = "";
     }
 
@@ -32,4 +37,15 @@ public class CarStatus {
         return firmware;
     }
 
+    public boolean isOnline() {
+        return STATUS_ONLINE.equals(status);
+    }
+
+    /**
+     * Same car with a different status, used to overlay telemetry liveness on the LWT status
+     */
+    public CarStatus withStatus(String status) {
+        return new CarStatus(device_id, status, firmware);
+    }
+
 }
@@ -0,0 +1,97 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Acknowledgment published by the ESP32 on the /response topic
+ * after it executed a command or a lease renewal.
+ */
+public class CommandAck {
+
+    @SerializedName("device_id")
+    private final String deviceId;
+
+    @SerializedName("command")
+    private final String command;
+
+    @SerializedName("command_id")
+    private final String commandId;
+
+    @SerializedName("lease")
+    private final String leaseId;
+
+    @SerializedName("seq")
+    private final int seq;
+
+    @SerializedName("status")
+    private final String status;
+
+    @SerializedName("timestamp")
+    private final long deviceMillis; // millis() on the ESP32
+
+    public CommandAck(String deviceId, String command, String commandId, String leaseId,
+                      int seq, String status, long deviceMillis) {
+        this.deviceId = deviceId;
+        this.command = command;
+        this.commandId = commandId;
+        this.leaseId = leaseId;
+        this.seq = seq;
+        this.status = status;
+        this.deviceMillis = deviceMillis;
+    }
+
+    /**
+     * Default constructor required for Gson deserialization
+     */
+    public CommandAck() {
+        this("", "", null, null, 0, "", 0);
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String getCommandId() {
+        return commandId;
+    }
+
+    public String getLeaseId() {
+        return leaseId;
+    }
+
+    public int getSeq() {
+        return seq;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getDeviceMillis() {
+        return deviceMillis;
+    }
+
+    public boolean isRenewal() {
+        return CarCommand.ACTION_RENEW.equals(command);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CommandAck{" +
+                "deviceId='" + deviceId + '\'' +
+                ", command='" + command + '\'' +
+                ", commandId='" + commandId + '\'' +
+                ", leaseId='" + leaseId + '\'' +
+                ", seq=" + seq +
+                ", status='" + status + '\'' +
+                ", deviceMillis=" + deviceMillis +
+                '}';
+    }
+}
@@ -0,0 +1,106 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.Objects;
+
+/**
+ * What the dashboard shows for the car's action and front distance between telemetry
+ * frames: the commanded action before the car confirms it, and the distance moved on from
+ * the last frame at the recent closing rate. Both are marked as such, and a frame that
+ * contradicted the prediction sets the divergence flag instead of being smoothed over.
+ */
+public final class DashboardPrediction {
+
+    public static final DashboardPrediction NONE = new DashboardPrediction("unknown", false, 0, false, "");
+
+    private final String action;
+    private final boolean actionPending;
+    private final int distanceCm;
+    private final boolean extrapolated;
+    private final String divergence;
+
+    public DashboardPrediction(String action, boolean actionPending, int distanceCm,
+                               boolean extrapolated, String divergence) {
+        this.action = action;
+        this.actionPending = actionPending;
+        this.distanceCm = distanceCm;
+        this.extrapolated = extrapolated;
+        this.divergence = divergence;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Commanded from this phone, telemetry has not confirmed it yet
+     */
+    public boolean isActionPending() {
+        return actionPending;
+    }
+
+    public int getDistanceCm() {
+        return distanceCm;
+    }
+
+    /**
+     * The distance was predicted on from the last frame rather than measured
+     */
+    public boolean isExtrapolated() {
+        return extrapolated;
+    }
+
+    /**
+     * The last frame contradicted the prediction and the display was rolled back to it
+     */
+    public boolean isDivergent() {
+        return !divergence.isEmpty();
+    }
+
+    /**
+     * Why the last frame contradicted the prediction, empty if it did not
+     */
+    public String getDivergence() {
+        return divergence;
+    }
+
+    public String getActionDisplay() {
+        if (action == null || action.equalsIgnoreCase(CarCommand.ACTION_STOP)) {
+            return "IDLE";
+        }
+        return action.toUpperCase();
+    }
+
+    public String getDistanceDisplay() {
+        return (extrapolated ? "~" : "") + distanceCm + "cm";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DashboardPrediction)) return false;
+        DashboardPrediction that = (DashboardPrediction) o;
+        return actionPending == that.actionPending
+                && distanceCm == that.distanceCm
+                && extrapolated == that.extrapolated
+                && Objects.equals(action, that.action)
+                && divergence.equals(that.divergence);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(action, actionPending, distanceCm, extrapolated, divergence);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DashboardPrediction{" +
+                "action='" + action + '\'' +
+                (actionPending ? " (pending)" : "") +
+                ", distance=" + getDistanceDisplay() +
+                (isDivergent() ? ", divergence='" + divergence + '\'' : "") +
+                '}';
+    }
+}
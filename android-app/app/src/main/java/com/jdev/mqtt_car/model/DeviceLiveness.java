@@ -0,0 +1,11 @@
+package com.jdev.mqtt_car.model;
+
+/**
+ * Liveness of a car judged from its telemetry cadence, independent of the LWT.
+ */
+public enum DeviceLiveness {
+    UNKNOWN,    // no telemetry seen yet
+    LIVE,       // telemetry arriving on its usual cadence
+    DEGRADED,   // missed an expected frame
+    STALE       // missed several frames, shown data is no longer live
+}
@@ -0,0 +1,194 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Connection settings for one car. Immutable, part of an {@link MqttConfig} snapshot.
+ */
+public final class DeviceProfile {
+
+    public static final String DEFAULT_BROKER_IP = "192.168.1.1";
+    public static final int DEFAULT_BROKER_PORT = 1883;
+    public static final String DEFAULT_DEVICE_ID = "car-001";
+    public static final int DEFAULT_COMMAND_QOS = 1;
+    public static final int DEFAULT_TELEMETRY_QOS = 0;
+    public static final int DEFAULT_DRIVE_RATE_HZ = 25;
+
+    public static final int MIN_DRIVE_RATE_HZ = 5;     // heartbeat must stay below the firmware failsafe
+    public static final int MAX_DRIVE_RATE_HZ = 50;
+
+    private final String deviceId;
+    private final String brokerIp;
+    private final int brokerPort;
+    private final int commandQos;
+    private final int telemetryQos;
+    private final boolean pooledTelemetry;
+    private final int maxDriveRateHz;
+    private final String brokerUrl;
+    private final List<BrokerEndpoint> standbyBrokers;
+    private final OdometryCalibration odometryCalibration;
+
+    public DeviceProfile(String deviceId, String brokerIp, int brokerPort, int commandQos,
+                         int telemetryQos, boolean pooledTelemetry, int maxDriveRateHz) {
+        this(deviceId, brokerIp, brokerPort, commandQos, telemetryQos, pooledTelemetry, maxDriveRateHz,
+                Collections.emptyList(), OdometryCalibration.DEFAULT);
+    }
+
+    public DeviceProfile(String deviceId, String brokerIp, int brokerPort, int commandQos,
+                         int telemetryQos, boolean pooledTelemetry, int maxDriveRateHz,
+                         List<BrokerEndpoint> standbyBrokers, OdometryCalibration odometryCalibration) {
+        this.deviceId = deviceId;
+        this.brokerIp = brokerIp;
+        this.brokerPort = brokerPort;
+        this.commandQos = clampQos(commandQos);
+        this.telemetryQos = clampQos(telemetryQos);
+        this.pooledTelemetry = pooledTelemetry;
+        this.maxDriveRateHz = Math.max(MIN_DRIVE_RATE_HZ, Math.min(MAX_DRIVE_RATE_HZ, maxDriveRateHz));
+        this.brokerUrl = "tcp://" + brokerIp + ":" + brokerPort;
+        this.standbyBrokers = Collections.unmodifiableList(new ArrayList<>(standbyBrokers));
+        this.odometryCalibration = odometryCalibration;
+    }
+
+    public static DeviceProfile defaults(String deviceId) {
+        return new DeviceProfile(deviceId, DEFAULT_BROKER_IP, DEFAULT_BROKER_PORT,
+                DEFAULT_COMMAND_QOS, DEFAULT_TELEMETRY_QOS, false, DEFAULT_DRIVE_RATE_HZ);
+    }
+
+    public DeviceProfile withBroker(String brokerIp, int brokerPort) {
+        return new DeviceProfile(deviceId, brokerIp, brokerPort, commandQos, telemetryQos,
+                pooledTelemetry, maxDriveRateHz, standbyBrokers, odometryCalibration);
+    }
+
+    public DeviceProfile withStandbyBrokers(List<BrokerEndpoint> standbyBrokers) {
+        return new DeviceProfile(deviceId, brokerIp, brokerPort, commandQos, telemetryQos,
+                pooledTelemetry, maxDriveRateHz, standbyBrokers, odometryCalibration);
+    }
+
+    public DeviceProfile withPooledTelemetry(boolean pooledTelemetry) {
+        return new DeviceProfile(deviceId, brokerIp, brokerPort, commandQos, telemetryQos,
+                pooledTelemetry, maxDriveRateHz, standbyBrokers, odometryCalibration);
+    }
+
+    public DeviceProfile withOdometryCalibration(OdometryCalibration odometryCalibration) {
+        return new DeviceProfile(deviceId, brokerIp, brokerPort, commandQos, telemetryQos,
+                pooledTelemetry, maxDriveRateHz, standbyBrokers, odometryCalibration);
+    }
+
+    private static int clampQos(int qos) {
+        return Math.max(0, Math.min(2, qos));
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getBrokerIp() {
+        return brokerIp;
+    }
+
+    public int getBrokerPort() {
+        return brokerPort;
+    }
+
+    public String getBrokerUrl() {
+        return brokerUrl;
+    }
+
+    /**
+     * Other brokers the car also publishes to, tried when the main one is slow or down
+     */
+    public List<BrokerEndpoint> getStandbyBrokers() {
+        return standbyBrokers;
+    }
+
+    /**
+     * The main broker first, then the standbys
+     */
+    public List<BrokerEndpoint> getBrokerEndpoints() {
+        List<BrokerEndpoint> endpoints = new ArrayList<>(standbyBrokers.size() + 1);
+        endpoints.add(new BrokerEndpoint(brokerIp, brokerPort));
+        endpoints.addAll(standbyBrokers);
+        return endpoints;
+    }
+
+    public int getCommandQos() {
+        return commandQos;
+    }
+
+    public int getTelemetryQos() {
+        return telemetryQos;
+    }
+
+    /**
+     * Decode telemetry into pooled records instead of a new object per frame
+     */
+    public boolean isPooledTelemetry() {
+        return pooledTelemetry;
+    }
+
+    /**
+     * Upper bound for the joystick control loop rate
+     */
+    public int getMaxDriveRateHz() {
+        return maxDriveRateHz;
+    }
+
+    /**
+     * Drive and turn rates of this car for its dead-reckoned path
+     */
+    public OdometryCalibration getOdometryCalibration() {
+        return odometryCalibration;
+    }
+
+    /**
+     * Same broker, car and subscription, i.e. switching between the two needs no reconnect.
+     * Standby brokers are not compared: a new list is picked up by the running failover.
+     */
+    public boolean sameConnection(DeviceProfile other) {
+        return other != null
+                && brokerPort == other.brokerPort
+                && telemetryQos == other.telemetryQos
+                && deviceId.equals(other.deviceId)
+                && brokerIp.equals(other.brokerIp);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DeviceProfile)) return false;
+        DeviceProfile that = (DeviceProfile) o;
+        return brokerPort == that.brokerPort
+                && commandQos == that.commandQos
+                && telemetryQos == that.telemetryQos
+                && pooledTelemetry == that.pooledTelemetry
+                && maxDriveRateHz == that.maxDriveRateHz
+                && deviceId.equals(that.deviceId)
+                && brokerIp.equals(that.brokerIp)
+                && standbyBrokers.equals(that.standbyBrokers)
+                && odometryCalibration.equals(that.odometryCalibration);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * deviceId.hashCode() + brokerUrl.hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DeviceProfile{" +
+                "deviceId='" + deviceId + '\'' +
+                ", broker=" + brokerUrl +
+                (standbyBrokers.isEmpty() ? "" : ", standby=" + standbyBrokers) +
+                ", commandQos=" + commandQos +
+                ", telemetryQos=" + telemetryQos +
+                ", pooledTelemetry=" + pooledTelemetry +
+                ", maxDriveRateHz=" + maxDriveRateHz +
+                ", odometry=" + odometryCalibration +
+                '}';
+    }
+}
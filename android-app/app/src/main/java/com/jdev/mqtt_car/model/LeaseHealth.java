@@ -0,0 +1,66 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of how well lease renewals are getting through to one car.
+ */
+public class LeaseHealth {
+
+    public enum State {
+        IDLE,       // no control is held
+        HEALTHY,
+        DEGRADED,   // renewals are being lost, car may stutter
+        LOST        // no ack for a whole lease period, car has most likely stopped
+    }
+
+    private final State state;
+    private final int renewalsSent;
+    private final int renewalsAcked;
+    private final float deliveryRatio;
+    private final long rttMs;
+
+    public LeaseHealth(State state, int renewalsSent, int renewalsAcked, float deliveryRatio, long rttMs) {
+        this.state = state;
+        this.renewalsSent = renewalsSent;
+        this.renewalsAcked = renewalsAcked;
+        this.deliveryRatio = deliveryRatio;
+        this.rttMs = rttMs;
+    }
+
+    public static LeaseHealth idle() {
+        return new LeaseHealth(State.IDLE, 0, 0, 1f, 0);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getRenewalsSent() {
+        return renewalsSent;
+    }
+
+    public int getRenewalsAcked() {
+        return renewalsAcked;
+    }
+
+    public float getDeliveryRatio() {
+        return deliveryRatio;
+    }
+
+    public long getRttMs() {
+        return rttMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LeaseHealth{" +
+                "state=" + state +
+                ", sent=" + renewalsSent +
+                ", acked=" + renewalsAcked +
+                ", deliveryRatio=" + deliveryRatio +
+                ", rttMs=" + rttMs +
+                '}';
+    }
+}
@@ -0,0 +1,198 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the app configuration: the per-car profiles, which car is
+ * active, and the login state. Changes are made through {@link Builder} and swapped in
+ * as a whole by the ConfigRepository, so readers never see a half-applied edit.
+ */
+public final class MqttConfig {
+
+    private final String activeDeviceId;
+    private final Map<String, DeviceProfile> profiles;
+    private final String username;
+    private final String password;
+    private final boolean remember;
+    private final boolean configured;
+    private final boolean backgroundMonitoring;
+    private final String macro;
+    private final String alertRules;
+
+    private MqttConfig(Builder b) {
+        this.activeDeviceId = b.activeDeviceId;
+        this.profiles = Collections.unmodifiableMap(new LinkedHashMap<>(b.profiles));
+        this.username = b.username;
+        this.password = b.password;
+        this.remember = b.remember;
+        this.configured = b.configured;
+        this.backgroundMonitoring = b.backgroundMonitoring;
+        this.macro = b.macro;
+        this.alertRules = b.alertRules;
+    }
+
+    public static MqttConfig defaults() {
+        return new Builder().build();
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public String getActiveDeviceId() {
+        return activeDeviceId;
+    }
+
+    /**
+     * Profile of the active car, defaults if it was never configured
+     */
+    public DeviceProfile getActiveProfile() {
+        return getProfile(activeDeviceId);
+    }
+
+    public DeviceProfile getProfile(String deviceId) {
+        DeviceProfile profile = profiles.get(deviceId);
+        return profile != null ? profile : DeviceProfile.defaults(deviceId);
+    }
+
+    public Map<String, DeviceProfile> getProfiles() {
+        return profiles;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public boolean hasCredentials() {
+        return !username.isEmpty() && !password.isEmpty();
+    }
+
+    public boolean shouldRemember() {
+        return remember;
+    }
+
+    public boolean isConfigured() {
+        return configured;
+    }
+
+    /**
+     * Keep the connection and recording alive in a foreground service after the main screen closes
+     */
+    public boolean isBackgroundMonitoring() {
+        return backgroundMonitoring;
+    }
+
+    /**
+     * Text form of the drive macro last run or recorded, empty if none
+     */
+    public String getMacro() {
+        return macro;
+    }
+
+    /**
+     * The user's alert rules in their text form, one per line, empty if none
+     */
+    public String getAlertRules() {
+        return alertRules;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MqttConfig{" +
+                "activeDeviceId='" + activeDeviceId + '\'' +
+                ", profiles=" + profiles.values() +
+                ", remember=" + remember +
+                ", configured=" + configured +
+                ", backgroundMonitoring=" + backgroundMonitoring +
+                '}';
+    }
+
+    public static final class Builder {
+        private String activeDeviceId = DeviceProfile.DEFAULT_DEVICE_ID;
+        private final Map<String, DeviceProfile> profiles = new LinkedHashMap<>();
+        private String username = "";
+        private String password = "";
+        private boolean remember = true;
+        private boolean configured = false;
+        private boolean backgroundMonitoring = false;
+        private String macro = "";
+        private String alertRules = "";
+
+        public Builder() {
+        }
+
+        private Builder(MqttConfig config) {
+            activeDeviceId = config.activeDeviceId;
+            profiles.putAll(config.profiles);
+            username = config.username;
+            password = config.password;
+            remember = config.remember;
+            configured = config.configured;
+            backgroundMonitoring = config.backgroundMonitoring;
+            macro = config.macro;
+            alertRules = config.alertRules;
+        }
+
+        public Builder setActiveDeviceId(String deviceId) {
+            this.activeDeviceId = deviceId;
+            return this;
+        }
+
+        public Builder putProfile(DeviceProfile profile) {
+            profiles.put(profile.getDeviceId(), profile);
+            return this;
+        }
+
+        /**
+         * Profile being edited for deviceId, existing or defaults
+         */
+        public DeviceProfile profile(String deviceId) {
+            DeviceProfile profile = profiles.get(deviceId);
+            return profile != null ? profile : DeviceProfile.defaults(deviceId);
+        }
+
+        public Builder setCredentials(String username, String password) {
+            this.username = username != null ? username : "";
+            this.password = password != null ? password : "";
+            return this;
+        }
+
+        public Builder setRemember(boolean remember) {
+            this.remember = remember;
+            return this;
+        }
+
+        public Builder setConfigured(boolean configured) {
+            this.configured = configured;
+            return this;
+        }
+
+        public Builder setBackgroundMonitoring(boolean backgroundMonitoring) {
+            this.backgroundMonitoring = backgroundMonitoring;
+            return this;
+        }
+
+        public Builder setMacro(String macro) {
+            this.macro = macro != null ? macro : "";
+            return this;
+        }
+
+        public Builder setAlertRules(String alertRules) {
+            this.alertRules = alertRules != null ? alertRules : "";
+            return this;
+        }
+
+        public MqttConfig build() {
+            return new MqttConfig(this);
+        }
+    }
+}
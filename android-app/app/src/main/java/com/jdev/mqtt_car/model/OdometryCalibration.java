@@ -0,0 +1,95 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * How fast one car drives and turns, for dead reckoning its path from the commands it
+ * executed. Measured per car: drive forward for a few seconds and divide the distance by
+ * the time, the same for a full turn on the spot.
+ */
+public final class OdometryCalibration {
+
+    public static final float DEFAULT_SPEED_CM_PER_SEC = 30;
+    public static final float DEFAULT_TURN_DEG_PER_SEC = 90;
+
+    public static final OdometryCalibration DEFAULT =
+            new OdometryCalibration(DEFAULT_SPEED_CM_PER_SEC, DEFAULT_TURN_DEG_PER_SEC);
+
+    private static final float MAX_SPEED_CM_PER_SEC = 500;
+    private static final float MAX_TURN_DEG_PER_SEC = 1080;
+
+    private final float speedCmPerSec;
+    private final float turnDegPerSec;
+
+    public OdometryCalibration(float speedCmPerSec, float turnDegPerSec) {
+        this.speedCmPerSec = speedCmPerSec;
+        this.turnDegPerSec = turnDegPerSec;
+    }
+
+    /**
+     * "speed, turn rate" in cm/s and degrees/s, e.g. "30, 90"
+     *
+     * @throws IllegalArgumentException if either is missing or out of range
+     */
+    public static OdometryCalibration parse(String text) {
+        String[] parts = text.trim().split("[,\\s]+");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected speed and turn rate, e.g. 30, 90");
+        }
+        float speed;
+        float turn;
+        try {
+            speed = Float.parseFloat(parts[0]);
+            turn = Float.parseFloat(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + text.trim());
+        }
+        if (!(speed > 0 && speed <= MAX_SPEED_CM_PER_SEC)) {
+            throw new IllegalArgumentException("Speed must be above 0 and at most " + (int) MAX_SPEED_CM_PER_SEC + " cm/s");
+        }
+        if (!(turn > 0 && turn <= MAX_TURN_DEG_PER_SEC)) {
+            throw new IllegalArgumentException("Turn rate must be above 0 and at most " + (int) MAX_TURN_DEG_PER_SEC + " °/s");
+        }
+        return new OdometryCalibration(speed, turn);
+    }
+
+    public float getSpeedCmPerSec() {
+        return speedCmPerSec;
+    }
+
+    public float getTurnDegPerSec() {
+        return turnDegPerSec;
+    }
+
+    /**
+     * Text form {@link #parse(String)} reads back
+     */
+    public String format() {
+        return String.format(Locale.US, "%s, %s", trim(speedCmPerSec), trim(turnDegPerSec));
+    }
+
+    private static String trim(float value) {
+        return value == (int) value ? String.valueOf((int) value) : String.valueOf(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof OdometryCalibration)) return false;
+        OdometryCalibration that = (OdometryCalibration) o;
+        return speedCmPerSec == that.speedCmPerSec && turnDegPerSec == that.turnDegPerSec;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Float.floatToIntBits(speedCmPerSec) + Float.floatToIntBits(turnDegPerSec);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return trim(speedCmPerSec) + " cm/s, " + trim(turnDegPerSec) + " °/s";
+    }
+}
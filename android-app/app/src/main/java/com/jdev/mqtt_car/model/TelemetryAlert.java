@@ -0,0 +1,68 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Typed alert raised by the telemetry analytics for one car.
+ */
+public class TelemetryAlert {
+
+    public enum Type {
+        HEAP_LEAK_TREND,    // free_heap keeps falling
+        RSSI_COLLAPSE,      // wifi_rssi dropped well below its normal level
+        TEMPERATURE_SPIKE,  // temperature jumped far outside its normal range
+        TELEMETRY_GAP,      // telemetry arrived much later than its usual cadence
+        BATTERY_LOW,        // battery at or near the low threshold
+        DEVICE_OFFLINE,     // car went offline or stopped sending telemetry
+        RULE                // a user-defined alert rule matched
+    }
+
+    private final String deviceId;
+    private final Type type;
+    private final String message;
+    private final double value;
+    private final long timestamp;
+
+    public TelemetryAlert(String deviceId, Type type, String message, double value, long timestamp) {
+        this.deviceId = deviceId;
+        this.type = type;
+        this.message = message;
+        this.value = value;
+        this.timestamp = timestamp;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * The measurement that triggered the alert (slope, dBm, °C or gap in ms depending on type)
+     */
+    public double getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TelemetryAlert{" +
+                "deviceId='" + deviceId + '\'' +
+                ", type=" + type +
+                ", message='" + message + '\'' +
+                ", value=" + value +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
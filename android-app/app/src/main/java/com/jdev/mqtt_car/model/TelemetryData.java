@@ -5,7 +5,10 @@ import androidx.annotation.NonNull;
 import com.google.gson.annotations.SerializedName;
 
 
-public class TelemetryData {
+public class TelemetryData implements TelemetrySample {
+
+    @SerializedName("device_id")
+    private final String deviceId;
 
     @SerializedName("battery")
     private final int battery;
@@ -25,36 +28,62 @@ public class TelemetryData {
     @SerializedName("free_heap")
     private final int freeHeap;
 
-    private transient long timestamp; // transient to avoid Gson serialization
+    @SerializedName("timestamp")
+    private final long deviceMillis;
+
+    // Receive time, set by the constructor Gson calls; transient so the payload's own
+    // device-uptime "timestamp" (deviceMillis above) is not mapped onto it
+    private final transient long timestamp;
 
     public TelemetryData(int battery, int distanceFront, int temperature,
                          String currentAction, int wifiRssi, int freeHeap) {
+        this.deviceId = "";
         this.battery = battery;
         this.distanceFront = distanceFront;
         this.temperature = temperature;
         this.currentAction = currentAction;
         this.wifiRssi = wifiRssi;
         this.freeHeap = freeHeap;
+        this.deviceMillis = 0;
         this.timestamp = System.currentTimeMillis();
     }
 
+    /**
+     * Fully specified sample, e.g. for replayed or synthetic telemetry with its own receive time
+     */
+    public TelemetryData(String deviceId, int battery, int distanceFront, int temperature,
+                         String currentAction, int wifiRssi, int freeHeap, long timestamp) {
+        this(deviceId, battery, distanceFront, temperature, currentAction, wifiRssi, freeHeap, 0, timestamp);
+    }
+
+    /**
+     * Fully specified sample including the car's uptime, e.g. copied from a pooled record
+     */
+    public TelemetryData(String deviceId, int battery, int distanceFront, int temperature,
+                         String currentAction, int wifiRssi, int freeHeap, long deviceMillis, long timestamp) {
+        this.deviceId = deviceId;
+        this.battery = battery;
+        this.distanceFront = distanceFront;
+        this.temperature = temperature;
+        this.currentAction = currentAction;
+        this.wifiRssi = wifiRssi;
+        this.freeHeap = freeHeap;
+        this.deviceMillis = deviceMillis;
+        this.timestamp = timestamp;
+    }
+
     /**
      * Default constructor required for Gson deserialization
      */
     public TelemetryData(){
+        this.deviceId = "";
         this.battery = 0;
         this.distanceFront = 0;
         this.temperature = 0;
         this.currentAction = "unknown";
         this.wifiRssi = 0;
         this.freeHeap = 0;
-        this.timestamp = System.currentTimeMillis();
-    }
-
-    /**
-     * Initialize timestamp after Gson parsing (since transient fields are not set by Gson)
-     */
-    public void initTimestamp() {
+        this.deviceMillis = 0;
         this.timestamp = System.currentTimeMillis();
     }
 
@@ -62,34 +91,51 @@ public class TelemetryData {
     // Getters
     // ========================================
 
+    @Override
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
     public int getBattery() {
         return battery;
     }
 
+    @Override
     public int getDistanceFront() {
         return distanceFront;
     }
 
+    @Override
     public int getTemperature() {
         return temperature;
     }
 
+    @Override
     public String getCurrentAction() {
         return currentAction;
     }
 
+    @Override
     public int getWifiRssi() {
         return wifiRssi;
     }
 
+    @Override
     public int getFreeHeap() {
         return freeHeap;
     }
 
+    @Override
     public long getTimestamp() {
         return timestamp;
     }
 
+    @Override
+    public long getDeviceMillis() {
+        return deviceMillis;
+    }
+
     // ========================================
     // Display Helpers (for UI binding)
     // ========================================
@@ -133,7 +179,8 @@ public class TelemetryData {
     @Override
     public String toString() {
         return "TelemetryData{" +
-                "battery=" + battery +
+                "deviceId='" + deviceId + '\'' +
+                ", battery=" + battery +
                 ", distanceFront=" + distanceFront +
                 ", temperature=" + temperature +
                 ", currentAction='" + currentAction + '\'' +
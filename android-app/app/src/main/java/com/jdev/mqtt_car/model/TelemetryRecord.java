@@ -0,0 +1,204 @@
+package com.jdev.mqtt_car.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Mutable, reusable telemetry frame for the pooled receive path.
+ * <p>
+ * Ownership is explicit: whoever holds a record got it from {@link Recycler#acquire()}
+ * (the decoder) or from a hand-off callback, and must either pass it on or call
+ * {@link #release()} exactly once. A record must not be read after it was released;
+ * anything that needs to keep the values takes a {@link #toTelemetryData()} copy.
+ */
+public final class TelemetryRecord implements TelemetrySample {
+
+    public interface Recycler {
+        TelemetryRecord acquire();
+
+        void recycle(TelemetryRecord record);
+    }
+
+    private final Recycler owner;
+    private boolean inUse;
+
+    private String deviceId = "";
+    private int battery;
+    private int distanceFront;
+    private int temperature;
+    private String currentAction = "unknown";
+    private int wifiRssi;
+    private int freeHeap;
+    private long deviceMillis;
+    private long timestamp;
+
+    public TelemetryRecord(Recycler owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Return the record to its pool. Releasing twice is an ownership bug and throws.
+     */
+    public void release() {
+        if (!inUse) {
+            throw new IllegalStateException("TelemetryRecord released twice");
+        }
+        inUse = false;
+        if (owner != null) {
+            owner.recycle(this);
+        }
+    }
+
+    /**
+     * Called by the pool when handing the record out
+     */
+    public void markAcquired() {
+        inUse = true;
+        clear();
+    }
+
+    public boolean isInUse() {
+        return inUse;
+    }
+
+    public void clear() {
+        deviceId = "";
+        battery = 0;
+        distanceFront = 0;
+        temperature = 0;
+        currentAction = "unknown";
+        wifiRssi = 0;
+        freeHeap = 0;
+        deviceMillis = 0;
+        timestamp = 0;
+    }
+
+    /**
+     * Immutable copy for consumers that keep the frame, e.g. the UI state
+     */
+    public TelemetryData toTelemetryData() {
+        return new TelemetryData(deviceId, battery, distanceFront, temperature,
+                currentAction, wifiRssi, freeHeap, deviceMillis, timestamp);
+    }
+
+    /**
+     * Overwrite this record with the values of another frame, e.g. to give a second owner
+     * its own pooled record
+     */
+    public void copyFrom(TelemetrySample other) {
+        deviceId = other.getDeviceId();
+        battery = other.getBattery();
+        distanceFront = other.getDistanceFront();
+        temperature = other.getTemperature();
+        currentAction = other.getCurrentAction();
+        wifiRssi = other.getWifiRssi();
+        freeHeap = other.getFreeHeap();
+        deviceMillis = other.getDeviceMillis();
+        timestamp = other.getTimestamp();
+    }
+
+    // ========================================
+    // Setters (decoder only)
+    // ========================================
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public void setBattery(int battery) {
+        this.battery = battery;
+    }
+
+    public void setDistanceFront(int distanceFront) {
+        this.distanceFront = distanceFront;
+    }
+
+    public void setTemperature(int temperature) {
+        this.temperature = temperature;
+    }
+
+    public void setCurrentAction(String currentAction) {
+        this.currentAction = currentAction;
+    }
+
+    public void setWifiRssi(int wifiRssi) {
+        this.wifiRssi = wifiRssi;
+    }
+
+    public void setFreeHeap(int freeHeap) {
+        this.freeHeap = freeHeap;
+    }
+
+    public void setDeviceMillis(long deviceMillis) {
+        this.deviceMillis = deviceMillis;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    // ========================================
+    // Getters
+    // ========================================
+
+    @Override
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
+    public int getBattery() {
+        return battery;
+    }
+
+    @Override
+    public int getDistanceFront() {
+        return distanceFront;
+    }
+
+    @Override
+    public int getTemperature() {
+        return temperature;
+    }
+
+    @Override
+    public String getCurrentAction() {
+        return currentAction;
+    }
+
+    @Override
+    public int getWifiRssi() {
+        return wifiRssi;
+    }
+
+    @Override
+    public int getFreeHeap() {
+        return freeHeap;
+    }
+
+    @Override
+    public long getDeviceMillis() {
+        return deviceMillis;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TelemetryRecord{" +
+                "deviceId='" + deviceId + '\'' +
+                ", battery=" + battery +
+                ", distanceFront=" + distanceFront +
+                ", temperature=" + temperature +
+                ", currentAction='" + currentAction + '\'' +
+                ", wifiRssi=" + wifiRssi +
+                ", freeHeap=" + freeHeap +
+                ", deviceMillis=" + deviceMillis +
+                ", timestamp=" + timestamp +
+                ", inUse=" + inUse +
+                '}';
+    }
+}
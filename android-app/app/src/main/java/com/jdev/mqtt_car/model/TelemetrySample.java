@@ -0,0 +1,45 @@
+package com.jdev.mqtt_car.model;
+
+/**
+ * Read-only view of one telemetry frame, implemented by the immutable {@link TelemetryData}
+ * and the pooled {@link TelemetryRecord} so analytics can consume either without copying.
+ */
+public interface TelemetrySample {
+
+    /**
+     * Device id reported by the ESP32, empty if the payload did not include it
+     */
+    String getDeviceId();
+
+    int getBattery();
+
+    int getDistanceFront();
+
+    int getTemperature();
+
+    String getCurrentAction();
+
+    int getWifiRssi();
+
+    int getFreeHeap();
+
+    /**
+     * Receive time on this phone, wall clock millis
+     */
+    long getTimestamp();
+
+    /**
+     * The payload's "timestamp": device uptime in millis when the frame was sent, 0 if absent
+     */
+    long getDeviceMillis();
+
+    /**
+     * True while the car is executing a movement command (used to separate drain regimes)
+     */
+    default boolean isDriving() {
+        String action = getCurrentAction();
+        return action != null
+                && !action.equalsIgnoreCase("stop")
+                && !action.equalsIgnoreCase("unknown");
+    }
+}
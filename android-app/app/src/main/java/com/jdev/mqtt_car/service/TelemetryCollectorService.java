@@ -0,0 +1,358 @@
+package com.jdev.mqtt_car.service;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+
+import com.jdev.mqtt_car.R;
+import com.jdev.mqtt_car.data.analytics.BatteryEstimator;
+import com.jdev.mqtt_car.data.analytics.BatteryForecaster;
+import com.jdev.mqtt_car.data.analytics.LivenessTracker;
+import com.jdev.mqtt_car.data.analytics.MonitoringAlertPolicy;
+import com.jdev.mqtt_car.data.export.TelemetryJournal;
+import com.jdev.mqtt_car.data.source.BatteryStatePreferences;
+import com.jdev.mqtt_car.data.source.MqttConnectionManager;
+import com.jdev.mqtt_car.data.source.MqttManager;
+import com.jdev.mqtt_car.model.BatteryForecast;
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.DeviceLiveness;
+import com.jdev.mqtt_car.model.LeaseHealth;
+import com.jdev.mqtt_car.model.TelemetryAlert;
+import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.ui.main.MainActivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps monitoring the car after the main screen is closed, when background monitoring
+ * is enabled. The service attaches to the app's shared connection in the
+ * {@link MqttConnectionManager} as the main screen lets go of it, and detaches as soon as
+ * the main screen opens again; the connection itself is never dropped in between.
+ * <p>
+ * Built to run for hours: the car is asked for the slow background telemetry rate, the
+ * journal is only flushed to disk every FLUSH_INTERVAL_MS, the ongoing notification is
+ * never updated per message, and only low battery and offline alerts notify.
+ */
+public class TelemetryCollectorService extends Service implements MqttManager.MqttCallback {
+
+    private static final String TAG = "TelemetryCollector";
+
+    private static final String CHANNEL_MONITORING = "monitoring";
+    private static final String CHANNEL_ALERTS = "alerts";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String ACTION_STOP = "com.jdev.mqtt_car.action.STOP_MONITORING";
+
+    static final long FLUSH_INTERVAL_MS = 60_000;
+    static final long PERSIST_INTERVAL_MS = 5 * 60_000;
+
+    // Running instance, main thread only, so the main screen can take the connection back synchronously
+    @SuppressLint("StaticFieldLeak")
+    private static TelemetryCollectorService running;
+
+    private MqttConnectionManager.Registration registration;
+    private String deviceId;
+    private volatile TelemetryJournal journal;
+
+    private BatteryForecaster batteryForecaster;
+    private LivenessTracker livenessTracker;
+    private MonitoringAlertPolicy alertPolicy;
+    private ScheduledExecutorService flusher;
+    private NotificationManager notificationManager;
+
+    /**
+     * Keep using the shared connection after the main screen closes
+     */
+    public static void start(Context context) {
+        ContextCompat.startForegroundService(context, new Intent(context, TelemetryCollectorService.class));
+    }
+
+    /**
+     * Stop collecting and leave the shared connection to the caller, which must already be
+     * attached to it. No-op if the service is not running. Main thread only.
+     */
+    public static void handBack() {
+        if (running != null) {
+            running.release();
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        running = this;
+        notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        createChannels();
+        ServiceCompat.startForeground(this, NOTIFICATION_ID, buildOngoingNotification(null),
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                        ? ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE : 0);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        if (registration == null) {
+            MqttManager manager = MqttConnectionManager.getInstance(this).getClient();
+            if (!manager.isConnected() && !manager.isConnecting()) {
+                // Nothing to collect from, e.g. the user disconnected just before closing
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+            startCollecting();
+        }
+        // A restarted process has no connection to take over, so never ask to be recreated
+        return START_NOT_STICKY;
+    }
+
+    private void startCollecting() {
+        MqttConnectionManager connections = MqttConnectionManager.getInstance(this);
+        MqttManager manager = connections.getClient();
+        deviceId = manager.getDeviceId();
+
+        batteryForecaster = new BatteryForecaster(new BatteryStatePreferences(this),
+                BatteryEstimator.DEFAULT_THRESHOLD);
+        livenessTracker = new LivenessTracker(this::onLivenessChanged);
+        alertPolicy = new MonitoringAlertPolicy(BatteryEstimator.DEFAULT_THRESHOLD, new MonitoringAlertPolicy.Listener() {
+            @Override
+            public void onAlert(TelemetryAlert alert) {
+                postAlert(alert);
+            }
+
+            @Override
+            public void onAlertCleared(String deviceId, TelemetryAlert.Type type) {
+                notificationManager.cancel(alertId(deviceId, type));
+            }
+        });
+
+        try {
+            journal = TelemetryJournal.createSession(new File(getFilesDir(), "journals"), deviceId);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open journal", e);
+        }
+
+        // Disk writes are batched: frames go into the journal's buffer, the timer writes them out
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "collector-flush"));
+        flusher.scheduleWithFixedDelay(this::flushJournal, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(batteryForecaster::persistAll,
+                PERSIST_INTERVAL_MS, PERSIST_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        livenessTracker.start();
+        manager.setDriving(false);
+        manager.setForeground(false);
+        notificationManager.notify(NOTIFICATION_ID, buildOngoingNotification(deviceId));
+        // Replays connection state, car status and the latest frame
+        registration = connections.attach(this);
+        Log.d(TAG, "Collecting telemetry for " + deviceId + " in the background");
+    }
+
+    private void stopCollecting() {
+        flusher.shutdownNow();
+        livenessTracker.stop();
+        batteryForecaster.persistAll();
+        TelemetryJournal current = journal;
+        journal = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Journal close failed", e);
+            }
+        }
+    }
+
+    private void release() {
+        if (registration != null) {
+            registration.detach();
+            registration = null;
+            stopCollecting();
+        }
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (registration != null) {
+            // Stopped from the notification or by the system: the connection closes once
+            // nobody else uses it either
+            registration.detach();
+            registration = null;
+            stopCollecting();
+        }
+        running = null;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    // ========================================
+    // MQTT callbacks (Paho thread)
+    // ========================================
+
+    @Override
+    public void onConnected() {
+        // No screen to update; the main screen gets the connection state replayed on attach
+    }
+
+    @Override
+    public void onDisconnected() {
+        // Paho reconnects by itself; if the car stays unreachable liveness goes stale and alerts
+    }
+
+    @Override
+    public void onTelemetryReceived(TelemetryData data) {
+        String id = deviceIdOf(data.getDeviceId());
+        BatteryForecast forecast = batteryForecaster.onTelemetry(id, data);
+        TelemetryJournal current = journal;
+        if (current != null) {
+            try {
+                current.appendTelemetry(id, data);
+            } catch (IOException e) {
+                Log.e(TAG, "Journal write failed", e);
+            }
+        }
+        livenessTracker.onTelemetry(id, data.getTimestamp());
+        alertPolicy.onBattery(id, data.getBattery(), forecast, data.getTimestamp());
+    }
+
+    @Override
+    public void onCarStatusReceived(CarStatus carStatus) {
+        String id = deviceIdOf(carStatus.getDevice_id());
+        long now = System.currentTimeMillis();
+        TelemetryJournal current = journal;
+        if (current != null) {
+            try {
+                current.appendStatus(now, id, carStatus);
+            } catch (IOException e) {
+                Log.e(TAG, "Journal write failed", e);
+            }
+        }
+        alertPolicy.onReportedStatus(id, carStatus, now);
+    }
+
+    private void onLivenessChanged(String id, DeviceLiveness liveness) {
+        alertPolicy.onLiveness(id, liveness, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onTelemetryIntervalChanged(String id, int intervalMs) {
+        livenessTracker.resetCadence(id, intervalMs);
+    }
+
+    @Override
+    public void onCommandAck(CommandAck ack) {
+        // No commands are sent from the background
+    }
+
+    @Override
+    public void onLeaseHealthChanged(String id, LeaseHealth health) {
+        // Only the screen that drives the car shows lease health
+    }
+
+    @Override
+    public void onError(String message) {
+        Log.e(TAG, "MQTT error: " + message);
+    }
+
+    // ========================================
+    // Helpers
+    // ========================================
+
+    private String deviceIdOf(String reportedId) {
+        return reportedId == null || reportedId.isEmpty() ? deviceId : reportedId;
+    }
+
+    private void flushJournal() {
+        TelemetryJournal current = journal;
+        if (current != null) {
+            try {
+                current.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Journal flush failed", e);
+            }
+        }
+    }
+
+    // ========================================
+    // Notifications
+    // ========================================
+
+    private void createChannels() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationChannel monitoring = new NotificationChannel(CHANNEL_MONITORING,
+                "Background monitoring", NotificationManager.IMPORTANCE_LOW);
+        monitoring.setShowBadge(false);
+        notificationManager.createNotificationChannel(monitoring);
+        notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ALERTS,
+                "Car alerts", NotificationManager.IMPORTANCE_HIGH));
+    }
+
+    private Notification buildOngoingNotification(String carId) {
+        Intent stop = new Intent(this, TelemetryCollectorService.class).setAction(ACTION_STOP);
+        return new NotificationCompat.Builder(this, CHANNEL_MONITORING)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle("Monitoring " + (carId != null ? carId : "car"))
+                .setContentText("Recording telemetry, alerts on low battery or offline")
+                .setContentIntent(openAppIntent())
+                .addAction(0, "Stop", PendingIntent.getService(this, 0, stop, PendingIntent.FLAG_IMMUTABLE))
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    private void postAlert(TelemetryAlert alert) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.d(TAG, "Alert not shown, notifications not allowed: " + alert.getMessage());
+            return;
+        }
+        notificationManager.notify(alertId(alert.getDeviceId(), alert.getType()),
+                new NotificationCompat.Builder(this, CHANNEL_ALERTS)
+                        .setSmallIcon(R.mipmap.ic_launcher)
+                        .setContentTitle(alert.getType() == TelemetryAlert.Type.BATTERY_LOW
+                                ? "Low battery" : "Car offline")
+                        .setContentText(alert.getMessage())
+                        .setContentIntent(openAppIntent())
+                        .setAutoCancel(true)
+                        .setPriority(NotificationCompat.PRIORITY_HIGH)
+                        .build());
+    }
+
+    private PendingIntent openAppIntent() {
+        Intent open = new Intent(this, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        return PendingIntent.getActivity(this, 0, open, PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private static int alertId(String deviceId, TelemetryAlert.Type type) {
+        return NOTIFICATION_ID + 1 + ((deviceId + type.name()).hashCode() & 0x7FFFFFF);
+    }
+}
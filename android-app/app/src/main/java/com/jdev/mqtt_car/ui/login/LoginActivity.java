@@ -17,6 +17,9 @@ import androidx.core.view.WindowInsetsCompat;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.jdev.mqtt_car.R;
+import com.jdev.mqtt_car.model.BrokerEndpoint;
+import com.jdev.mqtt_car.model.DeviceProfile;
+import com.jdev.mqtt_car.model.MqttConfig;
 import com.jdev.mqtt_car.ui.main.MainActivity;
 
 /**
@@ -28,6 +31,7 @@ public class LoginActivity extends AppCompatActivity {
 
     private EditText editBrokerIp;
     private EditText editBrokerPort;
+    private EditText editStandbyBrokers;
     private EditText editDeviceId;
     private CheckBox checkRemember;
     private TextView errorText;
@@ -53,18 +57,21 @@ public class LoginActivity extends AppCompatActivity {
         viewModel = new ViewModelProvider(this).get(LoginViewModel.class);
 
         setupObservers();
-        // Check if already configured and should auto-login
-        if (viewModel.isConfigured() && viewModel.getShouldRemember()) {
-            // Skip login, go directly to MainActivity
-            navigateToMain();
-            return;
-        }
 
         // Initialize views
         initializeViews();
 
-        // Load saved values if any
-        loadSavedConfig();
+        // Config is loaded off the main thread by the Application; usually it is ready already
+        viewModel.whenConfigLoaded(config -> {
+            // Check if already configured and should auto-login
+            if (config.isConfigured() && config.shouldRemember()) {
+                // Skip login, go directly to MainActivity
+                navigateToMain();
+                return;
+            }
+            // Load saved values if any
+            loadSavedConfig(config);
+        });
     }
 
     private void setupObservers() {
@@ -92,6 +99,7 @@ public class LoginActivity extends AppCompatActivity {
     private void initializeViews() {
         editBrokerIp = findViewById(R.id.editBrokerIp);
         editBrokerPort = findViewById(R.id.editBrokerPort);
+        editStandbyBrokers = findViewById(R.id.editStandbyBrokers);
         editDeviceId = findViewById(R.id.editDeviceId);
         checkRemember = findViewById(R.id.checkRemember);
         errorText = findViewById(R.id.errorText);
@@ -101,12 +109,14 @@ public class LoginActivity extends AppCompatActivity {
         btnConnect.setOnClickListener(v -> appLogin());
     }
 
-    private void loadSavedConfig() {
-        if (viewModel.isConfigured()) {
-            editBrokerIp.setText(viewModel.getSavedBrokerIp());
-            editBrokerPort.setText(String.valueOf(viewModel.getSavedBrokerPort()));
-            editDeviceId.setText(viewModel.getSavedDeviceId());
-            checkRemember.setChecked(viewModel.getShouldRemember());
+    private void loadSavedConfig(MqttConfig config) {
+        if (config.isConfigured()) {
+            DeviceProfile profile = config.getActiveProfile();
+            editBrokerIp.setText(profile.getBrokerIp());
+            editBrokerPort.setText(String.valueOf(profile.getBrokerPort()));
+            editStandbyBrokers.setText(BrokerEndpoint.joinList(profile.getStandbyBrokers()));
+            editDeviceId.setText(profile.getDeviceId());
+            checkRemember.setChecked(config.shouldRemember());
         }
     }
 
@@ -116,9 +126,10 @@ public class LoginActivity extends AppCompatActivity {
 
         String brokerIp = editBrokerIp.getText().toString().trim();
         String portStr = editBrokerPort.getText().toString().trim();
+        String standbyStr = editStandbyBrokers.getText().toString().trim();
         String deviceId = editDeviceId.getText().toString().trim();
 
-        viewModel.login(brokerIp, portStr, deviceId, "", "", checkRemember);
+        viewModel.login(brokerIp, portStr, standbyStr, deviceId, "", "", checkRemember);
     }
 
     private void showError(String message) {
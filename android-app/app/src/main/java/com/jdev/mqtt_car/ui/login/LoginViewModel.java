@@ -9,16 +9,25 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
-import com.jdev.mqtt_car.data.source.MqttPreferences;
+import com.jdev.mqtt_car.data.source.ConfigRepository;
+import com.jdev.mqtt_car.data.source.MqttConnectionManager;
+import com.jdev.mqtt_car.model.BrokerEndpoint;
+import com.jdev.mqtt_car.model.DeviceProfile;
+import com.jdev.mqtt_car.model.MqttConfig;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 public class LoginViewModel extends AndroidViewModel {
 
     private final MutableLiveData<Boolean> loginSuccess = new MutableLiveData<>();
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
     private final MutableLiveData<Boolean> loading = new MutableLiveData<>();
-    private MqttPreferences mqttPrefs;
+    private final ConfigRepository configRepository;
+
+    // Keeps the shared connection open while the settings are edited, null on a cold start
+    private MqttConnectionManager.Registration connectionHold;
 
     public LiveData<Boolean> isLoginSuccess = loginSuccess;
     public LiveData<String> hasErrorMessage = errorMessage;
@@ -26,11 +35,21 @@ public class LoginViewModel extends AndroidViewModel {
 
     public LoginViewModel(@NotNull Application application){
         super(application);
-        // Initialize preferences
-        mqttPrefs = new MqttPreferences(application.getApplicationContext());
+        // Config is loaded in the background by the Application, nothing is read here
+        configRepository = ConfigRepository.getInstance(application.getApplicationContext());
+        if (configRepository.isLoaded() && configRepository.get().isConfigured()) {
+            connectionHold = MqttConnectionManager.getInstance(application).retain();
+        }
+    }
+
+    /**
+     * Callback with the saved config once it is loaded (immediately if it already is)
+     */
+    public void whenConfigLoaded(ConfigRepository.Listener listener){
+        configRepository.whenLoaded(listener);
     }
 
-    public void login(String brokerIp, String portStr, String deviceId, String userName, String password, CheckBox checkRemember){
+    public void login(String brokerIp, String portStr, String standbyStr, String deviceId, String userName, String password, CheckBox checkRemember){
 
         // Validate IP
         if (TextUtils.isEmpty(brokerIp)) {
@@ -41,7 +60,7 @@ public class LoginViewModel extends AndroidViewModel {
         // Validate port
         int port;
         if (TextUtils.isEmpty(portStr)) {
-            port = 1883; // Default MQTT port
+            port = DeviceProfile.DEFAULT_BROKER_PORT; // Default MQTT port
         } else {
             try {
                 port = Integer.parseInt(portStr);
@@ -55,17 +74,33 @@ public class LoginViewModel extends AndroidViewModel {
             }
         }
 
+        // Validate standby brokers, they default to the primary broker's port
+        List<BrokerEndpoint> standbyBrokers;
+        try {
+            standbyBrokers = BrokerEndpoint.parseList(standbyStr, port);
+        } catch (IllegalArgumentException e) {
+            errorMessage.setValue(e.getMessage());
+            return;
+        }
+
         // Validate device ID
         if (TextUtils.isEmpty(deviceId)) {
-            deviceId = "car-001"; // Default device ID
+            deviceId = DeviceProfile.DEFAULT_DEVICE_ID; // Default device ID
         }
 
 
         loading.setValue(true);
 
-        // Save configuration
-        mqttPrefs.saveBrokerConfig(brokerIp, port, deviceId);
-        mqttPrefs.setRememberCredentials(checkRemember.isChecked());
+        // Save configuration - one snapshot swap and one coalesced disk write
+        String carId = deviceId;
+        int brokerPort = port;
+        boolean remember = checkRemember.isChecked();
+        configRepository.update(config -> config
+                .putProfile(config.profile(carId).withBroker(brokerIp, brokerPort)
+                        .withStandbyBrokers(standbyBrokers))
+                .setActiveDeviceId(carId)
+                .setRemember(remember)
+                .setConfigured(true));
 
         //save creden here after
 
@@ -75,24 +110,16 @@ public class LoginViewModel extends AndroidViewModel {
 
     }
 
-    public String getSavedBrokerIp(){
-        return mqttPrefs.getBrokerIp();
+    public MqttConfig getConfig(){
+        return configRepository.get();
     }
 
-    public int getSavedBrokerPort(){
-        return mqttPrefs.getBrokerPort();
-    }
-
-    public String getSavedDeviceId(){
-        return mqttPrefs.getDeviceId();
-    }
-
-    public boolean getShouldRemember(){
-        return mqttPrefs.shouldRemember();
-    }
-
-    public boolean isConfigured(){
-        return mqttPrefs.isConfigured();
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (connectionHold != null) {
+            connectionHold.detach();
+        }
     }
 
 }
@@ -0,0 +1,110 @@
+package com.jdev.mqtt_car.ui.main;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Lightweight on-screen joystick.
+ * Reports the knob position as (throttle, steering) in -100..100 and springs
+ * back to center on release. Rendering is kept to two circles so it is cheap
+ * to redraw on every touch move.
+ */
+public class JoystickView extends View {
+
+    public interface OnMoveListener {
+        void onMove(int throttle, int steering);
+    }
+
+    private final Paint basePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint knobPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private OnMoveListener listener;
+
+    private float centerX, centerY, baseRadius, knobRadius;
+    private float knobX, knobY;
+
+    public JoystickView(Context context) {
+        super(context);
+        init();
+    }
+
+    public JoystickView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        basePaint.setStyle(Paint.Style.STROKE);
+        basePaint.setStrokeWidth(4f);
+        basePaint.setColor(Color.parseColor("#00fff7"));
+
+        knobPaint.setStyle(Paint.Style.FILL);
+        knobPaint.setColor(Color.parseColor("#c51ada"));
+    }
+
+    public void setOnMoveListener(OnMoveListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        centerX = w / 2f;
+        centerY = h / 2f;
+        baseRadius = Math.min(w, h) * 0.4f;
+        knobRadius = Math.min(w, h) * 0.15f;
+        knobX = centerX;
+        knobY = centerY;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        canvas.drawCircle(centerX, centerY, baseRadius, basePaint);
+        canvas.drawCircle(knobX, knobY, knobRadius, knobPaint);
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                moveKnob(event.getX(), event.getY());
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                moveKnob(centerX, centerY);
+                return true;
+        }
+        return false;
+    }
+
+    private void moveKnob(float x, float y) {
+        float dx = x - centerX;
+        float dy = y - centerY;
+        float length = (float) Math.hypot(dx, dy);
+
+        // Keep the knob inside the base circle
+        if (length > baseRadius && length > 0) {
+            dx = dx * baseRadius / length;
+            dy = dy * baseRadius / length;
+        }
+        knobX = centerX + dx;
+        knobY = centerY + dy;
+        invalidate();
+
+        if (listener != null && baseRadius > 0) {
+            // Screen Y grows downwards, so pushing up means positive throttle
+            int throttle = Math.round(-dy / baseRadius * 100);
+            int steering = Math.round(dx / baseRadius * 100);
+            listener.onMove(throttle, steering);
+        }
+    }
+}
@@ -1,41 +1,67 @@
 package com.jdev.mqtt_car.ui.main;
 
+import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.nfc.Tag;
+import android.os.Build;
 import android.os.Bundle;
+import android.text.InputType;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.lifecycle.ViewModelProvider;
 
+import com.jdev.mqtt_car.data.export.TelemetryExporter;
+import com.jdev.mqtt_car.model.CarState;
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.DashboardPrediction;
 import com.jdev.mqtt_car.model.MqttConnectionState;
+import com.jdev.mqtt_car.model.TelemetryData;
 import com.jdev.mqtt_car.ui.login.LoginActivity;
 import com.jdev.mqtt_car.R;
-import com.jdev.mqtt_car.data.source.MqttPreferences;
+import com.jdev.mqtt_car.data.source.ConfigRepository;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final int REQUEST_NOTIFICATIONS = 1;
+
 //    private MqttManager mqttManager;
 
     private MainViewModel mainViewModel;// Status indicators
     private View MqttIndicatorView, carIndicatorView;
+    private View telemetryCard;
 
     // Telemetry displays
-    private TextView batteryText, distanceText, rssiText, tempText, actionText;
+    private TextView batteryText, batteryRuntimeText, distanceText, rssiText, tempText, actionText;
 
     // Buttons
-    private Button btnConnect,btnSettings;
+    private Button btnConnect,btnSettings,btnControlMode,btnExport;
+
+    // Control modes
+    private View controlPad;
+    private JoystickView joystickView;
+    private PathView pathView;
+    private boolean isJoystickMode = false;
+
+    // Finishing to edit settings, not to leave the app
+    private boolean openingSettings;
 
     // Animations
     private Animation pulseAnimation;
@@ -44,6 +70,9 @@ public class MainActivity extends AppCompatActivity {
 
     private boolean isConnected = false;
 
+    // Last snapshot drawn, null until the first render so everything is drawn once
+    private CarState renderedState;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -74,47 +103,52 @@ public class MainActivity extends AppCompatActivity {
     @SuppressLint("SetTextI18n")
     private void setUpObservers() {
 
-        mainViewModel.getTelemetryDataLiveData().observe(this, data -> {
-            batteryText.setText(data.getBatteryDisplay());
-            distanceText.setText(data.getDistanceDisplay());
-            rssiText.setText(data.getRssiDisplay());
-            tempText.setText(data.getTemperatureDisplay());
-            updateActionDisplay(data.getCurrentAction().toUpperCase());
-
+        // One observer for the whole car state, each section only re-renders when its fields changed
+        mainViewModel.getCarState().observe(this, state -> {
+            int changes = state.diff(renderedState);
+            renderedState = state;
 
+            if ((changes & CarState.CONNECTION) != 0) {
+                renderConnection(state.getConnection());
+            }
+            if ((changes & CarState.STATUS) != 0) {
+                renderCarStatus(state.getStatus());
+            }
+            if ((changes & CarState.TELEMETRY) != 0) {
+                TelemetryData data = state.getTelemetry();
+                batteryText.setText(data.getBatteryDisplay());
+                rssiText.setText(data.getRssiDisplay());
+                tempText.setText(data.getTemperatureDisplay());
+            }
+            if ((changes & CarState.BATTERY) != 0) {
+                batteryRuntimeText.setText(state.getBatteryForecast().getRuntimeDisplay());
+            }
+            // Action and distance follow the controls between frames, see DashboardPredictor
+            if ((changes & CarState.PREDICTION) != 0) {
+                renderPrediction(state.getPrediction());
+            }
         });
 
-        mainViewModel.getActionText().observe(this, data -> {
-            // Format action text nicely
-            updateActionDisplay(data.toUpperCase());
+        // Copied into the view's reusable snapshot, at most once per frame however often it changed
+        mainViewModel.getOdometryUpdates().observe(this, version -> {
+            mainViewModel.copyPath(pathView.getSnapshot());
+            pathView.invalidate();
         });
 
-        mainViewModel.getCarStatusLiveData().observe(this, data -> {
-            if (data.getStatus().equals("online")) {
-                carIndicatorView.setBackgroundResource(R.drawable.circle_green);
-                startPulseAnimation(carIndicatorView);
-            } else {
-                carIndicatorView.setBackgroundResource(R.drawable.circle_red);
-                stopAnimation(carIndicatorView);
-            }
+        mainViewModel.getExportStatus().observe(this, status -> {
+            Toast.makeText(this, status, Toast.LENGTH_SHORT).show();
         });
 
-        mainViewModel.getMqttConnectionStateLiveData().observe(this, data -> {
+        mainViewModel.getMacroStatus().observe(this, status -> {
+            Toast.makeText(this, status, Toast.LENGTH_SHORT).show();
+        });
 
-            if (data.equals(MqttConnectionState.CONNECTING)) {
+        mainViewModel.getRuleStatus().observe(this, status -> {
+            Toast.makeText(this, status, Toast.LENGTH_LONG).show();
+        });
 
-                btnConnect.setText("⚡ CONNECTING ⚡");
-            } else if (data.equals(MqttConnectionState.CONNECTED)) {
-                isConnected = true;
-                MqttIndicatorView.setBackgroundResource(R.drawable.circle_green);
-                startPulseAnimation(MqttIndicatorView);
-                btnConnect.setText("⚡ DISCONNECT ⚡");
-            } else {
-                isConnected = false;
-                MqttIndicatorView.setBackgroundResource(R.drawable.circle_red);
-                stopAnimation(MqttIndicatorView);
-                btnConnect.setText("⚡ CONNECT ⚡");
-            }
+        mainViewModel.getAlerts().observe(this, alert -> {
+            Toast.makeText(this, "⚠ " + alert.getMessage(), Toast.LENGTH_LONG).show();
         });
 
         mainViewModel.getErrorMessage().observe(this, data -> {
@@ -125,6 +159,51 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    @SuppressLint("SetTextI18n")
+    private void renderConnection(MqttConnectionState data) {
+        if (data.equals(MqttConnectionState.CONNECTING)) {
+
+            btnConnect.setText("⚡ CONNECTING ⚡");
+        } else if (data.equals(MqttConnectionState.CONNECTED)) {
+            isConnected = true;
+            MqttIndicatorView.setBackgroundResource(R.drawable.circle_green);
+            startPulseAnimation(MqttIndicatorView);
+            btnConnect.setText("⚡ DISCONNECT ⚡");
+        } else {
+            isConnected = false;
+            MqttIndicatorView.setBackgroundResource(R.drawable.circle_red);
+            stopAnimation(MqttIndicatorView);
+            btnConnect.setText("⚡ CONNECT ⚡");
+        }
+    }
+
+    private void renderCarStatus(CarStatus data) {
+        switch (data.getStatus()) {
+            case CarStatus.STATUS_ONLINE:
+                carIndicatorView.setBackgroundResource(R.drawable.circle_green);
+                startPulseAnimation(carIndicatorView);
+                telemetryCard.setAlpha(1f);
+                break;
+            case CarStatus.STATUS_DEGRADED:
+                // Missed a telemetry frame, keep showing data but warn
+                carIndicatorView.setBackgroundResource(R.drawable.circle_amber);
+                startPulseAnimation(carIndicatorView);
+                telemetryCard.setAlpha(1f);
+                break;
+            case CarStatus.STATUS_STALE:
+                // Telemetry stopped, dim the values so they don't look live
+                carIndicatorView.setBackgroundResource(R.drawable.circle_amber);
+                stopAnimation(carIndicatorView);
+                telemetryCard.setAlpha(0.4f);
+                break;
+            default:
+                carIndicatorView.setBackgroundResource(R.drawable.circle_red);
+                stopAnimation(carIndicatorView);
+                telemetryCard.setAlpha(0.4f);
+                break;
+        }
+    }
+
     /**
      * Load all animation resources
      */
@@ -141,9 +220,11 @@ public class MainActivity extends AppCompatActivity {
         // Status indicators
         MqttIndicatorView = findViewById(R.id.MqttIndicator);
         carIndicatorView = findViewById(R.id.carIndicator);
+        telemetryCard = findViewById(R.id.telemetryCard);
 
         // Telemetry displays
         batteryText = findViewById(R.id.batteryText);
+        batteryRuntimeText = findViewById(R.id.batteryRuntimeText);
         distanceText = findViewById(R.id.distanceText);
         rssiText = findViewById(R.id.rssiText);
         tempText = findViewById(R.id.tempText);
@@ -152,22 +233,71 @@ public class MainActivity extends AppCompatActivity {
         // Buttons
         btnConnect = findViewById(R.id.btnConnect);
         btnSettings = findViewById(R.id.btnSettings);
+        btnControlMode = findViewById(R.id.btnControlMode);
+        btnExport = findViewById(R.id.btnExport);
+
+        controlPad = findViewById(R.id.controlPad);
+        joystickView = findViewById(R.id.joystickView);
+        pathView = findViewById(R.id.pathView);
 
         // Settings button - navigate to LoginActivity for reconfiguration
         btnSettings.setOnClickListener(v -> {
-            // Disconnect if connected
-            if (isConnected) {
-                mainViewModel.disconnect();
-            }
+            // The connection stays up while settings are edited, and only reconnects if the
+            // broker or car is changed there
+            openingSettings = true;
             // Clear "remember" flag so login screen shows
-            MqttPreferences prefs = new MqttPreferences(this);
-            prefs.setRememberCredentials(false);
+            ConfigRepository.getInstance(this).update(config -> config.setRemember(false));
             // Navigate to login
             Intent intent = new Intent(this, LoginActivity.class);
             startActivity(intent);
             finish();
         });
 
+        // Export the recorded session for offline analysis, toggle background monitoring or raw
+        // capture, run or record drive macros, edit alert rules and calibrate or reset the path
+        btnExport.setOnClickListener(v -> {
+            animateButtonPress(v);
+            boolean background = mainViewModel.isBackgroundMonitoring();
+            boolean capturing = mainViewModel.isCapturing();
+            boolean recordingMacro = mainViewModel.isRecordingMacro();
+            new AlertDialog.Builder(this)
+                    .setTitle("Session")
+                    .setItems(new CharSequence[]{
+                            "Export CSV (gzip)",
+                            "Export columnar (.mqtc)",
+                            background ? "Background monitoring: ON" : "Background monitoring: OFF",
+                            capturing ? "Capture raw traffic: ON" : "Capture raw traffic: OFF",
+                            "Run macro…",
+                            recordingMacro ? "Record macro: ON" : "Record macro: OFF",
+                            "Alert rules…",
+                            "Odometry calibration…",
+                            "Reset path"
+                    }, (dialog, which) -> {
+                        if (which == 0) {
+                            mainViewModel.exportLastSession(TelemetryExporter.Format.CSV);
+                        } else if (which == 1) {
+                            mainViewModel.exportLastSession(TelemetryExporter.Format.COLUMNAR);
+                        } else if (which == 2) {
+                            setBackgroundMonitoring(!background);
+                        } else if (which == 3) {
+                            mainViewModel.setCapturing(!capturing);
+                        } else if (which == 4) {
+                            showMacroEditor();
+                        } else if (which == 6) {
+                            showRuleEditor();
+                        } else if (which == 7) {
+                            showCalibrationEditor();
+                        } else if (which == 8) {
+                            mainViewModel.resetPath();
+                        } else if (recordingMacro) {
+                            mainViewModel.stopMacroRecording();
+                        } else {
+                            mainViewModel.startMacroRecording();
+                        }
+                    })
+                    .show();
+        });
+
         // Connect button click handler
         btnConnect.setOnClickListener(v -> {
             animateButtonPress(v);
@@ -179,6 +309,80 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * With monitoring on, closing this screen hands the connection to a foreground service
+     * that only notifies on alerts, which needs the notification permission on Android 13+
+     */
+    private void setBackgroundMonitoring(boolean enabled) {
+        mainViewModel.setBackgroundMonitoring(enabled);
+        Toast.makeText(this, enabled
+                ? "Monitoring continues after you close this screen"
+                : "Background monitoring off", Toast.LENGTH_SHORT).show();
+        if (enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_NOTIFICATIONS);
+        }
+    }
+
+    /**
+     * Edit the last macro and run it. The stop button aborts it like any other button.
+     */
+    private void showMacroEditor() {
+        EditText editor = new EditText(this);
+        editor.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE
+                | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        editor.setMinLines(4);
+        editor.setText(mainViewModel.getLastMacro());
+        new AlertDialog.Builder(this)
+                .setTitle("Macro")
+                .setMessage("e.g. forward 2s; left 500ms; repeat 2 { right 1s }; stop")
+                .setView(editor)
+                .setPositiveButton("Run", (dialog, which) ->
+                        mainViewModel.runMacro(editor.getText().toString()))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Edit the alert rules; they apply to every car's telemetry as soon as they are saved
+     */
+    private void showRuleEditor() {
+        EditText editor = new EditText(this);
+        editor.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE
+                | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        editor.setMinLines(4);
+        editor.setText(mainViewModel.getAlertRules());
+        new AlertDialog.Builder(this)
+                .setTitle("Alert rules")
+                .setMessage("Fields: battery, distance_front, temperature, wifi_rssi, free_heap, action, status")
+                .setView(editor)
+                .setPositiveButton("Save", (dialog, which) ->
+                        mainViewModel.setAlertRules(editor.getText().toString()))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Edit the controlled car's speed and turn rate used to dead-reckon its path
+     */
+    private void showCalibrationEditor() {
+        EditText editor = new EditText(this);
+        editor.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        editor.setText(mainViewModel.getOdometryCalibration());
+        new AlertDialog.Builder(this)
+                .setTitle("Odometry calibration")
+                .setMessage("Speed in cm/s, turn rate in °/s, e.g. 30, 90. "
+                        + "Time a drive and a full turn on the spot to measure them.")
+                .setView(editor)
+                .setPositiveButton("Save", (dialog, which) -> Toast.makeText(this,
+                        mainViewModel.setOdometryCalibration(editor.getText().toString()),
+                        Toast.LENGTH_SHORT).show())
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
     /**
      * Setup control buttons with touch-and-hold behavior and animations
      */
@@ -197,6 +401,33 @@ public class MainActivity extends AppCompatActivity {
             animateButtonPress(v);
             mainViewModel.sendCommand("stop");
         });
+
+        // Joystick only updates the target, the ViewModel's control loop does the sending
+        joystickView.setOnMoveListener((throttle, steering) ->
+                mainViewModel.updateJoystick(throttle, steering));
+
+        btnControlMode.setOnClickListener(v -> {
+            animateButtonPress(v);
+            setJoystickMode(!isJoystickMode);
+        });
+    }
+
+    /**
+     * Switch between the discrete button pad and the analog joystick
+     */
+    private void setJoystickMode(boolean enabled) {
+        isJoystickMode = enabled;
+        if (enabled) {
+            controlPad.setVisibility(View.GONE);
+            joystickView.setVisibility(View.VISIBLE);
+            btnControlMode.setText("✚");
+            mainViewModel.startJoystick();
+        } else {
+            mainViewModel.stopJoystick();
+            joystickView.setVisibility(View.GONE);
+            controlPad.setVisibility(View.VISIBLE);
+            btnControlMode.setText("🕹");
+        }
     }
 
     /**
@@ -240,14 +471,16 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Update the action display text
+     * Predicted action and distance. An unconfirmed action is dimmed, and values a frame
+     * just contradicted turn amber, so prediction never hides real lag.
      */
-    private void updateActionDisplay(String action) {
-        String displayAction = action;
-        if (displayAction.equals("STOP")) {
-            displayAction = "IDLE";
-        }
-        actionText.setText(displayAction);
+    private void renderPrediction(DashboardPrediction prediction) {
+        actionText.setText(prediction.getActionDisplay());
+        actionText.setAlpha(prediction.isActionPending() ? 0.6f : 1f);
+        distanceText.setText(prediction.getDistanceDisplay());
+        boolean divergent = prediction.isDivergent();
+        actionText.setTextColor(ContextCompat.getColor(this, divergent ? R.color.status_warning : R.color.neon_cyan));
+        distanceText.setTextColor(ContextCompat.getColor(this, divergent ? R.color.status_warning : R.color.text_value));
     }
 
     /**
@@ -265,9 +498,27 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
+    // Telemetry rate follows visibility: full rate on screen, a trickle in the background
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mainViewModel.setAppVisible(true);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mainViewModel.setAppVisible(false);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mainViewModel.disconnect();
+        if (isFinishing() && !openingSettings) {
+            // The view model lets go of the shared connection, which closes after a grace
+            // period unless the collector service or the next screen picks it up
+            mainViewModel.handOffToBackground();
+        }
     }
 }
\ No newline at end of file
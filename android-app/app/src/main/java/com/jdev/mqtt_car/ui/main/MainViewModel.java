@@ -1,117 +1,921 @@
 package com.jdev.mqtt_car.ui.main;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.jdev.mqtt_car.data.analytics.BatteryEstimator;
+import com.jdev.mqtt_car.data.analytics.BatteryForecaster;
+import com.jdev.mqtt_car.data.analytics.LivenessTracker;
+import com.jdev.mqtt_car.data.analytics.TelemetryAnomalyDetector;
+import com.jdev.mqtt_car.data.capture.SessionRecorder;
+import com.jdev.mqtt_car.data.control.DriveControlLoop;
+import com.jdev.mqtt_car.data.export.TelemetryExporter;
+import com.jdev.mqtt_car.data.export.TelemetryJournal;
+import com.jdev.mqtt_car.data.macro.CommandMacro;
+import com.jdev.mqtt_car.data.macro.MacroCompiler;
+import com.jdev.mqtt_car.data.macro.MacroRecorder;
+import com.jdev.mqtt_car.data.macro.MacroRunner;
+import com.jdev.mqtt_car.data.odometry.OdometryEngine;
+import com.jdev.mqtt_car.data.odometry.OdometrySnapshot;
+import com.jdev.mqtt_car.data.rules.AlertRule;
+import com.jdev.mqtt_car.data.rules.AlertRuleCompiler;
+import com.jdev.mqtt_car.data.rules.AlertRuleEngine;
+import com.jdev.mqtt_car.data.source.BatteryStatePreferences;
+import com.jdev.mqtt_car.data.source.ConfigRepository;
+import com.jdev.mqtt_car.data.source.MqttConnectionManager;
+import com.jdev.mqtt_car.data.state.CarStateStore;
+import com.jdev.mqtt_car.data.state.DashboardPredictor;
+import com.jdev.mqtt_car.model.BatteryForecast;
+import com.jdev.mqtt_car.model.CarCommand;
+import com.jdev.mqtt_car.model.CarState;
 import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.DashboardPrediction;
+import com.jdev.mqtt_car.model.DeviceLiveness;
+import com.jdev.mqtt_car.model.LeaseHealth;
 import com.jdev.mqtt_car.model.MqttConnectionState;
+import com.jdev.mqtt_car.model.OdometryCalibration;
+import com.jdev.mqtt_car.model.TelemetryAlert;
 import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.model.TelemetryRecord;
+import com.jdev.mqtt_car.model.TelemetrySample;
 import com.jdev.mqtt_car.data.source.MqttManager;
+import com.jdev.mqtt_car.service.TelemetryCollectorService;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class MainViewModel extends AndroidViewModel implements MqttManager.MqttCallback {
 
+    private static final String TAG = "MainViewModel";
+
+    // Pooled receive mode copies a frame for the UI at most this often
+    private static final long UI_REFRESH_MS = 100;
+    // Re-render of the extrapolated distance between telemetry frames
+    private static final long PREDICTION_TICK_MS = 100;
+    // The path view is redrawn at most this often, however fast frames and acks arrive
+    private static final long PATH_REFRESH_MS = 200;
+    // A silent car is noticed this long after it went past its usual cadence at the latest
+    private static final long GAP_CHECK_MS = 250;
+
+    // Offered when no macro was run or recorded yet
+    private static final String DEFAULT_MACRO = "forward 2s\nleft 500ms\nstop\n";
+
+    // Offered when no alert rules were saved yet
+    private static final String DEFAULT_RULES = "# name: condition [for 10s] [clear condition [for 5s]]\n"
+            + "low_battery: battery < 20 clear battery >= 25\n"
+            + "obstacle: distance_front < 15 and action == forward\n"
+            + "weak_signal: wifi_rssi < -80 for 10s\n";
+
+    private final MqttConnectionManager connections;
+    private final MqttConnectionManager.Registration registration;
     private final MqttManager mqttManager;
-    private final MutableLiveData<TelemetryData> telemetry = new MutableLiveData<>(TelemetryData.empty());
-    private final MutableLiveData<MqttConnectionState> connectionState = new MutableLiveData<>(MqttConnectionState.DISCONNECTED);
-    private final MutableLiveData<CarStatus> carStatusLive = new MutableLiveData<>();
+    private final DriveControlLoop driveControlLoop;
+    private final BatteryForecaster batteryForecaster;
+    private final TelemetryAnomalyDetector anomalyDetector;
+    private final AlertRuleEngine ruleEngine;
+    private final MutableLiveData<String> ruleStatus = new MutableLiveData<>();
+    private final LivenessTracker livenessTracker;
+
+    // All car state goes through the store, the LiveData below only carries its snapshots to the UI
+    private final ExecutorService stateWriter =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "car-state-store"));
+    private final CarStateStore stateStore;
+    private final MutableLiveData<CarState> carState;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Dashboard prediction between frames, per car; only touched by reducers on the state writer
+    private final Map<String, DashboardPredictor> predictors = new HashMap<>();
+    private boolean predictionTickPending;
+
+    // One-shot events, not part of the state
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
-    private final MutableLiveData<String> actionText = new MutableLiveData<>("Idle");
+    private final MutableLiveData<TelemetryAlert> alerts = new MutableLiveData<>();
+    // Alerts come from the Paho thread in bursts; postValue would keep only the last of a
+    // burst, so they queue here and the main thread sets them one by one
+    private final Queue<TelemetryAlert> pendingAlerts = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean alertDrainPosted = new AtomicBoolean();
+    private final Runnable alertDrain = this::drainAlerts;
+    private final Runnable gapCheck = this::checkGaps;
+
+    // Paho callback thread only
+    private long lastUiRefreshMs;
+
+    // Session recording for export, one journal per connection
+    private final File journalDir;
+    private final ExecutorService exportExecutor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "telemetry-export"));
+    private final TelemetryExporter exporter = new TelemetryExporter(exportExecutor);
+    private final MutableLiveData<String> exportStatus = new MutableLiveData<>();
+    private volatile TelemetryJournal journal;
+    private volatile File lastJournalFile;
+
+    // Raw traffic capture for lag reports, main thread only
+    private SessionRecorder recorder;
+
+    // Timed drive sequences; the runner sends through issueCommand on its own thread
+    private final MacroRunner macroRunner = new MacroRunner(this::issueCommand);
+    private final MutableLiveData<String> macroStatus = new MutableLiveData<>();
+    private MacroRecorder macroRecorder;   // main thread only, null unless recording
+
+    // Dead-reckoned path of the controlled car, fed on the Paho callback thread. The receive
+    // path only marks it changed; the main thread polls the flag, so a frame posts nothing.
+    private final OdometryEngine odometry;
+    private final MutableLiveData<Long> odometryUpdates = new MutableLiveData<>(0L);
+    private long odometryVersion;   // main thread only
+    private final Runnable pathRefresh = this::refreshPath;
 
 
     public MainViewModel(@NotNull Application application){
         super(application);
-        mqttManager = new MqttManager(application.getApplicationContext(), this);
+        // The app-wide connection, usually already up: started by the StartupPipeline during
+        // the login screen, kept by the background collector, or left open by the previous screen
+        connections = MqttConnectionManager.getInstance(application);
+        mqttManager = connections.getClient();
+        driveControlLoop = new DriveControlLoop(mqttManager::sendDrive,
+                mqttManager.getProfile().getMaxDriveRateHz());
+        batteryForecaster = new BatteryForecaster(
+                new BatteryStatePreferences(application.getApplicationContext()),
+                BatteryEstimator.DEFAULT_THRESHOLD);
+        anomalyDetector = new TelemetryAnomalyDetector(this::postAlert);
+        ruleEngine = new AlertRuleEngine(ruleListener);
+        loadAlertRules(ConfigRepository.getInstance(application).get().getAlertRules());
+        livenessTracker = new LivenessTracker(this::onLivenessChanged);
+        odometry = new OdometryEngine(mqttManager.getProfile().getOdometryCalibration());
+        mainHandler.postDelayed(pathRefresh, PATH_REFRESH_MS);
+        mainHandler.postDelayed(gapCheck, GAP_CHECK_MS);
+        journalDir = new File(application.getFilesDir(), "journals");
+        lastJournalFile = TelemetryJournal.latestSession(journalDir);
+
+        carState = new MutableLiveData<>(CarState.initial(activeDeviceId()));
+        stateStore = new CarStateStore(stateWriter, mainHandler::post, (state, changes) -> {
+            // Runs on the main thread, once per batch of commits
+            if (state.getDeviceId().equals(activeDeviceId())) {
+                carState.setValue(state);
+            }
+        });
+
+        if (mqttManager.isConnected() || mqttManager.isConnecting()) {
+            livenessTracker.start();
+            if (!mqttManager.isConnected()) {
+                update(state -> state.withConnection(MqttConnectionState.CONNECTING));
+            }
+        }
+        // Replays connection state, car status and the latest frame now that every field is set
+        registration = connections.attach(this);
+        // Attached first, so the connection never drops to zero users in between
+        TelemetryCollectorService.handBack();
     }
 
 
     // UI eka observe karan inna methods tika thama me.............
 
-    public LiveData<TelemetryData> getTelemetryDataLiveData(){
-        return telemetry;
+    /**
+     * Snapshot of the controlled car. Observers use {@link CarState#diff(CarState)} against
+     * the snapshot they last rendered to update only what changed.
+     */
+    public LiveData<CarState> getCarState(){
+        return carState;
     }
 
-    public LiveData<MqttConnectionState> getMqttConnectionStateLiveData(){
-        return connectionState;
+    public LiveData<String> getErrorMessage() {
+        return errorMessage;
     }
 
-    public LiveData<CarStatus> getCarStatusLiveData(){
-        return carStatusLive;
+    public LiveData<TelemetryAlert> getAlerts(){
+        return alerts;
     }
 
-    public LiveData<String> getErrorMessage() {
-        return errorMessage;
+    /**
+     * Progress and result messages of the running export
+     */
+    public LiveData<String> getExportStatus(){
+        return exportStatus;
     }
 
-    public LiveData<String> getActionText(){
-        return actionText;
+    /**
+     * Macro progress, results and compile errors
+     */
+    public LiveData<String> getMacroStatus(){
+        return macroStatus;
+    }
+
+    /**
+     * Result of saving alert rules, or why they do not compile
+     */
+    public LiveData<String> getRuleStatus(){
+        return ruleStatus;
+    }
+
+    /**
+     * Car expected to hit the low battery threshold first, null until a forecast is known
+     */
+    public BatteryForecast getFirstCarToDie(){
+        return batteryForecaster.firstToDie();
     }
 
 
     //UI ekata access karanna ona wena methods tika....................
 
     public void connect(){
-        //LiveData wala setValue method eka use karanna puluwan wenne UI thread ekata witharai, any other background thread cant use this, it will occur IllegalStateException
-        connectionState.setValue(MqttConnectionState.CONNECTING);
+        update(state -> state.withConnection(MqttConnectionState.CONNECTING));
+        livenessTracker.start();
         mqttManager.connect();
     }
 
     public void disconnect(){
-        mqttManager.disconnect();
-        carStatusLive.setValue(new CarStatus());
-        telemetry.setValue(TelemetryData.empty());
-        connectionState.setValue(MqttConnectionState.DISCONNECTED);
+        abortMacro("disconnected");
+        driveControlLoop.stop();
+        batteryForecaster.persistAll();
+        livenessTracker.stop();
+        connections.disconnect();
+        closeJournal();
+        update(this::disconnected);
     }
 
 
     public void sendCommand(String command){
+        // Any button takes over from a running macro, a stop first of all
+        abortMacro(CarCommand.ACTION_STOP.equals(command) ? "stopped" : "manual control");
+        if (macroRecorder != null) {
+            macroRecorder.onCommand(command, System.nanoTime());
+        }
+        issueCommand(command);
+    }
+
+    /**
+     * Send a discrete command, from the buttons or the macro runner's thread
+     */
+    private void issueCommand(String command){
         mqttManager.sendCommand(command);
-        actionText.setValue(command);
+        mqttManager.setDriving(!CarCommand.ACTION_STOP.equals(command));
+        recordCommand(command);
+        long now = System.currentTimeMillis();
+        update(state -> predicted(state.withCommandedAction(command),
+                predictor(state.getDeviceId()).onCommand(command, now), now));
+    }
+
+    // Joystick mode - the control loop owns sending, UI only updates the target
+
+    public void startJoystick(){
+        abortMacro("manual control");
+        driveControlLoop.start();
+        mqttManager.setDriving(true);
+        recordCommand(CarCommand.ACTION_DRIVE);
+        long now = System.currentTimeMillis();
+        update(state -> predicted(state.withCommandedAction(CarCommand.ACTION_DRIVE),
+                predictor(state.getDeviceId()).onCommand(CarCommand.ACTION_DRIVE, now), now));
+    }
+
+    public void updateJoystick(int throttle, int steering){
+        driveControlLoop.setTarget(throttle, steering);
+    }
+
+    public void stopJoystick(){
+        driveControlLoop.stop();
+        mqttManager.setDriving(false);
+        recordCommand(CarCommand.ACTION_STOP);
+        long now = System.currentTimeMillis();
+        update(state -> predicted(state.withCommandedAction(CarCommand.ACTION_STOP),
+                predictor(state.getDeviceId()).onCommand(CarCommand.ACTION_STOP, now), now));
+    }
+
+    public void setAppVisible(boolean visible){
+        mqttManager.setForeground(visible);
+    }
+
+    public boolean isBackgroundMonitoring(){
+        return ConfigRepository.getInstance(getApplication()).get().isBackgroundMonitoring();
+    }
+
+    public void setBackgroundMonitoring(boolean enabled){
+        ConfigRepository.getInstance(getApplication()).update(config -> config.setBackgroundMonitoring(enabled));
+    }
+
+    /**
+     * The main screen is closing: with background monitoring on, start the collector service
+     * so the connection stays in use after this screen lets go of it. Returns false if
+     * monitoring is off or there is nothing to monitor.
+     */
+    public boolean handOffToBackground(){
+        if (!isBackgroundMonitoring() || !mqttManager.isConnected()) {
+            return false;
+        }
+        // The service attaches to the shared connection before this screen's reference lingers out
+        TelemetryCollectorService.start(getApplication());
+        return true;
     }
 
     public boolean isConnected(){
-        return connectionState.getValue() == MqttConnectionState.CONNECTED;
+        return stateStore.get(activeDeviceId()).isConnected();
     }
 
     @Override
     public void onConnected() {
-        //LiveData wala postValue() method eka use karanna puluwan wenne callBacks,
-        // services and any background threads walin (Man hithanne ee unata unama thread ekakin post eka call karanna puluwan setValue eka thama beri)
-        connectionState.postValue(MqttConnectionState.CONNECTED);
+        // Also after an in-place reconnect (profile switch, failover), where onDisconnected stopped it
+        livenessTracker.start();
+        livenessTracker.resetCadences();
+        openJournal();
+        update(state -> state.withConnection(MqttConnectionState.CONNECTED));
     }
 
     @Override
     public void onDisconnected() {
-
-        connectionState.postValue(MqttConnectionState.DISCONNECTED);
-        carStatusLive.postValue(new CarStatus());
-        telemetry.postValue(TelemetryData.empty());
+        abortMacro("link lost");
+        batteryForecaster.persistAll();
+        livenessTracker.stop();
+        flushJournal();
+        // Connection, status and telemetry are reset in one commit
+        update(this::disconnected);
     }
 
     @Override
     public void onTelemetryReceived(TelemetryData data) {
-        telemetry.postValue(data);
+        String deviceId = deviceIdOf(data.getDeviceId());
+        BatteryForecast forecast = batteryForecaster.onTelemetry(deviceId, data);
+        stateStore.dispatch(deviceId, state -> withTelemetry(state, data, forecast));
+        recordTelemetry(deviceId, data);
+        anomalyDetector.onTelemetry(deviceId, data);
+        ruleEngine.onTelemetry(deviceId, data);
+        livenessTracker.onTelemetry(deviceId, data.getTimestamp());
+        trackPath(deviceId, data);
+    }
+
+    /**
+     * Pooled receive mode: analytics read the record in place, the UI gets an immutable
+     * copy only at UI_REFRESH_MS. Our ownership of the record ends here.
+     */
+    @Override
+    public void onTelemetryRecord(TelemetryRecord record) {
+        try {
+            String deviceId = deviceIdOf(record.getDeviceId());
+            batteryForecaster.addSample(deviceId, record);
+            recordTelemetry(deviceId, record);
+            anomalyDetector.onTelemetry(deviceId, record);
+            ruleEngine.onTelemetry(deviceId, record);
+            livenessTracker.onTelemetry(deviceId, record.getTimestamp());
+            trackPath(deviceId, record);
+
+            long now = record.getTimestamp();
+            if (now - lastUiRefreshMs >= UI_REFRESH_MS) {
+                lastUiRefreshMs = now;
+                TelemetryData data = record.toTelemetryData();
+                BatteryForecast forecast = batteryForecaster.refresh(deviceId);
+                stateStore.dispatch(deviceId, state -> withTelemetry(state, data, forecast));
+            }
+        } finally {
+            record.release();
+        }
     }
 
     @Override
     public void onCarStatusReceived(CarStatus carStatus) {
-        carStatusLive.postValue(carStatus);
+        TelemetryJournal current = journal;
+        if (current != null) {
+            try {
+                current.appendStatus(System.currentTimeMillis(), deviceIdOf(carStatus.getDevice_id()), carStatus);
+            } catch (IOException e) {
+                Log.e(TAG, "Journal write failed", e);
+            }
+        }
+        ruleEngine.onStatus(deviceIdOf(carStatus.getDevice_id()), carStatus.getStatus(),
+                System.currentTimeMillis());
+        update(state -> state.withReportedStatus(carStatus));
+    }
+
+    private void onLivenessChanged(String deviceId, DeviceLiveness liveness) {
+        stateStore.dispatch(deviceId, state -> state.withLiveness(liveness));
+    }
+
+    @Override
+    public void onCommandAck(CommandAck ack) {
+        String deviceId = deviceIdOf(ack.getDeviceId());
+        stateStore.dispatch(deviceId, state -> state.withAck(ack));
+        if (deviceId.equals(activeDeviceId())) {
+            odometry.onAck(ack);
+        }
+    }
+
+    @Override
+    public void onLeaseHealthChanged(String deviceId, LeaseHealth health) {
+        stateStore.dispatch(deviceId, state -> state.withLeaseHealth(health));
+    }
+
+    @Override
+    public void onTelemetryIntervalChanged(String deviceId, int intervalMs) {
+        // The learned cadence belongs to the old rate
+        livenessTracker.resetCadence(deviceId, intervalMs);
+        anomalyDetector.resetCadence(deviceId, intervalMs);
     }
 
     @Override
     public void onError(String message) {
+        abortMacro(message);
         errorMessage.postValue(message);
-        connectionState.postValue(MqttConnectionState.DISCONNECTED);
+        update(state -> state.withConnection(MqttConnectionState.DISCONNECTED));
+    }
+
+    // ========================================
+    // Drive macros
+    // ========================================
+
+    /**
+     * Text of the macro last run or recorded, or an example
+     */
+    public String getLastMacro() {
+        String macro = ConfigRepository.getInstance(getApplication()).get().getMacro();
+        return macro.isEmpty() ? DEFAULT_MACRO : macro;
+    }
+
+    public boolean isMacroRunning() {
+        return macroRunner.isRunning();
+    }
+
+    /**
+     * Compile and play a macro. Any button, the joystick or a lost link aborts it.
+     */
+    public void runMacro(String source) {
+        CommandMacro macro;
+        try {
+            macro = MacroCompiler.compile(source);
+        } catch (IllegalArgumentException e) {
+            macroStatus.setValue("Macro error: " + e.getMessage());
+            return;
+        }
+        ConfigRepository.getInstance(getApplication()).update(config -> config.setMacro(source));
+        if (!mqttManager.isConnected()) {
+            macroStatus.setValue("Connect to the car first");
+            return;
+        }
+        if (driveControlLoop.isRunning()) {
+            macroStatus.setValue("Leave joystick mode to run a macro");
+            return;
+        }
+        if (!macroRunner.start(macro, macroListener)) {
+            macroStatus.setValue("A macro is already running");
+            return;
+        }
+        macroStatus.setValue("Running " + macro.size() + " steps, "
+                + String.format(Locale.US, "%.1f s", macro.getDurationNanos() / 1e9));
+    }
+
+    public boolean isRecordingMacro() {
+        return macroRecorder != null;
+    }
+
+    /**
+     * Record the next button presses, with their timing, as a macro
+     */
+    public void startMacroRecording() {
+        abortMacro("recording");
+        macroRecorder = new MacroRecorder();
+        macroStatus.setValue("Recording: drive with the buttons");
+    }
+
+    /**
+     * Finish recording and keep the result as the last macro, ready to run
+     */
+    public void stopMacroRecording() {
+        MacroRecorder current = macroRecorder;
+        macroRecorder = null;
+        if (current == null) {
+            return;
+        }
+        CommandMacro macro = current.finish(System.nanoTime());
+        if (macro == null) {
+            macroStatus.setValue("Nothing recorded");
+            return;
+        }
+        String source = macro.toSource();
+        ConfigRepository.getInstance(getApplication()).update(config -> config.setMacro(source));
+        macroStatus.setValue("Recorded " + macro.size() + " steps");
+    }
+
+    /**
+     * True if a macro was running; nothing more is sent by it after this returns
+     */
+    private boolean abortMacro(String reason) {
+        return macroRunner.abort(reason);
+    }
+
+    // Logs planned versus actual send times, the point of timed macros
+    private final MacroRunner.Listener macroListener = new MacroRunner.Listener() {
+        @Override
+        public void onStep(int step, String action, long lateNanos) {
+            Log.d(TAG, String.format(Locale.US, "Macro step %d %s sent %.3f ms late",
+                    step, action, lateNanos / 1e6));
+        }
+
+        @Override
+        public void onFinished(MacroRunner.Report report) {
+            Log.i(TAG, "Macro finished: " + report);
+            macroStatus.postValue("Macro done, " + report);
+        }
+
+        @Override
+        public void onAborted(MacroRunner.Report report, String reason) {
+            Log.i(TAG, "Macro aborted (" + reason + "): " + report);
+            macroStatus.postValue("Macro aborted: " + reason);
+        }
+    };
+
+    // ========================================
+    // Odometry
+    // ========================================
+
+    /**
+     * Bumped at most every PATH_REFRESH_MS while the path changes; copy it with
+     * {@link #copyPath(OdometrySnapshot)}
+     */
+    public LiveData<Long> getOdometryUpdates() {
+        return odometryUpdates;
+    }
+
+    public void copyPath(OdometrySnapshot snapshot) {
+        odometry.copyTo(snapshot);
+    }
+
+    /**
+     * Start the path over from where the car is now
+     */
+    public void resetPath() {
+        odometry.reset();
+        odometryUpdates.setValue(++odometryVersion);
+    }
+
+    /**
+     * The controlled car's calibration as "speed, turn rate"
+     */
+    public String getOdometryCalibration() {
+        return mqttManager.getProfile().getOdometryCalibration().format();
+    }
+
+    /**
+     * Parse, apply and save the controlled car's calibration. Nothing changes unless it parses.
+     *
+     * @return what to tell the user
+     */
+    public String setOdometryCalibration(String text) {
+        OdometryCalibration calibration;
+        try {
+            calibration = OdometryCalibration.parse(text);
+        } catch (IllegalArgumentException e) {
+            return "Calibration error: " + e.getMessage();
+        }
+        odometry.setCalibration(calibration);
+        String deviceId = activeDeviceId();
+        ConfigRepository.getInstance(getApplication()).update(config -> config.putProfile(
+                config.profile(deviceId).withOdometryCalibration(calibration)));
+        return "Calibration saved: " + calibration;
+    }
+
+    private void trackPath(String deviceId, TelemetrySample sample) {
+        if (deviceId.equals(activeDeviceId())) {
+            odometry.onTelemetry(sample);
+        }
+    }
+
+    /**
+     * Main thread, every PATH_REFRESH_MS until onCleared() removes it
+     */
+    private void refreshPath() {
+        if (odometry.takeChanged()) {
+            odometryUpdates.setValue(++odometryVersion);
+        }
+        mainHandler.postDelayed(pathRefresh, PATH_REFRESH_MS);
+    }
+
+    // ========================================
+    // Alerts
+    // ========================================
+
+    /**
+     * Any thread
+     */
+    private void postAlert(TelemetryAlert alert) {
+        pendingAlerts.add(alert);
+        if (alertDrainPosted.compareAndSet(false, true)) {
+            mainHandler.post(alertDrain);
+        }
+    }
+
+    /**
+     * Main thread: setValue reaches active observers right away, so none of a burst is lost
+     */
+    private void drainAlerts() {
+        alertDrainPosted.set(false);
+        TelemetryAlert alert;
+        while ((alert = pendingAlerts.poll()) != null) {
+            alerts.setValue(alert);
+        }
+    }
+
+    /**
+     * Main thread, every GAP_CHECK_MS until onCleared() removes it. Skipped while disconnected,
+     * when every car is silent because of us.
+     */
+    private void checkGaps() {
+        if (mqttManager.isConnected()) {
+            anomalyDetector.checkGaps(System.currentTimeMillis());
+        }
+        mainHandler.postDelayed(gapCheck, GAP_CHECK_MS);
+    }
+
+    // ========================================
+    // Alert rules
+    // ========================================
+
+    /**
+     * The saved rules, or examples if there are none
+     */
+    public String getAlertRules() {
+        String rules = ConfigRepository.getInstance(getApplication()).get().getAlertRules();
+        return rules.isEmpty() ? DEFAULT_RULES : rules;
+    }
+
+    /**
+     * Compile and apply rules; they are only saved if every line is valid
+     */
+    public void setAlertRules(String source) {
+        try {
+            int count = applyAlertRules(source);
+            ConfigRepository.getInstance(getApplication()).update(config -> config.setAlertRules(source));
+            ruleStatus.setValue(count == 1 ? "1 alert rule active" : count + " alert rules active");
+        } catch (IllegalArgumentException e) {
+            ruleStatus.setValue("Rule error: " + e.getMessage());
+        }
+    }
+
+    private void loadAlertRules(String source) {
+        try {
+            applyAlertRules(source);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Saved alert rules do not compile", e);
+        }
+    }
+
+    private int applyAlertRules(String source) {
+        ruleEngine.setRules(AlertRuleCompiler.compile(source));
+        return ruleEngine.getRules().size();
+    }
+
+    private final AlertRuleEngine.Listener ruleListener = new AlertRuleEngine.Listener() {
+        @Override
+        public void onRuleFired(String deviceId, AlertRule rule, double value, long nowMs) {
+            postAlert(new TelemetryAlert(deviceId, TelemetryAlert.Type.RULE,
+                    deviceId + ": " + rule.getName() + " (" + rule.getCondition() + ")", value, nowMs));
+        }
+
+        @Override
+        public void onRuleCleared(String deviceId, AlertRule rule, long nowMs) {
+            Log.d(TAG, "Rule cleared on " + deviceId + ": " + rule.getName());
+        }
+    };
+
+    // ========================================
+    // Session journal & export
+    // ========================================
+
+    /**
+     * Export the current or most recent session in the background, progress is posted to getExportStatus()
+     */
+    public void exportLastSession(TelemetryExporter.Format format) {
+        File source = lastJournalFile;
+        if (source == null) {
+            exportStatus.setValue("Nothing recorded yet");
+            return;
+        }
+        flushJournal();
+
+        File dir = getApplication().getExternalFilesDir("exports");
+        if (dir == null) {
+            dir = new File(getApplication().getFilesDir(), "exports");
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            exportStatus.setValue("Export failed: cannot create " + dir);
+            return;
+        }
+        String name = source.getName().replace(".bin", format.getExtension());
+        File output = new File(dir, name);
+
+        exportStatus.setValue("Exporting…");
+        exporter.export(source, output, format, new TelemetryExporter.Listener() {
+            @Override
+            public void onProgress(int percent) {
+                exportStatus.postValue("Exporting " + percent + "%");
+            }
+
+            @Override
+            public void onComplete(File file, long rows) {
+                exportStatus.postValue("Exported " + rows + " rows to " + file.getAbsolutePath());
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Export failed", e);
+                exportStatus.postValue("Export failed: " + e.getMessage());
+            }
+        });
+    }
+
+    public boolean isCapturing() {
+        return recorder != null;
+    }
+
+    /**
+     * Record every raw MQTT frame, in and out, into a capture file for offline analysis
+     */
+    public void setCapturing(boolean capturing) {
+        if (!capturing) {
+            stopCapture();
+            return;
+        }
+        if (recorder != null) {
+            return;
+        }
+        try {
+            recorder = SessionRecorder.createSession(new File(getApplication().getFilesDir(), "captures"),
+                    activeDeviceId());
+            mqttManager.setRecorder(recorder);
+            exportStatus.setValue("Capturing raw traffic");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot start capture", e);
+            exportStatus.setValue("Capture failed: " + e.getMessage());
+        }
+    }
+
+    private void stopCapture() {
+        SessionRecorder current = recorder;
+        if (current == null) {
+            return;
+        }
+        recorder = null;
+        mqttManager.setRecorder(null);
+        // Closing waits for the writer thread to write out the rest and the index
+        exportExecutor.execute(() -> {
+            try {
+                current.close();
+                exportStatus.postValue("Capture saved to " + current.getFile().getAbsolutePath()
+                        + (current.getDroppedCount() > 0 ? ", " + current.getDroppedCount() + " frames dropped" : ""));
+            } catch (IOException e) {
+                Log.e(TAG, "Capture close failed", e);
+                exportStatus.postValue("Capture failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private synchronized void openJournal() {
+        if (journal != null) {
+            return; // automatic reconnect keeps recording into the same session
+        }
+        try {
+            journal = TelemetryJournal.createSession(journalDir, activeDeviceId());
+            lastJournalFile = journal.getFile();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open journal in " + journalDir, e);
+        }
+    }
+
+    private synchronized void closeJournal() {
+        TelemetryJournal current = journal;
+        journal = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Journal close failed", e);
+            }
+        }
+    }
+
+    private void flushJournal() {
+        TelemetryJournal current = journal;
+        if (current != null) {
+            try {
+                current.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Journal flush failed", e);
+            }
+        }
+    }
+
+    private void recordTelemetry(String deviceId, TelemetrySample sample) {
+        TelemetryJournal current = journal;
+        if (current != null) {
+            try {
+                current.appendTelemetry(deviceId, sample);
+            } catch (IOException e) {
+                Log.e(TAG, "Journal write failed", e);
+            }
+        }
+    }
+
+    private void recordCommand(String action) {
+        TelemetryJournal current = journal;
+        if (current != null) {
+            try {
+                current.appendCommand(System.currentTimeMillis(), activeDeviceId(), action);
+            } catch (IOException e) {
+                Log.e(TAG, "Journal write failed", e);
+            }
+        }
+    }
+
+    private void update(CarStateStore.Reducer reducer) {
+        stateStore.dispatch(activeDeviceId(), reducer);
+    }
+
+    // ========================================
+    // Dashboard prediction, state writer only
+    // ========================================
+
+    private DashboardPredictor predictor(String deviceId) {
+        return predictors.computeIfAbsent(deviceId, id -> new DashboardPredictor());
+    }
+
+    /**
+     * A frame replaces the predicted action and distance with measured ones
+     */
+    private CarState withTelemetry(CarState state, TelemetryData data, BatteryForecast forecast) {
+        return predicted(state.withTelemetry(data, forecast),
+                predictor(state.getDeviceId()).onTelemetry(data), data.getTimestamp());
+    }
+
+    private CarState disconnected(CarState state) {
+        predictor(state.getDeviceId()).reset();
+        return state.disconnected();
+    }
+
+    /**
+     * Apply a prediction and keep it moving until it settles or the next frame is due
+     */
+    private CarState predicted(CarState state, DashboardPrediction prediction, long nowMs) {
+        schedulePredictionTick(state.getDeviceId(), nowMs);
+        return state.withPrediction(prediction);
+    }
+
+    private void schedulePredictionTick(String deviceId, long nowMs) {
+        if (predictionTickPending || !predictor(deviceId).isExtrapolating(nowMs)) {
+            return;
+        }
+        predictionTickPending = true;
+        mainHandler.postDelayed(() -> {
+            if (stateWriter.isShutdown()) {
+                return;
+            }
+            stateStore.dispatch(deviceId, state -> {
+                predictionTickPending = false;
+                long now = System.currentTimeMillis();
+                return predicted(state, predictor(deviceId).predict(now), now);
+            });
+        }, PREDICTION_TICK_MS);
+    }
+
+    private String activeDeviceId() {
+        String id = mqttManager.getDeviceId();
+        return id == null ? "" : id;
+    }
+
+    private String deviceIdOf(String reportedId) {
+        return reportedId == null || reportedId.isEmpty() ? activeDeviceId() : reportedId;
     }
 
     // Cleanup when ViewModel is destroyed
     @Override
     protected void onCleared() {
         super.onCleared();
-        mqttManager.disconnect();
+        // Nobody is at the controls any more, but the connection may outlive this screen
+        boolean macroWasRunning = abortMacro("screen closed");
+        driveControlLoop.stop();
+        // A macro's last command may not have reached the store yet
+        if (mqttManager.isConnected() && (macroWasRunning
+                || !CarCommand.ACTION_STOP.equals(stateStore.get(activeDeviceId()).getCommandedAction()))) {
+            mqttManager.sendCommand(CarCommand.ACTION_STOP);
+        }
+        mqttManager.setDriving(false);
+        registration.detach();
+        stopCapture();
+        livenessTracker.stop();
+        batteryForecaster.persistAll();
+        closeJournal();
+        mainHandler.removeCallbacksAndMessages(null);
+        stateWriter.shutdown();
+        exportExecutor.shutdown();
     }
 }
@@ -0,0 +1,107 @@
+package com.jdev.mqtt_car.ui.main;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.jdev.mqtt_car.data.odometry.OdometrySnapshot;
+
+/**
+ * Lightweight view of the dead-reckoned path.
+ * Scales the whole path to fit, start at the first point and +y up, and marks the car
+ * with a dot and a heading tick. The snapshot and the line buffer are reused, so a redraw
+ * on every telemetry frame allocates nothing.
+ */
+public class PathView extends View {
+
+    // A short path is not blown up beyond this many cm across
+    private static final float MIN_SPAN_CM = 100;
+
+    private final Paint pathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint carPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final OdometrySnapshot snapshot = new OdometrySnapshot();
+    private float[] lines = new float[0];
+    private float padding;
+
+    public PathView(Context context) {
+        super(context);
+        init();
+    }
+
+    public PathView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        pathPaint.setStyle(Paint.Style.STROKE);
+        pathPaint.setStrokeWidth(3f);
+        pathPaint.setColor(Color.parseColor("#00fff7"));
+
+        carPaint.setStyle(Paint.Style.FILL);
+        carPaint.setStrokeWidth(4f);
+        carPaint.setColor(Color.parseColor("#c51ada"));
+    }
+
+    /**
+     * Fill this with OdometryEngine#copyTo, then invalidate()
+     */
+    public OdometrySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        padding = Math.min(w, h) * 0.1f;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int count = snapshot.getCount();
+        if (count == 0) {
+            return;
+        }
+
+        float minX = snapshot.getPoseX(), maxX = minX;
+        float minY = snapshot.getPoseY(), maxY = minY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, snapshot.getX(i));
+            maxX = Math.max(maxX, snapshot.getX(i));
+            minY = Math.min(minY, snapshot.getY(i));
+            maxY = Math.max(maxY, snapshot.getY(i));
+        }
+        float width = getWidth() - 2 * padding;
+        float height = getHeight() - 2 * padding;
+        float scale = Math.min(width / Math.max(maxX - minX, MIN_SPAN_CM),
+                height / Math.max(maxY - minY, MIN_SPAN_CM));
+        // Centre the path; screen y grows downwards
+        float originX = padding + (width - (maxX - minX) * scale) / 2 - minX * scale;
+        float originY = padding + (height + (maxY - minY) * scale) / 2 + minY * scale;
+
+        if (lines.length < 4 * count) {
+            lines = new float[4 * (count + 64)];
+        }
+        int n = 0;
+        for (int i = 1; i < count; i++) {
+            lines[n++] = originX + snapshot.getX(i - 1) * scale;
+            lines[n++] = originY - snapshot.getY(i - 1) * scale;
+            lines[n++] = originX + snapshot.getX(i) * scale;
+            lines[n++] = originY - snapshot.getY(i) * scale;
+        }
+        canvas.drawLines(lines, 0, n, pathPaint);
+
+        float carX = originX + snapshot.getPoseX() * scale;
+        float carY = originY - snapshot.getPoseY() * scale;
+        float tick = padding * 0.8f;
+        canvas.drawCircle(carX, carY, padding * 0.3f, carPaint);
+        canvas.drawLine(carX, carY,
+                carX + tick * (float) Math.sin(snapshot.getHeading()),
+                carY - tick * (float) Math.cos(snapshot.getHeading()), carPaint);
+    }
+}
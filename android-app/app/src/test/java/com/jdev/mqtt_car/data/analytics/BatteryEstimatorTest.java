@@ -0,0 +1,203 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.BatteryForecast;
+import com.jdev.mqtt_car.model.TelemetryData;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fits against synthetic discharge curves with known drain rates, reported as integer
+ * percent like the firmware does, and the state surviving a restart.
+ */
+public class BatteryEstimatorTest {
+
+    private static final String DEVICE = "car-001";
+    private static final long CADENCE_MS = 500;
+    private static final long START_MS = 1_700_000_000_000L;
+
+    // Percent per hour
+    private static final double DRIVE_RATE = 60;
+    private static final double IDLE_RATE = 12;
+
+    private final BatteryEstimator estimator = new BatteryEstimator(DEVICE);
+    private final Car car = new Car(100);
+
+    @Test
+    public void learnsDriveAndIdleRatesFromMixedUse() {
+        // Two minutes driving, two idle, for 40 minutes
+        for (int minute = 0; minute < 40; minute += 4) {
+            car.run(estimator, true, 2 * 60_000);
+            car.run(estimator, false, 2 * 60_000);
+        }
+
+        BatteryForecast forecast = estimator.forecast(BatteryEstimator.DEFAULT_THRESHOLD);
+        assertTrue(forecast.isKnown());
+        assertEquals(DRIVE_RATE, forecast.getDrivingDrainPerHour(), DRIVE_RATE * 0.15);
+        assertEquals(IDLE_RATE, forecast.getIdleDrainPerHour(), IDLE_RATE * 0.3);
+        assertEquals(0.5, forecast.getDrivingShare(), 0.15);
+
+        // Runtime at the true rates for the same mix of driving and standing
+        double share = forecast.getDrivingShare();
+        double rate = share * DRIVE_RATE + (1 - share) * IDLE_RATE;
+        assertEquals(car.reported() / rate * 60, forecast.getRuntimeMinutes(), car.reported() / rate * 60 * 0.15);
+        assertEquals((car.reported() - BatteryEstimator.DEFAULT_THRESHOLD) / rate * 60,
+                forecast.getMinutesToThreshold(), car.reported() / rate * 60 * 0.15);
+    }
+
+    @Test
+    public void unobservedRegimeBorrowsTheOtherRate() {
+        car.run(estimator, true, 20 * 60_000);
+
+        BatteryForecast forecast = estimator.forecast(BatteryEstimator.DEFAULT_THRESHOLD);
+        assertEquals(DRIVE_RATE, forecast.getDrivingDrainPerHour(), DRIVE_RATE * 0.15);
+        assertEquals(forecast.getDrivingDrainPerHour(), forecast.getIdleDrainPerHour(), 0);
+        assertEquals(car.reported() / DRIVE_RATE * 60, forecast.getRuntimeMinutes(),
+                car.reported() / DRIVE_RATE * 60 * 0.15);
+    }
+
+    @Test
+    public void singleSampleHasNoForecast() {
+        estimator.addSample(START_MS, 80, true);
+
+        BatteryForecast forecast = estimator.forecast(BatteryEstimator.DEFAULT_THRESHOLD);
+        assertFalse(forecast.isKnown());
+        assertEquals(BatteryForecast.UNKNOWN, forecast.getMinutesToThreshold());
+    }
+
+    @Test
+    public void flatCurveHasNoRuntime() {
+        for (long t = 0; t < 30 * 60_000; t += CADENCE_MS) {
+            estimator.addSample(START_MS + t, 77, t / 120_000 % 2 == 0);
+        }
+
+        BatteryForecast forecast = estimator.forecast(BatteryEstimator.DEFAULT_THRESHOLD);
+        assertEquals(77, forecast.getBattery());
+        assertEquals(0, forecast.getDrivingDrainPerHour(), 0.01);
+        assertEquals(0, forecast.getIdleDrainPerHour(), 0.01);
+        assertEquals(BatteryForecast.UNKNOWN, forecast.getRuntimeMinutes());
+    }
+
+    @Test
+    public void slowChargingIsNotNegativeDrain() {
+        // One percent at a time, too slow to count as a recharge jump
+        for (long t = 0; t < 20 * 60_000; t += CADENCE_MS) {
+            estimator.addSample(START_MS + t, 40 + (int) (t / 30_000), false);
+        }
+
+        BatteryForecast forecast = estimator.forecast(BatteryEstimator.DEFAULT_THRESHOLD);
+        assertTrue(forecast.getIdleDrainPerHour() >= 0);
+        assertEquals(BatteryForecast.UNKNOWN, forecast.getRuntimeMinutes());
+    }
+
+    @Test
+    public void rechargeJumpKeepsTheLearnedRates() {
+        car.run(estimator, true, 20 * 60_000);
+        float before = estimator.forecast(BatteryEstimator.DEFAULT_THRESHOLD).getDrivingDrainPerHour();
+
+        car.charge(100);
+        car.run(estimator, true, 30_000);
+
+        BatteryForecast forecast = estimator.forecast(BatteryEstimator.DEFAULT_THRESHOLD);
+        assertEquals(100, forecast.getBattery(), 1);
+        assertEquals(before, forecast.getDrivingDrainPerHour(), before * 0.2);
+        assertTrue(forecast.isKnown());
+    }
+
+    @Test
+    public void stateRoundTripsThroughTheForecasterStore() {
+        Map<String, String> saved = new HashMap<>();
+        BatteryForecaster.StateStore store = new BatteryForecaster.StateStore() {
+            @Override
+            public String load(String deviceId) {
+                return saved.get(deviceId);
+            }
+
+            @Override
+            public void save(String deviceId, String state) {
+                saved.put(deviceId, state);
+            }
+        };
+        BatteryForecaster before = new BatteryForecaster(store, BatteryEstimator.DEFAULT_THRESHOLD);
+        BatteryEstimator original = null;
+        for (int minute = 0; minute < 20; minute += 4) {
+            original = car.feed(before, true, 2 * 60_000);
+            car.feed(before, false, 2 * 60_000);
+        }
+        before.persistAll();
+
+        // App restarted: the first sample of the new session restores the saved fit
+        BatteryForecaster after = new BatteryForecaster(store, BatteryEstimator.DEFAULT_THRESHOLD);
+        BatteryEstimator restored = car.feed(after, false, CADENCE_MS);
+        original.addSample(car.timeMs, car.reported(), false);
+
+        BatteryForecast expected = original.forecast(BatteryEstimator.DEFAULT_THRESHOLD);
+        BatteryForecast actual = after.refresh(DEVICE);
+        assertNotSame(original, restored);
+        assertEquals(expected.getDrivingDrainPerHour(), actual.getDrivingDrainPerHour(), 1e-3);
+        assertEquals(expected.getIdleDrainPerHour(), actual.getIdleDrainPerHour(), 1e-3);
+        assertEquals(expected.getDrivingShare(), actual.getDrivingShare(), 1e-5);
+        assertEquals(expected.getRuntimeMinutes(), actual.getRuntimeMinutes());
+    }
+
+    @Test
+    public void unreadableStateStartsFresh() {
+        assertFalse(BatteryEstimator.restore(DEVICE, null).forecast(20).isKnown());
+        assertFalse(BatteryEstimator.restore(DEVICE, "garbage").forecast(20).isKnown());
+        String state = estimatorAfterDriving().saveState();
+        assertFalse(BatteryEstimator.restore(DEVICE, state.replaceFirst("^v2;", "v1;")).forecast(20).isKnown());
+        assertFalse(BatteryEstimator.restore(DEVICE, state.replaceFirst(";[^;]*$", ";x")).forecast(20).isKnown());
+        assertTrue(BatteryEstimator.restore(DEVICE, state).forecast(20).isKnown());
+    }
+
+    private BatteryEstimator estimatorAfterDriving() {
+        car.run(estimator, true, 10 * 60_000);
+        return estimator;
+    }
+
+    /**
+     * Drains at the true rates and reports whole percent, rounded down like the firmware
+     */
+    private static class Car {
+        double level;
+        long timeMs = START_MS;
+
+        Car(double level) {
+            this.level = level;
+        }
+
+        int reported() {
+            return (int) level;
+        }
+
+        void charge(double to) {
+            level = to;
+        }
+
+        void run(BatteryEstimator estimator, boolean driving, long durationMs) {
+            for (long t = 0; t < durationMs; t += CADENCE_MS) {
+                step(driving);
+                estimator.addSample(timeMs, reported(), driving);
+            }
+        }
+
+        BatteryEstimator feed(BatteryForecaster forecaster, boolean driving, long durationMs) {
+            BatteryEstimator estimator = null;
+            for (long t = 0; t < durationMs; t += CADENCE_MS) {
+                step(driving);
+                estimator = forecaster.addSample(DEVICE, new TelemetryData(DEVICE, reported(), 120, 25,
+                        driving ? "forward" : "stop", -60, 200_000, timeMs));
+            }
+            return estimator;
+        }
+
+        private void step(boolean driving) {
+            timeMs += CADENCE_MS;
+            level -= (driving ? DRIVE_RATE : IDLE_RATE) * CADENCE_MS / 3_600_000.0;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.DeviceLiveness;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LivenessTrackerTest {
+
+    private final Map<String, DeviceLiveness> states = new HashMap<>();
+    private final Map<String, Long> staleAt = new HashMap<>();
+    private long now = 1_000_000;
+
+    private final LivenessTracker tracker = new LivenessTracker((deviceId, liveness) -> {
+        states.put(deviceId, liveness);
+        if (liveness == DeviceLiveness.STALE) {
+            staleAt.put(deviceId, now);
+        }
+    });
+
+    private LivenessTracker running;
+
+    @After
+    public void tearDown() {
+        tracker.stop();
+        if (running != null) {
+            running.stop();
+        }
+    }
+
+    @Test
+    public void staleDetectedAboutOneSecondAfterLastFrame() {
+        // 20 frames at the default 500ms cadence, ticking the wheel every 100ms
+        for (int i = 0; i < 20; i++) {
+            tracker.onTelemetry("car-001", now);
+            advance(500);
+        }
+        long lastFrame = now - 500;
+        assertEquals(DeviceLiveness.LIVE, states.get("car-001"));
+
+        advance(3_000);
+
+        assertEquals(DeviceLiveness.STALE, states.get("car-001"));
+        long detection = staleAt.get("car-001") - lastFrame;
+        assertTrue("stale after " + detection + " ms", detection >= 1_000 && detection <= 1_300);
+
+        tracker.onTelemetry("car-001", now);
+        assertEquals(DeviceLiveness.LIVE, states.get("car-001"));
+    }
+
+    @Test
+    public void oneWheelServesManyDevices() {
+        for (int round = 0; round < 10; round++) {
+            for (int car = 0; car < 1_000; car++) {
+                tracker.onTelemetry("car-" + car, now);
+            }
+            advance(500);
+        }
+        // Half the fleet goes quiet
+        for (int round = 0; round < 6; round++) {
+            for (int car = 0; car < 500; car++) {
+                tracker.onTelemetry("car-" + car, now);
+            }
+            advance(500);
+        }
+        for (int car = 0; car < 1_000; car++) {
+            DeviceLiveness expected = car < 500 ? DeviceLiveness.LIVE : DeviceLiveness.STALE;
+            assertEquals("car-" + car, expected, tracker.getLiveness("car-" + car));
+        }
+    }
+
+    @Test
+    public void jitteryTicksVisitEverySlot() {
+        for (int i = 0; i < 10; i++) {
+            tracker.onTelemetry("car-001", now);
+            advance(500);
+        }
+        long lastFrame = now - 500;
+        // The executor fires a millisecond early or late, off the 100ms grid
+        long[] steps = {99, 101};
+        for (int i = 0; i < 30; i++) {
+            now += steps[i % steps.length];
+            tracker.tick(now);
+        }
+        assertEquals(DeviceLiveness.STALE, states.get("car-001"));
+        long detection = staleAt.get("car-001") - lastFrame;
+        assertTrue("stale after " + detection + " ms", detection >= 1_000 && detection <= 1_300);
+    }
+
+    @Test
+    public void restartAfterDisconnectDetectsStalenessAgain() throws Exception {
+        // Real ticker: the same stop/start cycle a profile switch or broker failover goes through
+        CountDownLatch stale = new CountDownLatch(1);
+        running = new LivenessTracker((deviceId, liveness) -> {
+            if (liveness == DeviceLiveness.STALE) {
+                stale.countDown();
+            }
+        });
+        running.start();
+        running.onTelemetry("car-001", System.currentTimeMillis());
+        running.stop();
+        assertEquals(DeviceLiveness.UNKNOWN, running.getLiveness("car-001"));
+
+        running.start();
+        running.resetCadences();
+        running.onTelemetry("car-001", System.currentTimeMillis());
+        assertEquals(DeviceLiveness.LIVE, running.getLiveness("car-001"));
+        assertTrue("no staleness after reconnect", stale.await(3, TimeUnit.SECONDS));
+        assertEquals(DeviceLiveness.STALE, running.getLiveness("car-001"));
+    }
+
+    @Test
+    public void resetCadencesFallsBackToTheNominalInterval() {
+        // Learn a 200ms cadence
+        for (int i = 0; i < 20; i++) {
+            tracker.onTelemetry("car-001", now);
+            advance(200);
+        }
+        assertTrue(tracker.getExpectedIntervalMs("car-001") < 300);
+
+        tracker.resetCadences();
+        assertEquals(Math.round(LivenessTracker.DEFAULT_INTERVAL_MS * (1 + LivenessTracker.MIN_SLACK)),
+                tracker.getExpectedIntervalMs("car-001"));
+    }
+
+    private void advance(long ms) {
+        for (long t = 0; t < ms; t += LivenessTracker.TICK_MS) {
+            now += LivenessTracker.TICK_MS;
+            tracker.tick(now);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.BatteryForecast;
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.DeviceLiveness;
+import com.jdev.mqtt_car.model.TelemetryAlert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MonitoringAlertPolicyTest {
+
+    private final List<TelemetryAlert> alerts = new ArrayList<>();
+    private final List<TelemetryAlert.Type> cleared = new ArrayList<>();
+    private final MonitoringAlertPolicy policy = new MonitoringAlertPolicy(20, new MonitoringAlertPolicy.Listener() {
+        @Override
+        public void onAlert(TelemetryAlert alert) {
+            alerts.add(alert);
+        }
+
+        @Override
+        public void onAlertCleared(String deviceId, TelemetryAlert.Type type) {
+            cleared.add(type);
+        }
+    });
+
+    @Test
+    public void lowBatteryNotifiesOncePerEpisode() {
+        // Hours of frames draining from 30% to 15%: one notification
+        for (int battery = 30; battery >= 15; battery--) {
+            for (int frame = 0; frame < 100; frame++) {
+                policy.onBattery("car-001", battery, null, 0);
+            }
+        }
+        assertEquals(1, alerts.size());
+        assertEquals(TelemetryAlert.Type.BATTERY_LOW, alerts.get(0).getType());
+
+        // Noise around the threshold does not re-arm it, charging past the margin does
+        policy.onBattery("car-001", 22, null, 0);
+        policy.onBattery("car-001", 19, null, 0);
+        assertEquals(1, alerts.size());
+        policy.onBattery("car-001", 60, null, 0);
+        assertEquals(1, cleared.size());
+        policy.onBattery("car-001", 20, null, 0);
+        assertEquals(2, alerts.size());
+    }
+
+    @Test
+    public void forecastWarnsBeforeTheThreshold() {
+        BatteryForecast soon = new BatteryForecast("car-001", 24, 40, 5, 1, 36, 6, 20);
+        policy.onBattery("car-001", 24, soon, 0);
+        assertEquals(1, alerts.size());
+        assertTrue(alerts.get(0).getMessage().contains("6 min"));
+
+        policy.onBattery("car-001", 80, BatteryForecast.unknown("car-001"), 0);
+        policy.onBattery("car-001", 0, null, 0);   // field missing from the payload
+        assertEquals(1, alerts.size());
+    }
+
+    @Test
+    public void offlineFromLastWillOrStaleTelemetry() {
+        policy.onLiveness("car-001", DeviceLiveness.DEGRADED, 0);
+        assertTrue(alerts.isEmpty());
+
+        policy.onLiveness("car-001", DeviceLiveness.STALE, 0);
+        policy.onReportedStatus("car-001", new CarStatus("car-001", CarStatus.STATUS_OFFLINE, ""), 0);
+        assertEquals(1, alerts.size());
+        assertTrue(policy.isActive("car-001", TelemetryAlert.Type.DEVICE_OFFLINE));
+
+        policy.onLiveness("car-001", DeviceLiveness.LIVE, 0);
+        assertEquals(List.of(TelemetryAlert.Type.DEVICE_OFFLINE), cleared);
+
+        // Other cars are tracked separately
+        policy.onReportedStatus("car-002", new CarStatus("car-002", CarStatus.STATUS_OFFLINE, ""), 0);
+        assertEquals(2, alerts.size());
+        assertEquals("car-002", alerts.get(1).getDeviceId());
+    }
+}
@@ -0,0 +1,220 @@
+package com.jdev.mqtt_car.data.analytics;
+
+import com.jdev.mqtt_car.model.TelemetryAlert;
+import com.jdev.mqtt_car.model.TelemetryData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks the anomaly detectors against synthetic telemetry traces:
+ * detection latency for injected faults and false positives on a clean trace.
+ */
+public class TelemetryAnomalyDetectorTest {
+
+    private static final String DEVICE = "car-001";
+    private static final long CADENCE_MS = 500;
+
+    @Test
+    public void cleanTraceHasNoFalsePositives() {
+        List<TelemetryAlert> alerts = new ArrayList<>();
+        TelemetryAnomalyDetector detector = new TelemetryAnomalyDetector(alerts::add);
+        Trace trace = new Trace(new Random(7));
+
+        long hours = 4;
+        long samples = hours * 3600 * 1000 / CADENCE_MS;
+        for (long i = 0; i < samples; i++) {
+            detector.onTelemetry(DEVICE, trace.next());
+        }
+
+        assertTrue(alerts.size() + " false positives in " + hours + " h " + alerts,
+                alerts.size() / (double) hours <= 0.25);
+    }
+
+    @Test
+    public void heapLeakDetectedWithinTwoMinutes() {
+        long latency = detectionLatency(TelemetryAlert.Type.HEAP_LEAK_TREND, trace -> trace.heapLeakBytesPerSec = 60);
+        assertTrue("detected after " + latency + " ms", latency >= 0 && latency <= 120_000);
+    }
+
+    @Test
+    public void rssiCollapseDetectedWithinTwoSeconds() {
+        long latency = detectionLatency(TelemetryAlert.Type.RSSI_COLLAPSE, trace -> trace.rssiOffset = -25);
+        assertTrue("detected after " + latency + " ms", latency >= 0 && latency <= 2_000);
+    }
+
+    @Test
+    public void temperatureSpikeDetectedOnFirstSample() {
+        long latency = detectionLatency(TelemetryAlert.Type.TEMPERATURE_SPIKE, trace -> trace.temperatureOffset = 10);
+        assertTrue("detected after " + latency + " ms", latency >= 0 && latency <= CADENCE_MS);
+    }
+
+    @Test
+    public void telemetryGapDetectedOnNextFrame() {
+        long latency = detectionLatency(TelemetryAlert.Type.TELEMETRY_GAP, trace -> trace.pendingGapMs = 5_000);
+        assertTrue("detected " + latency + " ms after the gap started",
+                latency >= 0 && latency <= 5_000 + CADENCE_MS);
+    }
+
+    @Test
+    public void telemetryGapDetectedByTimerWhileSilent() {
+        List<TelemetryAlert> alerts = new ArrayList<>();
+        TelemetryAnomalyDetector detector = new TelemetryAnomalyDetector(alerts::add);
+        Trace trace = new Trace(new Random(11));
+        for (int i = 0; i < 10 * 60 * 2; i++) {
+            detector.onTelemetry(DEVICE, trace.next());
+        }
+
+        // The car goes silent; a 250 ms timer notices without waiting for a frame
+        long silentSince = trace.time;
+        long now = silentSince;
+        while (alerts.isEmpty() && now < silentSince + 10_000) {
+            now += 250;
+            detector.checkGaps(now);
+        }
+        assertEquals(1, alerts.size());
+        assertEquals(TelemetryAlert.Type.TELEMETRY_GAP, alerts.get(0).getType());
+        assertTrue("after " + (now - silentSince) + " ms",
+                now - silentSince <= TelemetryAnomalyDetector.GAP_MIN_MS + 250);
+
+        // Still silent: reported once
+        detector.checkGaps(now + 5_000);
+        assertEquals(1, alerts.size());
+
+        // The frame ending the gap does not report it again, the next gap is a new episode
+        trace.pendingGapMs = now + 5_000 - trace.time;
+        detector.onTelemetry(DEVICE, trace.next());
+        assertEquals(1, alerts.size());
+        for (int i = 0; i < 10 * 60 * 2; i++) {
+            detector.onTelemetry(DEVICE, trace.next());
+        }
+        detector.checkGaps(trace.time + 2_000);
+        assertEquals(2, alerts.size());
+    }
+
+    @Test
+    public void slowerTelemetryRateIsNotAGap() {
+        List<TelemetryAlert> alerts = new ArrayList<>();
+        TelemetryAnomalyDetector detector = new TelemetryAnomalyDetector(alerts::add);
+        Trace trace = new Trace(new Random(5));
+        for (int i = 0; i < 10 * 60 * 2; i++) {
+            detector.onTelemetry(DEVICE, trace.next());
+        }
+
+        // The app goes to the background and the car is asked for a frame every 5 s
+        detector.resetCadence(DEVICE, 5_000);
+        trace.cadenceMs = 5_000;
+        for (int i = 0; i < 30 * 60 / 5; i++) {
+            long last = trace.time;
+            TelemetryData frame = trace.next();
+            for (long now = last + 250; now < frame.getTimestamp(); now += 250) {
+                detector.checkGaps(now);
+            }
+            detector.onTelemetry(DEVICE, frame);
+        }
+        assertTrue("alerts at the slower rate " + alerts, alerts.isEmpty());
+
+        // A real gap at the new rate is still caught
+        detector.checkGaps(trace.time + 20_000);
+        assertEquals(1, alerts.size());
+        assertEquals(TelemetryAlert.Type.TELEMETRY_GAP, alerts.get(0).getType());
+    }
+
+    @Test
+    public void perSampleCostStaysSmall() {
+        TelemetryAnomalyDetector detector = new TelemetryAnomalyDetector(alert -> { });
+        Trace trace = new Trace(new Random(3));
+        TelemetryData[] samples = new TelemetryData[10_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = trace.next();
+        }
+        for (int round = 0; round < 20; round++) {
+            for (TelemetryData sample : samples) {
+                detector.onTelemetry(DEVICE, sample);
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < 20; round++) {
+            for (TelemetryData sample : samples) {
+                detector.onTelemetry(DEVICE, sample);
+            }
+        }
+        double nsPerSample = (System.nanoTime() - start) / (20.0 * samples.length);
+        assertTrue(Math.round(nsPerSample) + " ns/sample", nsPerSample < 20_000);
+    }
+
+    // ========================================
+    // Synthetic traces
+    // ========================================
+
+    private interface Fault {
+        void inject(Trace trace);
+    }
+
+    /**
+     * Runs 10 minutes of clean telemetry, injects the fault and returns how long
+     * (in trace time) until the expected alert type fired, or -1 if it never did.
+     */
+    private long detectionLatency(TelemetryAlert.Type type, Fault fault) {
+        List<TelemetryAlert> alerts = new ArrayList<>();
+        TelemetryAnomalyDetector detector = new TelemetryAnomalyDetector(alerts::add);
+        Trace trace = new Trace(new Random(11));
+
+        for (int i = 0; i < 10 * 60 * 2; i++) {
+            detector.onTelemetry(DEVICE, trace.next());
+        }
+        assertTrue("no alerts before the fault " + alerts, alerts.isEmpty());
+
+        long injectedAt = trace.time;
+        fault.inject(trace);
+        for (int i = 0; i < 10 * 60 * 2; i++) {
+            detector.onTelemetry(DEVICE, trace.next());
+            for (TelemetryAlert alert : alerts) {
+                if (alert.getType() == type) {
+                    return alert.getTimestamp() - injectedAt;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Noisy but healthy car: jittered cadence, fluctuating heap, noisy RSSI, steady temperature.
+     */
+    private static class Trace {
+        final Random random;
+        long time = 1_700_000_000_000L;
+        double heap = 210_000;
+        double heapLeakBytesPerSec = 0;
+        int rssiOffset = 0;
+        int temperatureOffset = 0;
+        long pendingGapMs = 0;
+        long cadenceMs = CADENCE_MS;
+
+        Trace(Random random) {
+            this.random = random;
+        }
+
+        TelemetryData next() {
+            long step = cadenceMs + Math.round(random.nextGaussian() * 25);
+            if (pendingGapMs > 0) {
+                step = pendingGapMs;
+                pendingGapMs = 0;
+            }
+            time += step;
+            heap -= heapLeakBytesPerSec * step / 1000.0;
+
+            // Heap noise plus occasional temporary allocations
+            int freeHeap = (int) (heap + random.nextGaussian() * 400 - (random.nextInt(50) == 0 ? 8_000 : 0));
+            int rssi = (int) Math.round(-58 + random.nextGaussian() * 2) + rssiOffset;
+            int temperature = (int) Math.round(25 + random.nextGaussian() * 0.4) + temperatureOffset;
+
+            return new TelemetryData(DEVICE, 90, 120, temperature, "stop", rssi, freeHeap, time);
+        }
+    }
+}
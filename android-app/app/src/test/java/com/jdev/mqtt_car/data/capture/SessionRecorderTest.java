@@ -0,0 +1,207 @@
+package com.jdev.mqtt_car.data.capture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SessionRecorderTest {
+
+    private static final String TELEMETRY = "iot-car/car-001/telemetry";
+    private static final String COMMAND = "iot-car/car-001/command";
+    private static final long MS = 1_000_000L;
+
+    private final AtomicLong nowNanos = new AtomicLong();
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = java.nio.file.Files.createTempDirectory("capture-test").toFile();
+    }
+
+    @After
+    public void cleanUp() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    public void roundTripSeekAndFilter() throws Exception {
+        File file = new File(dir, "session.mqcap");
+        SessionRecorder recorder = SessionRecorder.create(file, nowNanos::get);
+        // 10 s of telemetry at 20 Hz, a command every second and its delivery 30 ms later
+        for (int i = 0; i < 200; i++) {
+            nowNanos.set(i * 50 * MS);
+            recorder.inbound(TELEMETRY, 0, ("{\"seq\":" + i + "}").getBytes());
+            if (i % 20 == 0) {
+                recorder.outbound(COMMAND, 1, 1, i + 1, "forward".getBytes());
+                nowNanos.addAndGet(30 * MS);
+                recorder.delivered(i + 1);
+            }
+        }
+        recorder.close();
+        assertEquals(0, recorder.getDroppedCount());
+
+        try (CaptureReader reader = CaptureReader.open(file)) {
+            assertTrue(reader.hasIndex());
+            assertEquals(10, reader.getIndexSize());
+            assertEquals(220, reader.read(0, Long.MAX_VALUE, null).size());
+
+            List<CaptureReader.Frame> window = reader.read(4_000 * MS, 4_999 * MS, CaptureReader.Frame::isInbound);
+            assertEquals(20, window.size());
+            assertEquals("{\"seq\":80}", new String(window.get(0).getPayload()));
+            assertEquals(TELEMETRY, window.get(0).getTopic());
+            assertEquals(4_000 * MS, window.get(0).getTimeNanos());
+
+            List<CaptureReader.Frame> commands = reader.read(0, Long.MAX_VALUE, CaptureReader.Frame::isOutbound);
+            assertEquals(10, commands.size());
+            assertEquals(COMMAND, commands.get(3).getTopic());
+            assertEquals(1, commands.get(3).getQos());
+            assertEquals(1, commands.get(3).getLane());
+            assertEquals(61, commands.get(3).getMessageId());
+
+            List<CaptureReader.Frame> deliveries = reader.read(3_000 * MS, 3_999 * MS, CaptureReader.Frame::isDelivery);
+            assertEquals(1, deliveries.size());
+            assertEquals(61, deliveries.get(0).getMessageId());
+            assertEquals(3_030 * MS, deliveries.get(0).getTimeNanos());
+        }
+    }
+
+    @Test
+    public void concurrentProducersAreAllRecordedInTimeOrder() throws Exception {
+        File file = new File(dir, "concurrent.mqcap");
+        SessionRecorder recorder = SessionRecorder.create(file);
+        int threads = 4;
+        int perThread = 5000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            String topic = "iot-car/car-00" + t + "/telemetry";
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    recorder.inbound(topic, 0, Integer.toString(i).getBytes());
+                    if (i % 256 == 0) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        recorder.close();
+
+        try (CaptureReader reader = CaptureReader.open(file)) {
+            List<CaptureReader.Frame> frames = reader.read(0, Long.MAX_VALUE, null);
+            // The ring may overflow on a slow disk; what was accepted must all be there
+            assertEquals(threads * perThread, frames.size() + recorder.getDroppedCount());
+            long previous = 0;
+            int[] nextPerTopic = new int[threads];
+            for (CaptureReader.Frame frame : frames) {
+                assertTrue(frame.getTimeNanos() >= previous);
+                previous = frame.getTimeNanos();
+                int t = frame.getTopic().charAt("iot-car/car-00".length()) - '0';
+                int i = Integer.parseInt(new String(frame.getPayload()));
+                // Each producer's own frames keep their order
+                assertTrue(i >= nextPerTopic[t]);
+                nextPerTopic[t] = i + 1;
+            }
+        }
+    }
+
+    @Test
+    public void offerRacingCloseIsWrittenNotLost() throws Exception {
+        File file = new File(dir, "race.mqcap");
+        CountDownLatch inOffer = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        // The clock is read after the closed check: hold the producer right there
+        SessionRecorder recorder = SessionRecorder.create(file, () -> {
+            if (Thread.currentThread().getName().equals("producer")) {
+                inOffer.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return nowNanos.get();
+        });
+        Thread producer = new Thread(() -> recorder.inbound(TELEMETRY, 0, "late".getBytes()), "producer");
+        producer.start();
+        assertTrue(inOffer.await(2, TimeUnit.SECONDS));
+
+        Thread closer = new Thread(() -> {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        closer.start();
+        closer.join(100);
+        assertTrue("close() finished while an offer was in flight", closer.isAlive());
+
+        resume.countDown();
+        producer.join(2_000);
+        closer.join(2_000);
+        assertFalse(closer.isAlive());
+
+        try (CaptureReader reader = CaptureReader.open(file)) {
+            assertTrue(reader.hasIndex());
+            List<CaptureReader.Frame> frames = reader.read(0, Long.MAX_VALUE, null);
+            assertEquals(1, frames.size());
+            assertEquals("late", new String(frames.get(0).getPayload()));
+        }
+        assertEquals(0, recorder.getDroppedCount());
+    }
+
+    @Test
+    public void unclosedCaptureIsScanned() throws Exception {
+        File file = new File(dir, "killed.mqcap");
+        SessionRecorder recorder = SessionRecorder.create(file, nowNanos::get);
+        for (int i = 0; i < 50; i++) {
+            nowNanos.set(i * 100 * MS);
+            recorder.inbound(TELEMETRY, 0, ("{\"seq\":" + i + "}").getBytes());
+        }
+        recorder.close();
+        long frameEnd;
+        try (CaptureReader reader = CaptureReader.open(file)) {
+            assertTrue(reader.hasIndex());
+            frameEnd = indexOffset(file);
+        }
+
+        // Drop the trailer and cut the last frame in half, as if the app was killed mid write
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(frameEnd - 5);
+        }
+        try (CaptureReader reader = CaptureReader.open(file)) {
+            assertFalse(reader.hasIndex());
+            assertEquals(5, reader.getIndexSize());
+            List<CaptureReader.Frame> frames = reader.read(0, Long.MAX_VALUE, null);
+            assertEquals(49, frames.size());
+            assertEquals("{\"seq\":48}", new String(frames.get(48).getPayload()));
+            assertEquals(10, reader.read(3_000 * MS, 3_999 * MS, null).size());
+        }
+    }
+
+    private static long indexOffset(File file) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - CaptureFormat.FOOTER_SIZE);
+            return raf.readLong();
+        }
+    }
+}
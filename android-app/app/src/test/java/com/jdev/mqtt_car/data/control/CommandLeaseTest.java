@@ -0,0 +1,240 @@
+package com.jdev.mqtt_car.data.control;
+
+import com.jdev.mqtt_car.model.LeaseHealth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stop-latency harness for the lease protocol.
+ * Runs the app-side CommandLease against a simulated car (same rules as the
+ * firmware's handleCommand/handleRenew/updateMotorLEDs) over a lossy link,
+ * in virtual time, and measures how long the car keeps driving after release.
+ */
+public class CommandLeaseTest {
+
+    private static final long STEP_MS = 10;
+    private static final int TRIALS = 500;
+
+    @Test
+    public void stopLatencyIsBoundedByLeaseUnderLoss() {
+        for (double loss : new double[]{0.1, 0.2, 0.3}) {
+            Result result = runTrials(loss, new Random(42));
+
+            // Most stops get through and act within the link latency
+            assertTrue("median stop latency at loss " + loss,
+                    result.percentile(50) <= SimLink.MAX_LATENCY_MS + STEP_MS);
+            // A lost stop is covered by lease expiry: never worse than one lease period
+            // plus the link latency and the firmware loop granularity.
+            assertTrue("max stop latency at loss " + loss,
+                    result.max() <= CommandLease.LEASE_MS + SimLink.MAX_LATENCY_MS + STEP_MS);
+            // Without a lease a lost stop meant the firmware's 10 s COMMAND_DURATION
+            assertTrue(result.lostStops > 0);
+            // Renewals keep a held command going: lost ones rarely let the car stop early
+            assertTrue("hold stutters at loss " + loss, result.stutters <= TRIALS / 50);
+        }
+    }
+
+    @Test
+    public void healthReportsLostWhenAcksStop() {
+        List<LeaseHealth> reported = new ArrayList<>();
+        CommandLease lease = new CommandLease((id, seq) -> { }, reported::add);
+
+        lease.acquire("cmd-1", 0);
+        for (long t = 0; t <= CommandLease.LEASE_MS + 2 * CommandLease.RENEW_INTERVAL_MS; t += 50) {
+            lease.onTick(t);
+        }
+
+        assertEquals(LeaseHealth.State.LOST, lease.getHealth(CommandLease.LEASE_MS * 2).getState());
+        assertEquals(LeaseHealth.State.LOST, reported.get(reported.size() - 1).getState());
+
+        lease.release(CommandLease.LEASE_MS * 2);
+        assertEquals(LeaseHealth.State.IDLE, lease.getHealth(CommandLease.LEASE_MS * 2).getState());
+    }
+
+    // ========================================
+    // Simulation
+    // ========================================
+
+    private Result runTrials(double loss, Random random) {
+        Result result = new Result();
+        for (int i = 0; i < TRIALS; i++) {
+            SimLink link = new SimLink(loss, random);
+            SimCar car = new SimCar(link);
+            CommandLease lease = new CommandLease(
+                    (id, seq) -> link.toCar(0, "renew", id, seq, true), null);
+            link.ackSink = (id, seq, now) -> lease.onAck(id, seq, now);
+
+            long holdMs = 1000 + random.nextInt(2000);
+            long now = 0;
+
+            // Press: leased movement command (QoS 1, but it can still be lost in the worst case)
+            lease.acquire("cmd-" + i, now);
+            link.toCar(now, "forward", "cmd-" + i, 0, true);
+
+            boolean wasMoving = false;
+            for (; now < holdMs; now += STEP_MS) {
+                lease.onTick(now);
+                link.deliver(now, car);
+                car.loop(now);
+                if (wasMoving && !car.moving) {
+                    result.stutters++;
+                }
+                wasMoving = car.moving;
+            }
+
+            // Release: stop + lease released
+            lease.release(now);
+            boolean stopDelivered = link.toCar(now, "stop", "cmd-s" + i, 0, true);
+            if (!stopDelivered) {
+                result.lostStops++;
+            }
+            long releasedAt = now;
+            while (car.moving) {
+                now += STEP_MS;
+                lease.onTick(now);
+                link.deliver(now, car);
+                car.loop(now);
+            }
+            result.latencies.add(now - releasedAt);
+        }
+        return result;
+    }
+
+    private interface AckSink {
+        void onAck(String leaseId, int seq, long now);
+    }
+
+    /**
+     * Lossy, jittery link. Each frame is independently dropped with the given probability.
+     */
+    private static class SimLink {
+        static final long MIN_LATENCY_MS = 20;
+        static final long MAX_LATENCY_MS = 80;
+
+        final double loss;
+        final Random random;
+        final PriorityQueue<Frame> inFlight = new PriorityQueue<>((a, b) -> Long.compare(a.at, b.at));
+        AckSink ackSink;
+        long clock;
+
+        SimLink(double loss, Random random) {
+            this.loss = loss;
+            this.random = random;
+        }
+
+        boolean toCar(long now, String action, String id, int seq, boolean lossy) {
+            clock = Math.max(clock, now);
+            if (lossy && random.nextDouble() < loss) {
+                return false;
+            }
+            inFlight.add(new Frame(clock + latency(), action, id, seq, false));
+            return true;
+        }
+
+        void toApp(long now, String id, int seq) {
+            if (random.nextDouble() < loss) {
+                return;
+            }
+            inFlight.add(new Frame(now + latency(), "ack", id, seq, true));
+        }
+
+        void deliver(long now, SimCar car) {
+            clock = now;
+            while (!inFlight.isEmpty() && inFlight.peek().at <= now) {
+                Frame f = inFlight.poll();
+                if (f.toApp) {
+                    ackSink.onAck(f.id, f.seq, now);
+                } else {
+                    car.onFrame(now, f);
+                }
+            }
+        }
+
+        private long latency() {
+            return MIN_LATENCY_MS + (long) (random.nextDouble() * (MAX_LATENCY_MS - MIN_LATENCY_MS));
+        }
+    }
+
+    private static class Frame {
+        final long at;
+        final String action;
+        final String id;
+        final int seq;
+        final boolean toApp;
+
+        Frame(long at, String action, String id, int seq, boolean toApp) {
+            this.at = at;
+            this.action = action;
+            this.id = id;
+            this.seq = seq;
+            this.toApp = toApp;
+        }
+    }
+
+    /**
+     * Mirrors the firmware lease rules.
+     */
+    private static class SimCar {
+        final SimLink link;
+        String leaseId = "";
+        boolean leaseActive;
+        long leaseRenewedAt;
+        boolean moving;
+
+        SimCar(SimLink link) {
+            this.link = link;
+        }
+
+        void onFrame(long now, Frame f) {
+            if (f.action.equals("renew")) {
+                if (leaseId.isEmpty() || !leaseId.equals(f.id)) {
+                    return;
+                }
+                leaseRenewedAt = now;
+                leaseActive = true;
+                moving = true;
+                link.toApp(now, f.id, f.seq);
+            } else if (f.action.equals("stop")) {
+                leaseId = "";
+                leaseActive = false;
+                moving = false;
+            } else {
+                leaseId = f.id;
+                leaseActive = true;
+                leaseRenewedAt = now;
+                moving = true;
+            }
+        }
+
+        void loop(long now) {
+            if (leaseActive && now - leaseRenewedAt > CommandLease.LEASE_MS) {
+                leaseActive = false;
+                moving = false;
+            }
+        }
+    }
+
+    private static class Result {
+        final List<Long> latencies = new ArrayList<>();
+        int lostStops;
+        int stutters;
+
+        long percentile(int p) {
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+        }
+
+        long max() {
+            return percentile(100);
+        }
+    }
+}
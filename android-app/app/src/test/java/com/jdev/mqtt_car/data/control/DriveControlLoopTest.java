@@ -0,0 +1,121 @@
+package com.jdev.mqtt_car.data.control;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Send policy of the joystick loop, driven through tick() with a fake clock.
+ */
+public class DriveControlLoopTest {
+
+    // The firmware's DRIVE_FAILSAFE_TIMEOUT (config.h): it stops without a frame for this long
+    private static final long FIRMWARE_FAILSAFE_MS = 600;
+    private static final long PERIOD_MS = 1000 / DriveControlLoop.LOOP_RATE_HZ;
+
+    private final List<int[]> sent = new ArrayList<>();
+    private final List<Long> sentAtMs = new ArrayList<>();
+    private long nowMs;
+    private final DriveControlLoop loop = new DriveControlLoop((throttle, steering) -> {
+        sent.add(new int[]{throttle, steering});
+        sentAtMs.add(nowMs);
+    });
+
+    @Test
+    public void jitterInsideTheDeadbandIsNotSent() {
+        loop.setTarget(DriveControlLoop.DEADBAND, -DriveControlLoop.DEADBAND);
+        tick(0);
+        assertEquals(0, sent.size());
+
+        loop.setTarget(40, 0);
+        tick(PERIOD_MS);
+        assertLastSent(40, 0);
+
+        loop.setTarget(43, -4);
+        tick(2 * PERIOD_MS);
+        assertEquals(1, sent.size());
+
+        loop.setTarget(43, 10);
+        tick(3 * PERIOD_MS);
+        assertLastSent(43, 10);
+
+        // Back to centre from a small setpoint is sent even though it is inside the deadband
+        loop.setTarget(4, 0);
+        tick(4 * PERIOD_MS);
+        assertLastSent(4, 0);
+        loop.setTarget(0, 0);
+        tick(5 * PERIOD_MS);
+        assertEquals(4, sent.size());
+        assertLastSent(0, 0);
+    }
+
+    @Test
+    public void heartbeatKeepsAHeldStickWithinTheFirmwareFailsafe() {
+        loop.setTarget(60, -20);
+        // 10 s of held stick on a loop thread that is late by up to one period per tick
+        Random random = new Random(5);
+        long t = 0;
+        while (t < 10_000) {
+            tick(t);
+            t += PERIOD_MS + random.nextInt((int) PERIOD_MS);
+        }
+
+        long worst = 0;
+        for (int i = 1; i < sentAtMs.size(); i++) {
+            worst = Math.max(worst, sentAtMs.get(i) - sentAtMs.get(i - 1));
+            assertArrayEquals(new int[]{60, -20}, sent.get(i));
+        }
+        assertTrue("worst gap " + worst + " ms", worst >= DriveControlLoop.HEARTBEAT_MS);
+        assertTrue("worst gap " + worst + " ms", worst < DriveControlLoop.HEARTBEAT_MS + 2 * PERIOD_MS);
+        // A lost heartbeat does not make the car stop itself
+        assertTrue("worst gap " + worst + " ms", 2 * worst < FIRMWARE_FAILSAFE_MS);
+    }
+
+    @Test
+    public void centredStickSendsNoHeartbeat() {
+        loop.setTarget(50, 0);
+        tick(0);
+        loop.setTarget(0, 0);
+        tick(PERIOD_MS);
+        for (long t = 2 * PERIOD_MS; t < 5_000; t += PERIOD_MS) {
+            tick(t);
+        }
+        assertEquals(2, sent.size());
+        assertLastSent(0, 0);
+    }
+
+    @Test
+    public void haltSendsAFinalZeroSetpoint() {
+        loop.setTarget(80, 30);
+        for (long t = 0; t < 1_000; t += PERIOD_MS) {
+            tick(t);
+        }
+        int before = sent.size();
+
+        // What stop() runs on the loop thread once the ticks are cancelled
+        nowMs = 1_000;
+        loop.halt(TimeUnit.MILLISECONDS.toNanos(nowMs));
+        assertEquals(before + 1, sent.size());
+        assertLastSent(0, 0);
+
+        // The held target is gone: nothing more goes out, not even a heartbeat
+        for (long t = 1_000 + PERIOD_MS; t < 2_000; t += PERIOD_MS) {
+            tick(t);
+        }
+        assertEquals(before + 1, sent.size());
+    }
+
+    private void tick(long ms) {
+        nowMs = ms;
+        loop.tick(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    private void assertLastSent(int throttle, int steering) {
+        assertArrayEquals(new int[]{throttle, steering}, sent.get(sent.size() - 1));
+    }
+}
@@ -0,0 +1,187 @@
+package com.jdev.mqtt_car.data.control;
+
+import com.jdev.mqtt_car.data.control.OutboundScheduler.Lane;
+import com.jdev.mqtt_car.data.control.OutboundScheduler.Message;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The link is simulated in virtual time: it completes one publish every LINK_MS, in order.
+ */
+public class OutboundSchedulerTest {
+
+    private static final long LINK_MS = 5;
+
+    private long nowNanos;
+    private final List<Message> published = new ArrayList<>();
+    private final ArrayDeque<Message> onTheWire = new ArrayDeque<>();
+    private final OutboundScheduler scheduler = new OutboundScheduler(this::publish, () -> nowNanos);
+    private ScheduledExecutorService link;
+
+    @After
+    public void tearDown() {
+        // Also when an assertion failed, so the link thread does not run into later tests
+        if (link != null) {
+            link.shutdownNow();
+        }
+    }
+
+    @Test
+    public void stopIsPublishedAtOnceUnderBulkAndControlLoad() {
+        // Saturate both other lanes, then stop every 200 ms while the link stays busy
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 40; i++) {
+                scheduler.submit(message(Lane.BULK, "diag", null));
+            }
+            for (int i = 0; i < 40; i++) {
+                scheduler.submit(message(Lane.CONTROL, "forward", null));
+            }
+            advance(100);
+
+            int before = published.size();
+            scheduler.submit(message(Lane.SAFETY, "stop", null));
+            // Published inside submit, nothing had to complete first
+            assertEquals("stop", label(published.get(before)));
+            advance(100);
+        }
+
+        OutboundScheduler.LaneStats safety = scheduler.getStats(Lane.SAFETY);
+        assertEquals(20, safety.getSent());
+        assertEquals(0.0, safety.getMaxQueueDelayMs(), 0.0);
+        assertTrue(scheduler.getStats(Lane.BULK).getMaxQueueDelayMs() > 100);
+    }
+
+    @Test
+    public void controlAndBulkShareByWeight() {
+        for (int i = 0; i < 60; i++) {
+            scheduler.submit(message(Lane.CONTROL, "forward", null));
+            scheduler.submit(message(Lane.BULK, "diag", null));
+        }
+        advance(50 * LINK_MS);
+
+        // After the first shared slots were filled in submit order
+        int control = 0;
+        int bulk = 0;
+        int start = OutboundScheduler.SHARED_IN_FLIGHT;
+        for (Message message : published.subList(start, start + 40)) {
+            if (message.getLane() == Lane.CONTROL) {
+                control++;
+            } else {
+                bulk++;
+            }
+        }
+        // 3:1 once both are backlogged, and bulk is never starved
+        assertEquals(30, control, 2);
+        assertEquals(10, bulk, 2);
+        assertTrue(scheduler.getStats(Lane.CONTROL).getInFlight() <= OutboundScheduler.IN_FLIGHT_LIMIT[1]);
+        assertTrue(scheduler.getStats(Lane.BULK).getInFlight() <= OutboundScheduler.IN_FLIGHT_LIMIT[2]);
+    }
+
+    @Test
+    public void stopFlushesQueuedMovementAndKeysSupersede() {
+        // Fill the control lane's in-flight slots, then queue more drive frames
+        for (int i = 0; i < 10; i++) {
+            scheduler.submit(message(Lane.CONTROL, "drive " + i, "drive"));
+        }
+        // 4 in flight, only the newest of the other 6 is left waiting
+        assertEquals(4, published.size());
+        assertEquals(1, scheduler.getStats(Lane.CONTROL).getQueued());
+
+        scheduler.submit(message(Lane.SAFETY, "stop", null));
+        assertEquals(0, scheduler.getStats(Lane.CONTROL).getQueued());
+        advance(100);
+        assertEquals("stop", label(published.get(published.size() - 1)));
+        assertEquals(6, scheduler.getStats(Lane.CONTROL).getDropped());
+    }
+
+    @Test
+    public void completionsFromBeforeResetAreIgnored() {
+        for (int i = 0; i < 6; i++) {
+            scheduler.submit(message(Lane.BULK, "diag", null));
+        }
+        List<Message> stale = new ArrayList<>(onTheWire);
+        onTheWire.clear();
+        scheduler.reset();
+
+        for (Message message : stale) {
+            scheduler.onComplete(message);
+        }
+        assertEquals(0, scheduler.getStats(Lane.BULK).getInFlight());
+        scheduler.submit(message(Lane.BULK, "diag", null));
+        scheduler.submit(message(Lane.BULK, "diag", null));
+        scheduler.submit(message(Lane.BULK, "diag", null));
+        assertEquals(OutboundScheduler.IN_FLIGHT_LIMIT[2], scheduler.getStats(Lane.BULK).getInFlight());
+    }
+
+    @Test
+    public void stopLatencyUnaffectedByConcurrentBulkLoad() throws Exception {
+        // Real threads: a link completing publishes after 2 ms, four threads flooding bulk
+        link = Executors.newSingleThreadScheduledExecutor();
+        OutboundScheduler[] holder = new OutboundScheduler[1];
+        OutboundScheduler concurrent = new OutboundScheduler(
+                message -> link.schedule(() -> holder[0].onComplete(message), 2, TimeUnit.MILLISECONDS),
+                System::nanoTime);
+        holder[0] = concurrent;
+
+        CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    concurrent.submit(message(Lane.BULK, "diag", null));
+                }
+                done.countDown();
+            }).start();
+        }
+        for (int i = 0; i < 50; i++) {
+            concurrent.submit(message(Lane.SAFETY, "stop", null));
+            Thread.sleep(4);
+        }
+        done.await(10, TimeUnit.SECONDS);
+        link.shutdown();
+
+        OutboundScheduler.LaneStats safety = concurrent.getStats(Lane.SAFETY);
+        OutboundScheduler.LaneStats bulk = concurrent.getStats(Lane.BULK);
+        assertEquals(50, safety.getSent());
+        // A stop waits at most for the publish that was already leaving
+        assertTrue("stop delay " + safety, safety.getMaxQueueDelayMs() < 50);
+        assertTrue("bulk " + bulk, bulk.getMeanQueueDelayMs() > safety.getMeanQueueDelayMs());
+    }
+
+    // ========================================
+    // Simulated link
+    // ========================================
+
+    private void publish(Message message) {
+        published.add(message);
+        onTheWire.addLast(message);
+    }
+
+    private void advance(long ms) {
+        for (long t = 0; t < ms; t += LINK_MS) {
+            nowNanos += TimeUnit.MILLISECONDS.toNanos(LINK_MS);
+            Message done = onTheWire.pollFirst();
+            if (done != null) {
+                scheduler.onComplete(done);
+            }
+        }
+    }
+
+    private static Message message(Lane lane, String label, String key) {
+        return new Message(lane, "iot-car/car-001/command", label.getBytes(), 0, key, null);
+    }
+
+    private static String label(Message message) {
+        return new String(message.getPayload());
+    }
+}
@@ -0,0 +1,157 @@
+package com.jdev.mqtt_car.data.control;
+
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the controller against a simulated car in virtual time: the car applies a rate
+ * request after the link latency and stamps every frame with its own uptime.
+ */
+public class TelemetryRateControllerTest {
+
+    private static final long LINK_LATENCY_MS = 40;
+    private static final long CLOCK_OFFSET_MS = 1_700_000_000_000L;
+
+    private final List<Integer> requests = new ArrayList<>();
+    private final List<Integer> expected = new ArrayList<>();
+    private final TelemetryRateController controller =
+            new TelemetryRateController(this::onRateRequest, expected::add);
+
+    private final TelemetryRecord frame = new TelemetryRecord(null);
+    private boolean carHonoursRequests = true;
+    private long deviceNow = 10_000;
+    private long carInterval = TelemetryRateController.DEFAULT_INTERVAL_MS;
+    private long nextFrameAt = deviceNow;
+    private long pendingInterval = -1;
+    private long pendingAt;
+    private int rssi = -60;
+    private long extraDelayMs;
+    private long extraDelayGrowthMs;
+
+    @Test
+    public void rateFollowsDrivingAndVisibilityAndIsConfirmedFromTimestamps() {
+        controller.onConnected(phoneNow());
+        assertEquals(Integer.valueOf(500), last(requests));
+        run(3_000);
+        assertEquals(500, controller.getConfirmedIntervalMs());
+
+        // Driving speeds up at once, confirmation follows within a few frames
+        controller.setDriving(true, phoneNow());
+        assertEquals(Integer.valueOf(100), last(requests));
+        run(1_000);
+        assertEquals(100, carInterval);
+        assertEquals(100, controller.getConfirmedIntervalMs());
+        assertEquals(Integer.valueOf(100), last(expected));
+
+        // Backgrounded: slows down, and liveness is told to expect the slow rate right away
+        controller.setDriving(false, phoneNow());
+        controller.setForeground(false, phoneNow());
+        run(TelemetryRateController.MIN_REQUEST_GAP_MS + 30_000);
+        assertEquals(5000, carInterval);
+        assertEquals(5000, controller.getConfirmedIntervalMs());
+
+        // Back on screen: immediate
+        int before = requests.size();
+        controller.setForeground(true, phoneNow());
+        assertEquals(before + 1, requests.size());
+        assertEquals(Integer.valueOf(500), last(requests));
+        assertFalse(controller.isUnsupported());
+    }
+
+    @Test
+    public void weakLinkBacksOffWithoutFlapping() {
+        controller.onConnected(phoneNow());
+        controller.setDriving(true, phoneNow());
+        run(2_000);
+        assertEquals(100, controller.getConfirmedIntervalMs());
+
+        rssi = -80;
+        run(5_000);
+        assertEquals(200, controller.getConfirmedIntervalMs());
+
+        rssi = -90;
+        run(5_000);
+        assertEquals(500, controller.getConfirmedIntervalMs());
+
+        // RSSI hovering around a threshold: requests stay rate limited
+        int before = requests.size();
+        for (int i = 0; i < 40; i++) {
+            rssi = i % 2 == 0 ? -70 : -90;
+            run(250);
+        }
+        long perGap = 10_000 / TelemetryRateController.MIN_REQUEST_GAP_MS + 1;
+        assertTrue("requests while flapping: " + (requests.size() - before),
+                requests.size() - before <= perGap);
+    }
+
+    @Test
+    public void inboundQueueingBacksOff() {
+        controller.onConnected(phoneNow());
+        run(3_000);
+        assertEquals(500, controller.getConfirmedIntervalMs());
+
+        // Frames start to wait longer and longer before we handle them
+        extraDelayGrowthMs = 100;
+        run(6_000);
+        assertEquals(1000, last(requests).intValue());
+    }
+
+    @Test
+    public void carIgnoringRequestsIsGivenUpOn() {
+        carHonoursRequests = false;
+        controller.onConnected(phoneNow());
+        controller.setDriving(true, phoneNow());
+        run(60_000);
+
+        assertTrue(controller.isUnsupported());
+        // The connect request, the driving request and MAX_RESENDS retries of it
+        assertEquals(2 + TelemetryRateController.MAX_RESENDS, requests.size());
+        assertEquals(500, carInterval);
+        assertEquals(-1, controller.getConfirmedIntervalMs());
+    }
+
+    // ========================================
+    // Simulated car
+    // ========================================
+
+    private void onRateRequest(int intervalMs) {
+        requests.add(intervalMs);
+        if (carHonoursRequests) {
+            pendingInterval = intervalMs;
+            pendingAt = deviceNow + LINK_LATENCY_MS;
+        }
+    }
+
+    private long phoneNow() {
+        return CLOCK_OFFSET_MS + deviceNow + LINK_LATENCY_MS + extraDelayMs;
+    }
+
+    private void run(long durationMs) {
+        long end = deviceNow + durationMs;
+        for (; deviceNow < end; deviceNow += 10) {
+            if (pendingInterval > 0 && deviceNow >= pendingAt) {
+                carInterval = pendingInterval;
+                pendingInterval = -1;
+            }
+            if (deviceNow >= nextFrameAt) {
+                nextFrameAt = deviceNow + carInterval;
+                extraDelayMs += extraDelayGrowthMs;
+                frame.clear();
+                frame.setWifiRssi(rssi);
+                frame.setDeviceMillis(deviceNow);
+                frame.setTimestamp(phoneNow());
+                controller.onTelemetry(frame);
+            }
+        }
+    }
+
+    private static Integer last(List<Integer> values) {
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+}
@@ -0,0 +1,185 @@
+package com.jdev.mqtt_car.data.export;
+
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.TelemetryData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports a one-million-sample session in both formats and reads it back.
+ */
+public class TelemetryExporterTest {
+
+    private static final int SAMPLES = 1_000_000;
+    private static final long START = 1_700_000_000_000L;
+
+    private File dir;
+    private File journalFile;
+
+    @Before
+    public void recordSession() throws IOException {
+        dir = java.nio.file.Files.createTempDirectory("export-test").toFile();
+        journalFile = new File(dir, "session.bin");
+
+        Random random = new Random(5);
+        String[] actions = {"stop", "forward", "left", "right", "backward"};
+        try (TelemetryJournal journal = TelemetryJournal.create(journalFile)) {
+            journal.appendStatus(START, "car-001", new CarStatus("car-001", "online", "1.2.0"));
+            for (int i = 0; i < SAMPLES; i++) {
+                long time = START + i * 500L + random.nextInt(20);
+                String action = actions[(i / 40) % actions.length];
+                if (i % 40 == 0) {
+                    journal.appendCommand(time - 5, "car-001", action);
+                }
+                journal.appendTelemetry("car-001", new TelemetryData("car-001", 100 - i / 10_000,
+                        50 + random.nextInt(150), 25, action, -55 - random.nextInt(10),
+                        210_000 - random.nextInt(2_000), time));
+            }
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    public void columnarExportRoundTrips() throws IOException {
+        File output = new File(dir, "session.mqtc");
+        List<Integer> progress = new ArrayList<>();
+
+        long start = System.nanoTime();
+        long rows = new TelemetryExporter(Runnable::run).exportNow(journalFile, output,
+                TelemetryExporter.Format.COLUMNAR, listener(progress));
+        long ms = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(SAMPLES + SAMPLES / 40 + 1, rows);
+        assertTrue("took " + ms + " ms", ms < 10_000);
+        assertEquals(100, (int) progress.get(progress.size() - 1));
+        assertTrue(output.length() < journalFile.length() / 4);
+
+        long telemetryRows = 0;
+        long lastTimestamp = 0;
+        try (ColumnarReader reader = new ColumnarReader(new FileInputStream(output))) {
+            assertEquals("battery", reader.getColumnNames()[ColumnarFormat.COL_BATTERY]);
+            boolean first = true;
+            while (reader.nextChunk()) {
+                for (int r = 0; r < reader.getRowCount(); r++) {
+                    if (first) {
+                        assertEquals(TelemetryJournal.TYPE_STATUS, reader.get(ColumnarFormat.COL_EVENT, r));
+                        assertEquals("online", reader.string((int) reader.get(ColumnarFormat.COL_ACTION, r)));
+                        assertEquals("1.2.0", reader.string((int) reader.get(ColumnarFormat.COL_FIRMWARE, r)));
+                        first = false;
+                    }
+                    if (reader.get(ColumnarFormat.COL_EVENT, r) == TelemetryJournal.TYPE_TELEMETRY) {
+                        telemetryRows++;
+                        assertEquals("car-001", reader.string((int) reader.get(ColumnarFormat.COL_DEVICE, r)));
+                        lastTimestamp = reader.get(ColumnarFormat.COL_TIMESTAMP, r);
+                    }
+                }
+            }
+        }
+        assertEquals(SAMPLES, telemetryRows);
+        assertTrue(lastTimestamp >= START + (SAMPLES - 1) * 500L);
+    }
+
+    @Test
+    public void csvExportWritesOneLinePerEntry() throws IOException {
+        File output = new File(dir, "session.csv.gz");
+
+        long start = System.nanoTime();
+        long rows = new TelemetryExporter(Runnable::run).exportNow(journalFile, output,
+                TelemetryExporter.Format.CSV, listener(new ArrayList<>()));
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("took " + ms + " ms", ms < 20_000);
+
+        long lines = 0;
+        String command = null;
+        String telemetry = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(output)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (lines == 2) {
+                    command = line;
+                } else if (lines == 3) {
+                    telemetry = line;
+                }
+                lines++;
+            }
+        }
+        assertEquals(rows + 1, lines);
+        // header, status, command, then the first telemetry row
+        assertTrue(command, command.startsWith("command,") && command.endsWith(",,,,stop,,,"));
+        assertTrue(telemetry, telemetry.startsWith("telemetry,") && telemetry.contains(",car-001,100,"));
+    }
+
+    @Test
+    public void csvQuotesFieldsHoldingDelimiters() throws IOException {
+        File journal = new File(dir, "odd.bin");
+        try (TelemetryJournal writer = TelemetryJournal.create(journal)) {
+            writer.appendStatus(START, "car,7", new CarStatus("car,7", "online", "2.0 \"beta\""));
+            writer.appendCommand(START + 1, "car,7", "say\nhi");
+            writer.appendTelemetry("car,7", new TelemetryData("car,7", 90, 100, 25, "stop", -60, 200_000, START + 2));
+        }
+        File output = new File(dir, "odd.csv.gz");
+        new TelemetryExporter(Runnable::run).exportNow(journal, output,
+                TelemetryExporter.Format.CSV, listener(new ArrayList<>()));
+
+        StringBuilder csv = new StringBuilder();
+        try (InputStreamReader reader = new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(output)), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[1024];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                csv.append(buffer, 0, n);
+            }
+        }
+        String[] lines = csv.toString().split("\n(?=[a-z]+,)");
+        assertEquals(4, lines.length);
+        assertEquals("status," + START + ",\"car,7\",,,,online,,,\"2.0 \"\"beta\"\"\"", lines[1]);
+        assertEquals("command," + (START + 1) + ",\"car,7\",,,,\"say\nhi\",,,", lines[2]);
+        assertEquals("telemetry," + (START + 2) + ",\"car,7\",90,100,25,stop,-60,200000,\n", lines[3]);
+    }
+
+    private static TelemetryExporter.Listener listener(List<Integer> progress) {
+        return new TelemetryExporter.Listener() {
+            @Override
+            public void onProgress(int percent) {
+                progress.add(percent);
+            }
+
+            @Override
+            public void onComplete(File output, long rows) {
+            }
+
+            @Override
+            public void onError(Exception e) {
+                fail(e.toString());
+            }
+        };
+    }
+}
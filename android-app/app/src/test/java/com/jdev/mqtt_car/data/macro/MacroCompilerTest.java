@@ -0,0 +1,82 @@
+package com.jdev.mqtt_car.data.macro;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MacroCompilerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void compilesStepsIntoATimeline() {
+        CommandMacro macro = MacroCompiler.compile(
+                "# warm-up\nforward 2s\nleft 500ms; wait 0.25s\nstop 1s, backward 1.5s");
+
+        String[] actions = {"forward", "left", "stop", "backward", "stop"};
+        long[] offsets = {0, 2000 * MS, 2750 * MS, 3750 * MS, 5250 * MS};
+        assertEquals(actions.length, macro.size());
+        for (int i = 0; i < actions.length; i++) {
+            assertEquals(actions[i], macro.getAction(i));
+            assertEquals(offsets[i], macro.getOffsetNanos(i));
+        }
+        // The stop added at the end is not held
+        assertEquals(5250 * MS, macro.getDurationNanos());
+    }
+
+    @Test
+    public void repeatsNestAndRoundTripThroughText() {
+        CommandMacro macro = MacroCompiler.compile("repeat 2 { forward 1s repeat 3{ left 100ms right 100ms } } stop");
+
+        // Two passes of forward + 6 turns, then the stop
+        assertEquals(2 * 7 + 1, macro.size());
+        assertEquals("right", macro.getAction(13));
+        assertEquals(2 * 1600 * MS, macro.getOffsetNanos(14));
+
+        CommandMacro again = MacroCompiler.compile(macro.toSource());
+        assertEquals(macro.size(), again.size());
+        for (int i = 0; i < macro.size(); i++) {
+            assertEquals(macro.getAction(i), again.getAction(i));
+            assertEquals(macro.getOffsetNanos(i), again.getOffsetNanos(i));
+        }
+        assertEquals(macro.getDurationNanos(), again.getDurationNanos());
+    }
+
+    @Test
+    public void errorsNameTheLine() {
+        assertError("forward 1s\nleft\nstop", "Line 2: 'left' needs a duration");
+        assertError("forward 1s\n\njump 1s", "Line 3: Unknown command 'jump'");
+        assertError("repeat 2 {\nforward 1s\n", "Missing '}'");
+        assertError("forward 2", "Duration needs a unit");
+        assertError("forward 5ms", "shorter than");
+        assertError("repeat 1000 { forward 1s }", "Longer than");
+        assertError("# nothing\n", "Macro is empty");
+    }
+
+    @Test
+    public void recordedButtonSessionBecomesAMacro() {
+        MacroRecorder recorder = new MacroRecorder();
+        long t = 5_000 * MS;
+        recorder.onCommand("forward", t);
+        recorder.onCommand("forward", t + 300 * MS);           // same button again, ignored
+        recorder.onCommand("stop", t + 2_000_400_000L);        // rounded to the ms
+        recorder.onCommand("left", t + 2_500 * MS);
+        recorder.onCommand("right", t + 2_503 * MS);           // blip, replaces left
+        CommandMacro macro = recorder.finish(t + 3_000 * MS);  // still turning: stop added
+
+        assertEquals("forward 2s\nstop 503ms\nright 497ms\nstop\n", macro.toSource());
+        assertEquals(3_000 * MS, macro.getDurationNanos());
+        assertEquals(macro.toSource(), MacroCompiler.compile(macro.toSource()).toSource());
+    }
+
+    private static void assertError(String source, String expected) {
+        try {
+            MacroCompiler.compile(source);
+            fail("Compiled: " + source);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expected));
+        }
+    }
+}
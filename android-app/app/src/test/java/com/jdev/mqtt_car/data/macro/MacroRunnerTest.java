@@ -0,0 +1,170 @@
+package com.jdev.mqtt_car.data.macro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deadline scheduling is checked exactly on a virtual clock. The real-clock runs are smoke
+ * tests: their bounds are loose enough for a loaded build machine, but well below the
+ * drift a chain of relative delays builds up over 100 steps.
+ */
+public class MacroRunnerTest {
+
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> sentAt = Collections.synchronizedList(new ArrayList<>());
+    private final MacroRunner runner = new MacroRunner(action -> {
+        sent.add(action);
+        sentAt.add(System.nanoTime());
+    });
+
+    @Test
+    public void lateStepDoesNotDelayTheRest() throws Exception {
+        // 100 steps 10 ms apart; the wait before step 30 oversleeps by 7 ms
+        CommandMacro macro = MacroCompiler.compile("repeat 50 { forward 10ms left 10ms }");
+        VirtualClock clock = new VirtualClock(macro.getOffsetNanos(30), TimeUnit.MILLISECONDS.toNanos(7));
+        List<Long> virtualSentAt = Collections.synchronizedList(new ArrayList<>());
+        MacroRunner virtual = new MacroRunner(action -> virtualSentAt.add(clock.now), clock);
+        Listener listener = new Listener();
+        assertTrue(virtual.start(macro, listener));
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        MacroRunner.Report report = listener.report.get();
+        assertEquals(101, report.getStepsSent());
+        for (int i = 0; i < macro.size(); i++) {
+            long late = virtualSentAt.get(i) - (clock.firstRead + macro.getOffsetNanos(i));
+            assertEquals(late, report.getLateNanos(i), VirtualClock.READ_NANOS);
+            if (i == 30) {
+                assertTrue("step 30 " + late, late >= TimeUnit.MILLISECONDS.toNanos(7) - MacroRunner.SPIN_NANOS);
+            } else {
+                // Sent within the spin: on the deadline, before and after the stall alike
+                assertTrue("step " + i + " " + late, late >= 0 && late <= 2 * VirtualClock.READ_NANOS);
+            }
+        }
+        assertTrue(clock.now - clock.firstRead >= macro.getDurationNanos());
+    }
+
+    @Test
+    public void stepsFollowTheirDeadlinesOnTheRealClock() throws Exception {
+        // 100 steps 10 ms apart; a relative-delay scheduler would be tens of ms behind at the end
+        CommandMacro macro = MacroCompiler.compile("repeat 50 { forward 10ms left 10ms }");
+        Listener listener = new Listener();
+        long start = System.nanoTime();
+        assertTrue(runner.start(macro, listener));
+        assertFalse(runner.start(macro, listener));
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        MacroRunner.Report report = listener.report.get();
+        assertNull(listener.abortReason.get());
+        assertFalse(runner.isRunning());
+        assertEquals(101, report.getStepsSent());
+        assertEquals(101, sent.size());
+        assertEquals("stop", sent.get(100));
+
+        for (int i = 0; i < macro.size(); i++) {
+            long planned = start + macro.getOffsetNanos(i);
+            assertTrue("step " + i + " early", sentAt.get(i) >= planned);
+        }
+        // Smoke test only, lateStepDoesNotDelayTheRest checks the scheduling: typical lateness is well
+        // under a millisecond, and a hiccup on a busy machine does not add up towards the end
+        long[] late = new long[macro.size()];
+        for (int i = 0; i < late.length; i++) {
+            late[i] = report.getLateNanos(i);
+        }
+        Arrays.sort(late);
+        assertTrue(report.toString(), late[late.length / 2] < TimeUnit.MILLISECONDS.toNanos(5));
+        long lastLate = sentAt.get(100) - (start + macro.getOffsetNanos(100));
+        assertTrue("last step " + lastLate / 1e6 + " ms late", lastLate < TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void abortStopsSendingAtOnce() throws Exception {
+        CommandMacro macro = MacroCompiler.compile("forward 50ms\nleft 50ms\nright 50ms\nbackward 50ms");
+        Listener listener = new Listener();
+        assertTrue(runner.start(macro, listener));
+        Thread.sleep(70);
+
+        assertTrue(runner.abort("stopped"));
+        int sentAtAbort = sent.size();
+        assertEquals("stopped", listener.abortReason.get());
+        assertEquals(2, sentAtAbort);
+        assertEquals(2, listener.report.get().getStepsSent());
+        assertFalse(runner.abort("again"));
+
+        // A new run starts right away, and the aborted one never sends again
+        Listener second = new Listener();
+        assertTrue(runner.start(MacroCompiler.compile("stop 20ms"), second));
+        assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(sentAtAbort + 1, sent.size());
+        assertEquals("stop", sent.get(sentAtAbort));
+    }
+
+    /**
+     * Every read costs READ_NANOS, which stands in for spinning, and a park sleeps exactly
+     * as long as asked except the first one that wakes up past stallAt: that one oversleeps.
+     * The runner's first read is its start. Only the runner thread moves the clock.
+     */
+    private static final class VirtualClock implements MacroRunner.Clock {
+        static final long READ_NANOS = 1_000;
+
+        volatile long now = 1_000_000_000L;
+        volatile long firstRead = -1;
+        private final long stallOffset;
+        private long stall;
+
+        VirtualClock(long stallOffset, long stall) {
+            this.stallOffset = stallOffset;
+            this.stall = stall;
+        }
+
+        @Override
+        public long nanoTime() {
+            now += READ_NANOS;
+            if (firstRead < 0) {
+                firstRead = now;
+            }
+            return now;
+        }
+
+        @Override
+        public void parkNanos(Object blocker, long nanos) {
+            now += nanos;
+            if (now >= firstRead + stallOffset - MacroRunner.SPIN_NANOS) {
+                now += stall;
+                stall = 0;
+            }
+        }
+    }
+
+    private static final class Listener implements MacroRunner.Listener {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<MacroRunner.Report> report = new AtomicReference<>();
+        final AtomicReference<String> abortReason = new AtomicReference<>();
+
+        @Override
+        public void onStep(int step, String action, long lateNanos) {
+        }
+
+        @Override
+        public void onFinished(MacroRunner.Report r) {
+            report.set(r);
+            done.countDown();
+        }
+
+        @Override
+        public void onAborted(MacroRunner.Report r, String reason) {
+            report.set(r);
+            abortReason.set(reason);
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.jdev.mqtt_car.data.odometry;
+
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.OdometryCalibration;
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class OdometryEngineTest {
+
+    private static final int NO_ECHO = 999;
+
+    // 30 cm/s, 90 degrees/s
+    private final OdometryEngine engine = new OdometryEngine(OdometryCalibration.DEFAULT);
+    private final OdometrySnapshot snapshot = new OdometrySnapshot();
+    private final TelemetryRecord frame = new TelemetryRecord(null);
+
+    @Test
+    public void ackedCommandsAreIntegratedOnTheDeviceClock() {
+        engine.onAck(ack("forward", 1_000));
+        telemetry(3_000, "forward", NO_ECHO);
+        assertPose(0, 60);
+
+        engine.onAck(ack("stop", 4_000));
+        telemetry(6_000, "stop", NO_ECHO);
+        assertPose(0, 90);
+
+        // Renewals keep a held command going past MAX_HOLD_MS
+        engine.onAck(ack("backward", 7_000));
+        for (long t = 9_000; t <= 19_000; t += 2_000) {
+            engine.onAck(renewal(t));
+        }
+        engine.onAck(ack("stop", 20_000));
+        assertPose(0, 90 - 13 * 30);
+    }
+
+    @Test
+    public void squareReturnsToTheStart() {
+        long t = 0;
+        for (int side = 0; side < 4; side++) {
+            engine.onAck(ack("forward", t));
+            engine.onAck(ack("right", t + 1_000));
+            engine.onAck(ack("stop", t + 2_000));
+            t += 3_000;
+        }
+        assertPose(0, 0);
+        assertEquals(0, snapshot.getHeading(), 0.001);
+        // Start and the three corners, the fourth corner is the current end
+        assertEquals(5, snapshot.getCount());
+        assertEquals(30, snapshot.getX(2), 0.01);
+        assertEquals(30, snapshot.getY(2), 0.01);
+    }
+
+    @Test
+    public void joystickDrivingFollowsTheReportedAction() {
+        // Drive frames are not acked, only telemetry tells what the car did
+        telemetry(100, "stop", NO_ECHO);
+        telemetry(500, "right", NO_ECHO);
+        telemetry(1_500, "forward", NO_ECHO);
+        telemetry(2_500, "stop", NO_ECHO);
+        assertPose(30, 0);
+        assertEquals(Math.PI / 2, snapshot.getHeading(), 0.001);
+    }
+
+    @Test
+    public void frontDistanceCorrectsStraightDriving() {
+        engine.onAck(ack("forward", 0));
+        telemetry(500, "forward", 200);
+        assertPose(0, 15);
+
+        // 20 cm measured against 15 integrated: half the difference is applied
+        telemetry(1_000, "forward", 180);
+        assertPose(0, 32.5f);
+
+        // 80 cm in half a second is something moving in front, not us
+        telemetry(1_500, "forward", 100);
+        assertPose(0, 47.5f);
+
+        // No echo says nothing
+        telemetry(2_000, "forward", NO_ECHO);
+        telemetry(2_500, "forward", 50);
+        assertPose(0, 77.5f);
+    }
+
+    @Test
+    public void unconfirmedMotionStopsAfterTheHoldAndRebootStartsOver() {
+        engine.onAck(ack("forward", 1_000));
+        engine.onAck(new CommandAck("car-001", "left", "cmd-1", null, 0, "rejected", 2_000));
+        telemetry(30_000, "unknown", NO_ECHO);
+        assertPose(0, 30 * OdometryEngine.MAX_HOLD_MS / 1000f);
+
+        // The car restarted: its clock is back near zero and it is stopped
+        engine.onAck(ack("forward", 500));
+        engine.onAck(ack("stop", 1_500));
+        assertPose(0, 330);
+
+        engine.reset();
+        telemetry(2_000, "forward", NO_ECHO);
+        telemetry(3_000, "forward", NO_ECHO);
+        assertPose(0, 30);
+    }
+
+    @Test
+    public void hourLongSessionStaysWithinCapacityWithoutAllocating() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean counting = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+        String[] actions = {"forward", "forward", "right", "forward", "left", "left", "backward", "stop"};
+        int frames = 60 * 60 * 10;   // 10 Hz for an hour
+
+        // Warm up, then measure
+        drive(actions, 0, 1_000);
+        long before = counting ? allocatedBytes(bean) : 0;
+        drive(actions, 1_000, frames);
+        long allocated = counting ? allocatedBytes(bean) - before : 0;
+
+        assertTrue("vertices " + engine.getVertexCount(), engine.getVertexCount() <= PathBuffer.CAPACITY);
+        engine.copyTo(snapshot);
+        assertTrue(snapshot.getCount() > 100);
+        assertEquals(snapshot.getPoseX(), snapshot.getX(snapshot.getCount() - 1), 0.001);
+        assertEquals(snapshot.getPoseY(), snapshot.getY(snapshot.getCount() - 1), 0.001);
+        assertTrue("allocated " + allocated + " bytes", allocated < frames / 10);
+    }
+
+    private void drive(String[] actions, int from, int to) {
+        for (int i = from; i < to; i++) {
+            // A new action every 1.7 s, so turns end at varying angles
+            frame.setDeviceMillis(100L * i + 1);
+            frame.setCurrentAction(actions[(i / 17) % actions.length]);
+            frame.setDistanceFront(40 + (i * 7) % 300);
+            engine.onTelemetry(frame);
+            if (i % 10 == 0) {
+                engine.copyTo(snapshot);
+            }
+        }
+    }
+
+    private static long allocatedBytes(java.lang.management.ThreadMXBean bean) {
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void telemetry(long deviceMillis, String action, int distance) {
+        frame.setDeviceMillis(deviceMillis);
+        frame.setCurrentAction(action);
+        frame.setDistanceFront(distance);
+        engine.onTelemetry(frame);
+    }
+
+    private void assertPose(float x, float y) {
+        engine.copyTo(snapshot);
+        assertEquals(x, snapshot.getPoseX(), 0.01);
+        assertEquals(y, snapshot.getPoseY(), 0.01);
+    }
+
+    private static CommandAck ack(String command, long deviceMillis) {
+        return new CommandAck("car-001", command, "cmd-" + deviceMillis, null, 0, "executed", deviceMillis);
+    }
+
+    private static CommandAck renewal(long deviceMillis) {
+        return new CommandAck("car-001", "renew", null, "cmd-7000", 1, "executed", deviceMillis);
+    }
+}
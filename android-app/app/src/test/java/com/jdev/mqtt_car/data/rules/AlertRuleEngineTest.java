@@ -0,0 +1,167 @@
+package com.jdev.mqtt_car.data.rules;
+
+import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlertRuleEngineTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    private final List<String> events = new ArrayList<>();
+    private final AlertRuleEngine engine = new AlertRuleEngine(new AlertRuleEngine.Listener() {
+        @Override
+        public void onRuleFired(String deviceId, AlertRule rule, double value, long nowMs) {
+            events.add("+" + rule.getName() + "@" + (nowMs - START) + "=" + (int) value);
+        }
+
+        @Override
+        public void onRuleCleared(String deviceId, AlertRule rule, long nowMs) {
+            events.add("-" + rule.getName() + "@" + (nowMs - START));
+        }
+    });
+
+    @Test
+    public void conditionsCombineFieldsAndText() {
+        engine.setRules(AlertRuleCompiler.compile(
+                "obstacle: distance_front < 15 and action == FORWARD\n"
+                        + "offline: status != online or not (battery > 0)"));
+
+        sample(0, 80, 10, "stop", -60);      // close, but not driving into it
+        sample(500, 80, 10, "forward", -60);
+        sample(1000, 80, 12, "forward", -60); // still active, no second alert
+        sample(1500, 80, 40, "forward", -60);
+        engine.onStatus("car-001", "offline", START + 2000);
+        engine.onStatus("car-001", "online", START + 2500);
+
+        assertEquals(Arrays.asList("+obstacle@500=10", "-obstacle@1500", "+offline@2000=80", "-offline@2500"), events);
+    }
+
+    @Test
+    public void durationAndHysteresis() {
+        engine.setRules(AlertRuleCompiler.compile(
+                "weak_signal: wifi_rssi < -80 for 10s\n"
+                        + "low_battery: battery < 20 clear battery >= 25 for 1s"));
+
+        // RSSI dips briefly, then stays low; unchanged values still let the timer run out
+        sample(0, 30, 100, "stop", -85);
+        sample(4000, 30, 100, "stop", -70);
+        sample(5000, 30, 100, "stop", -85);
+        sample(10000, 30, 100, "stop", -85);
+        assertTrue(events.isEmpty());
+        sample(15000, 30, 100, "stop", -85);
+        assertEquals(Arrays.asList("+weak_signal@15000=-85"), events);
+        events.clear();
+
+        // Battery flickers around 20: one alert, cleared only after holding 25 for a second
+        int[] battery = {19, 21, 19, 22, 24, 25, 26, 26};
+        for (int i = 0; i < battery.length; i++) {
+            sample(20000 + i * 500, battery[i], 100, "stop", -60);
+        }
+        assertEquals(Arrays.asList("+low_battery@20000=19", "-weak_signal@20000", "-low_battery@23500"), events);
+    }
+
+    @Test
+    public void compileErrorsNameTheLine() {
+        assertError("ok: battery < 20\nbad battery < 20", "Line 2: A rule starts with its name");
+        assertError("a: speed > 3", "Unknown field 'speed'");
+        assertError("a: action < forward", "action only compares with == or !=");
+        assertError("a: battery == low", "battery is a number");
+        assertError("a: battery < 20 for 10", "Duration needs a unit");
+        assertError("a: (battery < 20", "Missing ')'");
+        assertError("a: battery < 20\na: battery < 10", "Line 2: Duplicate rule 'a'");
+        assertEquals(0, AlertRuleCompiler.compile("# nothing yet\n\n").size());
+    }
+
+    /**
+     * 40 rules, 20 cars, one million samples: only the rules whose fields changed run,
+     * and the telemetry path allocates nothing.
+     */
+    @Test
+    public void dozensOfRulesStaySubMicrosecondPerSample() {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            rules.append("battery_").append(i).append(": battery < ").append(5 + i).append(" clear battery > ").append(10 + i).append('\n');
+            rules.append("obstacle_").append(i).append(": distance_front < ").append(5 + i).append(" and action == forward\n");
+            rules.append("signal_").append(i).append(": wifi_rssi < ").append(-90 + i).append(" for ").append(5 + i).append("s\n");
+            rules.append("hot_").append(i).append(": temperature > ").append(60 + i).append(" or free_heap < ").append(10_000 + i).append('\n');
+        }
+        engine.setRules(AlertRuleCompiler.compile(rules.toString()));
+        assertEquals(40, engine.getRules().size());
+
+        String[] devices = new String[20];
+        for (int d = 0; d < devices.length; d++) {
+            devices[d] = "car-" + d;
+        }
+        String[] actions = {"forward", "stop", "left"};
+        TelemetryRecord record = new TelemetryRecord(null);
+
+        run(record, devices, actions, 200_000);   // warm up the JIT
+        events.clear();
+        // Best of five rounds: on a single core, JIT and GC threads take turns with this one
+        int samples = 200_000;
+        long nanosPerSample = Long.MAX_VALUE;
+        long allocatedBefore = allocatedBytes();
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            run(record, devices, actions, samples);
+            nanosPerSample = Math.min(nanosPerSample, (System.nanoTime() - start) / samples);
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        assertFalse(events.isEmpty());
+        assertTrue(nanosPerSample + " ns per sample", nanosPerSample < 1000);
+        if (allocatedBefore >= 0) {
+            // Only the alert strings this test's listener builds
+            assertTrue(allocated + " bytes allocated", allocated < events.size() * 200L + 64 * 1024);
+        }
+    }
+
+    private void run(TelemetryRecord record, String[] devices, String[] actions, int samples) {
+        for (int i = 0; i < samples; i++) {
+            String device = devices[i % devices.length];
+            int tick = i / devices.length;
+            record.setBattery(100 - (tick / 500) % 100);
+            record.setDistanceFront(5 + (tick * 7) % 200);
+            record.setTemperature(30 + (tick / 50) % 40);
+            record.setCurrentAction(actions[(tick / 20) % actions.length]);
+            record.setWifiRssi(-60 - (tick / 10) % 35);
+            record.setFreeHeap(200_000 - (tick % 1000) * 190);
+            record.setTimestamp(START + tick * 100L);
+            engine.onTelemetry(device, record);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private void sample(long atMs, int battery, int distance, String action, int rssi) {
+        engine.onTelemetry("car-001", new TelemetryData("car-001", battery, distance, 25, action, rssi,
+                200_000, START + atMs));
+    }
+
+    private static void assertError(String source, String expected) {
+        try {
+            AlertRuleCompiler.compile(source);
+            fail("Compiled: " + source);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expected));
+        }
+    }
+}
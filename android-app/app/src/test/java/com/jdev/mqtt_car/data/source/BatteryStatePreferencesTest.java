@@ -0,0 +1,188 @@
+package com.jdev.mqtt_car.data.source;
+
+import android.content.SharedPreferences;
+
+import com.jdev.mqtt_car.data.analytics.BatteryEstimator;
+import com.jdev.mqtt_car.data.analytics.BatteryForecaster;
+import com.jdev.mqtt_car.model.BatteryForecast;
+import com.jdev.mqtt_car.model.TelemetryData;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BatteryStatePreferencesTest {
+
+    private static final long START_MS = 1_700_000_000_000L;
+
+    // Survives the "restart": only the preferences file outlives the process
+    private final MemoryPreferences file = new MemoryPreferences();
+
+    @Test
+    public void forecastSurvivesARestart() {
+        BatteryForecaster before = new BatteryForecaster(new BatteryStatePreferences(file),
+                BatteryEstimator.DEFAULT_THRESHOLD);
+        long t = drive(before, "car-001", START_MS, 100, 20 * 60_000);
+        drive(before, "car-002", START_MS, 60, 60_000);
+        BatteryForecast expected = before.refresh("car-001");
+        before.persistAll();
+        assertTrue(expected.isKnown());
+        assertEquals(2, file.values.size());
+
+        BatteryForecaster after = new BatteryForecaster(new BatteryStatePreferences(file),
+                BatteryEstimator.DEFAULT_THRESHOLD);
+        assertFalse(after.refresh("car-001").isKnown());
+        // A repeated timestamp adds nothing, it only makes the forecaster load the car
+        after.addSample("car-001", frame("car-001", t, expected.getBattery()));
+
+        BatteryForecast restored = after.refresh("car-001");
+        assertEquals(expected.getBattery(), restored.getBattery());
+        assertEquals(expected.getDrivingDrainPerHour(), restored.getDrivingDrainPerHour(), 1e-3);
+        assertEquals(expected.getRuntimeMinutes(), restored.getRuntimeMinutes());
+    }
+
+    @Test
+    public void unknownCarLoadsNothing() {
+        BatteryStatePreferences store = new BatteryStatePreferences(file);
+        assertNull(store.load("car-009"));
+        store.save("car-009", "state");
+        assertEquals("state", store.load("car-009"));
+        assertNull(store.load("car-001"));
+    }
+
+    /**
+     * Drives at 30 %/h in 500 ms frames, returns the last frame's time
+     */
+    private static long drive(BatteryForecaster forecaster, String deviceId, long from, double level, long durationMs) {
+        long t = from;
+        for (long elapsed = 0; elapsed < durationMs; elapsed += 500) {
+            t = from + elapsed;
+            level -= 30 * 500 / 3_600_000.0;
+            forecaster.addSample(deviceId, frame(deviceId, t, (int) level));
+        }
+        return t;
+    }
+
+    private static TelemetryData frame(String deviceId, long timestamp, int battery) {
+        return new TelemetryData(deviceId, battery, 120, 25, "forward", -60, 200_000, timestamp);
+    }
+
+    /**
+     * Just the string values BatteryStatePreferences uses
+     */
+    private static class MemoryPreferences implements SharedPreferences {
+        final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        public Editor edit() {
+            Map<String, Object> pending = new HashMap<>();
+            return new Editor() {
+                @Override
+                public Editor putString(String key, String value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putInt(String key, int value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putLong(String key, long value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putFloat(String key, float value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putStringSet(String key, Set<String> value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor clear() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public boolean commit() {
+                    values.putAll(pending);
+                    return true;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+            };
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            return values;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
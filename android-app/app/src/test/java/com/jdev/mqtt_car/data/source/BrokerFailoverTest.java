@@ -0,0 +1,287 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.BrokerEndpoint;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fake brokers on loopback sockets that answer the probe's CONNECT after a set delay,
+ * never (stalled), or with a refusing return code. Short probe intervals keep the
+ * failover bound at a few hundred ms.
+ */
+public class BrokerFailoverTest {
+
+    private static final long INTERVAL_MS = 50;
+    private static final int TIMEOUT_MS = 100;
+
+    private final List<FakeBroker> brokers = new ArrayList<>();
+    private final List<String> switches = Collections.synchronizedList(new ArrayList<>());
+    private final BrokerProbe probe = new BrokerProbe("probe-test");
+    private CountDownLatch switched = new CountDownLatch(1);
+    private BrokerFailover failover = new BrokerFailover(probe, INTERVAL_MS, TIMEOUT_MS, (from, to, reason) -> {
+        switches.add(from + ">" + to);
+        switched.countDown();
+    });
+
+    @After
+    public void tearDown() throws IOException {
+        failover.shutdown();
+        for (FakeBroker broker : brokers) {
+            broker.close();
+        }
+    }
+
+    @Test
+    public void raceConnectsToTheFastestBroker() throws Exception {
+        FakeBroker slow = broker(60);
+        FakeBroker fast = broker(0);
+        failover.setEndpoints(Arrays.asList(slow.endpoint, fast.endpoint));
+        assertEquals(slow.endpoint, failover.getActive());
+
+        AtomicReference<BrokerEndpoint> winner = new AtomicReference<>();
+        CountDownLatch decided = new CountDownLatch(1);
+        failover.race(endpoint -> {
+            winner.set(endpoint);
+            decided.countDown();
+        });
+
+        assertTrue(decided.await(2, TimeUnit.SECONDS));
+        assertEquals(fast.endpoint, winner.get());
+        assertEquals(fast.endpoint, failover.getActive());
+    }
+
+    @Test
+    public void raceStaysOnTheActiveBrokerIfNoneAnswers() throws Exception {
+        FakeBroker first = broker(0);
+        FakeBroker second = broker(0);
+        first.stalled = true;
+        second.stalled = true;
+        failover.setEndpoints(Arrays.asList(first.endpoint, second.endpoint));
+
+        AtomicReference<BrokerEndpoint> winner = new AtomicReference<>();
+        CountDownLatch decided = new CountDownLatch(1);
+        failover.race(endpoint -> {
+            winner.set(endpoint);
+            decided.countDown();
+        });
+
+        assertTrue(decided.await(2, TimeUnit.SECONDS));
+        assertEquals(first.endpoint, winner.get());
+    }
+
+    @Test
+    public void stalledBrokerIsLeftWithinTheBoundAndNotReturnedTo() throws Exception {
+        FakeBroker primary = broker(0);
+        FakeBroker standby = broker(0);
+        failover.setEndpoints(Arrays.asList(primary.endpoint, standby.endpoint));
+        failover.start();
+        Thread.sleep(4 * INTERVAL_MS);
+        assertTrue(switches.isEmpty());
+
+        // Accepts TCP but no longer answers CONNECT, like a hung Mosquitto
+        primary.stalled = true;
+        long stalledAt = System.nanoTime();
+        assertTrue(switched.await(2, TimeUnit.SECONDS));
+        long elapsedMs = (System.nanoTime() - stalledAt) / 1_000_000;
+
+        // One round may already be under way when the broker stalls, plus scheduling slack
+        long boundMs = failover.getFailoverBoundMs() + INTERVAL_MS + TIMEOUT_MS + 200;
+        assertTrue("failover took " + elapsedMs + " ms, bound " + boundMs, elapsedMs < boundMs);
+        assertEquals(standby.endpoint, failover.getActive());
+
+        // The primary recovers with the same health as the standby: no reason to go back
+        primary.stalled = false;
+        Thread.sleep(10 * INTERVAL_MS);
+        assertEquals(Collections.singletonList(primary.endpoint + ">" + standby.endpoint), switches);
+        assertEquals(standby.endpoint, failover.getActive());
+    }
+
+    @Test
+    public void refusedConnectionCountsAsFailure() throws Exception {
+        FakeBroker refusing = broker(0);
+        FakeBroker standby = broker(0);
+        refusing.returnCode = 5;   // not authorized
+
+        try {
+            probe.probe(refusing.endpoint, TIMEOUT_MS);
+            fail("refused CONNACK accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("return code 5"));
+        }
+        assertTrue(probe.probe(standby.endpoint, TIMEOUT_MS) >= 0);
+
+        failover.setEndpoints(Arrays.asList(refusing.endpoint, standby.endpoint));
+        failover.start();
+        assertTrue(switched.await(2, TimeUnit.SECONDS));
+        // One refusal already costs more than the switch margin, no need to wait until it is down
+        assertTrue(failover.getHealth(refusing.endpoint).getScore()
+                <= failover.getHealth(standby.endpoint).getScore() - BrokerFailover.SWITCH_MARGIN);
+        assertEquals(standby.endpoint, failover.getActive());
+    }
+
+    @Test
+    public void lostBrokerIsReplacedByAConnectedStandby() throws Exception {
+        FakeBroker primary = broker(0);
+        FakeBroker standby = broker(0);
+        List<BrokerEndpoint> connects = Collections.synchronizedList(new ArrayList<>());
+        List<BrokerEndpoint> closed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch reconnected = new CountDownLatch(2);
+        // Stand-in client: connecting is a CONNECT/CONNACK round trip with the broker
+        BrokerSwitch.Clients<BrokerEndpoint> clients = new BrokerSwitch.Clients<BrokerEndpoint>() {
+            @Override
+            public BrokerEndpoint create(BrokerEndpoint endpoint) {
+                return endpoint;
+            }
+
+            @Override
+            public void connect(BrokerEndpoint client) {
+                try {
+                    probe.probe(client, TIMEOUT_MS);
+                    connects.add(client);
+                    reconnected.countDown();
+                } catch (IOException e) {
+                    fail("connect to " + client + " failed: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void close(BrokerEndpoint client) {
+                closed.add(client);
+            }
+        };
+        BrokerSwitch<BrokerEndpoint> brokerSwitch = new BrokerSwitch<>(clients);
+        failover = new BrokerFailover(probe, INTERVAL_MS, TIMEOUT_MS,
+                (from, to, reason) -> brokerSwitch.switchTo(to));
+        failover.setEndpoints(Arrays.asList(primary.endpoint, standby.endpoint));
+
+        brokerSwitch.setWantConnected(true);
+        clients.connect(brokerSwitch.use(failover.getActive()));
+        failover.start();
+
+        // The broker dies: the client is lost, not disconnected, and nothing else reconnects it
+        primary.close();
+        long lostAt = System.nanoTime();
+        failover.onActiveLost();
+
+        assertTrue(reconnected.await(2, TimeUnit.SECONDS));
+        long elapsedMs = (System.nanoTime() - lostAt) / 1_000_000;
+        long boundMs = failover.getFailoverBoundMs() + INTERVAL_MS + TIMEOUT_MS + 200;
+        assertTrue("reconnect took " + elapsedMs + " ms, bound " + boundMs, elapsedMs < boundMs);
+        assertEquals(Arrays.asList(primary.endpoint, standby.endpoint), connects);
+        assertEquals(standby.endpoint, brokerSwitch.getClient());
+        // The lost client is closed so it stops retrying the dead broker
+        assertEquals(Collections.singletonList(primary.endpoint), closed);
+    }
+
+    @Test
+    public void switchAfterAnExplicitDisconnectDoesNotConnect() throws Exception {
+        List<String> calls = new ArrayList<>();
+        BrokerSwitch<BrokerEndpoint> brokerSwitch = new BrokerSwitch<>(new BrokerSwitch.Clients<BrokerEndpoint>() {
+            @Override
+            public BrokerEndpoint create(BrokerEndpoint endpoint) {
+                return endpoint;
+            }
+
+            @Override
+            public void connect(BrokerEndpoint client) {
+                calls.add("connect " + client.getPort());
+            }
+
+            @Override
+            public void close(BrokerEndpoint client) {
+                calls.add("close " + client.getPort());
+            }
+        });
+        brokerSwitch.use(new BrokerEndpoint("127.0.0.1", 1883));
+        brokerSwitch.setWantConnected(true);
+        brokerSwitch.setWantConnected(false);
+
+        assertTrue(brokerSwitch.switchTo(new BrokerEndpoint("127.0.0.1", 1884)));
+        assertFalse(brokerSwitch.switchTo(new BrokerEndpoint("127.0.0.1", 1884)));
+        assertEquals(Collections.singletonList("close 1883"), calls);
+    }
+
+    private FakeBroker broker(long delayMs) throws IOException {
+        FakeBroker broker = new FakeBroker(delayMs);
+        brokers.add(broker);
+        return broker;
+    }
+
+    /**
+     * Accepts connections and answers one CONNECT per connection
+     */
+    private static final class FakeBroker {
+        final ServerSocket server;
+        final BrokerEndpoint endpoint;
+        final long delayMs;
+        volatile boolean stalled;
+        volatile int returnCode;
+
+        FakeBroker(long delayMs) throws IOException {
+            this.delayMs = delayMs;
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            endpoint = new BrokerEndpoint(server.getInetAddress().getHostAddress(), server.getLocalPort());
+            Thread acceptor = new Thread(this::acceptLoop, "fake-broker");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void acceptLoop() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread handler = new Thread(() -> handle(socket), "fake-broker-conn");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;   // closed
+                }
+            }
+        }
+
+        private void handle(Socket socket) {
+            try (Socket s = socket) {
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                if (in.readUnsignedByte() != 0x10) {
+                    return;
+                }
+                in.skipBytes(in.readUnsignedByte());
+                if (stalled) {
+                    s.setSoTimeout(5_000);
+                    in.read();   // hold the connection open until the probe gives up
+                    return;
+                }
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+                OutputStream out = s.getOutputStream();
+                out.write(new byte[]{0x20, 0x02, 0x00, (byte) returnCode});
+                out.flush();
+                in.read();   // DISCONNECT or close
+            } catch (IOException | InterruptedException e) {
+                // probe went away
+            }
+        }
+
+        void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.DeviceProfile;
+import com.jdev.mqtt_car.model.MqttConfig;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class ConfigRepositoryTest {
+
+    private final Queue<Runnable> io = new ArrayDeque<>();
+    private final List<MqttConfig> saved = new ArrayList<>();
+    private int loads;
+
+    private final ConfigRepository.Storage storage = new ConfigRepository.Storage() {
+        @Override
+        public MqttConfig load() {
+            loads++;
+            return new MqttConfig.Builder()
+                    .setActiveDeviceId("car-007")
+                    .putProfile(DeviceProfile.defaults("car-007").withBroker("10.0.0.5", 1884))
+                    .setConfigured(true)
+                    .build();
+        }
+
+        @Override
+        public void save(MqttConfig config) {
+            saved.add(config);
+        }
+    };
+
+    // Listener callbacks run inline, I/O is drained by the test
+    private final ConfigRepository repository = new ConfigRepository(storage, io::add, Runnable::run);
+
+    @Test
+    public void loadsOnceInTheBackground() {
+        List<MqttConfig> delivered = new ArrayList<>();
+        repository.preload();
+        repository.preload();
+        repository.whenLoaded(delivered::add);
+
+        assertFalse(repository.isLoaded());
+        assertTrue("nothing delivered before the load ran", delivered.isEmpty());
+
+        drainIo();
+        assertEquals(1, loads);
+        assertEquals(1, delivered.size());
+        assertEquals("tcp://10.0.0.5:1884", delivered.get(0).getActiveProfile().getBrokerUrl());
+
+        // Once loaded, reads and late callers never touch storage again
+        repository.whenLoaded(delivered::add);
+        assertEquals(2, delivered.size());
+        assertSame(delivered.get(0), repository.get());
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void burstOfEditsIsWrittenOnce() {
+        repository.preload();
+        drainIo();
+
+        List<MqttConfig> changes = new ArrayList<>();
+        repository.addListener(changes::add);
+
+        repository.update(c -> c.putProfile(c.profile("car-008").withBroker("10.0.0.9", 1883))
+                .setActiveDeviceId("car-008"));
+        repository.update(c -> c.setRemember(false));
+        repository.update(c -> c.setCredentials("user", "secret"));
+
+        assertEquals(3, changes.size());
+        assertEquals("car-008", repository.get().getActiveDeviceId());
+        assertTrue("not written until the I/O thread runs", saved.isEmpty());
+
+        drainIo();
+        assertEquals(1, saved.size());
+        MqttConfig written = saved.get(0);
+        assertEquals("car-008", written.getActiveDeviceId());
+        assertFalse(written.shouldRemember());
+        assertTrue(written.hasCredentials());
+        // The other car's profile is kept
+        assertEquals(1884, written.getProfile("car-007").getBrokerPort());
+    }
+
+    @Test
+    public void profileClampsRateAndQos() {
+        DeviceProfile profile = new DeviceProfile("car-001", "10.0.0.1", 1883, 5, -1, true, 1000);
+        assertEquals(2, profile.getCommandQos());
+        assertEquals(0, profile.getTelemetryQos());
+        assertEquals(DeviceProfile.MAX_DRIVE_RATE_HZ, profile.getMaxDriveRateHz());
+    }
+
+    private void drainIo() {
+        Runnable task;
+        while ((task = io.poll()) != null) {
+            task.run();
+        }
+    }
+}
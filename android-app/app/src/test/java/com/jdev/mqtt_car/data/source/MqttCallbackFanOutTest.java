@@ -0,0 +1,178 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.LeaseHealth;
+import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MqttCallbackFanOutTest {
+
+    private final MqttCallbackFanOut fanOut = new MqttCallbackFanOut();
+
+    @Test
+    public void lateListenerGetsCurrentStateReplayed() {
+        fanOut.onConnected();
+        fanOut.onTelemetryIntervalChanged("car-001", 100);
+        fanOut.onCarStatusReceived(new CarStatus("car-001", CarStatus.STATUS_ONLINE, "1.0"));
+        fanOut.onTelemetryReceived(frame(80));
+        fanOut.onTelemetryReceived(frame(79));
+        fanOut.onCommandAck(new CommandAck());   // one-shot, not replayed
+
+        Recorder late = new Recorder();
+        fanOut.add(late);
+        assertEquals(List.of("connected", "interval 100", "status online", "telemetry 79"), late.events);
+
+        // After a drop nothing is known to be true any more, not even the last "online"
+        fanOut.onDisconnected();
+        Recorder later = new Recorder();
+        fanOut.add(later);
+        assertEquals(List.of(), later.events);
+        assertEquals("disconnected", late.events.get(late.events.size() - 1));
+    }
+
+    @Test
+    public void everyListenerOwnsItsOwnRecord() {
+        TelemetryRecordPool pool = new TelemetryRecordPool(2);
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        fanOut.add(first);
+        fanOut.add(second);
+
+        for (int i = 0; i < 1000; i++) {
+            TelemetryRecord record = pool.acquire();
+            record.setDeviceId("car-001");
+            record.setBattery(50);
+            record.setTimestamp(i);
+            fanOut.onTelemetryRecord(record);
+        }
+        assertEquals(1000, first.records);
+        assertEquals(1000, second.records);
+        // Both released what they got: nothing leaked, no record shared
+        assertEquals(2, pool.available());
+        assertEquals(0, pool.getMisses());
+
+        // Nobody listening: the record goes straight back
+        fanOut.remove(first);
+        fanOut.remove(second);
+        TelemetryRecord record = pool.acquire();
+        fanOut.onTelemetryRecord(record);
+        assertFalse(record.isInUse());
+    }
+
+    @Test
+    public void listenerMayLeaveFromInsideACallback() {
+        Recorder stays = new Recorder();
+        Recorder leaves = new Recorder() {
+            @Override
+            public void onTelemetryReceived(TelemetryData telemetryData) {
+                super.onTelemetryReceived(telemetryData);
+                fanOut.remove(this);
+            }
+        };
+        fanOut.add(leaves);
+        fanOut.add(stays);
+
+        fanOut.onTelemetryReceived(frame(60));
+        fanOut.onTelemetryReceived(frame(59));
+        assertEquals(1, leaves.events.size());
+        assertEquals(2, stays.events.size());
+        assertEquals(1, fanOut.size());
+    }
+
+    @Test
+    public void slowListenerDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        fanOut.add(new Recorder() {
+            @Override
+            public void onCarStatusReceived(CarStatus carStatus) {
+                inside.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Thread slow = new Thread(() ->
+                fanOut.onCarStatusReceived(new CarStatus("car-001", CarStatus.STATUS_ONLINE, "1.0")));
+        slow.start();
+        try {
+            assertTrue(inside.await(2, TimeUnit.SECONDS));
+
+            // While it is stuck, other callbacks and add/remove go through
+            Recorder other = new Recorder();
+            fanOut.add(other);
+            fanOut.onTelemetryReceived(frame(70));
+            fanOut.remove(other);
+            assertEquals(List.of("status online", "telemetry 70"), other.events);
+        } finally {
+            release.countDown();
+            slow.join();
+        }
+    }
+
+    private static TelemetryData frame(int battery) {
+        return new TelemetryData("car-001", battery, 50, 25, "stop", -60, 100_000, System.currentTimeMillis());
+    }
+
+    private static class Recorder implements MqttManager.MqttCallback {
+        final List<String> events = new ArrayList<>();
+        int records;
+
+        @Override
+        public void onConnected() {
+            events.add("connected");
+        }
+
+        @Override
+        public void onDisconnected() {
+            events.add("disconnected");
+        }
+
+        @Override
+        public void onTelemetryReceived(TelemetryData telemetryData) {
+            events.add("telemetry " + telemetryData.getBattery());
+        }
+
+        @Override
+        public void onTelemetryRecord(TelemetryRecord record) {
+            assertEquals(50, record.getBattery());
+            records++;
+            record.release();
+        }
+
+        @Override
+        public void onCarStatusReceived(CarStatus carStatus) {
+            events.add("status " + carStatus.getStatus());
+        }
+
+        @Override
+        public void onCommandAck(CommandAck ack) {
+            events.add("ack");
+        }
+
+        @Override
+        public void onLeaseHealthChanged(String deviceId, LeaseHealth health) {
+        }
+
+        @Override
+        public void onTelemetryIntervalChanged(String deviceId, int intervalMs) {
+            events.add("interval " + intervalMs);
+        }
+
+        @Override
+        public void onError(String message) {
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.jdev.mqtt_car.data.source;
+
+import com.google.gson.Gson;
+import com.jdev.mqtt_car.data.analytics.BatteryEstimator;
+import com.jdev.mqtt_car.data.analytics.BatteryForecaster;
+import com.jdev.mqtt_car.data.analytics.LivenessTracker;
+import com.jdev.mqtt_car.data.analytics.TelemetryAnomalyDetector;
+import com.jdev.mqtt_car.data.odometry.OdometryEngine;
+import com.jdev.mqtt_car.data.rules.AlertRule;
+import com.jdev.mqtt_car.data.rules.AlertRuleCompiler;
+import com.jdev.mqtt_car.data.rules.AlertRuleEngine;
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.CommandAck;
+import com.jdev.mqtt_car.model.LeaseHealth;
+import com.jdev.mqtt_car.model.OdometryCalibration;
+import com.jdev.mqtt_car.model.TelemetryData;
+import com.jdev.mqtt_car.model.TelemetryRecord;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the pooled decoder against Gson and measures steady-state allocation
+ * of the pooled receive path.
+ */
+public class TelemetryDecoderTest {
+
+    private static final String FRAME = "{\"device_id\":\"car-001\",\"timestamp\":123456,\"battery\":87,"
+            + "\"distance_front\":142,\"temperature\":25,\"current_action\":\"forward\","
+            + "\"wifi_rssi\":-61,\"free_heap\":214512}";
+
+    @Test
+    public void decodesSameValuesAsGson() {
+        TelemetryData expected = new Gson().fromJson(FRAME, TelemetryData.class);
+        TelemetryRecordPool pool = new TelemetryRecordPool(1);
+        TelemetryRecord record = pool.acquire();
+        byte[] payload = FRAME.getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(new TelemetryDecoder().decode(payload, 0, payload.length, 42L, record));
+
+        assertEquals(expected.getDeviceId(), record.getDeviceId());
+        assertEquals(expected.getBattery(), record.getBattery());
+        assertEquals(expected.getDistanceFront(), record.getDistanceFront());
+        assertEquals(expected.getTemperature(), record.getTemperature());
+        assertEquals(expected.getCurrentAction(), record.getCurrentAction());
+        assertEquals(expected.getWifiRssi(), record.getWifiRssi());
+        assertEquals(expected.getFreeHeap(), record.getFreeHeap());
+        assertEquals(123456L, record.getDeviceMillis());
+        assertEquals(42L, record.getTimestamp());
+
+        TelemetryData copy = record.toTelemetryData();
+        assertEquals(123456L, copy.getDeviceMillis());
+        assertEquals(42L, copy.getTimestamp());
+        record.release();
+    }
+
+    @Test
+    public void skipsUnknownKeysAndRejectsGarbage() {
+        TelemetryDecoder decoder = new TelemetryDecoder();
+        TelemetryRecordPool pool = new TelemetryRecordPool(1);
+
+        String withExtras = "{ \"simulation\": true, \"nested\": {\"a\":[1,{\"b\":\"}\"}]}, "
+                + "\"temperature\": 24.75, \"current_action\": \"stop\" }";
+        TelemetryRecord record = pool.acquire();
+        byte[] payload = withExtras.getBytes(StandardCharsets.UTF_8);
+        assertTrue(decoder.decode(payload, 0, payload.length, 0, record));
+        assertEquals(24, record.getTemperature());
+        assertEquals("stop", record.getCurrentAction());
+        record.release();
+
+        record = pool.acquire();
+        byte[] garbage = "{\"battery\":}".getBytes(StandardCharsets.UTF_8);
+        assertFalse(decoder.decode(garbage, 0, garbage.length, 0, record));
+        record.release();
+
+        record = pool.acquire();
+        byte[] badEscape = "{\"current_action\":\"st\\uZZZZop\"}".getBytes(StandardCharsets.UTF_8);
+        assertFalse(decoder.decode(badEscape, 0, badEscape.length, 0, record));
+        record.release();
+
+        record = pool.acquire();
+        byte[] escaped = "{\"current_action\":\"st\\u006fp\"}".getBytes(StandardCharsets.UTF_8);
+        assertTrue(decoder.decode(escaped, 0, escaped.length, 0, record));
+        assertEquals("stop", record.getCurrentAction());
+        record.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleReleaseIsAnError() {
+        TelemetryRecord record = new TelemetryRecordPool(1).acquire();
+        record.release();
+        record.release();
+    }
+
+    @Test
+    public void pooledReceivePathDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeAllocationCounting(bean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+
+        TelemetryRecordPool pool = new TelemetryRecordPool();
+        TelemetryDecoder decoder = new TelemetryDecoder();
+        TelemetryAnomalyDetector detector = new TelemetryAnomalyDetector(alert -> { });
+        byte[][] frames = new byte[8][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = FRAME.replace("\"battery\":87", "\"battery\":" + (80 + i))
+                    .replace("\"free_heap\":214512", "\"free_heap\":" + (214512 + i * 8))
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+
+        long time = 1_700_000_000_000L;
+        int iterations = 200_000;
+        // Warm up so the JIT and the string table settle
+        for (int i = 0; i < iterations; i++) {
+            time += 500;
+            receive(pool, decoder, detector, frames[i & 7], time);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            time += 500;
+            receive(pool, decoder, detector, frames[i & 7], time);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(0, pool.getMisses());
+        // A few hundred bytes of measurement noise at most, nothing per frame
+        assertTrue("allocated " + allocated + " bytes", allocated < iterations / 10);
+    }
+
+    /**
+     * Decoder, fan-out to two screens and the per-frame consumers MainViewModel.onTelemetryRecord
+     * runs in pooled mode: battery, anomalies, rules, liveness and the path. The UI copy it
+     * makes at most every 100 ms is left out, that one allocates by design.
+     */
+    @Test
+    public void pooledReceivePathThroughListenersDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeAllocationCounting(bean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+
+        TelemetryRecordPool pool = new TelemetryRecordPool();
+        TelemetryDecoder decoder = new TelemetryDecoder();
+        MqttCallbackFanOut fanOut = new MqttCallbackFanOut();
+        PooledConsumers screen = new PooledConsumers();
+        PooledConsumers background = new PooledConsumers();
+        fanOut.add(background);
+        fanOut.add(screen);
+
+        // Fixed-width device time, rewritten in place for every frame
+        byte[] frame = FRAME.replace("\"timestamp\":123456", "\"timestamp\":0000000000")
+                .getBytes(StandardCharsets.UTF_8);
+        int timeAt = FRAME.indexOf("\"timestamp\":") + "\"timestamp\":".length();
+
+        long time = 1_700_000_000_000L;
+        int iterations = 100_000;
+        for (int i = 0; i < iterations; i++) {
+            time += 100;
+            receive(pool, decoder, fanOut, frame, timeAt, time);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        int savesBefore = screen.saves + background.saves;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            time += 100;
+            receive(pool, decoder, fanOut, frame, timeAt, time);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        int saves = screen.saves + background.saves - savesBefore;
+
+        assertEquals(0, pool.getMisses());
+        // Warm-up and measured frames, each seen by both listeners
+        assertEquals(4 * iterations, screen.frames + background.frames);
+        assertTrue(screen.odometry.takeChanged());
+        // What may allocate is periodic: the fan-out's replay copy every REPLAY_REFRESH_MS and
+        // the battery state saved every 30 s
+        long replayCopies = iterations * 100L / MqttCallbackFanOut.REPLAY_REFRESH_MS;
+        BatteryEstimator estimator = screen.forecaster.addSample("car-001", new TelemetryRecord(null));
+        long saveStart = threads.getThreadAllocatedBytes(threadId);
+        estimator.saveState();
+        long saveBytes = threads.getThreadAllocatedBytes(threadId) - saveStart;
+        long budget = replayCopies * 200 + saves * saveBytes * 3 / 2 + iterations / 10;
+        assertTrue("allocated " + allocated + " bytes", allocated < budget);
+    }
+
+    private static void receive(TelemetryRecordPool pool, TelemetryDecoder decoder,
+                                MqttCallbackFanOut fanOut, byte[] frame, int timeAt, long time) {
+        long deviceMillis = time - 1_700_000_000_000L;
+        for (int i = timeAt + 9; i >= timeAt; i--) {
+            frame[i] = (byte) ('0' + deviceMillis % 10);
+            deviceMillis /= 10;
+        }
+        TelemetryRecord record = pool.acquire();
+        if (decoder.decode(frame, 0, frame.length, time, record)) {
+            fanOut.onTelemetryRecord(record);
+        } else {
+            record.release();
+        }
+    }
+
+    private static final class PooledConsumers implements MqttManager.MqttCallback {
+        final BatteryForecaster forecaster = new BatteryForecaster(new BatteryForecaster.StateStore() {
+            @Override
+            public String load(String deviceId) {
+                return null;
+            }
+
+            @Override
+            public void save(String deviceId, String state) {
+                saves++;
+            }
+        }, BatteryEstimator.DEFAULT_THRESHOLD);
+        final TelemetryAnomalyDetector detector = new TelemetryAnomalyDetector(alert -> { });
+        final AlertRuleEngine rules = new AlertRuleEngine(new AlertRuleEngine.Listener() {
+            @Override
+            public void onRuleFired(String deviceId, AlertRule rule, double value, long nowMs) {
+            }
+
+            @Override
+            public void onRuleCleared(String deviceId, AlertRule rule, long nowMs) {
+            }
+        });
+        final LivenessTracker liveness = new LivenessTracker((deviceId, state) -> { });
+        final OdometryEngine odometry = new OdometryEngine(OdometryCalibration.DEFAULT);
+        int frames;
+        int saves;
+
+        PooledConsumers() {
+            rules.setRules(AlertRuleCompiler.compile("low_battery: battery < 20 clear battery >= 25\n"
+                    + "obstacle: distance_front < 15 and action == forward\n"
+                    + "weak_signal: wifi_rssi < -80 for 10s\n"));
+        }
+
+        @Override
+        public void onTelemetryRecord(TelemetryRecord record) {
+            try {
+                String deviceId = record.getDeviceId();
+                forecaster.addSample(deviceId, record);
+                detector.onTelemetry(deviceId, record);
+                rules.onTelemetry(deviceId, record);
+                liveness.onTelemetry(deviceId, record.getTimestamp());
+                odometry.onTelemetry(record);
+                frames++;
+            } finally {
+                record.release();
+            }
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onTelemetryReceived(TelemetryData telemetryData) {
+        }
+
+        @Override
+        public void onCarStatusReceived(CarStatus carStatus) {
+        }
+
+        @Override
+        public void onCommandAck(CommandAck ack) {
+        }
+
+        @Override
+        public void onLeaseHealthChanged(String deviceId, LeaseHealth health) {
+        }
+
+        @Override
+        public void onError(String message) {
+        }
+    }
+
+    private static void receive(TelemetryRecordPool pool, TelemetryDecoder decoder,
+                                TelemetryAnomalyDetector detector, byte[] frame, long time) {
+        TelemetryRecord record = pool.acquire();
+        if (decoder.decode(frame, 0, frame.length, time, record)) {
+            detector.onTelemetry(record.getDeviceId(), record);
+        }
+        record.release();
+    }
+
+    private static void assumeAllocationCounting(java.lang.management.ThreadMXBean bean) {
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return;
+            }
+        }
+        org.junit.Assume.assumeTrue("thread allocation counting not supported", false);
+    }
+}
@@ -0,0 +1,105 @@
+package com.jdev.mqtt_car.data.state;
+
+import com.jdev.mqtt_car.model.CarState;
+import com.jdev.mqtt_car.model.CarStatus;
+import com.jdev.mqtt_car.model.DeviceLiveness;
+import com.jdev.mqtt_car.model.MqttConnectionState;
+import com.jdev.mqtt_car.model.TelemetryData;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class CarStateStoreTest {
+
+    private static final String DEVICE = "car-001";
+
+    // Writer runs inline, the "main thread" queue is drained by the test
+    private final Queue<Runnable> mainThread = new ArrayDeque<>();
+    private final List<CarState> delivered = new ArrayList<>();
+    private final List<Integer> deliveredChanges = new ArrayList<>();
+
+    private final CarStateStore store = new CarStateStore(Runnable::run, mainThread::add, (state, changes) -> {
+        delivered.add(state);
+        deliveredChanges.add(changes);
+    });
+
+    @Test
+    public void burstOfCommitsIsDeliveredOnceWithMergedMask() {
+        store.dispatch(DEVICE, s -> s.withConnection(MqttConnectionState.CONNECTED));
+        for (int i = 0; i < 100; i++) {
+            store.dispatch(DEVICE, s -> s.withTelemetry(telemetry(), null));
+        }
+        store.dispatch(DEVICE, s -> s.withCommandedAction("forward"));
+
+        assertEquals("one main-thread handoff", 1, mainThread.size());
+        drain();
+
+        assertEquals(1, delivered.size());
+        assertEquals(CarState.CONNECTION | CarState.TELEMETRY | CarState.ACTION, (int) deliveredChanges.get(0));
+        assertSame(store.get(DEVICE), delivered.get(0));
+    }
+
+    @Test
+    public void disconnectResetsConnectionStatusAndTelemetryTogether() {
+        store.dispatch(DEVICE, s -> s.withConnection(MqttConnectionState.CONNECTED)
+                .withReportedStatus(new CarStatus(DEVICE, CarStatus.STATUS_ONLINE, "1.0")));
+        store.dispatch(DEVICE, s -> s.withTelemetry(telemetry(), null));
+        drain();
+
+        store.dispatch(DEVICE, CarState::disconnected);
+        drain();
+
+        CarState state = delivered.get(delivered.size() - 1);
+        assertEquals(CarState.CONNECTION | CarState.STATUS | CarState.TELEMETRY | CarState.LEASE,
+                (int) deliveredChanges.get(deliveredChanges.size() - 1));
+        assertEquals(MqttConnectionState.DISCONNECTED, state.getConnection());
+        assertEquals(CarStatus.STATUS_OFFLINE, state.getStatus().getStatus());
+        assertEquals(0, state.getTelemetry().getBattery());
+    }
+
+    @Test
+    public void noOpReducerPublishesNothing() {
+        store.dispatch(DEVICE, s -> s.withLiveness(DeviceLiveness.UNKNOWN));
+        store.dispatch(DEVICE, s -> s);
+        assertTrue(mainThread.isEmpty());
+    }
+
+    @Test
+    public void livenessOverlaysReportedStatus() {
+        store.dispatch(DEVICE, s -> s.withReportedStatus(new CarStatus(DEVICE, CarStatus.STATUS_ONLINE, "1.0")));
+        store.dispatch(DEVICE, s -> s.withLiveness(DeviceLiveness.STALE));
+        assertEquals(CarStatus.STATUS_STALE, store.get(DEVICE).getStatus().getStatus());
+
+        // The LWT's offline is never hidden by liveness
+        store.dispatch(DEVICE, s -> s.withReportedStatus(new CarStatus(DEVICE, CarStatus.STATUS_OFFLINE, "1.0")));
+        store.dispatch(DEVICE, s -> s.withLiveness(DeviceLiveness.LIVE));
+        assertEquals(CarStatus.STATUS_OFFLINE, store.get(DEVICE).getStatus().getStatus());
+    }
+
+    @Test
+    public void devicesAreDeliveredIndependently() {
+        store.dispatch("car-a", s -> s.withTelemetry(telemetry(), null));
+        store.dispatch("car-b", s -> s.withTelemetry(telemetry(), null));
+        assertEquals(2, mainThread.size());
+        drain();
+        assertEquals("car-a", delivered.get(0).getDeviceId());
+        assertEquals("car-b", delivered.get(1).getDeviceId());
+    }
+
+    private void drain() {
+        Runnable task;
+        while ((task = mainThread.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static TelemetryData telemetry() {
+        return new TelemetryData(DEVICE, 80, 120, 25, "forward", -60, 200_000, System.currentTimeMillis());
+    }
+}
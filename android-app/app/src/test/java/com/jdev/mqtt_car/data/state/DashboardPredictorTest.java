@@ -0,0 +1,117 @@
+package com.jdev.mqtt_car.data.state;
+
+import com.jdev.mqtt_car.model.DashboardPrediction;
+import com.jdev.mqtt_car.model.TelemetryData;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DashboardPredictorTest {
+
+    private static final String DEVICE = "car-001";
+
+    private final DashboardPredictor predictor = new DashboardPredictor();
+
+    @Test
+    public void commandIsShownAtOnceAndConfirmedByTelemetry() {
+        predictor.onTelemetry(frame(0, "stop", 100));
+
+        DashboardPrediction commanded = predictor.onCommand("forward", 100);
+        assertEquals("FORWARD", commanded.getActionDisplay());
+        assertTrue(commanded.isActionPending());
+
+        DashboardPrediction confirmed = predictor.onTelemetry(frame(500, "forward", 100));
+        assertEquals("forward", confirmed.getAction());
+        assertFalse(confirmed.isActionPending());
+        assertFalse(confirmed.isDivergent());
+    }
+
+    @Test
+    public void unconfirmedCommandIsRolledBackAndFlagged() {
+        predictor.onTelemetry(frame(0, "stop", 100));
+        predictor.onCommand("forward", 100);
+
+        // Frames sent before the command got there do not count against it
+        assertEquals("forward", predictor.onTelemetry(frame(500, "stop", 100)).getAction());
+        assertTrue(predictor.onTelemetry(frame(1000, "stop", 100)).isActionPending());
+
+        DashboardPrediction rolledBack = predictor.onTelemetry(frame(1700, "stop", 100));
+        assertEquals("IDLE", rolledBack.getActionDisplay());
+        assertFalse(rolledBack.isActionPending());
+        assertTrue(rolledBack.isDivergent());
+        assertTrue(rolledBack.getDivergence(), rolledBack.getDivergence().contains("commanded forward"));
+
+        assertFalse(predictor.onTelemetry(frame(2200, "stop", 100)).isDivergent());
+    }
+
+    @Test
+    public void distanceFollowsClosingRateAndFreezesWithoutTelemetry() {
+        predictor.onTelemetry(frame(0, "forward", 100));
+        predictor.onTelemetry(frame(500, "forward", 90));
+        DashboardPrediction measured = predictor.onTelemetry(frame(1000, "forward", 80));
+        assertFalse(measured.isExtrapolated());
+        assertFalse(measured.isDivergent());
+        assertEquals(20, predictor.getClosingSpeed(), 0.001);
+
+        DashboardPrediction between = predictor.predict(1250);
+        assertEquals(75, between.getDistanceCm());
+        assertEquals("~75cm", between.getDistanceDisplay());
+        assertTrue(predictor.isExtrapolating(1500));
+
+        // Telemetry stopped: the value moves no further than MAX_EXTRAPOLATION_MS past the last frame
+        assertEquals(60, predictor.predict(5000).getDistanceCm());
+        assertFalse(predictor.isExtrapolating(1000 + DashboardPredictor.MAX_EXTRAPOLATION_MS));
+    }
+
+    @Test
+    public void mispredictedDistanceIsRolledBackAndStopHoldsIt() {
+        predictor.onTelemetry(frame(0, "forward", 100));
+        predictor.onTelemetry(frame(500, "forward", 90));
+        predictor.onTelemetry(frame(1000, "forward", 80));
+
+        // 70 predicted, an obstacle moved in: the measured value wins and the miss is reported
+        DashboardPrediction missed = predictor.onTelemetry(frame(1500, "forward", 40));
+        assertEquals(40, missed.getDistanceCm());
+        assertFalse(missed.isExtrapolated());
+        assertTrue(missed.getDivergence(), missed.getDivergence().contains("distance"));
+
+        // Closing speed is now 50 cm/s; a stop keeps what was covered until then
+        predictor.onCommand("stop", 1600);
+        DashboardPrediction stopped = predictor.predict(1900);
+        assertEquals(35, stopped.getDistanceCm());
+        assertTrue(stopped.isActionPending());
+        assertFalse(predictor.isExtrapolating(1900));
+
+        DashboardPrediction settled = predictor.onTelemetry(frame(2000, "stop", 36));
+        assertEquals("36cm", settled.getDistanceDisplay());
+        assertFalse(settled.isActionPending());
+        assertFalse(settled.isDivergent());
+
+        predictor.reset();
+        assertSame(DashboardPrediction.NONE, predictor.predict(2100));
+    }
+
+    @Test
+    public void noEchoReadingIsNeitherLearnedNorShown() {
+        predictor.onTelemetry(frame(0, "forward", 100));
+        predictor.onTelemetry(frame(500, "forward", 90));
+
+        // 999: the sensor got no echo, the distance keeps following the learned speed
+        DashboardPrediction noEcho = predictor.onTelemetry(frame(1000, "forward", 999));
+        assertEquals(80, noEcho.getDistanceCm());
+        assertTrue(noEcho.isExtrapolated());
+        assertFalse(noEcho.isDivergent());
+        assertEquals(20, predictor.getClosingSpeed(), 0.001);
+
+        // The next valid reading is learned against the last valid one and agrees with the prediction
+        DashboardPrediction measured = predictor.onTelemetry(frame(1500, "forward", 70));
+        assertEquals(70, measured.getDistanceCm());
+        assertFalse(measured.isDivergent());
+        assertEquals(20, predictor.getClosingSpeed(), 0.001);
+    }
+
+    private static TelemetryData frame(long timeMs, String action, int distance) {
+        return new TelemetryData(DEVICE, 80, distance, 25, action, -60, 200_000, timeMs);
+    }
+}
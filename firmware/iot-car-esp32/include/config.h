@@ -43,7 +43,13 @@ const int QOS_STATUS = 1;     // Ensure delivery
 #define PIN_ULTRASONIC_ECHO 33
 
 // Timing Configuration
-#define TELEMETRY_INTERVAL 500  // Send telemetry every 5 seconds
+#define TELEMETRY_INTERVAL 500  // Default telemetry interval, the app can renegotiate it
+#define TELEMETRY_INTERVAL_MIN 50    // Bounds for {"action":"rate"} requests
+#define TELEMETRY_INTERVAL_MAX 10000
 #define MQTT_RECONNECT_DELAY 5000
 
+// Joystick drive mode
+#define DRIVE_FAILSAFE_TIMEOUT 600 // Stop if no drive frame/heartbeat within this time (app heartbeat is 200ms)
+#define DRIVE_DEADZONE 15          // Setpoints below this magnitude count as stop
+
 #endif // CONFIG_H
@@ -33,6 +33,7 @@ NewPing sonar(PIN_ULTRASONIC_TRIG, PIN_ULTRASONIC_ECHO, MAX_DISTANCE);
 
 // Timing variables
 unsigned long lastTelemetryTime = 0;
+unsigned long telemetryInterval = TELEMETRY_INTERVAL; // set by the app with {"action":"rate"}
 unsigned long lastHeartbeat = 0;
 unsigned int messageCount = 0;
 
@@ -42,6 +43,17 @@ String previousCommand = "stop";
 unsigned long commandStartTime = 0;
 const unsigned long COMMAND_DURATION = 10000; // LEDs stay on for 10 seconds
 
+// Joystick drive mode state
+bool driveActive = false;
+unsigned long lastDriveFrameTime = 0;
+
+// Command lease state - a held button keeps the car moving only while renewals arrive
+String leaseId = "";          // command_id of the leased command, empty when released
+String leaseCommand = "stop"; // command to resume if a renewal arrives after expiry
+bool leaseActive = false;     // car is currently moving under the lease
+unsigned long leaseDuration = 0;
+unsigned long leaseRenewedAt = 0;
+
 bool isWiFiConnected = false;
 
 // ============================================
@@ -53,7 +65,10 @@ void reconnectMQTT();
 void mqttCallback(char *topic, byte *payload, unsigned int length);
 void sendTelemetry();
 void sendTestMessage();
-void handleCommand(const char *command);
+void handleCommand(const char *command, const char *commandId, unsigned long leaseMs);
+void handleDrive(int throttle, int steering);
+void handleRenew(const char *lease, int seq);
+void handleRate(unsigned long intervalMs);
 void setupPins();
 void testMotorLEDs();
 float readUltrasonic();
@@ -120,7 +135,7 @@ void loop()
     updateMotorLEDs(); // methana idan code eka ayee refer karanna patan ganna heta
 
     // Send telemetry periodically
-    if (millis() - lastTelemetryTime >= TELEMETRY_INTERVAL)
+    if (millis() - lastTelemetryTime >= telemetryInterval)
     {
         sendTelemetry();
         lastTelemetryTime = millis();
@@ -218,6 +233,9 @@ void reconnectMQTT()
 
             Serial.println(" Connected!");
 
+            // A negotiated rate belonged to the previous session, the app asks again on connect
+            telemetryInterval = TELEMETRY_INTERVAL;
+
             // Publish online status
             StaticJsonDocument<128> statusDoc;
             statusDoc["device_id"] = DEVICE_ID;
@@ -290,7 +308,23 @@ void mqttCallback(char *topic, byte *payload, unsigned int length)
         const char *action = doc["action"];
         Serial.print("[MQTT] Action found: ");
         Serial.println(action);
-        handleCommand(action);
+
+        if (strcmp(action, "drive") == 0)
+        {
+            handleDrive(doc["t"] | 0, doc["s"] | 0);
+        }
+        else if (strcmp(action, "renew") == 0)
+        {
+            handleRenew(doc["lease"] | "", doc["seq"] | 0);
+        }
+        else if (strcmp(action, "rate") == 0)
+        {
+            handleRate(doc["interval_ms"] | 0UL);
+        }
+        else
+        {
+            handleCommand(action, doc["command_id"] | "", doc["lease_ms"] | 0UL);
+        }
     }
     else if (doc.containsKey("test"))
     {
@@ -307,11 +341,30 @@ void mqttCallback(char *topic, byte *payload, unsigned int length)
 // ============================================
 // Command Handler - Control Motors/LEDs
 // ============================================
-void handleCommand(const char *command)
+void handleCommand(const char *command, const char *commandId, unsigned long leaseMs)
 {
     Serial.print("[CMD] Executing command: ");
     Serial.println(command);
 
+    // A discrete command takes over from joystick mode
+    driveActive = false;
+
+    // Movement commands sent with lease_ms only run while the app keeps renewing them.
+    // Any other command (including stop) releases the lease.
+    if (leaseMs > 0 && strcmp(command, "stop") != 0)
+    {
+        leaseId = String(commandId);
+        leaseCommand = String(command);
+        leaseActive = true;
+        leaseDuration = leaseMs;
+        leaseRenewedAt = millis();
+    }
+    else
+    {
+        leaseId = "";
+        leaseActive = false;
+    }
+
     // Update current command and reset timer
     currentCommand = String(command);
     commandStartTime = millis();
@@ -321,17 +374,101 @@ void handleCommand(const char *command)
     Serial.println(currentCommand);
 
     // Send command acknowledgment
-    StaticJsonDocument<128> response;
+    StaticJsonDocument<192> response;
     response["device_id"] = DEVICE_ID;
     response["command"] = command;
+    response["command_id"] = commandId;
+    response["status"] = "executed";
+    response["timestamp"] = millis();
+
+    char responseBuffer[192];
+    serializeJson(response, responseBuffer);
+    mqttClient.publish(TOPIC_RESPONSE, responseBuffer);
+}
+
+// ============================================
+// Drive Handler - Joystick Setpoints
+// ============================================
+// Setpoints arrive many times per second, so no ack is published here.
+// The LEDs are digital, so the analog setpoint is mapped to the dominant direction.
+void handleDrive(int throttle, int steering)
+{
+    driveActive = true;
+    leaseId = "";
+    leaseActive = false;
+    lastDriveFrameTime = millis();
+
+    if (abs(throttle) < DRIVE_DEADZONE && abs(steering) < DRIVE_DEADZONE)
+    {
+        currentCommand = "stop";
+    }
+    else if (abs(throttle) >= abs(steering))
+    {
+        currentCommand = throttle > 0 ? "forward" : "backward";
+    }
+    else
+    {
+        currentCommand = steering > 0 ? "right" : "left";
+    }
+    commandStartTime = millis();
+}
+
+// ============================================
+// Lease Renewal Handler
+// ============================================
+// Renewals for an older lease (e.g. delayed behind a stop) are ignored. A renewal for the
+// current lease that arrives after expiry resumes the held command, so a burst of lost
+// renewals only causes a short stutter instead of a stuck stop.
+void handleRenew(const char *lease, int seq)
+{
+    if (leaseId.length() == 0 || leaseId != lease)
+    {
+        return;
+    }
+
+    leaseRenewedAt = millis();
+    commandStartTime = millis(); // a held command should not hit COMMAND_DURATION
+
+    if (!leaseActive)
+    {
+        leaseActive = true;
+        currentCommand = leaseCommand;
+        Serial.println();
+        Serial.println("[LEASE] Renewed after expiry - resuming");
+    }
+
+    // Compact ack so the app can track lease health
+    StaticJsonDocument<192> response;
+    response["device_id"] = DEVICE_ID;
+    response["command"] = "renew";
+    response["lease"] = lease;
+    response["seq"] = seq;
     response["status"] = "executed";
     response["timestamp"] = millis();
 
-    char responseBuffer[128];
+    char responseBuffer[192];
     serializeJson(response, responseBuffer);
     mqttClient.publish(TOPIC_RESPONSE, responseBuffer);
 }
 
+// ============================================
+// Telemetry Rate Handler
+// ============================================
+// The app asks for fast telemetry while driving and a trickle in the background.
+// No ack: the app confirms the new rate from the "timestamp" of the following frames.
+void handleRate(unsigned long intervalMs)
+{
+    if (intervalMs == 0)
+    {
+        return;
+    }
+    telemetryInterval = constrain(intervalMs, (unsigned long)TELEMETRY_INTERVAL_MIN, (unsigned long)TELEMETRY_INTERVAL_MAX);
+
+    Serial.print("[RATE] Telemetry every ");
+    Serial.print(telemetryInterval);
+    Serial.println(" ms");
+}
+
 // ============================================
 // Telemetry - Send Sensor Data
 // ============================================
@@ -517,6 +654,24 @@ void updateMotorLEDs()
         Serial.println("[CMD] Command timeout - Auto STOP");
     }
 
+    // Lease expired - the stop may have been lost, or the link is down
+    if (leaseActive && (millis() - leaseRenewedAt) > leaseDuration)
+    {
+        leaseActive = false;
+        currentCommand = "stop";
+        Serial.println();
+        Serial.println("[LEASE] Lease expired - Auto STOP");
+    }
+
+    // Joystick failsafe - heartbeat frames stopped arriving
+    if (driveActive && (millis() - lastDriveFrameTime) > DRIVE_FAILSAFE_TIMEOUT)
+    {
+        driveActive = false;
+        currentCommand = "stop";
+        Serial.println();
+        Serial.println("[DRIVE] Heartbeat lost - Failsafe STOP");
+    }
+
     // Only update LEDs if command has changed
     if (currentCommand != previousCommand)
     {